@@ -42,6 +42,7 @@ import com.termux.shared.logger.Logger;
 import com.termux.shared.notification.NotificationUtils;
 import com.termux.shared.android.PermissionUtils;
 import com.termux.shared.data.DataUtils;
+import com.termux.shared.file.FileUtils;
 import com.termux.shared.shell.command.ExecutionCommand;
 import com.termux.shared.shell.command.ExecutionCommand.Runner;
 import com.termux.shared.shell.command.ExecutionCommand.ShellCreateMode;
@@ -49,6 +50,7 @@ import com.termux.terminal.TerminalEmulator;
 import com.termux.terminal.TerminalSession;
 import com.termux.terminal.TerminalSessionClient;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -105,6 +107,9 @@ public final class TermuxService extends Service implements AppShell.AppShellCli
     /** If the user has executed the {@link TERMUX_SERVICE#ACTION_STOP_SERVICE} intent. */
     boolean mWantsToStop = false;
 
+    /** The directory in the cache directory for files of sessions with an unlimited transcript. */
+    private static final String TERMINAL_TRANSCRIPTS_DIR_NAME = "terminal-transcripts";
+
     private static final String LOG_TAG = "TermuxService";
 
     @Override
@@ -120,6 +125,9 @@ public final class TermuxService extends Service implements AppShell.AppShellCli
         runStartForeground();
 
         SystemEventReceiver.registerPackageUpdateEvents(this);
+
+        // Delete transcript files left behind if the app was killed while sessions were running
+        FileUtils.deleteDirectoryFile("terminal transcripts directory", getTerminalTranscriptsDirectory().getAbsolutePath(), true);
     }
 
     @SuppressLint("Wakelock")
@@ -584,6 +592,9 @@ public final class TermuxService extends Service implements AppShell.AppShellCli
 
         executionCommand.setShellCommandShellEnvironment = true;
         executionCommand.terminalTranscriptRows = mProperties.getTerminalTranscriptRows();
+        if (mProperties.isTerminalTranscriptUnlimited() && executionCommand.id != null)
+            executionCommand.terminalTranscriptSpillFilePath = new File(getTerminalTranscriptsDirectory(),
+                executionCommand.id + ".transcript").getAbsolutePath();
 
         if (Logger.getLogLevel() >= Logger.LOG_LEVEL_VERBOSE)
             Logger.logVerboseExtended(LOG_TAG, executionCommand.toString());
@@ -605,6 +616,9 @@ public final class TermuxService extends Service implements AppShell.AppShellCli
             return null;
         }
 
+        // Must be set before the emulator is initialized when the session is first shown
+        newTermuxSession.getTerminalSession().setEmulationThreadEnabled(mProperties.isTerminalEmulationThreadEnabled());
+
         mShellManager.mTermuxSessions.add(newTermuxSession);
 
         // Remove the execution command from the pending plugin execution commands list since it has
@@ -625,6 +639,10 @@ public final class TermuxService extends Service implements AppShell.AppShellCli
         return newTermuxSession;
     }
 
+    private File getTerminalTranscriptsDirectory() {
+        return new File(getCacheDir(), TERMINAL_TRANSCRIPTS_DIR_NAME);
+    }
+
     /** Remove a TermuxSession. */
     public synchronized int removeTermuxSession(TerminalSession sessionToRemove) {
         int index = getIndexOfSession(sessionToRemove);
@@ -648,6 +666,7 @@ public final class TermuxService extends Service implements AppShell.AppShellCli
                 TermuxPluginUtils.processPluginExecutionCommandResult(this, LOG_TAG, executionCommand);
 
             mShellManager.mTermuxSessions.remove(termuxSession);
+            termuxSession.getTerminalSession().closeTranscriptSpillFile();
 
             // Notify {@link TermuxSessionsListViewController} that sessions list has been updated if
             // activity in is foreground
@@ -41,14 +41,21 @@ import com.termux.shared.termux.data.TermuxUrlUtils;
 import com.termux.shared.view.KeyboardUtils;
 import com.termux.shared.view.ViewUtils;
 import com.termux.terminal.KeyHandler;
+import com.termux.terminal.LogicalLine;
 import com.termux.terminal.TerminalEmulator;
 import com.termux.terminal.TerminalSession;
+import com.termux.terminal.TranscriptWriter;
 
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Date;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 
 import androidx.drawerlayout.widget.DrawerLayout;
@@ -71,6 +78,9 @@ public class TermuxTerminalViewClient extends TermuxTerminalViewClientBase {
 
     private List<KeyboardShortcut> mSessionShortcuts;
 
+    /** The directory session output is recorded to, see {@link #toggleSessionRecording()}. */
+    private static final String RECORDINGS_DIR_PATH = TermuxConstants.TERMUX_DATA_HOME_DIR_PATH + "/recordings";
+
     private static final String LOG_TAG = "TermuxTerminalViewClient";
 
     public TermuxTerminalViewClient(TermuxActivity activity, TermuxTerminalSessionActivityClient termuxTerminalSessionActivityClient) {
@@ -188,11 +198,12 @@ public class TermuxTerminalViewClient extends TermuxTerminalViewClientBase {
 
         if (mActivity.getProperties().shouldOpenTerminalTranscriptURLOnClick()) {
             int[] columnAndRow = mActivity.getTerminalView().getColumnAndRow(e, true);
-            String wordAtTap = term.getScreen().getWordAtLocation(columnAndRow[0], columnAndRow[1]);
-            LinkedHashSet<CharSequence> urlSet = TermuxUrlUtils.extractUrls(wordAtTap);
-
-            if (!urlSet.isEmpty()) {
-                String url = (String) urlSet.iterator().next();
+            LogicalLine line;
+            synchronized (term) {
+                line = term.getScreen().getLogicalLine(columnAndRow[1], true, null);
+            }
+            String url = getUrlAtIndex(line.getText(), line.indexOfCell(columnAndRow[1], columnAndRow[0]));
+            if (url != null) {
                 ShareUtils.openUrl(mActivity, url);
                 return;
             }
@@ -206,6 +217,29 @@ public class TermuxTerminalViewClient extends TermuxTerminalViewClientBase {
         }
     }
 
+    @Override
+    public boolean onHyperlinkClicked(String uri) {
+        // Like urls in the transcript, only opened if enabled, and confirmed first since the text shown for a
+        // hyperlink may differ from where it leads:
+        if (!mActivity.getProperties().shouldOpenTerminalTranscriptURLOnClick()) return false;
+        MessageDialogUtils.showMessage(mActivity, mActivity.getString(R.string.title_open_hyperlink_dialog), uri,
+            mActivity.getString(R.string.action_open_hyperlink), (dialog, which) -> ShareUtils.openUrl(mActivity, uri),
+            mActivity.getString(R.string.action_cancel), null,
+            null);
+        return true;
+    }
+
+    /** Get the url in a line of text which covers a char, or null if none. */
+    private static String getUrlAtIndex(String text, int index) {
+        if (index == -1) return null;
+        for (CharSequence url : TermuxUrlUtils.extractUrls(text)) {
+            for (int start = text.indexOf(url.toString()); start != -1 && start <= index; start = text.indexOf(url.toString(), start + 1)) {
+                if (index < start + url.length()) return url.toString();
+            }
+        }
+        return null;
+    }
+
     @Override
     public boolean shouldBackButtonBeMappedToEscape() {
         return mActivity.getProperties().isBackKeyTheEscapeKey();
@@ -675,13 +709,39 @@ public class TermuxTerminalViewClient extends TermuxTerminalViewClientBase {
         TerminalSession session = mActivity.getCurrentSession();
         if (session == null) return;
 
-        String transcriptText = ShellUtils.getTerminalSessionTranscriptText(session, false, true);
-        if (transcriptText == null) return;
+        if (session.getEmulator() == null) return;
+
+        // Share a uri which streams the transcript as it is read instead of the text itself, which can be too large
+        // for a binder transaction, see https://github.com/termux/termux-app/issues/1166.
+        ShareUtils.shareStream(mActivity, mActivity.getString(R.string.title_share_transcript),
+            TermuxTranscriptProvider.getTranscriptUri(session, TranscriptWriter.FORMAT_TEXT), "text/plain",
+            mActivity.getString(R.string.title_share_transcript_with));
+    }
 
-        // See https://github.com/termux/termux-app/issues/1166.
-        transcriptText = DataUtils.getTruncatedCommandOutput(transcriptText, DataUtils.TRANSACTION_SIZE_LIMIT_IN_BYTES, false, true, false).trim();
-        ShareUtils.shareText(mActivity, mActivity.getString(R.string.title_share_transcript),
-            transcriptText, mActivity.getString(R.string.title_share_transcript_with));
+    /**
+     * Start or stop recording the output of the current session to a file in {@link #RECORDINGS_DIR_PATH}, which can
+     * be replayed with {@link com.termux.terminal.PtyReplay} to reproduce performance problems.
+     */
+    public void toggleSessionRecording() {
+        TerminalSession session = mActivity.getCurrentSession();
+        if (session == null || session.getEmulator() == null) return;
+
+        if (session.isRecording()) {
+            session.stopRecording();
+            Logger.showToast(mActivity, mActivity.getString(R.string.msg_recording_stopped), true);
+            return;
+        }
+
+        File file = new File(RECORDINGS_DIR_PATH, new SimpleDateFormat("yyyy-MM-dd_HH-mm-ss", Locale.US).format(new Date()) + ".rec");
+        try {
+            if (!file.getParentFile().isDirectory() && !file.getParentFile().mkdirs())
+                throw new IOException("Failed to create directory " + file.getParent());
+            session.startRecording(file);
+            Logger.showToast(mActivity, mActivity.getString(R.string.msg_recording_started, file.getAbsolutePath()), true);
+        } catch (IOException e) {
+            Logger.logStackTraceWithMessage(LOG_TAG, "Failed to start recording to " + file, e);
+            Logger.showToast(mActivity, mActivity.getString(R.string.error_recording_failed), true);
+        }
     }
 
     public void shareSelectedText() {
@@ -0,0 +1,165 @@
+package com.termux.app.terminal;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.provider.OpenableColumns;
+
+import androidx.annotation.NonNull;
+
+import com.termux.shared.logger.Logger;
+import com.termux.shared.termux.TermuxConstants;
+import com.termux.terminal.TerminalEmulator;
+import com.termux.terminal.TerminalSession;
+import com.termux.terminal.TranscriptWriter;
+
+import java.io.BufferedWriter;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.ref.WeakReference;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A content provider which streams the transcript of a {@link TerminalSession} through a pipe as it is read, with a
+ * {@link TranscriptWriter}, so that sharing a large transcript neither builds it in memory nor passes it through a
+ * binder transaction.
+ * <p>
+ * The provider is not exported. Uris are created with {@link #getTranscriptUri(TerminalSession, int)}, which registers
+ * the session, and are granted to the receiving app by the share intent. The last path segment selects the format.
+ */
+public class TermuxTranscriptProvider extends ContentProvider {
+
+    public static final String AUTHORITY = TermuxConstants.TERMUX_PACKAGE_NAME + ".transcript";
+
+    private static final String LOG_TAG = "TermuxTranscriptProvider";
+
+    private static final String FILE_NAME_TEXT = "transcript.txt";
+    private static final String FILE_NAME_ANSI = "transcript.ans";
+    private static final String FILE_NAME_HTML = "transcript.html";
+
+    /** The sessions for which uris have been created, by {@link TerminalSession#mHandle}. */
+    private static final Map<String, WeakReference<TerminalSession>> SESSIONS = new HashMap<>();
+
+    /**
+     * Get the uri of the transcript of a session.
+     *
+     * @param format one of {@link TranscriptWriter#FORMAT_TEXT}, {@link TranscriptWriter#FORMAT_ANSI} and
+     *               {@link TranscriptWriter#FORMAT_HTML}.
+     */
+    public static Uri getTranscriptUri(@NonNull TerminalSession session, int format) {
+        final String fileName;
+        switch (format) {
+            case TranscriptWriter.FORMAT_TEXT:
+                fileName = FILE_NAME_TEXT;
+                break;
+            case TranscriptWriter.FORMAT_ANSI:
+                fileName = FILE_NAME_ANSI;
+                break;
+            case TranscriptWriter.FORMAT_HTML:
+                fileName = FILE_NAME_HTML;
+                break;
+            default:
+                throw new IllegalArgumentException("Invalid format: " + format);
+        }
+        synchronized (SESSIONS) {
+            SESSIONS.put(session.mHandle, new WeakReference<>(session));
+        }
+        return new Uri.Builder().scheme("content").authority(AUTHORITY)
+            .appendPath(session.mHandle).appendPath(fileName).build();
+    }
+
+    /** Get the registered session of a uri, or null if invalid or the session has been garbage collected. */
+    private static TerminalSession getSession(Uri uri) {
+        List<String> segments = uri.getPathSegments();
+        if (segments.size() != 2) return null;
+        synchronized (SESSIONS) {
+            WeakReference<TerminalSession> reference = SESSIONS.get(segments.get(0));
+            return (reference == null) ? null : reference.get();
+        }
+    }
+
+    private static int getFormat(Uri uri) {
+        final String fileName = uri.getLastPathSegment();
+        if (FILE_NAME_ANSI.equals(fileName)) return TranscriptWriter.FORMAT_ANSI;
+        if (FILE_NAME_HTML.equals(fileName)) return TranscriptWriter.FORMAT_HTML;
+        return TranscriptWriter.FORMAT_TEXT;
+    }
+
+    @Override
+    public boolean onCreate() {
+        return true;
+    }
+
+    @Override
+    public Cursor query(@NonNull Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+        if (getSession(uri) == null) return null;
+        if (projection == null) projection = new String[]{OpenableColumns.DISPLAY_NAME, OpenableColumns.SIZE};
+
+        Object[] row = new Object[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            // The size is not known until the transcript has been written, so it is left null:
+            if (OpenableColumns.DISPLAY_NAME.equals(projection[i])) row[i] = uri.getLastPathSegment();
+        }
+        MatrixCursor cursor = new MatrixCursor(projection);
+        cursor.addRow(row);
+        return cursor;
+    }
+
+    @Override
+    public String getType(@NonNull Uri uri) {
+        return (getFormat(uri) == TranscriptWriter.FORMAT_HTML) ? "text/html" : "text/plain";
+    }
+
+    @Override
+    public ParcelFileDescriptor openFile(@NonNull Uri uri, @NonNull String mode) throws FileNotFoundException {
+        if (!"r".equals(mode)) throw new FileNotFoundException("Transcripts can only be read: " + uri);
+        final TerminalSession session = getSession(uri);
+        final TerminalEmulator emulator = (session == null) ? null : session.getEmulator();
+        if (emulator == null) throw new FileNotFoundException("No transcript for " + uri);
+
+        final ParcelFileDescriptor[] pipe;
+        try {
+            pipe = ParcelFileDescriptor.createReliablePipe();
+        } catch (IOException e) {
+            throw new FileNotFoundException("Failed to create pipe: " + e.getMessage());
+        }
+        final TranscriptWriter transcriptWriter = new TranscriptWriter(emulator, getFormat(uri), false);
+        new Thread("TranscriptWriter") {
+            @Override
+            public void run() {
+                try (Writer out = new BufferedWriter(new OutputStreamWriter(
+                    new ParcelFileDescriptor.AutoCloseOutputStream(pipe[1]), StandardCharsets.UTF_8))) {
+                    transcriptWriter.write(out);
+                } catch (IOException e) {
+                    // Normally the reader closing the pipe early.
+                    Logger.logDebug(LOG_TAG, "Writing transcript failed: " + e.getMessage());
+                }
+            }
+        }.start();
+        return pipe[0];
+    }
+
+    @Override
+    public Uri insert(@NonNull Uri uri, ContentValues values) {
+        return null;
+    }
+
+    @Override
+    public int delete(@NonNull Uri uri, String selection, String[] selectionArgs) {
+        return 0;
+    }
+
+    @Override
+    public int update(@NonNull Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        return 0;
+    }
+
+}
@@ -0,0 +1,155 @@
+package com.termux.terminal;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Deterministic pty output used as input by the benchmarks. The same seed always produces the same
+ * bytes so that results from different runs and revisions are comparable.
+ */
+public final class BenchmarkInput {
+
+    /** The size of a read from the pty in {@link TerminalSession}, which is what append() is fed with. */
+    static final int CHUNK_SIZE = 4096;
+
+    private static final long SEED = 0x7465726d7578L;
+
+    private static final String CJK = "你好世界日本語한국어漢字かなカナ";
+    private static final String[] EMOJI = {"😀", "🚀", "🎉", "👍", "❤️", "🇸🇪"};
+    private static final int[] SGR_ATTRIBUTES = {1, 2, 3, 4, 5, 7, 9, 22, 23, 24};
+
+    public enum Scenario {
+        /** Plain printable ASCII lines, like cat of a source file or build log. */
+        ASCII_FLOOD,
+        /** Short words each with SGR attribute and 256/true color changes, like colored ls or compiler output. */
+        SGR_COLORED,
+        /** Wide east asian characters, emoji with surrogate pairs and combining characters. */
+        CJK_EMOJI,
+        /** Cursor positioning and scrolling inside a top and bottom margin, like a full screen editor or pager. */
+        SCROLL_REGION,
+        /** A colored progress bar redrawn in place, which is mostly short escape sequences like of a package manager. */
+        PROGRESS_BAR
+    }
+
+    private BenchmarkInput() {
+    }
+
+    static byte[] generate(Scenario scenario, int size) {
+        Random random = new Random(SEED);
+        StringBuilder builder = new StringBuilder(size + 256);
+        while (builder.length() < size) {
+            switch (scenario) {
+                case ASCII_FLOOD:
+                    appendAsciiLine(builder, random);
+                    break;
+                case SGR_COLORED:
+                    appendSgrLine(builder, random);
+                    break;
+                case CJK_EMOJI:
+                    appendCjkLine(builder, random);
+                    break;
+                case SCROLL_REGION:
+                    appendScrollRegionUpdate(builder, random);
+                    break;
+                case PROGRESS_BAR:
+                    appendProgressBarUpdate(builder, random);
+                    break;
+            }
+        }
+        return builder.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** Split input into {@link #CHUNK_SIZE} reads. The last chunk may be shorter. */
+    static byte[][] split(byte[] input) {
+        byte[][] chunks = new byte[(input.length + CHUNK_SIZE - 1) / CHUNK_SIZE][];
+        for (int i = 0; i < chunks.length; i++) {
+            int start = i * CHUNK_SIZE;
+            chunks[i] = new byte[Math.min(CHUNK_SIZE, input.length - start)];
+            System.arraycopy(input, start, chunks[i], 0, chunks[i].length);
+        }
+        return chunks;
+    }
+
+    private static void appendAsciiLine(StringBuilder builder, Random random) {
+        int length = random.nextInt(120);
+        for (int i = 0; i < length; i++) builder.append((char) (' ' + random.nextInt(95)));
+        builder.append("\r\n");
+    }
+
+    private static void appendSgrLine(StringBuilder builder, Random random) {
+        int words = 1 + random.nextInt(12);
+        for (int i = 0; i < words; i++) {
+            switch (random.nextInt(4)) {
+                case 0:
+                    builder.append("\033[").append(SGR_ATTRIBUTES[random.nextInt(SGR_ATTRIBUTES.length)]).append(';').append(30 + random.nextInt(8)).append('m');
+                    break;
+                case 1:
+                    builder.append("\033[38;5;").append(random.nextInt(256)).append('m');
+                    break;
+                case 2:
+                    builder.append("\033[38;2;").append(random.nextInt(256)).append(';').append(random.nextInt(256))
+                        .append(';').append(random.nextInt(256)).append(";48;5;").append(random.nextInt(256)).append('m');
+                    break;
+                default:
+                    builder.append("\033[0m");
+                    break;
+            }
+            int length = 1 + random.nextInt(10);
+            for (int j = 0; j < length; j++) builder.append((char) ('a' + random.nextInt(26)));
+            builder.append(' ');
+        }
+        builder.append("\033[0m\r\n");
+    }
+
+    private static void appendCjkLine(StringBuilder builder, Random random) {
+        int length = random.nextInt(60);
+        for (int i = 0; i < length; i++) {
+            int kind = random.nextInt(10);
+            if (kind < 6) {
+                builder.append(CJK.charAt(random.nextInt(CJK.length())));
+            } else if (kind < 8) {
+                builder.append(EMOJI[random.nextInt(EMOJI.length)]);
+            } else if (kind < 9) {
+                // Latin letter with a combining acute accent.
+                builder.append((char) ('a' + random.nextInt(26))).append('́');
+            } else {
+                builder.append(' ');
+            }
+        }
+        builder.append("\r\n");
+    }
+
+    private static void appendScrollRegionUpdate(StringBuilder builder, Random random) {
+        // Set margins, write at the bottom of the region and scroll it in both directions.
+        int top = 1 + random.nextInt(4);
+        int bottom = 16 + random.nextInt(8);
+        builder.append("\033[").append(top).append(';').append(bottom).append('r');
+        builder.append("\033[").append(bottom).append(";1H");
+        int lines = 1 + random.nextInt(8);
+        for (int i = 0; i < lines; i++) {
+            builder.append('\n').append("\033[2K");
+            int length = random.nextInt(80);
+            for (int j = 0; j < length; j++) builder.append((char) ('!' + random.nextInt(94)));
+        }
+        builder.append("\033[").append(top).append(";1H").append("\033M");
+        builder.append("\033[").append(1 + random.nextInt(3)).append('L');
+        builder.append("\033[").append(1 + random.nextInt(3)).append('M');
+        builder.append("\033[").append(1 + random.nextInt(3)).append('S');
+        builder.append("\033[").append(1 + random.nextInt(3)).append('T');
+        builder.append("\033[r");
+    }
+
+    private static void appendProgressBarUpdate(StringBuilder builder, Random random) {
+        // Hide the cursor, erase the line and redraw the bar with the done part in one color and the rest in another.
+        int done = random.nextInt(41);
+        builder.append("\033[?25l\r\033[K\033[1;32m").append(random.nextInt(100)).append("%\033[0m [\033[38;5;")
+            .append(random.nextInt(256)).append('m');
+        for (int i = 0; i < done; i++) builder.append('#');
+        builder.append("\033[38;2;").append(random.nextInt(256)).append(';').append(random.nextInt(256)).append(';')
+            .append(random.nextInt(256)).append('m');
+        for (int i = done; i < 40; i++) builder.append('-');
+        builder.append("\033[0m] \033[2m").append(random.nextInt(10000)).append(" kB/s\033[22m\033[?25h");
+        if (random.nextInt(20) == 0) builder.append("\r\n");
+    }
+
+}
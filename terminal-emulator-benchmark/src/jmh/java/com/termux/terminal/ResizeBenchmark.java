@@ -0,0 +1,53 @@
+package com.termux.terminal;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of reflowing a full transcript when the number of columns changes, like when
+ * rotating the device or changing the font size. Each operation resizes to the other column count.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class ResizeBenchmark {
+
+    @Param({"ASCII_FLOOD", "CJK_EMOJI"})
+    public BenchmarkInput.Scenario scenario;
+
+    @Param({"2000"})
+    public int transcriptRows;
+
+    private static final int ROWS = 24;
+    private static final int NARROW_COLUMNS = 60;
+    private static final int WIDE_COLUMNS = 100;
+
+    private TerminalEmulator mEmulator;
+    private boolean mWide;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        mEmulator = new TerminalEmulator(new BenchmarkTerminalOutput(), NARROW_COLUMNS, ROWS, 13, 15, transcriptRows, null);
+        // Fill the whole transcript so that every resize reflows the maximum amount of history.
+        byte[] input = BenchmarkInput.generate(scenario, transcriptRows * WIDE_COLUMNS);
+        for (byte[] chunk : BenchmarkInput.split(input)) mEmulator.append(chunk, chunk.length);
+        mWide = false;
+    }
+
+    @Benchmark
+    public TerminalEmulator resize() {
+        mWide = !mWide;
+        mEmulator.resize(mWide ? WIDE_COLUMNS : NARROW_COLUMNS, ROWS, 13, 15);
+        return mEmulator;
+    }
+
+}
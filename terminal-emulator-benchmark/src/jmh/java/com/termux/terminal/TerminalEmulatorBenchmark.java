@@ -0,0 +1,75 @@
+package com.termux.terminal;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link TerminalEmulator#append(byte[], int)} throughput for different kinds of pty output,
+ * fed in the same 4096 byte chunks as {@link TerminalSession} reads them.
+ *
+ * The "megabytes" secondary result is the throughput in MB/s, while allocation rate per scenario is
+ * reported by the gc profiler as "gc.alloc.rate" (MB/s) and "gc.alloc.rate.norm" (bytes per operation).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+public class TerminalEmulatorBenchmark {
+
+    /** Amount of input processed per benchmark operation. */
+    static final int INPUT_SIZE = 1024 * 1024;
+
+    @Param
+    public BenchmarkInput.Scenario scenario;
+
+    @Param({"80"})
+    public int columns;
+
+    @Param({"24"})
+    public int rows;
+
+    @Param({"2000"})
+    public int transcriptRows;
+
+    private byte[][] mChunks;
+    private int mInputLength;
+    private TerminalEmulator mEmulator;
+
+    /** Counters reported per second next to the primary result. */
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Throughput {
+        public double megabytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            megabytes = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        byte[] input = BenchmarkInput.generate(scenario, INPUT_SIZE);
+        mInputLength = input.length;
+        mChunks = BenchmarkInput.split(input);
+        mEmulator = new TerminalEmulator(new BenchmarkTerminalOutput(), columns, rows, 13, 15, transcriptRows, null);
+    }
+
+    @Benchmark
+    public TerminalEmulator append(Throughput throughput) {
+        TerminalEmulator emulator = mEmulator;
+        for (byte[] chunk : mChunks) emulator.append(chunk, chunk.length);
+        throughput.megabytes += mInputLength / (1024. * 1024.);
+        return emulator;
+    }
+
+}
@@ -0,0 +1,99 @@
+package com.termux.terminal;
+
+import java.util.Arrays;
+
+/**
+ * Decodes base64 in escape sequences, like the selection data of OSC 52, without android.util.Base64, and since
+ * java.util.Base64 requires API 26.
+ * <p>
+ * Whitespace is skipped and the trailing '=' padding is optional, while other chars outside of the standard alphabet
+ * are invalid.
+ * <p>
+ * An instance decodes a char at a time as it is received, into a buffer which grows up to a limit, so that large
+ * payloads need not first be collected into a string.
+ */
+final class Base64Decoder {
+
+    /** The 6-bit value of each base64 char, or -1 if not in the alphabet. */
+    private static final byte[] VALUES = new byte[128];
+
+    static {
+        Arrays.fill(VALUES, (byte) -1);
+        final String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        for (int i = 0; i < alphabet.length(); i++) VALUES[alphabet.charAt(i)] = (byte) i;
+    }
+
+    private final int mMaxBytes;
+    private byte[] mOutput = new byte[256];
+    private int mOutputLength;
+    private int mBits, mBitCount;
+    private boolean mPadded;
+    /** The number of chars passed to {@link #decode(int)}, to report where invalid input is. */
+    private int mInputLength;
+    /** Why the input is invalid, or null if valid so far. Further input is ignored once set. */
+    private String mError;
+
+    /** @param maxBytes the max number of decoded bytes, beyond which the input is invalid. */
+    Base64Decoder(int maxBytes) {
+        if (maxBytes < 0) throw new IllegalArgumentException("Negative max bytes: " + maxBytes);
+        mMaxBytes = maxBytes;
+    }
+
+    /** Decode a base64 string, throwing an {@link IllegalArgumentException} if invalid. */
+    static byte[] decode(String input) {
+        final Base64Decoder decoder = new Base64Decoder(Integer.MAX_VALUE);
+        for (int i = 0; i < input.length(); i++) decoder.decode(input.charAt(i));
+        decoder.finish();
+        return decoder.toByteArray();
+    }
+
+    /** Decode the next char of input. Invalid input is not reported until {@link #finish()}. */
+    void decode(int c) {
+        final int index = mInputLength++;
+        if (mError != null) return;
+        if (c == ' ' || c == '\t' || c == '\r' || c == '\n') return;
+        if (c == '=') {
+            mPadded = true;
+            return;
+        }
+        final int value = (c >= 0 && c < 128) ? VALUES[c] : -1;
+        if (value == -1 || mPadded) {
+            mError = "Invalid base64 at index " + index;
+            return;
+        }
+        mBits = (mBits << 6) | value;
+        mBitCount += 6;
+        if (mBitCount >= 8) {
+            mBitCount -= 8;
+            if (mOutputLength == mMaxBytes) {
+                mError = "Base64 decodes to more than " + mMaxBytes + " bytes";
+                return;
+            }
+            if (mOutputLength == mOutput.length) mOutput = Arrays.copyOf(mOutput, (int) Math.min(mMaxBytes, mOutput.length * 2L));
+            mOutput[mOutputLength++] = (byte) (mBits >> mBitCount);
+        }
+    }
+
+    /** Check that the input ended validly, throwing an {@link IllegalArgumentException} if not. */
+    void finish() {
+        if (mError != null) throw new IllegalArgumentException(mError);
+        // A single char left over only holds 6 bits, which is not a whole byte:
+        if (mBitCount == 6) throw new IllegalArgumentException("Truncated base64");
+    }
+
+    /** The buffer holding the decoded bytes, which may be longer than {@link #getOutputLength()}. */
+    byte[] getOutput() {
+        return mOutput;
+    }
+
+    /** The number of bytes decoded. */
+    int getOutputLength() {
+        return mOutputLength;
+    }
+
+    /** The decoded bytes, which is the buffer itself if exactly filled, to avoid copying large payloads. */
+    byte[] toByteArray() {
+        return (mOutputLength == mOutput.length) ? mOutput : Arrays.copyOf(mOutput, mOutputLength);
+    }
+
+}
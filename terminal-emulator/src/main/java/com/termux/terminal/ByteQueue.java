@@ -1,58 +1,97 @@
 package com.termux.terminal;
 
-/** A circular byte buffer allowing one producer and one consumer thread. */
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A lock-free circular byte buffer allowing one producer and one consumer thread.
+ * <p>
+ * The reader only writes {@link #mHead} and the writer only writes {@link #mTail}, both of which count the total
+ * number of bytes passed through the queue, so no locking is needed as long as there is only a single thread reading
+ * and a single thread writing at a time. A thread only parks when the buffer is empty (for the reader) or full (for the
+ * writer), and is unparked by the other side once it has made progress.
+ */
 final class ByteQueue {
 
     private final byte[] mBuffer;
-    private int mHead;
-    private int mStoredBytes;
-    private boolean mOpen = true;
+    /** The capacity minus one, used to map {@link #mHead} and {@link #mTail} to buffer indices. */
+    private final int mMask;
+    /** The total number of bytes read. Only written by the reader thread. */
+    private volatile long mHead;
+    /** The total number of bytes written. Only written by the writer thread. */
+    private volatile long mTail;
+    private volatile boolean mOpen = true;
+    /** The reader and writer threads while parked waiting for the buffer to not be empty or full, else null. */
+    private volatile Thread mParkedReader;
+    private volatile Thread mParkedWriter;
 
+    /** Create a queue holding at least the specified number of bytes, rounded up to a power of two. */
     public ByteQueue(int size) {
-        mBuffer = new byte[size];
+        if (size <= 0 || size > (1 << 30)) throw new IllegalArgumentException("Invalid size: " + size);
+        final int capacity = Integer.bitCount(size) == 1 ? size : Integer.highestOneBit(size) << 1;
+        mBuffer = new byte[capacity];
+        mMask = capacity - 1;
+    }
+
+    /** The number of bytes which can be stored before a write blocks. */
+    public int getCapacity() {
+        return mBuffer.length;
+    }
+
+    /** The number of bytes which can currently be read without blocking. */
+    public int available() {
+        return (int) (mTail - mHead);
     }
 
-    public synchronized void close() {
+    public void close() {
         mOpen = false;
-        notify();
+        LockSupport.unpark(mParkedReader);
+        LockSupport.unpark(mParkedWriter);
     }
 
-    public synchronized int read(byte[] buffer, boolean block) {
-        while (mStoredBytes == 0 && mOpen) {
-            if (block) {
-                try {
-                    wait();
-                } catch (InterruptedException e) {
-                    // Ignore.
-                }
-            } else {
-                return 0;
-            }
+    /** Read into the whole of the provided buffer, see {@link #read(byte[], int, int, boolean)}. */
+    public int read(byte[] buffer, boolean block) {
+        return read(buffer, 0, buffer.length, block);
+    }
+
+    /**
+     * Read as many bytes as are available, up to the specified length, so that a buffer at least as large as
+     * {@link #getCapacity()} drains the queue in one call.
+     * <p/>
+     * Returns the number of bytes read, 0 if non-blocking and the queue is empty, or -1 if the queue has been closed.
+     */
+    public int read(byte[] buffer, int offset, int length, boolean block) {
+        if (length + offset > buffer.length) {
+            throw new IllegalArgumentException("length + offset > buffer.length");
+        } else if (length <= 0) {
+            throw new IllegalArgumentException("length <= 0");
         }
-        if (!mOpen) return -1;
 
-        int totalRead = 0;
-        int bufferLength = mBuffer.length;
-        boolean wasFull = bufferLength == mStoredBytes;
-        int length = buffer.length;
-        int offset = 0;
-        while (length > 0 && mStoredBytes > 0) {
-            int oneRun = Math.min(bufferLength - mHead, mStoredBytes);
-            int bytesToCopy = Math.min(length, oneRun);
-            System.arraycopy(mBuffer, mHead, buffer, offset, bytesToCopy);
-            mHead += bytesToCopy;
-            if (mHead >= bufferLength) mHead = 0;
-            mStoredBytes -= bytesToCopy;
-            length -= bytesToCopy;
-            offset += bytesToCopy;
-            totalRead += bytesToCopy;
+        final long head = mHead;
+        long tail;
+        while ((tail = mTail) == head && mOpen) {
+            if (!block) return 0;
+            mParkedReader = Thread.currentThread();
+            // Check again after announcing that we are parking, since the writer only unparks a thread it sees:
+            if (mTail == head && mOpen) LockSupport.park(this);
+            mParkedReader = null;
+            // Ignore interrupts, which would otherwise keep park() from blocking.
+            Thread.interrupted();
         }
-        if (wasFull) notify();
-        return totalRead;
+        if (!mOpen) return -1;
+
+        final int bytesToRead = (int) Math.min(length, tail - head);
+        final int start = (int) head & mMask;
+        final int firstRun = Math.min(bytesToRead, mBuffer.length - start);
+        System.arraycopy(mBuffer, start, buffer, offset, firstRun);
+        System.arraycopy(mBuffer, 0, buffer, offset + firstRun, bytesToRead - firstRun);
+        mHead = head + bytesToRead;
+
+        LockSupport.unpark(mParkedWriter);
+        return bytesToRead;
     }
 
     /**
-     * Attempt to write the specified portion of the provided buffer to the queue.
+     * Attempt to write the specified portion of the provided buffer to the queue, blocking while the queue is full.
      * <p/>
      * Returns whether the output was totally written, false if it was closed before.
      */
@@ -63,45 +102,31 @@ final class ByteQueue {
             throw new IllegalArgumentException("length <= 0");
         }
 
-        final int bufferLength = mBuffer.length;
-
-        synchronized (this) {
-            while (lengthToWrite > 0) {
-                while (bufferLength == mStoredBytes && mOpen) {
-                    try {
-                        wait();
-                    } catch (InterruptedException e) {
-                        // Ignore.
-                    }
-                }
-                if (!mOpen) return false;
-                final boolean wasEmpty = mStoredBytes == 0;
-                int bytesToWriteBeforeWaiting = Math.min(lengthToWrite, bufferLength - mStoredBytes);
-                lengthToWrite -= bytesToWriteBeforeWaiting;
-
-                while (bytesToWriteBeforeWaiting > 0) {
-                    int tail = mHead + mStoredBytes;
-                    int oneRun;
-                    if (tail >= bufferLength) {
-                        // Buffer: [.............]
-                        // ________________H_______T
-                        // =>
-                        // Buffer: [.............]
-                        // ___________T____H
-                        // onRun= _____----_
-                        tail = tail - bufferLength;
-                        oneRun = mHead - tail;
-                    } else {
-                        oneRun = bufferLength - tail;
-                    }
-                    int bytesToCopy = Math.min(oneRun, bytesToWriteBeforeWaiting);
-                    System.arraycopy(buffer, offset, mBuffer, tail, bytesToCopy);
-                    offset += bytesToCopy;
-                    bytesToWriteBeforeWaiting -= bytesToCopy;
-                    mStoredBytes += bytesToCopy;
-                }
-                if (wasEmpty) notify();
+        final int capacity = mBuffer.length;
+        long tail = mTail;
+        while (lengthToWrite > 0) {
+            long head;
+            while (tail - (head = mHead) == capacity && mOpen) {
+                mParkedWriter = Thread.currentThread();
+                // Check again after announcing that we are parking, since the reader only unparks a thread it sees:
+                if (tail - mHead == capacity && mOpen) LockSupport.park(this);
+                mParkedWriter = null;
+                // Ignore interrupts, which would otherwise keep park() from blocking.
+                Thread.interrupted();
             }
+            if (!mOpen) return false;
+
+            final int bytesToWrite = (int) Math.min(lengthToWrite, capacity - (tail - head));
+            final int start = (int) tail & mMask;
+            final int firstRun = Math.min(bytesToWrite, capacity - start);
+            System.arraycopy(buffer, offset, mBuffer, start, firstRun);
+            System.arraycopy(buffer, offset + firstRun, mBuffer, 0, bytesToWrite - firstRun);
+            tail += bytesToWrite;
+            mTail = tail;
+            offset += bytesToWrite;
+            lengthToWrite -= bytesToWrite;
+
+            LockSupport.unpark(mParkedReader);
         }
         return true;
     }
@@ -0,0 +1,111 @@
+package com.termux.terminal;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A block of consecutive rows far back in the transcript of a {@link TerminalBuffer}, which are never modified and so
+ * can be stored compressed. Rows are decompressed on demand when read, see {@link TerminalBuffer#allocateFullLineIfNecessary(int)}.
+ */
+final class CompressedRowBlock {
+
+    /** The number of rows in a block, except for a shorter last block if the total rows is not a multiple of this. */
+    static final int ROWS = 64;
+
+    /** The internal index in {@link TerminalBuffer#mLines} of the first row in the block. */
+    final int mStartRow;
+    /** The number of rows in the block. */
+    final int mRowCount;
+    /**
+     * The internal index of the first row still in the block. The oldest transcript row is reused for new output when
+     * the transcript is full, so rows are dropped from the start of the block.
+     */
+    int mFirstRow;
+    /**
+     * The index in the pending reflow rows of a {@link TerminalBuffer} which the row at {@link #mStartRow} would have,
+     * once the block has been moved there by a resize to wait to be reflowed to the new number of columns.
+     */
+    int mPendingReflowIndex;
+
+    private final int mColumns;
+    private final byte[] mCompressed;
+    private final int mUncompressedLength;
+    /** The {@link ImageTable} ids of the images shown in the rows, or null if none, see {@link TerminalBuffer#addImageIds}. */
+    final int[] mImageIds;
+    /** The {@link HyperlinkTable} ids of the links in the rows, or null if none, see {@link TerminalBuffer#releaseUnusedLinks()}. */
+    final int[] mLinkIds;
+
+    CompressedRowBlock(TerminalRow[] rows, int startRow, int rowCount, int columns) {
+        mStartRow = mFirstRow = startRow;
+        mRowCount = rowCount;
+        mColumns = columns;
+
+        ByteArrayOutputStream packed = new ByteArrayOutputStream(rowCount * columns * 2);
+        HashSet<Integer> imageIds = new HashSet<>();
+        HashSet<Integer> linkIds = new HashSet<>();
+        for (int i = 0; i < rowCount; i++) {
+            rows[startRow + i].pack(packed);
+            rows[startRow + i].addImageIds(imageIds);
+            rows[startRow + i].addLinkIds(linkIds);
+        }
+        mImageIds = toArray(imageIds);
+        mLinkIds = toArray(linkIds);
+        byte[] input = packed.toByteArray();
+        mUncompressedLength = input.length;
+
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+        deflater.setInput(input);
+        deflater.finish();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(input.length / 4);
+        byte[] buffer = new byte[4096];
+        while (!deflater.finished()) {
+            int count = deflater.deflate(buffer);
+            compressed.write(buffer, 0, count);
+        }
+        deflater.end();
+        mCompressed = compressed.toByteArray();
+    }
+
+    private static int[] toArray(HashSet<Integer> ids) {
+        if (ids.isEmpty()) return null;
+        int[] array = new int[ids.size()];
+        int index = 0;
+        for (int id : ids) array[index++] = id;
+        return array;
+    }
+
+    /** If the row at an internal index is stored in this block. */
+    boolean contains(int row) {
+        return row >= mFirstRow && row < mStartRow + mRowCount;
+    }
+
+    /** Decompress all rows of the block, including ones before {@link #mFirstRow}. */
+    TerminalRow[] decompress(StyleTable styleTable) {
+        byte[] packed = new byte[mUncompressedLength];
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(mCompressed);
+            int length = 0;
+            while (length < packed.length) {
+                int count = inflater.inflate(packed, length, packed.length - length);
+                if (count == 0 && (inflater.finished() || inflater.needsInput())) break;
+                length += count;
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupt compressed transcript rows", e);
+        } finally {
+            inflater.end();
+        }
+
+        ByteBuffer in = ByteBuffer.wrap(packed);
+        TerminalRow[] rows = new TerminalRow[mRowCount];
+        for (int i = 0; i < mRowCount; i++)
+            rows[i] = TerminalRow.unpack(in, mColumns, styleTable);
+        return rows;
+    }
+
+}
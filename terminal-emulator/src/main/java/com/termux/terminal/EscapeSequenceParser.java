@@ -0,0 +1,410 @@
+package com.termux.terminal;
+
+import java.util.Arrays;
+
+/**
+ * A table driven parser of escape sequences, following the state machine of the DEC VT500 series described at
+ * https://vt100.net/emu/dec_ansi_parser. Each byte is mapped to a class, and the action and next state are looked up
+ * by the current state and the class of the byte, instead of branching on the byte in each state.
+ * <p>
+ * Unlike the VT500, a colon separates sub parameters as in "CSI 38:2::255:0:0 m" instead of causing the sequence to be
+ * ignored, a BEL ends an OSC string as with xterm, and since input is UTF-8 there are no 8-bit C1 controls: bytes from
+ * 0x80 are printed when not in an escape sequence.
+ * <p>
+ * Parameters are accumulated into a fixed array the same way as {@link TerminalEmulator} does it, with omitted
+ * parameters being -1 and values capped at 9999, so parsing does not allocate. The {@link TerminalEmulator} uses
+ * {@link #parse(byte[], int, int)} for a fast path through complete ESC and CSI sequences, while the handling of the
+ * sequences is left to the emulator.
+ */
+final class EscapeSequenceParser {
+
+    /** The max number of parameters including colon separated sub parameters. */
+    static final int MAX_PARAMETERS = 32;
+    /** The max number of intermediate bytes kept, see {@link #getIntermediate(int)}. */
+    static final int MAX_INTERMEDIATES = 4;
+
+    static final int STATE_GROUND = 0;
+    static final int STATE_ESCAPE = 1;
+    static final int STATE_ESCAPE_INTERMEDIATE = 2;
+    static final int STATE_CSI_ENTRY = 3;
+    static final int STATE_CSI_PARAM = 4;
+    static final int STATE_CSI_INTERMEDIATE = 5;
+    static final int STATE_CSI_IGNORE = 6;
+    static final int STATE_DCS_ENTRY = 7;
+    static final int STATE_DCS_PARAM = 8;
+    static final int STATE_DCS_INTERMEDIATE = 9;
+    static final int STATE_DCS_PASSTHROUGH = 10;
+    static final int STATE_DCS_IGNORE = 11;
+    static final int STATE_OSC_STRING = 12;
+    static final int STATE_SOS_PM_APC_STRING = 13;
+    private static final int STATE_COUNT = 14;
+    /** The next state in the transition table of bytes which do not change the state, and so do not enter it again. */
+    private static final int STAY = 15;
+
+    /** The byte is ignored, or only changes the state. */
+    static final int ACTION_NONE = 0;
+    /** The byte is a char to display. */
+    static final int ACTION_PRINT = 1;
+    /** The byte is a C0 control to execute, like a line feed, which may also occur within a sequence. */
+    static final int ACTION_EXECUTE = 2;
+    /** The byte is a private marker or an intermediate byte, which has been collected. */
+    static final int ACTION_COLLECT = 3;
+    /** The byte is a digit or separator of the parameters, which has been accumulated. */
+    static final int ACTION_PARAM = 4;
+    /** The byte is the final byte of an escape sequence without parameters, see {@link #getFinalByte()}. */
+    static final int ACTION_ESC_DISPATCH = 5;
+    /** The byte is the final byte of a control sequence, see {@link #getFinalByte()}. */
+    static final int ACTION_CSI_DISPATCH = 6;
+    /** The byte is the final byte of a device control string header, after which the data of the string follows. */
+    static final int ACTION_HOOK = 7;
+    /** The byte is part of the data of a device control string. */
+    static final int ACTION_PUT = 8;
+    /** The device control string has ended. */
+    static final int ACTION_UNHOOK = 9;
+    /** An OSC string has started. */
+    static final int ACTION_OSC_START = 10;
+    /** The byte is part of an OSC string. */
+    static final int ACTION_OSC_PUT = 11;
+    /** The OSC string has ended. */
+    static final int ACTION_OSC_END = 12;
+
+    /** C0 controls executed, except for the ones below with their own class. */
+    private static final int CLASS_CONTROL = 0;
+    private static final int CLASS_BEL = 1;
+    /** CAN and SUB, which cancel a sequence. */
+    private static final int CLASS_CANCEL = 2;
+    private static final int CLASS_ESC = 3;
+    /** Intermediate bytes, 0x20 to 0x2F. */
+    private static final int CLASS_INTERMEDIATE = 4;
+    private static final int CLASS_DIGIT = 5;
+    private static final int CLASS_SEPARATOR = 6;
+    /** The private markers "<=>?". */
+    private static final int CLASS_PRIVATE_MARKER = 7;
+    /** Final bytes, 0x40 to 0x7E, except for the ones below with their own class after an ESC. */
+    private static final int CLASS_FINAL = 8;
+    private static final int CLASS_CSI = 9;
+    private static final int CLASS_OSC = 10;
+    private static final int CLASS_DCS = 11;
+    /** The introducers of SOS, PM and APC strings, which are ignored. */
+    private static final int CLASS_SOS_PM_APC = 12;
+    private static final int CLASS_DEL = 13;
+    /** Bytes from 0x80, which are parts of UTF-8 encoded chars. */
+    private static final int CLASS_HIGH = 14;
+    private static final int CLASS_COUNT = 15;
+
+    /** The class of each byte. */
+    private static final byte[] CLASSES = new byte[256];
+    /** The action in the upper four bits and the next state in the lower, by the state and the class of a byte. */
+    private static final byte[] TRANSITIONS = new byte[STATE_COUNT * CLASS_COUNT];
+
+    static {
+        Arrays.fill(CLASSES, 0x00, 0x20, (byte) CLASS_CONTROL);
+        CLASSES[0x07] = CLASS_BEL;
+        CLASSES[0x18] = CLASSES[0x1A] = CLASS_CANCEL;
+        CLASSES[0x1B] = CLASS_ESC;
+        Arrays.fill(CLASSES, 0x20, 0x30, (byte) CLASS_INTERMEDIATE);
+        Arrays.fill(CLASSES, '0', '9' + 1, (byte) CLASS_DIGIT);
+        CLASSES[':'] = CLASSES[';'] = CLASS_SEPARATOR;
+        Arrays.fill(CLASSES, '<', '?' + 1, (byte) CLASS_PRIVATE_MARKER);
+        Arrays.fill(CLASSES, 0x40, 0x7F, (byte) CLASS_FINAL);
+        CLASSES['['] = CLASS_CSI;
+        CLASSES[']'] = CLASS_OSC;
+        CLASSES['P'] = CLASS_DCS;
+        CLASSES['X'] = CLASSES['^'] = CLASSES['_'] = CLASS_SOS_PM_APC;
+        CLASSES[0x7F] = CLASS_DEL;
+        Arrays.fill(CLASSES, 0x80, 0x100, (byte) CLASS_HIGH);
+
+        // Unless overridden below, a byte is ignored without changing the state.
+        Arrays.fill(TRANSITIONS, (byte) (ACTION_NONE << 4 | STAY));
+        for (int state = 0; state < STATE_COUNT; state++) {
+            // Anywhere: CAN and SUB cancel the current sequence, and ESC starts a new one.
+            set(state, CLASS_CANCEL, ACTION_EXECUTE, STATE_GROUND);
+            set(state, CLASS_ESC, ACTION_NONE, STATE_ESCAPE);
+        }
+
+        setControls(STATE_GROUND, ACTION_EXECUTE);
+        set(STATE_GROUND, CLASS_INTERMEDIATE, CLASS_HIGH, ACTION_PRINT, STAY);
+
+        setControls(STATE_ESCAPE, ACTION_EXECUTE);
+        set(STATE_ESCAPE, CLASS_INTERMEDIATE, ACTION_COLLECT, STATE_ESCAPE_INTERMEDIATE);
+        set(STATE_ESCAPE, CLASS_DIGIT, CLASS_SOS_PM_APC, ACTION_ESC_DISPATCH, STATE_GROUND);
+        set(STATE_ESCAPE, CLASS_CSI, ACTION_NONE, STATE_CSI_ENTRY);
+        set(STATE_ESCAPE, CLASS_OSC, ACTION_NONE, STATE_OSC_STRING);
+        set(STATE_ESCAPE, CLASS_DCS, ACTION_NONE, STATE_DCS_ENTRY);
+        set(STATE_ESCAPE, CLASS_SOS_PM_APC, ACTION_NONE, STATE_SOS_PM_APC_STRING);
+
+        setControls(STATE_ESCAPE_INTERMEDIATE, ACTION_EXECUTE);
+        set(STATE_ESCAPE_INTERMEDIATE, CLASS_INTERMEDIATE, ACTION_COLLECT, STAY);
+        set(STATE_ESCAPE_INTERMEDIATE, CLASS_DIGIT, CLASS_SOS_PM_APC, ACTION_ESC_DISPATCH, STATE_GROUND);
+
+        setControls(STATE_CSI_ENTRY, ACTION_EXECUTE);
+        set(STATE_CSI_ENTRY, CLASS_INTERMEDIATE, ACTION_COLLECT, STATE_CSI_INTERMEDIATE);
+        set(STATE_CSI_ENTRY, CLASS_DIGIT, CLASS_SEPARATOR, ACTION_PARAM, STATE_CSI_PARAM);
+        set(STATE_CSI_ENTRY, CLASS_PRIVATE_MARKER, ACTION_COLLECT, STATE_CSI_PARAM);
+        set(STATE_CSI_ENTRY, CLASS_FINAL, CLASS_SOS_PM_APC, ACTION_CSI_DISPATCH, STATE_GROUND);
+
+        setControls(STATE_CSI_PARAM, ACTION_EXECUTE);
+        set(STATE_CSI_PARAM, CLASS_INTERMEDIATE, ACTION_COLLECT, STATE_CSI_INTERMEDIATE);
+        set(STATE_CSI_PARAM, CLASS_DIGIT, CLASS_SEPARATOR, ACTION_PARAM, STAY);
+        set(STATE_CSI_PARAM, CLASS_PRIVATE_MARKER, ACTION_NONE, STATE_CSI_IGNORE);
+        set(STATE_CSI_PARAM, CLASS_FINAL, CLASS_SOS_PM_APC, ACTION_CSI_DISPATCH, STATE_GROUND);
+
+        setControls(STATE_CSI_INTERMEDIATE, ACTION_EXECUTE);
+        set(STATE_CSI_INTERMEDIATE, CLASS_INTERMEDIATE, ACTION_COLLECT, STAY);
+        set(STATE_CSI_INTERMEDIATE, CLASS_DIGIT, CLASS_PRIVATE_MARKER, ACTION_NONE, STATE_CSI_IGNORE);
+        set(STATE_CSI_INTERMEDIATE, CLASS_FINAL, CLASS_SOS_PM_APC, ACTION_CSI_DISPATCH, STATE_GROUND);
+
+        setControls(STATE_CSI_IGNORE, ACTION_EXECUTE);
+        set(STATE_CSI_IGNORE, CLASS_FINAL, CLASS_SOS_PM_APC, ACTION_NONE, STATE_GROUND);
+
+        set(STATE_DCS_ENTRY, CLASS_INTERMEDIATE, ACTION_COLLECT, STATE_DCS_INTERMEDIATE);
+        set(STATE_DCS_ENTRY, CLASS_DIGIT, CLASS_SEPARATOR, ACTION_PARAM, STATE_DCS_PARAM);
+        set(STATE_DCS_ENTRY, CLASS_PRIVATE_MARKER, ACTION_COLLECT, STATE_DCS_PARAM);
+        set(STATE_DCS_ENTRY, CLASS_FINAL, CLASS_SOS_PM_APC, ACTION_NONE, STATE_DCS_PASSTHROUGH);
+
+        set(STATE_DCS_PARAM, CLASS_INTERMEDIATE, ACTION_COLLECT, STATE_DCS_INTERMEDIATE);
+        set(STATE_DCS_PARAM, CLASS_DIGIT, CLASS_SEPARATOR, ACTION_PARAM, STAY);
+        set(STATE_DCS_PARAM, CLASS_PRIVATE_MARKER, ACTION_NONE, STATE_DCS_IGNORE);
+        set(STATE_DCS_PARAM, CLASS_FINAL, CLASS_SOS_PM_APC, ACTION_NONE, STATE_DCS_PASSTHROUGH);
+
+        set(STATE_DCS_INTERMEDIATE, CLASS_INTERMEDIATE, ACTION_COLLECT, STAY);
+        set(STATE_DCS_INTERMEDIATE, CLASS_DIGIT, CLASS_PRIVATE_MARKER, ACTION_NONE, STATE_DCS_IGNORE);
+        set(STATE_DCS_INTERMEDIATE, CLASS_FINAL, CLASS_SOS_PM_APC, ACTION_NONE, STATE_DCS_PASSTHROUGH);
+
+        setControls(STATE_DCS_PASSTHROUGH, ACTION_PUT);
+        set(STATE_DCS_PASSTHROUGH, CLASS_INTERMEDIATE, CLASS_SOS_PM_APC, ACTION_PUT, STAY);
+        set(STATE_DCS_PASSTHROUGH, CLASS_HIGH, ACTION_PUT, STAY);
+
+        set(STATE_OSC_STRING, CLASS_BEL, ACTION_NONE, STATE_GROUND);
+        set(STATE_OSC_STRING, CLASS_INTERMEDIATE, CLASS_HIGH, ACTION_OSC_PUT, STAY);
+        set(STATE_OSC_STRING, CLASS_DEL, ACTION_NONE, STAY);
+    }
+
+    private static void set(int state, int byteClass, int action, int nextState) {
+        set(state, byteClass, byteClass, action, nextState);
+    }
+
+    /** Set the transition of a range of classes, which are numbered in the order of the bytes they contain. */
+    private static void set(int state, int firstClass, int lastClass, int action, int nextState) {
+        for (int byteClass = firstClass; byteClass <= lastClass; byteClass++)
+            TRANSITIONS[state * CLASS_COUNT + byteClass] = (byte) (action << 4 | nextState);
+    }
+
+    private static void setControls(int state, int action) {
+        set(state, CLASS_CONTROL, CLASS_BEL, action, STAY);
+    }
+
+    private int mState = STATE_GROUND;
+
+    /** The parameters, where an omitted parameter is -1. Entries after {@link #mParamIndex} are always -1. */
+    private final int[] mParams = new int[MAX_PARAMETERS];
+    /** The index of the current parameter. */
+    private int mParamIndex;
+    /** Bit N is set if parameter N is a sub parameter, following a colon. */
+    private int mSubParamBits;
+    /** The number of parameter bytes, digits and separators. */
+    private int mParamByteCount;
+    /** If there were more parameters than {@link #MAX_PARAMETERS}, in which case the last ones have been dropped. */
+    private boolean mTooManyParams;
+
+    /** The private marker of the current sequence, or 0 if none. */
+    private int mPrivateMarker;
+    /** The first {@link #MAX_INTERMEDIATES} intermediate bytes, the first one in the lowest byte. */
+    private int mIntermediates;
+    private int mIntermediateCount;
+    private int mFinalByte;
+
+    EscapeSequenceParser() {
+        Arrays.fill(mParams, -1);
+    }
+
+    /** The current state, one of the STATE_* constants. */
+    int getState() {
+        return mState;
+    }
+
+    /** Go back to the ground state, abandoning any current sequence. */
+    void reset() {
+        mState = STATE_GROUND;
+        clear();
+    }
+
+    /**
+     * Advance the state machine by a byte.
+     *
+     * @param b the byte, where only the lower eight bits are used.
+     * @return the action of the byte, one of the ACTION_* constants. A byte leaving an OSC or device control string
+     * returns {@link #ACTION_OSC_END} or {@link #ACTION_UNHOOK}, and a byte entering one returns
+     * {@link #ACTION_OSC_START} or {@link #ACTION_HOOK}, instead of any action of the byte itself.
+     */
+    int advance(int b) {
+        final int transition = TRANSITIONS[mState * CLASS_COUNT + CLASSES[b & 0xFF]] & 0xFF;
+        int action = transition >> 4;
+        switch (action) {
+            case ACTION_COLLECT:
+                collect(mState, b);
+                break;
+            case ACTION_PARAM:
+                param(b);
+                break;
+            case ACTION_ESC_DISPATCH:
+            case ACTION_CSI_DISPATCH:
+                mFinalByte = b;
+                break;
+        }
+
+        final int nextState = transition & 0xF;
+        if (nextState == STAY) return action;
+
+        // Exit actions of the state left, and entry actions of the state entered:
+        if (mState == STATE_OSC_STRING) {
+            action = ACTION_OSC_END;
+        } else if (mState == STATE_DCS_PASSTHROUGH) {
+            action = ACTION_UNHOOK;
+        }
+        mState = nextState;
+        switch (nextState) {
+            case STATE_ESCAPE:
+            case STATE_CSI_ENTRY:
+            case STATE_DCS_ENTRY:
+                clear();
+                break;
+            case STATE_OSC_STRING:
+                action = ACTION_OSC_START;
+                break;
+            case STATE_DCS_PASSTHROUGH:
+                mFinalByte = b;
+                action = ACTION_HOOK;
+                break;
+        }
+        return action;
+    }
+
+    /**
+     * Parse a complete ESC or CSI sequence, starting with the ESC at the specified offset, from the ground state.
+     * The sequence must not contain any control or otherwise be interrupted, and must not start a string like an OSC.
+     *
+     * @return the offset after the final byte, or -1 if the bytes before the end offset do not make such a sequence,
+     * in which case the state is undefined until {@link #reset()}.
+     */
+    int parse(byte[] buffer, int start, int end) {
+        if (start >= end || buffer[start] != 27) return -1;
+        mState = STATE_ESCAPE;
+        clear();
+        // The same transitions as advance(), without the entry and exit actions which do not apply here:
+        int state = STATE_ESCAPE;
+        for (int i = start + 1; i < end; i++) {
+            final int b = buffer[i] & 0xFF;
+            final int transition = TRANSITIONS[state * CLASS_COUNT + CLASSES[b]] & 0xFF;
+            switch (transition >> 4) {
+                case ACTION_PARAM:
+                    param(b);
+                    break;
+                case ACTION_COLLECT:
+                    collect(state, b);
+                    break;
+                case ACTION_ESC_DISPATCH:
+                case ACTION_CSI_DISPATCH:
+                    mState = STATE_GROUND;
+                    mFinalByte = b;
+                    return i + 1;
+                case ACTION_NONE:
+                    // Only the '[' of a CSI, and not a byte ignored within a sequence or one starting another:
+                    if (i == start + 1 && transition == (ACTION_NONE << 4 | STATE_CSI_ENTRY)) break;
+                    return -1;
+                default:
+                    return -1;
+            }
+            final int nextState = transition & 0xF;
+            if (nextState != STAY) state = mState = nextState;
+        }
+        return -1;
+    }
+
+    private void clear() {
+        for (int i = 0; i <= mParamIndex; i++) mParams[i] = -1;
+        mParamIndex = 0;
+        mSubParamBits = 0;
+        mParamByteCount = 0;
+        mTooManyParams = false;
+        mPrivateMarker = 0;
+        mIntermediates = 0;
+        mIntermediateCount = 0;
+        mFinalByte = 0;
+    }
+
+    private void collect(int state, int b) {
+        if ((state == STATE_CSI_ENTRY || state == STATE_DCS_ENTRY) && CLASSES[b & 0xFF] == CLASS_PRIVATE_MARKER) {
+            mPrivateMarker = b;
+            return;
+        }
+        if (mIntermediateCount < MAX_INTERMEDIATES) mIntermediates |= (b & 0xFF) << (8 * mIntermediateCount);
+        mIntermediateCount++;
+    }
+
+    private void param(int b) {
+        mParamByteCount++;
+        if (b == ';' || b == ':') {
+            if (mParamIndex + 1 < MAX_PARAMETERS) {
+                mParamIndex++;
+                if (b == ':') mSubParamBits |= 1 << mParamIndex;
+            } else {
+                mTooManyParams = true;
+            }
+        } else {
+            final int oldValue = mParams[mParamIndex];
+            mParams[mParamIndex] = Math.min(9999, (oldValue >= 0 ? oldValue * 10 : 0) + (b - '0'));
+        }
+    }
+
+    /** The parameter at an index, or -1 if omitted. */
+    int getParam(int index) {
+        return mParams[index];
+    }
+
+    /** The index of the last parameter, which is 0 also if there are no parameters. */
+    int getParamIndex() {
+        return mParamIndex;
+    }
+
+    /** The bits of the parameters which are sub parameters, following a colon, with bit N set for parameter N. */
+    int getSubParamBits() {
+        return mSubParamBits;
+    }
+
+    /** The number of parameter bytes, digits and separators, in the current sequence. */
+    int getParamByteCount() {
+        return mParamByteCount;
+    }
+
+    /** If the current sequence had more parameters than {@link #MAX_PARAMETERS}, where the last ones were dropped. */
+    boolean hasTooManyParams() {
+        return mTooManyParams;
+    }
+
+    /** Copy all {@link #MAX_PARAMETERS} parameters, including the trailing omitted ones, into an array. */
+    void copyParams(int[] destination) {
+        System.arraycopy(mParams, 0, destination, 0, MAX_PARAMETERS);
+    }
+
+    /** The private marker of the current CSI or DCS sequence, like the '?' of "CSI ? 25 h", or 0 if none. */
+    int getPrivateMarker() {
+        return mPrivateMarker;
+    }
+
+    /** The number of intermediate bytes of the current sequence, which may be more than {@link #MAX_INTERMEDIATES}. */
+    int getIntermediateCount() {
+        return mIntermediateCount;
+    }
+
+    /** An intermediate byte of the current sequence, by an index less than {@link #MAX_INTERMEDIATES}. */
+    int getIntermediate(int index) {
+        return (mIntermediates >> (8 * index)) & 0xFF;
+    }
+
+    /** The final byte of the last sequence dispatched, or of a device control string header when hooked. */
+    int getFinalByte() {
+        return mFinalByte;
+    }
+
+}
@@ -0,0 +1,88 @@
+package com.termux.terminal;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Set;
+
+/**
+ * A table interning the targets of OSC 8 hyperlinks written to a {@link TerminalBuffer}, so that a {@link TerminalRow}
+ * can store a 16-bit link id per cell, and only for rows containing links, see {@link TerminalRow#getLinkId(int)}.
+ * <p>
+ * A link is identified by its uri along with its optional id parameter, which groups cells of the same link that are
+ * not adjacent. Ids start at 1, as 0 means no link. Ids no longer referred to by any row, including rows in the
+ * transcript, are freed by {@link #retain(Set)} and reused. While {@link #MAX_LINKS} links are in use further links are
+ * ignored.
+ */
+final class HyperlinkTable {
+
+    /** The max number of links, so that an id fits in a char. */
+    static final int MAX_LINKS = 0xFFFF;
+
+    /** The id of each link, keyed by {@link #key(String, String)}. */
+    private final HashMap<String, Integer> mIds = new HashMap<>();
+    /** The key and uri of each id, starting with id 1, or null if the id is free. */
+    private final ArrayList<String> mKeys = new ArrayList<>();
+    private final ArrayList<String> mUris = new ArrayList<>();
+    /** The ids freed by {@link #retain(Set)}, which are used before adding new ones. */
+    private final ArrayDeque<Integer> mFreeIds = new ArrayDeque<>();
+
+    /**
+     * Set when rows which may have had links have been dropped or cleared, so that the emulator should find and free
+     * links no longer used, see {@link TerminalBuffer#releaseUnusedLinks()}.
+     */
+    boolean mSweepNeeded;
+
+    /**
+     * Get the id for a link, adding it to the table if necessary.
+     *
+     * @param linkId the id parameter of the link, or null if none.
+     * @return the id, or 0 if the table is full.
+     */
+    int intern(String uri, String linkId) {
+        final String key = key(uri, linkId);
+        final Integer id = mIds.get(key);
+        if (id != null) return id;
+        final Integer freeId = mFreeIds.poll();
+        if (freeId != null) {
+            mKeys.set(freeId - 1, key);
+            mUris.set(freeId - 1, uri);
+            mIds.put(key, freeId);
+            return freeId;
+        }
+        if (mUris.size() == MAX_LINKS) return 0;
+        mKeys.add(key);
+        mUris.add(uri);
+        mIds.put(key, mUris.size());
+        return mUris.size();
+    }
+
+    /** Get the uri of a link id, which must not be 0, or null if the id has been freed. */
+    String getUri(int id) {
+        return mUris.get(id - 1);
+    }
+
+    /** Free the ids not in a set, like the ones not referred to by any row. */
+    void retain(Set<Integer> usedIds) {
+        for (int id = 1; id <= mKeys.size(); id++) {
+            final String key = mKeys.get(id - 1);
+            if (key != null && !usedIds.contains(id)) {
+                mIds.remove(key);
+                mKeys.set(id - 1, null);
+                mUris.set(id - 1, null);
+                mFreeIds.add(id);
+            }
+        }
+    }
+
+    /** The number of links in use. */
+    int size() {
+        return mIds.size();
+    }
+
+    private static String key(String uri, String linkId) {
+        // Prefixed by the length of the id so that no two links have the same key:
+        return (linkId == null) ? "-:" + uri : linkId.length() + ":" + linkId + uri;
+    }
+
+}
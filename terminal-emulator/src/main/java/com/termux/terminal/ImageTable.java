@@ -0,0 +1,101 @@
+package com.termux.terminal;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The {@link TerminalImage}s shown in the buffers of a {@link TerminalEmulator}, so that a {@link TerminalRow} can
+ * refer to an image by an id per cell, see {@link TerminalRow#getImageCell(int)}.
+ * <p>
+ * The encoded images are kept on the java heap, within a byte budget, see {@link #setMaxBytes(int)}. Images which are no longer shown in
+ * any row are released by {@link #retain(Set)}, and if the budget is still exceeded the least recently used images
+ * are evicted, so that rows referring to them show nothing instead. Ids start at 1, as 0 means no image, and are not
+ * reused.
+ * <p>
+ * Images are looked up by renderers on other threads than the one emulating, so access is synchronized.
+ */
+final class ImageTable {
+
+    /** The default for {@link #setMaxBytes(int)}. */
+    static final int DEFAULT_MAX_BYTES = 32 * 1024 * 1024;
+
+    /** The images by id, in least recently used order. */
+    private final LinkedHashMap<Integer, TerminalImage> mImages = new LinkedHashMap<>(16, 0.75f, true);
+    private int mNextId = 1;
+    /** The total size of the encoded images. */
+    private long mBytes;
+    private int mMaxBytes = DEFAULT_MAX_BYTES;
+
+    /**
+     * Set when rows which may have shown images have been dropped or cleared, so that the emulator should find and
+     * release images no longer shown, see {@link #retain(Set)}. Only used by the thread emulating.
+     */
+    boolean mSweepNeeded;
+
+    /**
+     * Add an image, evicting the least recently used images if needed to stay within the budget.
+     *
+     * @return the id of the image, or 0 if the image alone is larger than the budget.
+     */
+    synchronized int add(TerminalImage image) {
+        final int size = image.getData().length;
+        if (size > mMaxBytes) {
+            image.release();
+            return 0;
+        }
+        final int id = mNextId;
+        mNextId = (mNextId == Integer.MAX_VALUE) ? 1 : mNextId + 1;
+        mImages.put(id, image);
+        mBytes += size;
+        evict(mMaxBytes);
+        return id;
+    }
+
+    /** Get an image by id, or null if it has been released or evicted. */
+    synchronized TerminalImage get(int id) {
+        return mImages.get(id);
+    }
+
+    /** Release the images with ids not in a set, like the ones not referred to by any row. */
+    synchronized void retain(Set<Integer> usedIds) {
+        for (Iterator<Map.Entry<Integer, TerminalImage>> it = mImages.entrySet().iterator(); it.hasNext(); ) {
+            final Map.Entry<Integer, TerminalImage> entry = it.next();
+            if (!usedIds.contains(entry.getKey())) {
+                it.remove();
+                release(entry.getValue());
+            }
+        }
+    }
+
+    /** Set the max total size of the encoded images, evicting the least recently used images to stay below it. */
+    synchronized void setMaxBytes(int maxBytes) {
+        if (maxBytes < 0) throw new IllegalArgumentException("Negative max image bytes: " + maxBytes);
+        mMaxBytes = maxBytes;
+        evict(maxBytes);
+    }
+
+    synchronized int size() {
+        return mImages.size();
+    }
+
+    /** The total size of the encoded images. */
+    synchronized long getBytes() {
+        return mBytes;
+    }
+
+    private void evict(int maxBytes) {
+        for (Iterator<TerminalImage> it = mImages.values().iterator(); mBytes > maxBytes && it.hasNext(); ) {
+            final TerminalImage image = it.next();
+            it.remove();
+            release(image);
+        }
+    }
+
+    private void release(TerminalImage image) {
+        mBytes -= image.getData().length;
+        image.release();
+    }
+
+}
@@ -0,0 +1,158 @@
+package com.termux.terminal;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The text of a logical line, that is a row joined with the rows it continues on after being wrapped, along with the
+ * row and columns of the cell of each char, so that offsets in the text can be converted to cells and back.
+ * <p>
+ * Lines are read with {@link TerminalBuffer#getLogicalLine(int, boolean, LogicalLine)}, which only reads the rows of
+ * the line, and may be reused to avoid allocating. Trailing spaces are left out, except on rows which are wrapped, and
+ * combining chars belong to the cell of the char before them.
+ */
+public final class LogicalLine {
+
+    char[] mText = new char[256];
+    /** The row of each char, counted from the start of the line, and its first and after last column. */
+    int[] mRows = new int[256];
+    int[] mStartColumns = new int[256];
+    int[] mEndColumns = new int[256];
+    int mLength;
+    /** The external row of the first row, and the number of rows. */
+    int mFirstRow;
+    int mRowCount;
+    /** The index of the first char of each row, with an extra entry for the end of the last row. */
+    private int[] mRowStarts = new int[9];
+    private char[] mRowBuffer = new char[0];
+
+    void clear(int firstRow) {
+        mLength = 0;
+        mFirstRow = firstRow;
+        mRowCount = 0;
+    }
+
+    /**
+     * Append the text of the next row, without trailing spaces if the line does not continue on the next row, with
+     * combining chars belonging to the cell of the char before them.
+     */
+    void appendRow(TerminalRow row) {
+        if (mRowBuffer.length < row.getSpaceUsed()) mRowBuffer = new char[row.getSpaceUsed()];
+        final char[] text = row.getText(mRowBuffer);
+        final int used = row.getSpaceUsed();
+        final int rowInLine = mRowCount++;
+        final int rowStart = mLength;
+        int column = 0;
+        for (int i = 0; i < used && column < row.mColumns; ) {
+            final int charCount = Character.isHighSurrogate(text[i]) && i + 1 < used ? 2 : 1;
+            final int width = WcWidth.width(text, i);
+            final int startColumn = (width <= 0 && column > 0) ? column - 1 : column;
+            final int endColumn = Math.max(column, startColumn + Math.max(width, 1));
+            for (int j = 0; j < charCount; j++) append(text[i + j], rowInLine, startColumn, endColumn);
+            if (width > 0) column += width;
+            i += charCount;
+        }
+        if (!row.mLineWrap)
+            while (mLength > rowStart && mText[mLength - 1] == ' ') mLength--;
+
+        if (mRowCount + 1 > mRowStarts.length) mRowStarts = Arrays.copyOf(mRowStarts, mRowStarts.length * 2);
+        mRowStarts[rowInLine] = rowStart;
+        mRowStarts[mRowCount] = mLength;
+    }
+
+    private void append(char c, int row, int startColumn, int endColumn) {
+        if (mLength == mText.length) {
+            final int capacity = mLength * 2;
+            mText = Arrays.copyOf(mText, capacity);
+            mRows = Arrays.copyOf(mRows, capacity);
+            mStartColumns = Arrays.copyOf(mStartColumns, capacity);
+            mEndColumns = Arrays.copyOf(mEndColumns, capacity);
+        }
+        mText[mLength] = c;
+        mRows[mLength] = row;
+        mStartColumns[mLength] = startColumn;
+        mEndColumns[mLength] = endColumn;
+        mLength++;
+    }
+
+    /** Add the non-overlapping occurrences of a pattern, folded to lower case if ignoring case, to a list. */
+    void findAll(char[] pattern, boolean ignoreCase, int maxMatches, List<SearchMatch> matches) {
+        final int last = mLength - pattern.length;
+        for (int i = 0; i <= last && matches.size() < maxMatches; i++) {
+            int j = 0;
+            while (j < pattern.length && (ignoreCase ? Character.toLowerCase(mText[i + j]) : mText[i + j]) == pattern[j]) j++;
+            if (j < pattern.length) continue;
+            final int end = i + pattern.length - 1;
+            matches.add(new SearchMatch(getRow(i), mStartColumns[i], getRow(end), mEndColumns[end]));
+            i = end;
+        }
+    }
+
+    /** The external row the line starts at. */
+    public int getFirstRow() {
+        return mFirstRow;
+    }
+
+    /** The external row the line ends at. */
+    public int getLastRow() {
+        return mFirstRow + mRowCount - 1;
+    }
+
+    public int length() {
+        return mLength;
+    }
+
+    public char charAt(int index) {
+        return mText[index];
+    }
+
+    public String getText() {
+        return new String(mText, 0, mLength);
+    }
+
+    public String substring(int start, int end) {
+        return new String(mText, start, end - start);
+    }
+
+    /** The external row of the cell of a char. */
+    public int getRow(int index) {
+        return mFirstRow + mRows[index];
+    }
+
+    /** The first column of the cell of a char, which is the same for a combining char as for the char before it. */
+    public int getStartColumn(int index) {
+        return mStartColumns[index];
+    }
+
+    /** The column after the cell of a char, which is two columns wide for a wide char. */
+    public int getEndColumn(int index) {
+        return mEndColumns[index];
+    }
+
+    /** Get the index of the first char in the cell at an external row and column, or -1 if there is no text there. */
+    public int indexOfCell(int row, int column) {
+        final int rowInLine = row - mFirstRow;
+        if (rowInLine < 0 || rowInLine >= mRowCount) return -1;
+        for (int i = mRowStarts[rowInLine], end = mRowStarts[rowInLine + 1]; i < end; i++)
+            if (mStartColumns[i] <= column && column < mEndColumns[i]) return i;
+        return -1;
+    }
+
+    /** Get the index of the first char of the word, that is chars other than spaces, containing a char. */
+    public int getWordStart(int index) {
+        while (index > 0 && mText[index - 1] != ' ') index--;
+        return index;
+    }
+
+    /** Get the index after the last char of the word, that is chars other than spaces, containing a char. */
+    public int getWordEnd(int index) {
+        while (index < mLength && mText[index] != ' ') index++;
+        return index;
+    }
+
+    @Override
+    public String toString() {
+        return getText();
+    }
+
+}
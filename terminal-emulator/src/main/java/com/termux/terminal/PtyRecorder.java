@@ -0,0 +1,206 @@
+package com.termux.terminal;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Records the output of a pty along with the time it was read, and the size of the terminal, into a file which
+ * {@link PtyReplay} can feed into a {@link TerminalEmulator}, so that misbehaving sessions can be turned into
+ * reproducible test cases.
+ * <p>
+ * Recording never blocks the thread reading the pty: records are written to a bounded {@link ByteQueue}, which a
+ * separate thread writes to the file. Output which does not fit in the queue is dropped, and the number of bytes
+ * dropped is recorded in its place, see {@link #getDroppedBytes()}.
+ * <p>
+ * The file starts with {@link #MAGIC} and {@link #VERSION}, followed by records of a type byte and unsigned varints,
+ * the first of which is the number of microseconds since the previous record:
+ * <ul>
+ *     <li>{@link #RECORD_RESIZE}: time, columns, rows, cell width and cell height in pixels. Always the first record.</li>
+ *     <li>{@link #RECORD_OUTPUT}: time, length, followed by the bytes of output.</li>
+ *     <li>{@link #RECORD_DROPPED}: time, number of bytes of output dropped.</li>
+ *     <li>{@link #RECORD_END}: time. Written by {@link #close()}, so a recording without it was cut short.</li>
+ * </ul>
+ */
+public final class PtyRecorder {
+
+    static final int MAGIC = 0x54524543; // "TREC"
+    static final int VERSION = 1;
+
+    static final int RECORD_OUTPUT = 1;
+    static final int RECORD_RESIZE = 2;
+    static final int RECORD_DROPPED = 3;
+    static final int RECORD_END = 4;
+
+    /** The max length of the output of a {@link #RECORD_OUTPUT} record, with longer output being dropped. */
+    static final int MAX_OUTPUT_LENGTH = 16 * 1024 * 1024;
+    /** The max number of columns or rows, and cell width or height in pixels, of a {@link #RECORD_RESIZE} record. */
+    static final int MAX_SIZE = 4096;
+
+    /** The default size of the queue, which holds a few seconds of heavy output on a slow disk. */
+    public static final int DEFAULT_QUEUE_SIZE = 1024 * 1024;
+
+    private final ByteQueue mQueue;
+    private final Thread mWriterThread;
+    private final OutputStream mOut;
+
+    /** The type and varints of the record being added, see {@link #beginRecord(int, long)}. */
+    private final byte[] mRecordHeader = new byte[1 + 5 * 10];
+    private int mRecordHeaderLength;
+    /** The time of the last record added, in microseconds. */
+    private long mLastRecordMicros;
+    /** The total number of bytes added to the queue. */
+    private long mQueuedBytes;
+    /** The number of bytes dropped since the last {@link #RECORD_DROPPED} record was added. */
+    private long mUnrecordedDroppedBytes;
+    private long mDroppedBytes;
+    private boolean mClosed;
+
+    /** The number of bytes the writer thread stops after, which is set once the {@link #RECORD_END} has been added. */
+    private volatile long mFinalQueuedBytes = Long.MAX_VALUE;
+    private volatile IOException mWriteError;
+
+    /**
+     * Create a file and start recording to it.
+     *
+     * @param queueSize the max number of bytes waiting to be written to the file, see {@link #DEFAULT_QUEUE_SIZE}.
+     */
+    public PtyRecorder(File file, int columns, int rows, int cellWidthPixels, int cellHeightPixels, int queueSize) throws IOException {
+        mQueue = new ByteQueue(queueSize);
+        mOut = new BufferedOutputStream(new FileOutputStream(file), 64 * 1024);
+        DataOutputStream header = new DataOutputStream(mOut);
+        header.writeInt(MAGIC);
+        header.writeByte(VERSION);
+        mLastRecordMicros = System.nanoTime() / 1000;
+        recordResize(columns, rows, cellWidthPixels, cellHeightPixels);
+
+        mWriterThread = new Thread("PtyRecorder[" + file.getName() + "]") {
+            @Override
+            public void run() {
+                writeQueue();
+            }
+        };
+        mWriterThread.start();
+    }
+
+    /** Record output read from the pty, without blocking. */
+    public synchronized void record(byte[] data, int offset, int count) {
+        if (mClosed || count <= 0) return;
+        final long micros = System.nanoTime() / 1000;
+        if (mUnrecordedDroppedBytes > 0) {
+            beginRecord(RECORD_DROPPED, micros);
+            putVarint(mUnrecordedDroppedBytes);
+            if (!offerRecord(micros, data, offset, 0)) {
+                drop(count);
+                return;
+            }
+            mUnrecordedDroppedBytes = 0;
+        }
+        beginRecord(RECORD_OUTPUT, micros);
+        putVarint(count);
+        if (count > MAX_OUTPUT_LENGTH || !offerRecord(micros, data, offset, count)) drop(count);
+    }
+
+    /** Record a change of the terminal size, without blocking. */
+    public synchronized void recordResize(int columns, int rows, int cellWidthPixels, int cellHeightPixels) {
+        if (mClosed) return;
+        final long micros = System.nanoTime() / 1000;
+        beginRecord(RECORD_RESIZE, micros);
+        putVarint(columns);
+        putVarint(rows);
+        putVarint(cellWidthPixels);
+        putVarint(cellHeightPixels);
+        // The queue is empty when recording the initial size from the constructor:
+        offerRecord(micros, null, 0, 0);
+    }
+
+    /** The number of bytes of output which have been dropped since the queue was full. */
+    public synchronized long getDroppedBytes() {
+        return mDroppedBytes;
+    }
+
+    /**
+     * Stop recording, and wait for the queued records to be written and the file to be closed.
+     *
+     * @throws IOException if writing the file failed, in which case the recording is incomplete.
+     */
+    public void close() throws IOException {
+        synchronized (this) {
+            if (mClosed) return;
+            mClosed = true;
+            beginRecord(RECORD_END, System.nanoTime() / 1000);
+            mFinalQueuedBytes = mQueuedBytes + mRecordHeaderLength;
+            // Blocks if the queue is full, unless the writer thread has failed and closed it:
+            mQueue.write(mRecordHeader, 0, mRecordHeaderLength);
+        }
+        boolean interrupted = false;
+        while (true) {
+            try {
+                mWriterThread.join();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+        if (mWriteError != null) throw mWriteError;
+    }
+
+    private void beginRecord(int type, long micros) {
+        mRecordHeaderLength = 0;
+        mRecordHeader[mRecordHeaderLength++] = (byte) type;
+        putVarint(Math.max(0, micros - mLastRecordMicros));
+    }
+
+    private void putVarint(long value) {
+        while ((value & ~0x7FL) != 0) {
+            mRecordHeader[mRecordHeaderLength++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        mRecordHeader[mRecordHeaderLength++] = (byte) value;
+    }
+
+    /** Add the record begun with {@link #beginRecord(int, long)} and its data if it fits in the queue. */
+    private boolean offerRecord(long micros, byte[] data, int offset, int count) {
+        if (mQueue.getCapacity() - mQueue.available() < mRecordHeaderLength + count) return false;
+        // Does not block, since only this thread makes the queue fuller:
+        if (!mQueue.write(mRecordHeader, 0, mRecordHeaderLength)) return false;
+        if (count > 0) mQueue.write(data, offset, count);
+        mQueuedBytes += mRecordHeaderLength + count;
+        mLastRecordMicros = micros;
+        return true;
+    }
+
+    private void drop(int count) {
+        mUnrecordedDroppedBytes += count;
+        mDroppedBytes += count;
+    }
+
+    /** Write the queue to the file until the {@link #RECORD_END} record, run on {@link #mWriterThread}. */
+    private void writeQueue() {
+        final byte[] buffer = new byte[64 * 1024];
+        long writtenBytes = 0;
+        try {
+            while (writtenBytes < mFinalQueuedBytes) {
+                final int read = mQueue.read(buffer, true);
+                if (read == -1) break;
+                mOut.write(buffer, 0, read);
+                writtenBytes += read;
+            }
+            mOut.close();
+        } catch (IOException e) {
+            mWriteError = e;
+            // Make further records be dropped, and close() not block on a full queue:
+            mQueue.close();
+            try {
+                mOut.close();
+            } catch (IOException ignored) {
+                // Already failed.
+            }
+        }
+    }
+
+}
@@ -0,0 +1,188 @@
+package com.termux.terminal;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Replays a recording made by {@link PtyRecorder} into a {@link TerminalEmulator}, either with the timing of the
+ * original session or as fast as possible, like to measure the throughput of the emulator on real sessions.
+ * <p>
+ * Can also be run from the command line of a plain JVM with the terminal-emulator-core classes:
+ * {@code PtyReplay [--original-speed] [--repeat N] recording}, which prints the time each replay took.
+ */
+public final class PtyReplay {
+
+    private final DataInputStream mIn;
+    private byte[] mBuffer = new byte[4096];
+
+    private long mOutputBytes;
+    private long mDroppedBytes;
+    private boolean mComplete;
+
+    /** Read a recording from a stream, which is not closed. */
+    public PtyReplay(InputStream in) throws IOException {
+        mIn = new DataInputStream(in instanceof BufferedInputStream ? in : new BufferedInputStream(in, 64 * 1024));
+        try {
+            if (mIn.readInt() != PtyRecorder.MAGIC) throw new IOException("Not a pty recording");
+            final int version = mIn.readUnsignedByte();
+            if (version != PtyRecorder.VERSION) throw new IOException("Unsupported pty recording version: " + version);
+        } catch (EOFException e) {
+            throw new IOException("Not a pty recording");
+        }
+    }
+
+    /**
+     * Feed the recording into an emulator, which is resized to the size recorded. The emulator is not locked, so it
+     * must not be used by other threads while replaying.
+     *
+     * @param originalSpeed if output should be fed with the timing it was recorded with, instead of as fast as possible.
+     * @throws IOException if the recording is invalid, but not if it was cut short, see {@link #isComplete()}.
+     */
+    public void replay(TerminalEmulator emulator, boolean originalSpeed) throws IOException, InterruptedException {
+        final long startNanos = System.nanoTime();
+        long recordedMicros = 0;
+        while (true) {
+            final int type = mIn.read();
+            if (type == -1) return;
+            try {
+                if (!replayRecord(emulator, type, originalSpeed, startNanos, recordedMicros += readVarint())) return;
+            } catch (EOFException e) {
+                // Cut short within the record.
+                return;
+            }
+        }
+    }
+
+    /** Replay a record after its type and time, returning false if it was the end of the recording. */
+    private boolean replayRecord(TerminalEmulator emulator, int type, boolean originalSpeed, long startNanos, long recordedMicros)
+        throws IOException, InterruptedException {
+        if (originalSpeed) {
+            final long delayNanos = startNanos + recordedMicros * 1000 - System.nanoTime();
+            if (delayNanos > 0) Thread.sleep(delayNanos / 1000000, (int) (delayNanos % 1000000));
+        }
+        switch (type) {
+            case PtyRecorder.RECORD_OUTPUT:
+                final int length = readVarint(1, PtyRecorder.MAX_OUTPUT_LENGTH, "output length");
+                if (length > mBuffer.length) mBuffer = new byte[Math.max(length, mBuffer.length * 2)];
+                mIn.readFully(mBuffer, 0, length);
+                emulator.append(mBuffer, length);
+                mOutputBytes += length;
+                break;
+            case PtyRecorder.RECORD_RESIZE:
+                final int columns = readVarint(1, PtyRecorder.MAX_SIZE, "columns");
+                final int rows = readVarint(1, PtyRecorder.MAX_SIZE, "rows");
+                final int cellWidthPixels = readVarint(0, PtyRecorder.MAX_SIZE, "cell width");
+                final int cellHeightPixels = readVarint(0, PtyRecorder.MAX_SIZE, "cell height");
+                emulator.resize(columns, rows, cellWidthPixels, cellHeightPixels);
+                break;
+            case PtyRecorder.RECORD_DROPPED:
+                mDroppedBytes += readVarint();
+                break;
+            case PtyRecorder.RECORD_END:
+                mComplete = true;
+                return false;
+            default:
+                throw new IOException("Invalid pty recording record type: " + type);
+        }
+        return true;
+    }
+
+    /** The number of bytes of output replayed. */
+    public long getOutputBytes() {
+        return mOutputBytes;
+    }
+
+    /** The number of bytes of output which were dropped while recording, and so are missing from the replay. */
+    public long getDroppedBytes() {
+        return mDroppedBytes;
+    }
+
+    /** If the end of the recording was replayed, which is false if recording was cut short. */
+    public boolean isComplete() {
+        return mComplete;
+    }
+
+    private long readVarint() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final int b = mIn.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("Invalid pty recording varint");
+    }
+
+    /** Read a varint which must be between a min and max value, inclusive, since it is used to allocate buffers. */
+    private int readVarint(int min, int max, String name) throws IOException {
+        final long value = readVarint();
+        if (value < min || value > max) throw new IOException("Invalid pty recording " + name + ": " + value);
+        return (int) value;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        boolean originalSpeed = false;
+        int repeat = 1;
+        String path = null;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--original-speed")) {
+                originalSpeed = true;
+            } else if (args[i].equals("--repeat") && i + 1 < args.length) {
+                repeat = Integer.parseInt(args[++i]);
+            } else {
+                path = args[i];
+            }
+        }
+        if (path == null) {
+            System.err.println("Usage: PtyReplay [--original-speed] [--repeat N] recording");
+            System.exit(1);
+        }
+
+        for (int i = 0; i < repeat; i++) {
+            final TerminalEmulator emulator = new TerminalEmulator(new DiscardingTerminalOutput(), 80, 24, 10, 20, null, null);
+            final PtyReplay replay;
+            final long startNanos = System.nanoTime();
+            try (InputStream in = new FileInputStream(path)) {
+                replay = new PtyReplay(in);
+                replay.replay(emulator, originalSpeed);
+            }
+            final long elapsedNanos = System.nanoTime() - startNanos;
+            System.out.printf("Replayed %d bytes in %.1f ms (%.1f MB/s)%s%s%n", replay.getOutputBytes(), elapsedNanos / 1e6,
+                replay.getOutputBytes() * 1e3 / elapsedNanos, replay.isComplete() ? "" : ", recording cut short",
+                replay.getDroppedBytes() == 0 ? "" : ", " + replay.getDroppedBytes() + " bytes dropped while recording");
+        }
+    }
+
+    /** Discards responses and callbacks of the emulator when replaying from the command line. */
+    private static final class DiscardingTerminalOutput extends TerminalOutput {
+
+        @Override
+        public void write(byte[] data, int offset, int count) {
+        }
+
+        @Override
+        public void titleChanged(String oldTitle, String newTitle) {
+        }
+
+        @Override
+        public void onCopyTextToClipboard(String text) {
+        }
+
+        @Override
+        public void onPasteTextFromClipboard() {
+        }
+
+        @Override
+        public void onBell() {
+        }
+
+        @Override
+        public void onColorsChanged() {
+        }
+
+    }
+
+}
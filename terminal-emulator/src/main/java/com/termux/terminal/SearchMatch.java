@@ -0,0 +1,46 @@
+package com.termux.terminal;
+
+/**
+ * An occurrence of searched text found by {@link TerminalBuffer#find(String, boolean, int)}, which may span several rows
+ * if it is in a wrapped line.
+ * <p>
+ * Rows are external rows as of the search, see {@link TerminalBuffer#getLine(int)}, so they move up by one each time the
+ * screen scrolls afterwards.
+ */
+public final class SearchMatch {
+
+    /** The row and column of the first cell of the match. */
+    public final int mStartRow, mStartColumn;
+    /** The row of the last cell of the match, and the column after it. */
+    public final int mEndRow, mEndColumn;
+
+    public SearchMatch(int startRow, int startColumn, int endRow, int endColumn) {
+        mStartRow = startRow;
+        mStartColumn = startColumn;
+        mEndRow = endRow;
+        mEndColumn = endColumn;
+    }
+
+    /** Get this match moved up by a number of rows, such as the rows scrolled since the search. */
+    public SearchMatch shiftedUp(int rows) {
+        return (rows == 0) ? this : new SearchMatch(mStartRow - rows, mStartColumn, mEndRow - rows, mEndColumn);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof SearchMatch)) return false;
+        SearchMatch other = (SearchMatch) o;
+        return mStartRow == other.mStartRow && mStartColumn == other.mStartColumn && mEndRow == other.mEndRow && mEndColumn == other.mEndColumn;
+    }
+
+    @Override
+    public int hashCode() {
+        return ((mStartRow * 31 + mStartColumn) * 31 + mEndRow) * 31 + mEndColumn;
+    }
+
+    @Override
+    public String toString() {
+        return "SearchMatch[" + mStartRow + "," + mStartColumn + " - " + mEndRow + "," + mEndColumn + "]";
+    }
+
+}
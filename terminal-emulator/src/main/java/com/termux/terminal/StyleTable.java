@@ -0,0 +1,133 @@
+package com.termux.terminal;
+
+import java.util.Arrays;
+
+/**
+ * A table interning the {@link TextStyle} encoded styles used in a {@link TerminalBuffer}, so that a {@link TerminalRow}
+ * can store a 16-bit style id per cell instead of a 64-bit style. A screen typically only uses a few dozen styles.
+ * <p>
+ * Ids are never freed one by one. Instead the owning buffer calls {@link #compact(boolean[])} with the ids still in use
+ * by its rows when the table has run out of ids.
+ */
+final class StyleTable {
+
+    /** The max number of styles, so that an id fits in a char. */
+    static final int MAX_STYLES = 1 << 16;
+    /** Returned by {@link #intern(long)} when the table has no more free ids. */
+    static final int NO_ID = -1;
+
+    /** The style of each id. */
+    private long[] mStyles = new long[16];
+    /** The number of ids in use. */
+    private int mSize;
+    /** Open addressing hash table with linear probing, containing id + 1 of styles, where 0 is an empty slot. */
+    private int[] mSlots = new int[32];
+
+    /** Cache of the last interned style, since consecutive cells are mostly written with the same style. */
+    private long mLastStyle;
+    private int mLastId = NO_ID;
+
+    /** The number of times {@link #compact(boolean[])} has renumbered the ids, see {@link #copyFrom(StyleTable)}. */
+    private int mCompactions;
+
+    /** Get the id for a style, adding it to the table if necessary, or {@link #NO_ID} if the table is full. */
+    int intern(long style) {
+        if (mLastId != NO_ID && style == mLastStyle) return mLastId;
+
+        final int mask = mSlots.length - 1;
+        int slot = hash(style) & mask;
+        int entry;
+        while ((entry = mSlots[slot]) != 0) {
+            if (mStyles[entry - 1] == style) {
+                mLastStyle = style;
+                return mLastId = entry - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        if (mSize == MAX_STYLES) return NO_ID;
+        if (mSize == mStyles.length) mStyles = Arrays.copyOf(mStyles, mSize * 2);
+        final int id = mSize++;
+        mStyles[id] = style;
+        mSlots[slot] = id + 1;
+        // Keep the load factor below 0.75:
+        if (mSize * 4 > mSlots.length * 3) rehash(mSlots.length * 2);
+
+        mLastStyle = style;
+        return mLastId = id;
+    }
+
+    /** Get the style for an id returned by {@link #intern(long)}. */
+    long getStyle(int id) {
+        return mStyles[id];
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    boolean isFull() {
+        return mSize == MAX_STYLES;
+    }
+
+    /**
+     * Remove all styles not in use, renumbering the remaining ones.
+     *
+     * @param usedIds which ids that are still in use, indexed by id.
+     * @return the new id for each old id, or {@link #NO_ID} for removed ones.
+     */
+    int[] compact(boolean[] usedIds) {
+        final int[] newIds = new int[mSize];
+        final long[] oldStyles = mStyles;
+        final int oldSize = mSize;
+
+        mStyles = new long[Math.max(16, oldStyles.length)];
+        mSize = 0;
+        for (int id = 0; id < oldSize; id++) {
+            if (usedIds[id]) {
+                newIds[id] = mSize;
+                mStyles[mSize++] = oldStyles[id];
+            } else {
+                newIds[id] = NO_ID;
+            }
+        }
+        rehash(mSlots.length);
+        mLastId = NO_ID;
+        mCompactions++;
+        return newIds;
+    }
+
+    /**
+     * Make the ids of this table refer to the same styles as in another table, for reading rows copied from rows using
+     * the other table with {@link #getStyle(int)}. Only styles added since the last copy are copied if the other table
+     * has not been compacted since. Styles must not be interned into this table afterwards.
+     *
+     * @return true if the ids of this table refer to the same styles as before, false if the other table was compacted.
+     */
+    boolean copyFrom(StyleTable other) {
+        final boolean idsKept = other.mCompactions == mCompactions && other.mSize >= mSize;
+        final int start = idsKept ? mSize : 0;
+        if (mStyles.length < other.mSize) mStyles = Arrays.copyOf(mStyles, other.mStyles.length);
+        System.arraycopy(other.mStyles, start, mStyles, start, other.mSize - start);
+        mSize = other.mSize;
+        mCompactions = other.mCompactions;
+        mLastId = NO_ID;
+        return idsKept;
+    }
+
+    private void rehash(int slotCount) {
+        mSlots = new int[slotCount];
+        final int mask = slotCount - 1;
+        for (int id = 0; id < mSize; id++) {
+            int slot = hash(mStyles[id]) & mask;
+            while (mSlots[slot] != 0) slot = (slot + 1) & mask;
+            mSlots[slot] = id + 1;
+        }
+    }
+
+    private static int hash(long style) {
+        int h = (int) (style ^ (style >>> 32)) * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+}
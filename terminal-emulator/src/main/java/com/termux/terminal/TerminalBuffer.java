@@ -1,6 +1,13 @@
 package com.termux.terminal;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * A circular buffer of {@link TerminalRow}:s which keeps notes about what is visible on a logical screen and the scroll
@@ -15,10 +22,84 @@ public final class TerminalBuffer {
     int mTotalRows;
     /** The number of rows and columns visible on the screen. */
     int mScreenRows, mColumns;
-    /** The number of rows kept in history. */
+    /** The number of rows kept in history in {@link #mLines}, see {@link #getActiveTranscriptRows()}. */
     private int mActiveTranscriptRows = 0;
     /** The index in the circular buffer where the visible screen starts. */
     private int mScreenFirstRow = 0;
+    /** The styles used by the rows in this buffer. */
+    final StyleTable mStyleTable = new StyleTable();
+    /** The targets of the hyperlinks which cells of rows in this buffer are part of, see {@link TerminalRow#getLinkId(int)}. */
+    final HyperlinkTable mHyperlinks = new HyperlinkTable();
+    /** The images which cells of rows in this buffer show, which may be shared with other buffers, see {@link TerminalRow#getImageCell(int)}. */
+    final ImageTable mImages;
+    /** The number of lines scrolled while {@link #mStyleTable} has been full, see {@link #compactStyles()}. */
+    private int mLinesScrolledWithFullStyleTable = 0;
+
+    /** The default for {@link #setColdRowThreshold(int)}. */
+    public static final int DEFAULT_COLD_ROW_THRESHOLD = 1000;
+    /** The max number of decompressed blocks of cold rows to keep around. */
+    private static final int MAX_DECOMPRESSED_BLOCKS = 4;
+    /** Transcript rows older than this are compressed into a {@link CompressedRowBlock}, or never if negative. */
+    private int mColdRowThreshold = DEFAULT_COLD_ROW_THRESHOLD;
+    /**
+     * The blocks of compressed rows, indexed by internal row / {@link CompressedRowBlock#ROWS}. A row stored in a block
+     * has a null entry in {@link #mLines}.
+     */
+    private CompressedRowBlock[] mColdBlocks;
+    /** Recently decompressed blocks, in least recently used order. */
+    private final LinkedHashMap<CompressedRowBlock, TerminalRow[]> mDecompressedBlocks =
+        new LinkedHashMap<CompressedRowBlock, TerminalRow[]>(MAX_DECOMPRESSED_BLOCKS, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<CompressedRowBlock, TerminalRow[]> eldest) {
+                return size() > MAX_DECOMPRESSED_BLOCKS;
+            }
+        };
+    /**
+     * Style table for decompressed and spilled rows, which are not in {@link #mLines} and so not seen by
+     * {@link #compactStyles()}.
+     */
+    private StyleTable mDecompressedStyleTable = new StyleTable();
+    /** Where rows evicted from the full transcript are stored, or null if they are discarded. */
+    private TranscriptSpillFile mSpillFile;
+
+    /**
+     * The minimum number of rows above the screen which {@link #resize} reflows right away when the number of columns
+     * changes. Older rows are kept in {@link #mPendingReflowRows} until {@link #reflowPendingRows(int)} is called.
+     */
+    private static final int MIN_IMMEDIATE_REFLOW_ROWS = 500;
+    /**
+     * Transcript rows older than the ones in {@link #mLines} which have not been reflowed to the current number of
+     * columns yet, oldest first. The last one is always the end of a line.
+     */
+    private TerminalRow[] mPendingReflowRows = new TerminalRow[0];
+    /**
+     * The compressed blocks of rows which are null in {@link #mPendingReflowRows}, see
+     * {@link CompressedRowBlock#mPendingReflowIndex}, so that a resize does not have to decompress the whole transcript.
+     */
+    private CompressedRowBlock[] mPendingReflowBlocks = new CompressedRowBlock[0];
+    private int mPendingReflowRowCount;
+    /** The style to use for new rows when reflowing {@link #mPendingReflowRows}. */
+    private long mPendingReflowStyle;
+
+    /**
+     * The rows changed since the last {@link #takeDamage(BitSet)}, by internal row so that they follow the rows as the
+     * screen scrolls. Only bits of rows currently on screen are meaningful.
+     */
+    private final BitSet mDamagedRows = new BitSet();
+    /** The number of times the screen has scrolled since the last {@link #takeDamage(BitSet)}. */
+    private int mScrolledRows;
+    /** If all rows have changed since the last {@link #takeDamage(BitSet)}, due to a resize or cleared transcript. */
+    private boolean mAllRowsDamaged;
+
+    /**
+     * The number of rows which have scrolled into the transcript, so that the external row r is the absolute row
+     * mTranscriptRowsAdded + r, which does not change as the screen scrolls. Used by {@link TranscriptSearchIndex}.
+     */
+    long mTranscriptRowsAdded;
+    /** Incremented when the rows of the transcript are changed other than by scrolling, which invalidates absolute rows. */
+    int mTranscriptGeneration;
+    /** Created on the first {@link #find(String, boolean, int)}. */
+    private TranscriptSearchIndex mSearchIndex;
 
     /**
      * Create a transcript screen.
@@ -29,10 +110,17 @@ public final class TerminalBuffer {
      *                   the top of the screen.
      */
     public TerminalBuffer(int columns, int totalRows, int screenRows) {
+        this(columns, totalRows, screenRows, new ImageTable());
+    }
+
+    /** Create a transcript screen showing images of a table, which may be shared with other buffers. */
+    TerminalBuffer(int columns, int totalRows, int screenRows, ImageTable images) {
+        mImages = images;
         mColumns = columns;
         mTotalRows = totalRows;
         mScreenRows = screenRows;
         mLines = new TerminalRow[totalRows];
+        mColdBlocks = new CompressedRowBlock[coldBlockCount(totalRows)];
 
         blockSet(0, 0, columns, screenRows, ' ', TextStyle.NORMAL);
     }
@@ -61,6 +149,12 @@ public final class TerminalBuffer {
         final StringBuilder builder = new StringBuilder();
         final int columns = mColumns;
 
+        if (selY1 < -mActiveTranscriptRows && mPendingReflowRowCount > 0) {
+            // Reflow rows before reading them, which changes how many rows there are:
+            boolean fromStart = selY1 <= -getActiveTranscriptRows();
+            reflowPendingRows(Integer.MAX_VALUE);
+            if (fromStart) selY1 = -getActiveTranscriptRows();
+        }
         if (selY1 < -getActiveTranscriptRows()) selY1 = -getActiveTranscriptRows();
         if (selY2 >= mScreenRows) selY2 = mScreenRows - 1;
 
@@ -73,14 +167,13 @@ public final class TerminalBuffer {
             } else {
                 x2 = columns;
             }
-            TerminalRow lineObject = mLines[externalToInternalRow(row)];
+            TerminalRow lineObject = getLine(row);
             int x1Index = lineObject.findStartOfColumn(x1);
             int x2Index = (x2 < mColumns) ? lineObject.findStartOfColumn(x2) : lineObject.getSpaceUsed();
             if (x2Index == x1Index) {
                 // Selected the start of a wide character.
                 x2Index = lineObject.findStartOfColumn(x2 + 1);
             }
-            char[] line = lineObject.mText;
             int lastPrintingCharIndex = -1;
             int i;
             boolean rowLineWrap = getLineWrap(row);
@@ -89,14 +182,16 @@ public final class TerminalBuffer {
                 lastPrintingCharIndex = x2Index - 1;
             } else {
                 for (i = x1Index; i < x2Index; ++i) {
-                    char c = line[i];
+                    char c = lineObject.getChar(i);
                     if (c != ' ') lastPrintingCharIndex = i;
                 }
             }
 
             int len = lastPrintingCharIndex - x1Index + 1;
-            if (lastPrintingCharIndex != -1 && len > 0)
-                builder.append(line, x1Index, len);
+            if (lastPrintingCharIndex != -1 && len > 0) {
+                for (i = x1Index; i <= lastPrintingCharIndex; i++)
+                    builder.append(lineObject.getChar(i));
+            }
 
             boolean lineFillsWidth = lastPrintingCharIndex == x2Index - 1;
             if ((!joinBackLines || !rowLineWrap) && (!joinFullLines || !lineFillsWidth)
@@ -105,51 +200,114 @@ public final class TerminalBuffer {
         return builder.toString();
     }
 
+    /**
+     * Get the word at a cell, that is the chars other than spaces around it in its logical line, see
+     * {@link #getLogicalLine(int, boolean, LogicalLine)}, where full rows are joined with the next one.
+     *
+     * @return the word, or an empty string if the cell is empty or a space.
+     */
     public String getWordAtLocation(int x, int y) {
-        // Set y1 and y2 to the lines where the wrapped line starts and ends.
-        // I.e. if a line that is wrapped to 3 lines starts at line 4, and this
-        // is called with y=5, then y1 would be set to 4 and y2 would be set to 6.
-        int y1 = y;
-        int y2 = y;
-        while (y1 > 0 && !getSelectedText(0, y1 - 1, mColumns, y, true, true).contains("\n")) {
-            y1--;
-        }
-        while (y2 < mScreenRows && !getSelectedText(0, y, mColumns, y2 + 1, true, true).contains("\n")) {
-            y2++;
-        }
+        final LogicalLine line = getLogicalLine(y, true, null);
+        final int index = line.indexOfCell(y, x);
+        if (index == -1 || line.charAt(index) == ' ') return "";
+        return line.substring(line.getWordStart(index), line.getWordEnd(index));
+    }
 
-        // Get the text for the whole wrapped line
-        String text = getSelectedText(0, y1, mColumns, y2, true, true);
-        // The index of x in text
-        int textOffset = (y - y1) * mColumns + x;
+    /**
+     * If a row continues on the next row, which is the case if it was wrapped or, if joining full lines, its last
+     * column is used, as when a program breaks long lines at the width of the terminal itself.
+     */
+    private static boolean continuesOnNextRow(TerminalRow line, boolean joinFullLines) {
+        if (line.mLineWrap) return true;
+        final int spaceUsed = line.getSpaceUsed();
+        return joinFullLines && spaceUsed > 0 && line.getChar(spaceUsed - 1) != ' ';
+    }
 
-        if (textOffset >= text.length()) {
-          // The click was to the right of the last word on the line, so
-          // there's no word to return
-          return "";
-        }
+    /**
+     * Get the first row of the logical line containing a row, which is found by only reading the rows before it in the
+     * same line.
+     *
+     * @param joinFullLines if rows which were not wrapped but have their last column used should be joined with the next
+     *                      row, see {@link #continuesOnNextRow(TerminalRow, boolean)}.
+     */
+    public int getLogicalLineStart(int row, boolean joinFullLines) {
+        final int firstRow = -getActiveTranscriptRows();
+        while (row > firstRow && continuesOnNextRow(getLine(row - 1), joinFullLines)) row--;
+        return row;
+    }
 
-        // Set x1 and x2 to the indices of the last space before x and the
-        // first space after x in text respectively
-        int x1 = text.lastIndexOf(' ', textOffset);
-        int x2 = text.indexOf(' ', textOffset);
-        if (x2 == -1) {
-            x2 = text.length();
-        }
+    /** Get the last row of the logical line containing a row, see {@link #getLogicalLineStart(int, boolean)}. */
+    public int getLogicalLineEnd(int row, boolean joinFullLines) {
+        while (row < mScreenRows - 1 && continuesOnNextRow(getLine(row), joinFullLines)) row++;
+        return row;
+    }
 
-        if (x1 == x2) {
-          // The click was on a space, so there's no word to return
-          return "";
-        }
-        return text.substring(x1 + 1, x2);
+    /**
+     * Get the text of the logical line containing a row, that is the row joined with the rows before and after it which
+     * it is continued from or on, reading only those rows.
+     *
+     * @param joinFullLines if rows which were not wrapped but have their last column used should be joined with the next
+     *                      row, see {@link #continuesOnNextRow(TerminalRow, boolean)}.
+     * @param line          a line to reuse, or null to create a new one.
+     */
+    public LogicalLine getLogicalLine(int row, boolean joinFullLines, LogicalLine line) {
+        if (line == null) line = new LogicalLine();
+        final int startRow = getLogicalLineStart(row, joinFullLines);
+        final int endRow = getLogicalLineEnd(row, joinFullLines);
+        line.clear(startRow);
+        for (int r = startRow; r <= endRow; r++)
+            line.appendRow(getLine(r));
+        return line;
     }
 
+    /** The number of rows in the transcript, including rows in the {@link TranscriptSpillFile} and rows not yet reflowed. */
     public int getActiveTranscriptRows() {
-        return mActiveTranscriptRows;
+        return mActiveTranscriptRows + mPendingReflowRowCount + getSpilledRows();
     }
 
     public int getActiveRows() {
-        return mActiveTranscriptRows + mScreenRows;
+        return getActiveTranscriptRows() + mScreenRows;
+    }
+
+    private int getSpilledRows() {
+        return (mSpillFile == null) ? 0 : mSpillFile.getRowCount();
+    }
+
+    /**
+     * Get a row to read from in the external coordinate system, where rows before the ones in the ring buffer are
+     * rows not yet reflowed after a resize, shown truncated or padded to the current width, or rows read from the
+     * {@link TranscriptSpillFile}. Rows outside of the ring buffer should not be modified.
+     */
+    public TerminalRow getLine(int externalRow) {
+        if (externalRow < -mActiveTranscriptRows) {
+            int pendingIndex = mPendingReflowRowCount + mActiveTranscriptRows + externalRow;
+            if (pendingIndex >= 0) {
+                TerminalRow row = getPendingReflowRow(pendingIndex);
+                if (row == null) return new TerminalRow(mColumns, 0, getDecompressedStyleTable());
+                return (row.mColumns == mColumns) ? row : row.copyWithColumns(mColumns, getDecompressedStyleTable());
+            }
+            if (mSpillFile != null) {
+                int spillIndex = mSpillFile.getRowCount() + pendingIndex;
+                if (spillIndex >= 0) return mSpillFile.read(spillIndex, mColumns, getDecompressedStyleTable());
+            }
+        }
+        return allocateFullLineIfNecessary(externalToInternalRow(externalRow));
+    }
+
+    /** Get {@link #mDecompressedStyleTable}, replaced instead of compacted when full as the rows using it are short-lived. */
+    private StyleTable getDecompressedStyleTable() {
+        if (mDecompressedStyleTable.isFull()) mDecompressedStyleTable = new StyleTable();
+        return mDecompressedStyleTable;
+    }
+
+    /**
+     * Set where rows are stored when evicted from the ring buffer since the transcript is full, making the transcript
+     * unlimited. Any rows already in the file are discarded.
+     */
+    public void setTranscriptSpillFile(TranscriptSpillFile spillFile) {
+        mSpillFile = spillFile;
+        mTranscriptGeneration++;
+        if (spillFile != null) spillFile.clear();
     }
 
     /**
@@ -185,7 +343,7 @@ public final class TerminalBuffer {
     }
 
     public boolean getLineWrap(int row) {
-        return mLines[externalToInternalRow(row)].mLineWrap;
+        return getLine(row).mLineWrap;
     }
 
     public void clearLineWrap(int row) {
@@ -195,14 +353,28 @@ public final class TerminalBuffer {
     /**
      * Resize the screen which this transcript backs. Currently, this only works if the number of columns does not
      * change or the rows expand (that is, it only works when shrinking the number of rows).
+     * <p>
+     * When the number of columns changes, only the rows close to the screen are reflowed right away. Older rows are
+     * reflowed by {@link #reflowPendingRows(int)}.
      *
      * @param newColumns The number of columns the screen should have.
      * @param newRows    The number of rows the screen should have.
      * @param cursor     An int[2] containing the (column, row) cursor location.
      */
     public void resize(int newColumns, int newRows, int newTotalRows, int[] cursor, long currentStyle, boolean altScreen) {
+        mAllRowsDamaged = true;
+        mTranscriptGeneration++;
+        // Rows showing images or with links may be dropped:
+        mImages.mSweepNeeded = true;
+        mHyperlinks.mSweepNeeded = true;
         // newRows > mTotalRows should not normally happen since mTotalRows is TRANSCRIPT_ROWS (10000):
         if (newColumns == mColumns && newRows <= mTotalRows) {
+            // The internal rows stay where they are unless the ring buffer changes size, which only the alternate buffer
+            // without a transcript does, so compressed blocks can be kept:
+            if (newTotalRows != mTotalRows) {
+                decompressColdRows();
+                mColdBlocks = new CompressedRowBlock[coldBlockCount(newTotalRows)];
+            }
             // Fast resize where just the rows changed.
             int shiftDownOfTopRow = mScreenRows - newRows;
             if (shiftDownOfTopRow > 0 && shiftDownOfTopRow < mScreenRows) {
@@ -216,6 +388,9 @@ public final class TerminalBuffer {
                 }
             } else if (shiftDownOfTopRow < 0) {
                 // Negative shift down = expanding. Only move screen up if there is transcript to show:
+                while (shiftDownOfTopRow < -mActiveTranscriptRows && reflowPendingRows(-shiftDownOfTopRow)) {
+                    // Reflow more rows to show.
+                }
                 int actualShift = Math.max(shiftDownOfTopRow, -mActiveTranscriptRows);
                 if (shiftDownOfTopRow != actualShift) {
                     // The new lines revealed by the resizing are not all from the transcript. Blank the below ones.
@@ -230,12 +405,31 @@ public final class TerminalBuffer {
             mActiveTranscriptRows = altScreen ? 0 : Math.max(0, mActiveTranscriptRows + shiftDownOfTopRow);
             cursor[1] -= shiftDownOfTopRow;
             mScreenRows = newRows;
+            // The screen may have grown into rows which were compressed:
+            decompressColdRowsOutsideTranscript();
         } else {
+            // Only reflow the rows close to the screen now. Each new row takes at most ceil(newColumns / mColumns) + 1
+            // old rows, so this fills the new screen:
+            int firstOldRow = -Math.max(MIN_IMMEDIATE_REFLOW_ROWS, newRows * ((newColumns + mColumns - 1) / mColumns + 1));
+            if (firstOldRow <= -mActiveTranscriptRows) {
+                firstOldRow = -mActiveTranscriptRows;
+            } else {
+                // Start after the end of a line, so that the rows before can be reflowed separately:
+                while (firstOldRow > -mActiveTranscriptRows && !isEndOfLine(getUncompressedLine(firstOldRow - 1)))
+                    firstOldRow--;
+            }
+            // Older compressed rows are decompressed one block at a time when reflowed by reflowPendingRows():
+            for (int row = firstOldRow; row < 0; row++)
+                getUncompressedLine(row);
+
             // Copy away old state and update new:
             TerminalRow[] oldLines = mLines;
+            CompressedRowBlock[] oldColdBlocks = mColdBlocks;
+            mColdBlocks = new CompressedRowBlock[coldBlockCount(newTotalRows)];
             mLines = new TerminalRow[newTotalRows];
-            for (int i = 0; i < newTotalRows; i++)
-                mLines[i] = new TerminalRow(newColumns, currentStyle);
+            // Rows below the screen are allocated when scrolled to:
+            for (int i = 0; i < newRows; i++)
+                mLines[i] = new TerminalRow(newColumns, currentStyle, mStyleTable);
 
             final int oldActiveTranscriptRows = mActiveTranscriptRows;
             final int oldScreenFirstRow = mScreenFirstRow;
@@ -255,16 +449,15 @@ public final class TerminalBuffer {
             int currentOutputExternalRow = 0;
             int currentOutputExternalColumn = 0;
 
+            addPendingReflowRows(oldLines, oldColdBlocks, oldScreenFirstRow, oldTotalRows, -oldActiveTranscriptRows, firstOldRow);
+            mPendingReflowStyle = currentStyle;
+
             // Loop over every character in the initial state.
             // Blank lines should be skipped only if at end of transcript (just as is done in the "fast" resize), so we
             // keep track how many blank lines we have skipped if we later on find a non-blank line.
             int skippedBlankLines = 0;
-            for (int externalOldRow = -oldActiveTranscriptRows; externalOldRow < oldScreenRows; externalOldRow++) {
-                // Do what externalToInternalRow() does but for the old state:
-                int internalOldRow = oldScreenFirstRow + externalOldRow;
-                internalOldRow = (internalOldRow < 0) ? (oldTotalRows + internalOldRow) : (internalOldRow % oldTotalRows);
-
-                TerminalRow oldLine = oldLines[internalOldRow];
+            for (int externalOldRow = firstOldRow; externalOldRow < oldScreenRows; externalOldRow++) {
+                TerminalRow oldLine = oldLines[ringIndex(oldScreenFirstRow, externalOldRow, oldTotalRows)];
                 boolean cursorAtThisRow = externalOldRow == oldCursorRow;
                 // The cursor may only be on a non-null line, which we should not skip:
                 if (oldLine == null || (!(!newCursorPlaced && cursorAtThisRow)) && oldLine.isBlank()) {
@@ -292,7 +485,7 @@ public final class TerminalBuffer {
                 } else {
                     for (int i = 0; i < oldLine.getSpaceUsed(); i++)
                         // NEWLY INTRODUCED BUG! Should not index oldLine.mStyle with char indices
-                        if (oldLine.mText[i] != ' '/* || oldLine.mStyle[i] != currentStyle */)
+                        if (oldLine.getChar(i) != ' '/* || oldLine.mStyle[i] != currentStyle */)
                             lastNonSpaceIndex = i + 1;
                 }
 
@@ -300,11 +493,12 @@ public final class TerminalBuffer {
                 long styleAtCol = 0;
                 for (int i = 0; i < lastNonSpaceIndex; i++) {
                     // Note that looping over java character, not cells.
-                    char c = oldLine.mText[i];
-                    int codePoint = (Character.isHighSurrogate(c)) ? Character.toCodePoint(c, oldLine.mText[++i]) : c;
+                    char c = oldLine.getChar(i);
+                    int codePoint = (Character.isHighSurrogate(c)) ? Character.toCodePoint(c, oldLine.getChar(++i)) : c;
                     int displayWidth = WcWidth.width(codePoint);
                     // Use the last style if this is a zero-width character:
                     if (displayWidth > 0) styleAtCol = oldLine.getStyle(currentOldCol);
+                    final int linkIdAtCol = (displayWidth > 0) ? oldLine.getLinkId(currentOldCol) : 0;
 
                     // Line wrap as necessary:
                     if (currentOutputExternalColumn + displayWidth > mColumns) {
@@ -321,6 +515,7 @@ public final class TerminalBuffer {
                     int offsetDueToCombiningChar = ((displayWidth <= 0 && currentOutputExternalColumn > 0) ? 1 : 0);
                     int outputColumn = currentOutputExternalColumn - offsetDueToCombiningChar;
                     setChar(outputColumn, currentOutputExternalRow, codePoint, styleAtCol);
+                    if (linkIdAtCol != 0) setLinkId(outputColumn, currentOutputExternalRow, displayWidth, linkIdAtCol);
 
                     if (displayWidth > 0) {
                         if (oldCursorRow == externalOldRow && oldCursorColumn == currentOldCol) {
@@ -347,7 +542,11 @@ public final class TerminalBuffer {
 
             cursor[0] = newCursorColumn;
             cursor[1] = newCursorRow;
+            // Styles only used by the rows before reflowing are no longer needed:
+            if (mPendingReflowRowCount == 0) compactStyles();
         }
+        // Rows may have moved far enough into the transcript to be compressed:
+        compressColdRows();
 
         // Handle cursor scrolling off screen:
         if (cursor[0] < 0 || cursor[1] < 0) cursor[0] = cursor[1] = 0;
@@ -385,6 +584,18 @@ public final class TerminalBuffer {
         if (topMargin > bottomMargin - 1 || topMargin < 0 || bottomMargin > mScreenRows)
             throw new IllegalArgumentException("topMargin=" + topMargin + ", bottomMargin=" + bottomMargin + ", mScreenRows=" + mScreenRows);
 
+        // The row below the screen, which is the oldest transcript row if the transcript is full, will be reused:
+        if (mActiveTranscriptRows > 0 && mActiveTranscriptRows == mTotalRows - mScreenRows) {
+            // Rows not yet reflowed are older than the ones in the transcript, so they are evicted first:
+            if (mPendingReflowRowCount > 0) evictPendingReflowRows();
+            if (mSpillFile != null) mSpillFile.append(allocateFullLineIfNecessary(externalToInternalRow(-mActiveTranscriptRows)));
+            // Images only shown in the row being dropped are no longer shown anywhere:
+            final TerminalRow droppedRow = mLines[externalToInternalRow(mScreenRows)];
+            if (droppedRow != null && droppedRow.hasImages()) mImages.mSweepNeeded = true;
+            if (droppedRow != null && droppedRow.hasLinks()) mHyperlinks.mSweepNeeded = true;
+        }
+        dropColdRow(externalToInternalRow(mScreenRows));
+
         // Copy the fixed topMargin lines one line down so that they remain on screen in same position:
         blockCopyLinesDown(mScreenFirstRow, topMargin);
         // Copy the fixed mScreenRows-bottomMargin lines one line down so that they remain on screen in same
@@ -393,15 +604,32 @@ public final class TerminalBuffer {
 
         // Update the screen location in the ring buffer:
         mScreenFirstRow = (mScreenFirstRow + 1) % mTotalRows;
+        mTranscriptRowsAdded++;
         // Note that the history has grown if not already full:
         if (mActiveTranscriptRows < mTotalRows - mScreenRows) mActiveTranscriptRows++;
+        // The line scrolled into the history is no longer written to, so free up unused memory:
+        if (mActiveTranscriptRows > 0) {
+            TerminalRow transcriptRow = mLines[externalToInternalRow(-1)];
+            if (transcriptRow != null) transcriptRow.trim();
+        }
+        compressColdRowsIfNecessary();
+        // Spread out the cost of compacting styles if few are freed up, like with lots of true color output:
+        if (mStyleTable.isFull() && ++mLinesScrolledWithFullStyleTable > mTotalRows / 8) compactStyles();
+
+        // The rows between the margins have moved up one line on screen along with the screen location, while the
+        // fixed rows have stayed in place, so they have changed compared to the scrolled previous screen:
+        mScrolledRows++;
+        damageRows(0, topMargin);
+        damageRows(bottomMargin - 1, mScreenRows);
 
         // Blank the newly revealed line above the bottom margin:
         int blankRow = externalToInternalRow(bottomMargin - 1);
         if (mLines[blankRow] == null) {
-            mLines[blankRow] = new TerminalRow(mColumns, style);
+            mLines[blankRow] = new TerminalRow(mColumns, style, mStyleTable);
         } else {
             mLines[blankRow].clear(style);
+            // The reused row may have been wrapped, which the new row must not inherit:
+            mLines[blankRow].mLineWrap = false;
         }
     }
 
@@ -421,6 +649,7 @@ public final class TerminalBuffer {
         if (w == 0) return;
         if (sx < 0 || sx + w > mColumns || sy < 0 || sy + h > mScreenRows || dx < 0 || dx + w > mColumns || dy < 0 || dy + h > mScreenRows)
             throw new IllegalArgumentException();
+        damageRows(dy, dy + h);
         boolean copyingUp = sy > dy;
         for (int y = 0; y < h; y++) {
             int y2 = copyingUp ? y : (h - (y + 1));
@@ -444,24 +673,398 @@ public final class TerminalBuffer {
                 setChar(sx + x, sy + y, val, style);
     }
 
+    /**
+     * Remove styles no longer used by any row from the {@link #mStyleTable}. Rows written to while the table was full
+     * store their styles in a larger raw array instead of as ids, which this also tries to undo. Done while scrolling
+     * with a full table, and when a resize has reflowed all rows to a new number of columns.
+     */
+    void compactStyles() {
+        boolean[] usedIds = new boolean[mStyleTable.size()];
+        for (TerminalRow line : mLines)
+            if (line != null) line.markUsedStyleIds(usedIds);
+        for (int i = 0; i < mPendingReflowRowCount; i++)
+            if (mPendingReflowRows[i] != null) mPendingReflowRows[i].markUsedStyleIds(usedIds);
+        int[] newIds = mStyleTable.compact(usedIds);
+        for (TerminalRow line : mLines)
+            if (line != null) line.remapStyleIds(newIds);
+        for (int i = 0; i < mPendingReflowRowCount; i++)
+            if (mPendingReflowRows[i] != null) mPendingReflowRows[i].remapStyleIds(newIds);
+        for (TerminalRow line : mLines)
+            if (line != null) line.internRawStyles();
+        for (int i = 0; i < mPendingReflowRowCount; i++)
+            if (mPendingReflowRows[i] != null) mPendingReflowRows[i].internRawStyles();
+        mLinesScrolledWithFullStyleTable = 0;
+    }
+
+    /** Do what {@link #externalToInternalRow(int)} does, but for another state of the ring buffer. */
+    private static int ringIndex(int screenFirstRow, int externalRow, int totalRows) {
+        final int internalRow = screenFirstRow + externalRow;
+        return (internalRow < 0) ? (totalRows + internalRow) : (internalRow % totalRows);
+    }
+
+    /** If a row ends a line when reflowing, so that the rows after it can be reflowed separately. */
+    private static boolean isEndOfLine(TerminalRow row) {
+        return row != null && !row.mLineWrap && !row.isBlank();
+    }
+
+    /**
+     * Add the rows between two external rows of another state of the ring buffer to {@link #mPendingReflowRows}, where
+     * rows in compressed blocks are added to {@link #mPendingReflowBlocks} as they are.
+     */
+    private void addPendingReflowRows(TerminalRow[] lines, CompressedRowBlock[] coldBlocks, int screenFirstRow, int totalRows,
+                                      int fromExternalRow, int toExternalRow) {
+        final int newCount = mPendingReflowRowCount + toExternalRow - fromExternalRow;
+        if (newCount > mPendingReflowRows.length) {
+            final int newLength = Math.max(newCount, mPendingReflowRows.length * 2);
+            mPendingReflowRows = Arrays.copyOf(mPendingReflowRows, newLength);
+            mPendingReflowBlocks = Arrays.copyOf(mPendingReflowBlocks, newLength);
+        }
+        for (int externalRow = fromExternalRow; externalRow < toExternalRow; externalRow++) {
+            final int row = ringIndex(screenFirstRow, externalRow, totalRows);
+            final CompressedRowBlock coldBlock = coldBlocks[row / CompressedRowBlock.ROWS];
+            if (lines[row] == null && coldBlock != null && coldBlock.contains(row)) {
+                if (row == coldBlock.mFirstRow) coldBlock.mPendingReflowIndex = mPendingReflowRowCount - (row - coldBlock.mStartRow);
+                mPendingReflowBlocks[mPendingReflowRowCount] = coldBlock;
+            }
+            mPendingReflowRows[mPendingReflowRowCount++] = lines[row];
+        }
+    }
+
+    /** Get a row of {@link #mPendingReflowRows} to read from, which may be decompressed from a block, or null if blank. */
+    private TerminalRow getPendingReflowRow(int index) {
+        final TerminalRow row = mPendingReflowRows[index];
+        if (row != null) return row;
+        final CompressedRowBlock coldBlock = mPendingReflowBlocks[index];
+        return (coldBlock == null) ? null : getDecompressedRows(coldBlock)[index - coldBlock.mPendingReflowIndex];
+    }
+
+    /** Remove the rows of {@link #mPendingReflowRows} from an index to the end. */
+    private void removePendingReflowRows(int start) {
+        for (int i = start; i < mPendingReflowRowCount; i++)
+            if (mPendingReflowBlocks[i] != null) mDecompressedBlocks.remove(mPendingReflowBlocks[i]);
+        Arrays.fill(mPendingReflowRows, start, mPendingReflowRowCount, null);
+        Arrays.fill(mPendingReflowBlocks, start, mPendingReflowRowCount, null);
+        mPendingReflowRowCount = start;
+    }
+
+    /**
+     * Reflow some of the rows left by {@link #resize} after the number of columns changed, newest first, which moves
+     * them into the transcript in {@link #mLines}. Rows which do not fit in the transcript are evicted as when scrolling.
+     *
+     * @param maxRows the number of rows to reflow, which is exceeded to only reflow whole lines.
+     * @return if there are rows left to reflow.
+     */
+    public boolean reflowPendingRows(int maxRows) {
+        if (mPendingReflowRowCount == 0) return false;
+        final int end = mPendingReflowRowCount;
+        int start = Math.max(0, end - maxRows);
+        while (start > 0 && !isEndOfLine(getPendingReflowRow(start - 1))) start--;
+
+        final TerminalRow[] reflowedRows = reflowRows(start, end);
+        mTranscriptGeneration++;
+        removePendingReflowRows(start);
+
+        final int oldActiveTranscriptRows = mActiveTranscriptRows;
+        int rowsLeft = reflowedRows.length;
+        while (rowsLeft > 0 && mActiveTranscriptRows < mTotalRows - mScreenRows) {
+            mActiveTranscriptRows++;
+            mLines[externalToInternalRow(-mActiveTranscriptRows)] = reflowedRows[--rowsLeft];
+        }
+        if (rowsLeft > 0) {
+            // The transcript is full:
+            evictPendingReflowRows();
+            if (mSpillFile != null)
+                for (int i = 0; i < rowsLeft; i++) mSpillFile.append(reflowedRows[i]);
+        }
+
+        if (mColdRowThreshold >= 0) {
+            // Compress the blocks which ended up entirely older than the threshold:
+            for (int externalRow = Math.min(-mColdRowThreshold - 1, -oldActiveTranscriptRows + CompressedRowBlock.ROWS);
+                 externalRow >= -mActiveTranscriptRows; externalRow--)
+                compressColdBlockEndingAt(externalRow);
+        }
+        if (mPendingReflowRowCount > 0) return true;
+        // Styles only used by the rows before reflowing are no longer needed:
+        compactStyles();
+        return false;
+    }
+
+    /** Reflow rows of {@link #mPendingReflowRows} ending with a whole line to the current number of columns, like {@link #resize} does. */
+    private TerminalRow[] reflowRows(int start, int end) {
+        final ArrayList<TerminalRow> newRows = new ArrayList<>(end - start);
+        TerminalRow newRow = new TerminalRow(mColumns, mPendingReflowStyle, mStyleTable);
+        int column = 0;
+        int skippedBlankLines = 0;
+
+        for (int i = start; i < end; i++) {
+            final TerminalRow oldRow = getPendingReflowRow(i);
+            if (oldRow == null || oldRow.isBlank()) {
+                skippedBlankLines++;
+                continue;
+            }
+            for (; skippedBlankLines > 0; skippedBlankLines--) {
+                newRows.add(newRow);
+                newRow = new TerminalRow(mColumns, mPendingReflowStyle, mStyleTable);
+                column = 0;
+            }
+
+            int lastNonSpaceIndex = 0;
+            if (oldRow.mLineWrap) {
+                lastNonSpaceIndex = oldRow.getSpaceUsed();
+            } else {
+                for (int j = 0; j < oldRow.getSpaceUsed(); j++)
+                    if (oldRow.getChar(j) != ' ') lastNonSpaceIndex = j + 1;
+            }
+
+            int oldColumn = 0;
+            long style = 0;
+            for (int j = 0; j < lastNonSpaceIndex; j++) {
+                final char c = oldRow.getChar(j);
+                final int codePoint = (Character.isHighSurrogate(c)) ? Character.toCodePoint(c, oldRow.getChar(++j)) : c;
+                final int displayWidth = WcWidth.width(codePoint);
+                // Use the last style if this is a zero-width character:
+                if (displayWidth > 0) style = oldRow.getStyle(oldColumn);
+
+                if (column + displayWidth > mColumns) {
+                    newRow.mLineWrap = true;
+                    newRows.add(newRow);
+                    newRow = new TerminalRow(mColumns, mPendingReflowStyle, mStyleTable);
+                    column = 0;
+                }
+
+                final int offsetDueToCombiningChar = ((displayWidth <= 0 && column > 0) ? 1 : 0);
+                newRow.setChar(column - offsetDueToCombiningChar, codePoint, style);
+                final int linkId = (displayWidth > 0) ? oldRow.getLinkId(oldColumn) : 0;
+                if (linkId != 0) newRow.setLinkId(column, column + displayWidth, linkId);
+                if (displayWidth > 0) {
+                    oldColumn += displayWidth;
+                    column += displayWidth;
+                }
+            }
+
+            if (!oldRow.mLineWrap) {
+                newRows.add(newRow);
+                newRow = new TerminalRow(mColumns, mPendingReflowStyle, mStyleTable);
+                column = 0;
+            }
+        }
+        // The last old row ends a line, so the last new row is unused.
+        return newRows.toArray(new TerminalRow[0]);
+    }
+
+    /** Evict all rows in {@link #mPendingReflowRows}, which are older than the ones in the transcript when it is full. */
+    private void evictPendingReflowRows() {
+        if (mSpillFile != null) {
+            for (int i = 0; i < mPendingReflowRowCount; i++) {
+                final TerminalRow row = getPendingReflowRow(i);
+                if (row != null) mSpillFile.append(row);
+            }
+        }
+        removePendingReflowRows(0);
+    }
+
+    /**
+     * Get the row at an internal index, allocating it if necessary. Rows far back in the transcript may be returned
+     * from a decompressed {@link CompressedRowBlock}, which should only be read from.
+     */
     public TerminalRow allocateFullLineIfNecessary(int row) {
-        return (mLines[row] == null) ? (mLines[row] = new TerminalRow(mColumns, 0)) : mLines[row];
+        if (mLines[row] != null) return mLines[row];
+        CompressedRowBlock coldBlock = mColdBlocks[row / CompressedRowBlock.ROWS];
+        if (coldBlock != null && coldBlock.contains(row)) return getDecompressedRows(coldBlock)[row - coldBlock.mStartRow];
+        return mLines[row] = new TerminalRow(mColumns, 0, mStyleTable);
+    }
+
+    /**
+     * Set how many rows of the transcript are kept uncompressed, where older rows are compressed in blocks to save
+     * memory. A negative value disables compression.
+     */
+    public void setColdRowThreshold(int rows) {
+        mColdRowThreshold = rows;
+        if (rows < 0) decompressColdRows();
+    }
+
+    private static int coldBlockCount(int totalRows) {
+        return (totalRows + CompressedRowBlock.ROWS - 1) / CompressedRowBlock.ROWS;
+    }
+
+    /** Compress the block of the row which has just become older than {@link #mColdRowThreshold}, if it was the last one needed. */
+    private void compressColdRowsIfNecessary() {
+        if (mColdRowThreshold < 0 || mActiveTranscriptRows <= mColdRowThreshold) return;
+        compressColdBlockEndingAt(-mColdRowThreshold - 1);
+    }
+
+    /** Compress all blocks of rows older than {@link #mColdRowThreshold} which are not compressed yet. */
+    private void compressColdRows() {
+        if (mColdRowThreshold < 0) return;
+        for (int externalRow = -mColdRowThreshold - 1; externalRow >= -mActiveTranscriptRows; externalRow--)
+            compressColdBlockEndingAt(externalRow);
+    }
+
+    /** Compress the block ending with an external row, if the row ends a block and the whole block is in the transcript. */
+    private void compressColdBlockEndingAt(int externalRow) {
+        final int lastRow = externalToInternalRow(externalRow);
+        if ((lastRow + 1) % CompressedRowBlock.ROWS != 0 && lastRow != mTotalRows - 1) return;
+
+        final int blockIndex = lastRow / CompressedRowBlock.ROWS;
+        final int startRow = blockIndex * CompressedRowBlock.ROWS;
+        final int rowCount = lastRow - startRow + 1;
+        // All rows in the block must be in the transcript:
+        if (externalRow - rowCount + 1 < -mActiveTranscriptRows || mColdBlocks[blockIndex] != null) return;
+
+        for (int row = startRow; row <= lastRow; row++)
+            allocateFullLineIfNecessary(row);
+        mColdBlocks[blockIndex] = new CompressedRowBlock(mLines, startRow, rowCount, mColumns);
+        Arrays.fill(mLines, startRow, lastRow + 1, null);
+    }
+
+    /** Drop a row from its compressed block, if any, as it is about to be reused. */
+    private void dropColdRow(int row) {
+        final int blockIndex = row / CompressedRowBlock.ROWS;
+        CompressedRowBlock coldBlock = mColdBlocks[blockIndex];
+        if (coldBlock == null || !coldBlock.contains(row)) return;
+        coldBlock.mFirstRow = row + 1;
+        if (!coldBlock.contains(coldBlock.mFirstRow)) {
+            mColdBlocks[blockIndex] = null;
+            mDecompressedBlocks.remove(coldBlock);
+            if (coldBlock.mImageIds != null) mImages.mSweepNeeded = true;
+            if (coldBlock.mLinkIds != null) mHyperlinks.mSweepNeeded = true;
+        }
+    }
+
+    /** Move all compressed rows back into {@link #mLines}. */
+    private void decompressColdRows() {
+        for (int blockIndex = 0; blockIndex < mColdBlocks.length; blockIndex++)
+            if (mColdBlocks[blockIndex] != null) decompressColdBlock(blockIndex);
+    }
+
+    /**
+     * Move the rows of the compressed blocks which are no longer entirely in the transcript back into {@link #mLines},
+     * as the rows of the screen are written to.
+     */
+    private void decompressColdRowsOutsideTranscript() {
+        for (int blockIndex = 0; blockIndex < mColdBlocks.length; blockIndex++) {
+            CompressedRowBlock coldBlock = mColdBlocks[blockIndex];
+            if (coldBlock == null) continue;
+            // Blocks do not wrap around the end of the ring buffer, so the rows are in the transcript if the first one is
+            // and the last one is before the screen:
+            int firstExternalRow = coldBlock.mFirstRow - mScreenFirstRow;
+            if (firstExternalRow < 0) firstExternalRow += mTotalRows;
+            if (firstExternalRow >= mScreenRows) firstExternalRow -= mTotalRows;
+            int lastExternalRow = firstExternalRow + coldBlock.mStartRow + coldBlock.mRowCount - 1 - coldBlock.mFirstRow;
+            if (firstExternalRow < -mActiveTranscriptRows || lastExternalRow >= 0) decompressColdBlock(blockIndex);
+        }
+    }
+
+    /** Get a row to write to by external row, moving its compressed block back into {@link #mLines} if any, or null if not allocated. */
+    private TerminalRow getUncompressedLine(int externalRow) {
+        final int row = externalToInternalRow(externalRow);
+        final int blockIndex = row / CompressedRowBlock.ROWS;
+        if (mColdBlocks[blockIndex] != null && mColdBlocks[blockIndex].contains(row)) decompressColdBlock(blockIndex);
+        return mLines[row];
+    }
+
+    private void decompressColdBlock(int blockIndex) {
+        CompressedRowBlock coldBlock = mColdBlocks[blockIndex];
+        TerminalRow[] rows = coldBlock.decompress(mStyleTable);
+        for (int row = coldBlock.mFirstRow; row < coldBlock.mStartRow + coldBlock.mRowCount; row++)
+            mLines[row] = rows[row - coldBlock.mStartRow];
+        mColdBlocks[blockIndex] = null;
+        mDecompressedBlocks.remove(coldBlock);
+    }
+
+    private TerminalRow[] getDecompressedRows(CompressedRowBlock coldBlock) {
+        TerminalRow[] rows = mDecompressedBlocks.get(coldBlock);
+        if (rows == null) {
+            rows = coldBlock.decompress(getDecompressedStyleTable());
+            mDecompressedBlocks.put(coldBlock, rows);
+        }
+        return rows;
     }
 
     public void setChar(int column, int row, int codePoint, long style) {
         if (row  < 0 || row >= mScreenRows || column < 0 || column >= mColumns)
             throw new IllegalArgumentException("TerminalBuffer.setChar(): row=" + row + ", column=" + column + ", mScreenRows=" + mScreenRows + ", mColumns=" + mColumns);
         row = externalToInternalRow(row);
+        mDamagedRows.set(row);
         allocateFullLineIfNecessary(row).setChar(column, codePoint, style);
     }
 
+    /** Make cells on the screen part of a hyperlink, or no hyperlink if the {@link HyperlinkTable} id is 0. */
+    void setLinkId(int column, int row, int columns, int linkId) {
+        allocateFullLineIfNecessary(externalToInternalRow(row)).setLinkId(column, Math.min(column + columns, mColumns), linkId);
+    }
+
+    /** Make cells on a screen row show a row of an image, starting with its first column, see {@link TerminalRow#setImageCells}. */
+    void setImageCells(int column, int row, int columns, int imageId, int imageRow) {
+        row = externalToInternalRow(row);
+        mDamagedRows.set(row);
+        allocateFullLineIfNecessary(row).setImageCells(column, Math.min(column + columns, mColumns), imageId, imageRow, 0);
+    }
+
+    /** Get an image shown in this buffer by its id, see {@link TerminalImage#decodeCellImageId(long)}, or null if it has been released. */
+    public TerminalImage getImage(int imageId) {
+        return mImages.get(imageId);
+    }
+
+    /** Add the {@link ImageTable} ids of the images shown by any row in this buffer, including the transcript, to a set. */
+    void addImageIds(Set<Integer> imageIds) {
+        for (TerminalRow line : mLines)
+            if (line != null) line.addImageIds(imageIds);
+        for (int i = 0; i < mPendingReflowRowCount; i++) {
+            if (mPendingReflowRows[i] != null) mPendingReflowRows[i].addImageIds(imageIds);
+            final CompressedRowBlock coldBlock = mPendingReflowBlocks[i];
+            if (coldBlock != null && coldBlock.mImageIds != null && (i == 0 || mPendingReflowBlocks[i - 1] != coldBlock))
+                for (int id : coldBlock.mImageIds) imageIds.add(id);
+        }
+        for (CompressedRowBlock coldBlock : mColdBlocks)
+            if (coldBlock != null && coldBlock.mImageIds != null)
+                for (int id : coldBlock.mImageIds) imageIds.add(id);
+    }
+
+    /** Free the {@link HyperlinkTable} ids no longer used by any row in this buffer, including the transcript. */
+    void releaseUnusedLinks() {
+        mHyperlinks.mSweepNeeded = false;
+        if (mHyperlinks.size() == 0) return;
+        HashSet<Integer> usedIds = new HashSet<>();
+        for (TerminalRow line : mLines)
+            if (line != null) line.addLinkIds(usedIds);
+        for (int i = 0; i < mPendingReflowRowCount; i++) {
+            if (mPendingReflowRows[i] != null) mPendingReflowRows[i].addLinkIds(usedIds);
+            final CompressedRowBlock coldBlock = mPendingReflowBlocks[i];
+            if (coldBlock != null && coldBlock.mLinkIds != null && (i == 0 || mPendingReflowBlocks[i - 1] != coldBlock))
+                for (int id : coldBlock.mLinkIds) usedIds.add(id);
+        }
+        for (CompressedRowBlock coldBlock : mColdBlocks)
+            if (coldBlock != null && coldBlock.mLinkIds != null)
+                for (int id : coldBlock.mLinkIds) usedIds.add(id);
+        if (mSpillFile != null) mSpillFile.addLinkIds(usedIds);
+        mHyperlinks.retain(usedIds);
+    }
+
+    /** Get the target of the OSC 8 hyperlink which a cell is part of, or null if none. */
+    public String getHyperlinkAt(int externalRow, int column) {
+        if (column < 0 || column >= mColumns) return null;
+        final int linkId = getLine(externalRow).getLinkId(column);
+        return (linkId == 0) ? null : mHyperlinks.getUri(linkId);
+    }
+
+    /** Like {@link #setChar(int, int, int, long)} for a run of printable ASCII, see {@link TerminalRow#setAsciiRun}. */
+    public boolean setAsciiRun(int column, int row, byte[] text, int offset, int length, long style) {
+        if (row  < 0 || row >= mScreenRows || column < 0 || column + length > mColumns)
+            throw new IllegalArgumentException("TerminalBuffer.setAsciiRun(): row=" + row + ", column=" + column + ", length=" + length + ", mScreenRows=" + mScreenRows + ", mColumns=" + mColumns);
+        row = externalToInternalRow(row);
+        mDamagedRows.set(row);
+        return allocateFullLineIfNecessary(row).setAsciiRun(column, text, offset, length, style);
+    }
+
     public long getStyleAt(int externalRow, int column) {
-        return allocateFullLineIfNecessary(externalToInternalRow(externalRow)).getStyle(column);
+        return getLine(externalRow).getStyle(column);
     }
 
     /** Support for http://vt100.net/docs/vt510-rm/DECCARA and http://vt100.net/docs/vt510-rm/DECCARA */
     public void setOrClearEffect(int bits, boolean setOrClear, boolean reverse, boolean rectangular, int leftMargin, int rightMargin, int top, int left,
                                  int bottom, int right) {
+        damageRows(top, bottom);
         for (int y = top; y < bottom; y++) {
             TerminalRow line = mLines[externalToInternalRow(y)];
             int startOfLine = (rectangular || y == top) ? left : leftMargin;
@@ -479,12 +1082,16 @@ public final class TerminalBuffer {
                 } else {
                     effect &= ~bits;
                 }
-                line.mStyle[x] = TextStyle.encode(foreColor, backColor, effect);
+                line.setStyle(x, TextStyle.encode(foreColor, backColor, effect));
             }
         }
     }
 
     public void clearTranscript() {
+        if (mSpillFile != null) mSpillFile.clear();
+        removePendingReflowRows(0);
+        Arrays.fill(mColdBlocks, null);
+        mDecompressedBlocks.clear();
         if (mScreenFirstRow < mActiveTranscriptRows) {
             Arrays.fill(mLines, mTotalRows + mScreenFirstRow - mActiveTranscriptRows, mTotalRows, null);
             Arrays.fill(mLines, 0, mScreenFirstRow, null);
@@ -492,6 +1099,54 @@ public final class TerminalBuffer {
             Arrays.fill(mLines, mScreenFirstRow - mActiveTranscriptRows, mScreenFirstRow, null);
         }
         mActiveTranscriptRows = 0;
+        mAllRowsDamaged = true;
+        mTranscriptGeneration++;
+        mImages.mSweepNeeded = true;
+        mHyperlinks.mSweepNeeded = true;
+    }
+
+    /**
+     * Find the occurrences of text in the transcript and on the screen, top to bottom, using an index of the transcript
+     * which is kept up to date as rows scroll into it, see {@link TranscriptSearchIndex}.
+     *
+     * @param text       the text to find, which must not be empty. It is only found within lines, which may be wrapped.
+     * @param ignoreCase if upper and lower case chars should be considered equal.
+     * @param maxMatches the maximum number of matches to return, the first ones of which are returned if there are more.
+     */
+    public List<SearchMatch> find(String text, boolean ignoreCase, int maxMatches) {
+        if (mSearchIndex == null) mSearchIndex = new TranscriptSearchIndex();
+        return mSearchIndex.find(this, text, ignoreCase, maxMatches);
+    }
+
+    /** Mark the screen rows from startRow (inclusive) to endRow (exclusive) as changed. */
+    private void damageRows(int startRow, int endRow) {
+        for (int row = startRow; row < endRow; row++)
+            mDamagedRows.set(externalToInternalRow(row));
+    }
+
+    /**
+     * Add the screen rows changed since the last call to a bitset, by external row, and start tracking changes anew.
+     * <p>
+     * Rows are changed by writing to them, by a resize or a cleared transcript, which change all rows, and by scrolling.
+     * Scrolling is reported separately by the returned number of rows the screen has scrolled, which is at most the
+     * number of screen rows: The damaged rows are the ones which have changed compared to the previous screen shifted
+     * up by that many rows, which for scrolling without margins is only the newly revealed bottom rows, so that a
+     * renderer keeping the previous frame can shift it instead of redrawing all rows.
+     *
+     * @return the number of rows the screen has scrolled.
+     */
+    public int takeDamage(BitSet damagedRows) {
+        final int scrolledRows = Math.min(mScrolledRows, mScreenRows);
+        if (mAllRowsDamaged) {
+            damagedRows.set(0, mScreenRows);
+        } else {
+            for (int row = 0; row < mScreenRows; row++)
+                if (mDamagedRows.get(externalToInternalRow(row))) damagedRows.set(row);
+        }
+        mDamagedRows.clear();
+        mScrolledRows = 0;
+        mAllRowsDamaged = false;
+        return scrolledRows;
     }
 
 }
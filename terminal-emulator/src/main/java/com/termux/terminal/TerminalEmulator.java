@@ -1,9 +1,9 @@
 package com.termux.terminal;
 
-import android.util.Base64;
-
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
 import java.util.Locale;
 import java.util.Objects;
 import java.util.Stack;
@@ -89,11 +89,14 @@ public final class TerminalEmulator {
     private static final int ESC_CSI_UNSUPPORTED_INTERMEDIATE_BYTE = 23;
 
     /** The number of parameter arguments including colon separated sub-parameters. */
-    private static final int MAX_ESCAPE_PARAMETERS = 32;
+    private static final int MAX_ESCAPE_PARAMETERS = EscapeSequenceParser.MAX_PARAMETERS;
 
-    /** Needs to be large enough to contain reasonable OSC 52 pastes. */
+    /** The max length of OSC and device control strings, except for the selection data of OSC 52 which is decoded as it is received. */
     private static final int MAX_OSC_STRING_LENGTH = 8192;
 
+    /** The default max decoded size of OSC 52 copies and inline images, see {@link #setMaxOscPayloadBytes(int)}. */
+    public static final int DEFAULT_MAX_OSC_PAYLOAD_BYTES = 8 * 1024 * 1024;
+
     /** DECSET 1 - application cursor keys. */
     private static final int DECSET_BIT_APPLICATION_CURSOR_KEYS = 1;
     private static final int DECSET_BIT_REVERSE_VIDEO = 1 << 1;
@@ -129,6 +132,14 @@ public final class TerminalEmulator {
     private static final int DECSET_BIT_LEFTRIGHT_MARGIN_MODE = 1 << 11;
     /** Not really DECSET bit... - http://www.vt100.net/docs/vt510-rm/DECSACE */
     private static final int DECSET_BIT_RECTANGULAR_CHANGEATTRIBUTE = 1 << 12;
+    /** DECSET 2026 - synchronized output, see {@link #isSynchronizedOutputActive()}. */
+    private static final int DECSET_BIT_SYNCHRONIZED_OUTPUT = 1 << 13;
+
+    /**
+     * The max time to hold back screen updates for a synchronized output update, after which the update is ended even
+     * if the application has not ended it, like when it was killed in the middle of a redraw.
+     */
+    public static final int SYNCHRONIZED_OUTPUT_TIMEOUT_MILLIS = 1000;
 
 
     private String mTitle;
@@ -141,7 +152,7 @@ public final class TerminalEmulator {
     public int mRows, mColumns;
 
     /** Size of a terminal cell in pixels. */
-    private int mCellWidthPixels, mCellHeightPixels;
+    int mCellWidthPixels, mCellHeightPixels;
 
     /** The number of terminal transcript rows that can be scrolled back to. */
     public static final int TERMINAL_TRANSCRIPT_ROWS_MIN = 100;
@@ -172,11 +183,16 @@ public final class TerminalEmulator {
     final TerminalBuffer mAltBuffer;
     /** The current screen buffer, pointing at either {@link #mMainBuffer} or {@link #mAltBuffer}. */
     private TerminalBuffer mScreen;
+    /** The inline images shown in {@link #mMainBuffer} and {@link #mAltBuffer}, see {@link #setMaxImageBytes(int)}. */
+    private final ImageTable mImages = new ImageTable();
 
     /** The terminal session this emulator is bound to. */
     private final TerminalOutput mSession;
 
-    TerminalSessionClient mClient;
+    /** The {@link System#nanoTime()} when the current synchronized output update began. */
+    long mSynchronizedOutputStartNanos;
+
+    TerminalEmulatorClient mClient;
 
     /** Keeps track of the current argument of the current escape sequence. Ranges from 0 to MAX_ESCAPE_PARAMETERS-1. */
     private int mArgIndex;
@@ -184,10 +200,22 @@ public final class TerminalEmulator {
     private final int[] mArgs = new int[MAX_ESCAPE_PARAMETERS];
     /** Holds the bit flags which arguments are sub parameters (after a colon) - bit N is set if <code>mArgs[N]</code> is a sub parameter. */
     private int mArgsSubParamsBitSet = 0;
+    /** Parses complete escape sequences for the fast path of {@link #processEscapeSequence(byte[], int, int)}. */
+    private final EscapeSequenceParser mParser = new EscapeSequenceParser();
 
     /** Holds OSC and device control arguments, which can be strings. */
     private final StringBuilder mOSCOrDeviceControlArgs = new StringBuilder();
 
+    /**
+     * Decodes the base64 selection data of the current OSC 52 as it is received instead of collecting it in
+     * {@link #mOSCOrDeviceControlArgs}, so that large copies are neither truncated nor held as a string. Null when not
+     * in the selection data.
+     */
+    private Base64Decoder mOscPayloadDecoder;
+    private int mMaxOscPayloadBytes = DEFAULT_MAX_OSC_PAYLOAD_BYTES;
+    /** The max decoded size of OSC 52 copies to the clipboard, see {@link #setMaxClipboardBytes(int)}. */
+    private int mMaxClipboardBytes = DEFAULT_MAX_OSC_PAYLOAD_BYTES;
+
     /**
      * True if the current escape sequence should continue, false if the current escape sequence should be terminated.
      * Used when parsing a single character.
@@ -243,6 +271,12 @@ public final class TerminalEmulator {
      */
     private boolean mCursorBlinkState;
 
+    /** What was rendered as of the last {@link #takeDamage(BitSet)}, to find which rows have to be redrawn since. */
+    private TerminalBuffer mDamageScreen;
+    private int mDamageRows, mDamageColumns, mDamageCursorRow, mDamageCursorCol, mDamageCursorStyle;
+    private boolean mDamageCursorEnabled, mDamageReverseVideo;
+    private final int[] mDamageColors = new int[TextStyle.NUM_INDEXED_COLORS];
+
     /**
      * Current foreground, background and underline colors. Can either be a color index in [0,259] or a truecolor (24-bit) value.
      * For a 24-bit value the top byte (0xff000000) is set.
@@ -256,6 +290,14 @@ public final class TerminalEmulator {
     /** Current {@link TextStyle} effect. */
     int mEffect;
 
+    /** The target of the OSC 8 hyperlink which output text is made part of, or null if none, and its id parameter. */
+    private String mHyperlinkUri, mHyperlinkId;
+    /** The {@link HyperlinkTable} id of the current hyperlink in the table of a buffer, interned when first used. */
+    private int mHyperlinkTableId;
+    private TerminalBuffer mHyperlinkTableBuffer;
+    /** If a full {@link HyperlinkTable} has been swept during the current {@link #append}, see {@link #getHyperlinkTableId()}. */
+    private boolean mHyperlinksSweptWhenFull;
+
     /**
      * The number of scrolled lines since last calling {@link #clearScrollCounter()}. Used for moving selection up along
      * with the scrolling text.
@@ -319,16 +361,18 @@ public final class TerminalEmulator {
                 return DECSET_BIT_MOUSE_PROTOCOL_SGR;
             case 2004:
                 return DECSET_BIT_BRACKETED_PASTE_MODE;
+            case 2026:
+                return DECSET_BIT_SYNCHRONIZED_OUTPUT;
             default:
                 return -1;
             // throw new IllegalArgumentException("Unsupported decset: " + decsetBit);
         }
     }
 
-    public TerminalEmulator(TerminalOutput session, int columns, int rows, int cellWidthPixels, int cellHeightPixels, Integer transcriptRows, TerminalSessionClient client) {
+    public TerminalEmulator(TerminalOutput session, int columns, int rows, int cellWidthPixels, int cellHeightPixels, Integer transcriptRows, TerminalEmulatorClient client) {
         mSession = session;
-        mScreen = mMainBuffer = new TerminalBuffer(columns, getTerminalTranscriptRows(transcriptRows), rows);
-        mAltBuffer = new TerminalBuffer(columns, rows, rows);
+        mScreen = mMainBuffer = new TerminalBuffer(columns, getTerminalTranscriptRows(transcriptRows), rows, mImages);
+        mAltBuffer = new TerminalBuffer(columns, rows, rows, mImages);
         mClient = client;
         mRows = rows;
         mColumns = columns;
@@ -338,7 +382,7 @@ public final class TerminalEmulator {
         reset();
     }
 
-    public void updateTerminalSessionClient(TerminalSessionClient client) {
+    public void updateTerminalSessionClient(TerminalEmulatorClient client) {
         mClient = client;
         setCursorStyle();
         setCursorBlinkState(true);
@@ -348,6 +392,21 @@ public final class TerminalEmulator {
         return mScreen;
     }
 
+    /**
+     * Reflow some of the transcript rows left when the number of columns changed, see
+     * {@link TerminalBuffer#reflowPendingRows(int)}.
+     *
+     * @return if there are rows left to reflow.
+     */
+    public boolean reflowPendingRows(int maxRows) {
+        return mMainBuffer.reflowPendingRows(maxRows);
+    }
+
+    /** Store rows scrolled out of the transcript of the main buffer in a file instead of discarding them. */
+    public void setTranscriptSpillFile(TranscriptSpillFile spillFile) {
+        mMainBuffer.setTranscriptSpillFile(spillFile);
+    }
+
     public boolean isAlternateBufferActive() {
         return mScreen == mAltBuffer;
     }
@@ -471,6 +530,88 @@ public final class TerminalEmulator {
         this.mCursorBlinkState = cursorBlinkState;
     }
 
+    /**
+     * Set the max decoded size of the payload of OSC 52 copies to the clipboard and of OSC 1337 inline images, beyond
+     * which they are ignored.
+     */
+    public void setMaxOscPayloadBytes(int maxOscPayloadBytes) {
+        if (maxOscPayloadBytes < 0) throw new IllegalArgumentException("Negative max OSC payload bytes: " + maxOscPayloadBytes);
+        mMaxOscPayloadBytes = maxOscPayloadBytes;
+    }
+
+    /**
+     * Set the max decoded size of OSC 52 copies to the clipboard, beyond which they are ignored, like to not copy more
+     * than the client can put in the clipboard. Copies are also limited by {@link #setMaxOscPayloadBytes(int)}.
+     */
+    public void setMaxClipboardBytes(int maxClipboardBytes) {
+        if (maxClipboardBytes < 0) throw new IllegalArgumentException("Negative max clipboard bytes: " + maxClipboardBytes);
+        mMaxClipboardBytes = maxClipboardBytes;
+    }
+
+    /**
+     * Set the max total size of the encoded inline images kept on the java heap for this session, see
+     * {@link ImageTable#DEFAULT_MAX_BYTES}.
+     * Images no longer shown in any row, like ones scrolled out of the transcript, are released first, and then the
+     * least recently used ones, which leaves the cells showing them blank.
+     */
+    public void setMaxImageBytes(int maxImageBytes) {
+        mImages.setMaxBytes(maxImageBytes);
+    }
+
+    /** Release the images no longer shown in any row of the buffers, see {@link ImageTable#retain(java.util.Set)}. */
+    private void releaseUnusedImages() {
+        mImages.mSweepNeeded = false;
+        if (mImages.size() == 0) return;
+        HashSet<Integer> usedIds = new HashSet<>();
+        mMainBuffer.addImageIds(usedIds);
+        mAltBuffer.addImageIds(usedIds);
+        mImages.retain(usedIds);
+    }
+
+    /** Free the hyperlinks no longer used by any row of the buffers, see {@link TerminalBuffer#releaseUnusedLinks()}. */
+    private void releaseUnusedLinks() {
+        if (mMainBuffer.mHyperlinks.mSweepNeeded) mMainBuffer.releaseUnusedLinks();
+        if (mAltBuffer.mHyperlinks.mSweepNeeded) mAltBuffer.releaseUnusedLinks();
+        // The id of the current hyperlink may have been freed if no cell has been written with it yet:
+        mHyperlinkTableBuffer = null;
+    }
+
+    /**
+     * Add the rows on screen which need to be redrawn since the last call to a bitset, and start tracking changes anew.
+     * Besides the rows changed in the screen buffer, see {@link TerminalBuffer#takeDamage(BitSet)}, this includes the
+     * rows the cursor was and is on if it has moved or been enabled or disabled, and all rows if the size, screen
+     * buffer, colors, cursor style or reverse video mode has changed. Changes of the cursor blink state are not included.
+     * <p>
+     * As with the screen buffer, the damaged rows are relative to the previous screen shifted up by the returned number
+     * of rows scrolled, which is 0 if all rows are damaged.
+     *
+     * @return the number of rows the screen has scrolled.
+     */
+    public int takeDamage(BitSet damagedRows) {
+        int scrolledRows = mScreen.takeDamage(damagedRows);
+        final boolean cursorEnabled = isCursorEnabled();
+        final boolean reverseVideo = isReverseVideo();
+        if (mScreen != mDamageScreen || mRows != mDamageRows || mColumns != mDamageColumns || mCursorStyle != mDamageCursorStyle
+            || reverseVideo != mDamageReverseVideo || !Arrays.equals(mColors.mCurrentColors, mDamageColors)) {
+            damagedRows.set(0, mRows);
+            scrolledRows = 0;
+            mDamageScreen = mScreen;
+            mDamageRows = mRows;
+            mDamageColumns = mColumns;
+            mDamageCursorStyle = mCursorStyle;
+            mDamageReverseVideo = reverseVideo;
+            System.arraycopy(mColors.mCurrentColors, 0, mDamageColors, 0, mDamageColors.length);
+        } else if (mCursorRow != mDamageCursorRow - scrolledRows || mCursorCol != mDamageCursorCol || cursorEnabled != mDamageCursorEnabled) {
+            // The previously drawn cursor has moved up along with the rest of the screen if it has scrolled:
+            if (mDamageCursorRow >= scrolledRows) damagedRows.set(mDamageCursorRow - scrolledRows);
+            damagedRows.set(mCursorRow);
+        }
+        mDamageCursorRow = mCursorRow;
+        mDamageCursorCol = mCursorCol;
+        mDamageCursorEnabled = cursorEnabled;
+        return scrolledRows;
+    }
+
 
 
     public boolean isKeypadApplicationMode() {
@@ -481,6 +622,31 @@ public final class TerminalEmulator {
         return isDecsetInternalBitSet(DECSET_BIT_APPLICATION_CURSOR_KEYS);
     }
 
+    /**
+     * If the application is in the middle of a synchronized output update (DECSET 2026), during which the screen
+     * should not be redrawn, so that a redraw of the whole screen is shown at once instead of partly drawn frames.
+     * See https://gist.github.com/christianparpart/d8a62cc1ab659194337d73e399004036.
+     * <p>
+     * An update which has lasted for longer than {@link #SYNCHRONIZED_OUTPUT_TIMEOUT_MILLIS} is not active, and is
+     * ended when the emulator next receives output, see {@link #endTimedOutSynchronizedOutput()}.
+     */
+    public boolean isSynchronizedOutputActive() {
+        return getSynchronizedOutputRemainingMillis() > 0;
+    }
+
+    /** End the current synchronized output update if it has timed out, see {@link #isSynchronizedOutputActive()}. */
+    void endTimedOutSynchronizedOutput() {
+        if (isDecsetInternalBitSet(DECSET_BIT_SYNCHRONIZED_OUTPUT) && getSynchronizedOutputRemainingMillis() == 0)
+            setDecsetinternalBit(DECSET_BIT_SYNCHRONIZED_OUTPUT, false);
+    }
+
+    /** The time left before the current synchronized output update times out, see {@link #isSynchronizedOutputActive()}. */
+    public long getSynchronizedOutputRemainingMillis() {
+        if (!isDecsetInternalBitSet(DECSET_BIT_SYNCHRONIZED_OUTPUT)) return 0;
+        final long elapsedMillis = (System.nanoTime() - mSynchronizedOutputStartNanos) / 1000000;
+        return Math.max(0, SYNCHRONIZED_OUTPUT_TIMEOUT_MILLIS - elapsedMillis);
+    }
+
     /** If mouse events are being sent as escape codes to the terminal. */
     public boolean isMouseTrackingActive() {
         return isDecsetInternalBitSet(DECSET_BIT_MOUSE_TRACKING_PRESS_RELEASE) || isDecsetInternalBitSet(DECSET_BIT_MOUSE_TRACKING_BUTTON_EVENT);
@@ -498,8 +664,119 @@ public final class TerminalEmulator {
      * @param length the number of bytes in the array to process
      */
     public void append(byte[] buffer, int length) {
-        for (int i = 0; i < length; i++)
-            processByte(buffer[i]);
+        int i = 0;
+        while (i < length) {
+            if (mEscapeState == ESC_NONE && mUtf8ToFollow == 0 && isPrintableAscii(buffer[i])) {
+                i = emitAsciiRun(buffer, i, length);
+            } else if (mEscapeState == ESC_NONE && mUtf8ToFollow == 0 && buffer[i] == 27) {
+                i = processEscapeSequence(buffer, i, length);
+            } else {
+                processByte(buffer[i++]);
+            }
+        }
+        endTimedOutSynchronizedOutput();
+        if (mImages.mSweepNeeded) releaseUnusedImages();
+        if (mMainBuffer.mHyperlinks.mSweepNeeded || mAltBuffer.mHyperlinks.mSweepNeeded) releaseUnusedLinks();
+        mHyperlinksSweptWhenFull = false;
+    }
+
+    private static boolean isPrintableAscii(byte b) {
+        return b >= 32 && b < 127;
+    }
+
+    /**
+     * Fast path for emitting the run of printable ASCII characters starting at the specified offset, which is
+     * the common case for output like "cat" of a log file. Instead of going through {@link #processByte(byte)}
+     * and {@link #emitCodePoint(int)} for each byte, the part of the run fitting on the current row is written
+     * to the row at once. Wrapping at the last column and other special cases are left to emitCodePoint().
+     *
+     * @return The offset after the run.
+     */
+    private int emitAsciiRun(byte[] buffer, int start, int length) {
+        int end = start + 1;
+        while (end < length && isPrintableAscii(buffer[end])) end++;
+
+        mContinueSequence = false;
+        if (mInsertMode || (mUseLineDrawingUsesG0 ? mUseLineDrawingG0 : mUseLineDrawingG1)) {
+            for (int i = start; i < end; i++)
+                emitCodePoint(buffer[i]);
+            return end;
+        }
+
+        final boolean autoWrap = isDecsetInternalBitSet(DECSET_BIT_AUTOWRAP);
+        final long style = getStyle();
+        int i = start;
+        while (i < end) {
+            if (mCursorCol >= mRightMargin - 1) {
+                // Let emitCodePoint() handle autowrap or overwriting of the last column.
+                emitCodePoint(buffer[i++]);
+                continue;
+            }
+
+            final int count = Math.min(end - i, mRightMargin - mCursorCol);
+            if (mScreen.setAsciiRun(mCursorCol, mCursorRow, buffer, i, count, style)) {
+                if (mHyperlinkUri != null) mScreen.setLinkId(mCursorCol, mCursorRow, count, getHyperlinkTableId());
+                if (autoWrap) mAboutToAutoWrap = (mCursorCol + count == mRightMargin);
+                mCursorCol = Math.min(mCursorCol + count, mRightMargin - 1);
+                mLastEmittedCodePoint = buffer[i + count - 1];
+            } else {
+                // The row contains wide or combining characters which need to be handled one at a time.
+                for (int j = i; j < i + count; j++)
+                    emitCodePoint(buffer[j]);
+            }
+            i += count;
+        }
+        return end;
+    }
+
+    /**
+     * Fast path for the ESC or CSI sequence starting at the specified offset, which is the common case for output like
+     * colored "git log" or progress bars. The complete sequence is first parsed by {@link EscapeSequenceParser}, after
+     * which its private marker, intermediate bytes and final byte are passed to {@link #processCodePoint(int)} as when
+     * processing a byte at a time, while the parameters are taken from the parser instead of parsed by
+     * {@link #parseArg(int)} per digit. A sequence which is incomplete, interrupted by a control or starts a string is
+     * left to {@link #processByte(byte)}, as is the rest of a sequence after its handlers end it early.
+     *
+     * @return The offset after the bytes processed.
+     */
+    private int processEscapeSequence(byte[] buffer, int start, int length) {
+        final int end = mParser.parse(buffer, start, length);
+        if (end == -1) {
+            processByte(buffer[start]);
+            return start + 1;
+        }
+
+        int i = start + 1;
+        if (buffer[i] != '[') {
+            startEscapeSequence();
+        } else {
+            // As startEscapeSequence() followed by doEsc('['), but without clearing the arguments before copying them:
+            mEscapeState = ESC_CSI;
+            i++;
+            if (mParser.getPrivateMarker() != 0) {
+                processCodePoint(buffer[i++]);
+                if (mEscapeState == ESC_NONE) return i;
+            }
+            // Leave parameters not parsed by parseArg(), or which it would log an error for, to processByte():
+            boolean parsesArgs = mEscapeState == ESC_CSI || mEscapeState == ESC_CSI_QUESTIONMARK || mEscapeState == ESC_CSI_BIGGERTHAN;
+            if (mParser.getParamByteCount() == 0 || !parsesArgs || mParser.hasTooManyParams()) {
+                Arrays.fill(mArgs, -1);
+                mArgIndex = 0;
+                mArgsSubParamsBitSet = 0;
+                if (mParser.getParamByteCount() > 0) return i;
+            } else {
+                mParser.copyParams(mArgs);
+                mArgIndex = mParser.getParamIndex();
+                mArgsSubParamsBitSet = mParser.getSubParamBits();
+                i += mParser.getParamByteCount();
+            }
+        }
+        // The intermediate bytes and the final byte:
+        while (i < end) {
+            processCodePoint(buffer[i++]);
+            if (mEscapeState == ESC_NONE) return i;
+        }
+        return end;
     }
 
     private void processByte(byte byteToProcess) {
@@ -1186,6 +1463,10 @@ public final class TerminalEmulator {
     public void doDecSetOrReset(boolean setting, int externalBit) {
         int internalBit = mapDecSetBitToInternalBit(externalBit);
         if (internalBit != -1) {
+            if (internalBit == DECSET_BIT_SYNCHRONIZED_OUTPUT && setting && !isDecsetInternalBitSet(internalBit)) {
+                // Timed from the first begin, so that repeating it does not hold back updates for longer:
+                mSynchronizedOutputStartNanos = System.nanoTime();
+            }
             setDecsetinternalBit(internalBit, setting);
         }
         switch (externalBit) {
@@ -1269,14 +1550,19 @@ public final class TerminalEmulator {
                     // Check if buffer size needs to be updated:
                     if (resized) resizeScreen();
                     // Clear new screen if alt buffer:
-                    if (newScreen == mAltBuffer)
+                    if (newScreen == mAltBuffer) {
                         newScreen.blockSet(0, 0, mColumns, mRows, ' ', getStyle());
+                        newScreen.mHyperlinks.mSweepNeeded = true;
+                    }
                 }
                 break;
             }
             case 2004:
                 // Bracketed paste mode - setting bit is enough.
                 break;
+            case 2026:
+                // Begin or end synchronized output - setting bit is enough, see isSynchronizedOutputActive().
+                break;
             default:
                 unknownParameter(externalBit);
                 break;
@@ -1483,6 +1769,7 @@ public final class TerminalEmulator {
                 break;
             case ']': // OSC
                 mOSCOrDeviceControlArgs.setLength(0);
+                mOscPayloadDecoder = null;
                 continueSequence(ESC_OSC);
                 break;
             case '>': // DECKPNM
@@ -2104,14 +2391,54 @@ public final class TerminalEmulator {
                     }
                 }
                 break;
+            case 8: {
+                // "8;params;URI" → Start a hyperlink to URI, which text output is part of until "8;;" ends it. The params
+                // are colon separated key=value pairs, where "id=ID" makes separate parts of text the same hyperlink.
+                // See https://gist.github.com/egmontkob/eb114294efbcd5adb1944c9f3cb5feda.
+                int uriStart = textParameter.indexOf(';');
+                if (uriStart == -1) {
+                    unknownParameter(value);
+                    break;
+                }
+                String uri = textParameter.substring(uriStart + 1);
+                if (uri.isEmpty()) {
+                    mHyperlinkUri = mHyperlinkId = null;
+                } else {
+                    String id = null;
+                    for (String param : textParameter.substring(0, uriStart).split(":")) {
+                        if (param.startsWith("id=")) id = param.substring(3);
+                    }
+                    mHyperlinkUri = uri;
+                    mHyperlinkId = id;
+                }
+                mHyperlinkTableBuffer = null;
+                break;
+            }
             case 52: // Manipulate Selection Data. Skip the optional first selection parameter(s).
-                int startIndex = textParameter.indexOf(";") + 1;
+                // The selection data after them has been decoded while received, see collectOSCArgs().
+                Base64Decoder decoder = mOscPayloadDecoder;
+                mOscPayloadDecoder = null;
                 try {
-                    String clipboardText = new String(Base64.decode(textParameter.substring(startIndex), 0), StandardCharsets.UTF_8);
+                    if (decoder == null) {
+                        // Without selection parameters, so the selection data was collected:
+                        decoder = new Base64Decoder(Math.min(mMaxOscPayloadBytes, mMaxClipboardBytes));
+                        for (int i = 0; i < textParameter.length(); i++) decoder.decode(textParameter.charAt(i));
+                    }
+                    decoder.finish();
+                    String clipboardText = new String(decoder.getOutput(), 0, decoder.getOutputLength(), StandardCharsets.UTF_8);
                     mSession.onCopyTextToClipboard(clipboardText);
-                } catch (Exception e) {
-                    Logger.logError(mClient, LOG_TAG, "OSC Manipulate selection, invalid string '" + textParameter + "");
+                } catch (IllegalArgumentException e) {
+                    Logger.logError(mClient, LOG_TAG, "OSC Manipulate selection, invalid selection data: " + e.getMessage());
+                }
+                break;
+            case 1337: // iTerm2 proprietary sequences, of which only inline images are supported.
+                if (mOscPayloadDecoder != null && textParameter.startsWith("File=")) {
+                    // The arguments before the ':' ending textParameter, after which the file has been decoded while received:
+                    doInlineImage(textParameter.substring(5, textParameter.length() - 1), mOscPayloadDecoder);
+                } else if (LOG_ESCAPE_SEQUENCES) {
+                    Logger.logError(mClient, LOG_TAG, "Unsupported OSC 1337: '" + textParameter + "'");
                 }
+                mOscPayloadDecoder = null;
                 break;
             case 104:
                 // "104;$c" → Reset Color Number $c. It is reset to the color specified by the corresponding X
@@ -2155,6 +2482,23 @@ public final class TerminalEmulator {
         finishSequence();
     }
 
+    /** Get the id of the current hyperlink in the table of the current buffer. */
+    private int getHyperlinkTableId() {
+        if (mHyperlinkTableBuffer != mScreen) {
+            mHyperlinkTableId = mScreen.mHyperlinks.intern(mHyperlinkUri, mHyperlinkId);
+            if (mHyperlinkTableId == 0 && (mScreen.mHyperlinks.mSweepNeeded || !mHyperlinksSweptWhenFull)) {
+                // The table is full, but links may have been freed since the end of the last output, or overwritten in
+                // place which does not make a sweep needed. Sweep at most once per output for the latter, in case all
+                // links are still in use:
+                mHyperlinksSweptWhenFull = true;
+                mScreen.releaseUnusedLinks();
+                mHyperlinkTableId = mScreen.mHyperlinks.intern(mHyperlinkUri, mHyperlinkId);
+            }
+            mHyperlinkTableBuffer = mScreen;
+        }
+        return mHyperlinkTableId;
+    }
+
     private void blockClear(int sx, int sy, int w) {
         blockClear(sx, sy, w, 1);
     }
@@ -2282,9 +2626,134 @@ public final class TerminalEmulator {
         return result;
     }
 
+    /**
+     * Show an iTerm2 inline image, "OSC 1337 ; File=$arguments : $base64 ST", where the arguments are ';' separated
+     * key=value pairs, see https://iterm2.com/documentation-images.html. The image is placed at the cursor, which ends
+     * up to the right of its last row, scrolling the screen if needed.
+     */
+    private void doInlineImage(String arguments, Base64Decoder decoder) {
+        String width = "auto", height = "auto";
+        boolean inline = false, preserveAspectRatio = true;
+        for (String argument : arguments.split(";")) {
+            final int separatorIndex = argument.indexOf('=');
+            if (separatorIndex == -1) continue;
+            final String value = argument.substring(separatorIndex + 1);
+            switch (argument.substring(0, separatorIndex)) {
+                case "width":
+                    width = value;
+                    break;
+                case "height":
+                    height = value;
+                    break;
+                case "inline":
+                    inline = value.equals("1");
+                    break;
+                case "preserveAspectRatio":
+                    preserveAspectRatio = !value.equals("0");
+                    break;
+            }
+        }
+        if (!inline) {
+            // Files which are not inline are downloaded by iTerm2.
+            Logger.logError(mClient, LOG_TAG, "OSC 1337 file download not supported");
+            return;
+        }
+
+        final TerminalImage image;
+        try {
+            decoder.finish();
+            final byte[] data = decoder.toByteArray();
+            final int[] size = TerminalImage.readPixelSize(data);
+            if (size == null) throw new IllegalArgumentException("Unsupported image format");
+
+            int displayWidth = parseImageDimension(width, mCellWidthPixels, mColumns);
+            int displayHeight = parseImageDimension(height, mCellHeightPixels, mRows);
+            if (displayWidth == -1 && displayHeight == -1) {
+                displayWidth = size[0];
+                displayHeight = size[1];
+            } else if (displayWidth == -1) {
+                displayWidth = preserveAspectRatio ? (int) ((long) size[0] * displayHeight / size[1]) : size[0];
+            } else if (displayHeight == -1) {
+                displayHeight = preserveAspectRatio ? (int) ((long) size[1] * displayWidth / size[0]) : size[1];
+            } else if (preserveAspectRatio) {
+                // Fit within the width and height:
+                if ((long) displayWidth * size[1] > (long) displayHeight * size[0]) {
+                    displayWidth = (int) ((long) size[0] * displayHeight / size[1]);
+                } else {
+                    displayHeight = (int) ((long) size[1] * displayWidth / size[0]);
+                }
+            }
+            // Not wider than the screen:
+            final int screenWidth = mColumns * mCellWidthPixels;
+            if (displayWidth > screenWidth) {
+                if (preserveAspectRatio) displayHeight = (int) ((long) displayHeight * screenWidth / displayWidth);
+                displayWidth = screenWidth;
+            }
+            // Nor taller, since the rows it covers are scrolled into the transcript and would push out all of it:
+            final int screenHeight = mRows * mCellHeightPixels;
+            if (displayHeight > screenHeight) {
+                if (preserveAspectRatio) displayWidth = (int) ((long) displayWidth * screenHeight / displayHeight);
+                displayHeight = screenHeight;
+            }
+            image = new TerminalImage(data, size[0], size[1], Math.max(1, displayWidth), Math.max(1, displayHeight),
+                mCellWidthPixels, mCellHeightPixels);
+        } catch (IllegalArgumentException e) {
+            Logger.logError(mClient, LOG_TAG, "OSC 1337 invalid inline image: " + e.getMessage());
+            return;
+        }
+
+        // Make room in the budget by first releasing images no longer shown:
+        releaseUnusedImages();
+        final int imageId = mImages.add(image);
+        if (imageId == 0) {
+            Logger.logError(mClient, LOG_TAG, "OSC 1337 inline image larger than the image budget: " + image.getData().length + " bytes");
+            return;
+        }
+        final int startColumn = mCursorCol;
+        final int columns = Math.min(image.mColumns, mColumns - startColumn);
+        for (int imageRow = 0; imageRow < image.mRows; imageRow++) {
+            if (imageRow > 0) doLinefeed();
+            mScreen.blockSet(startColumn, mCursorRow, columns, 1, ' ', getStyle());
+            mScreen.setImageCells(startColumn, mCursorRow, columns, imageId, imageRow);
+        }
+        if (startColumn + columns == mColumns) {
+            setCursorCol(mColumns - 1);
+            mAboutToAutoWrap = true;
+        } else {
+            setCursorCol(startColumn + columns);
+        }
+    }
+
+    /**
+     * Parse the width or height of an inline image into pixels: "$n" cells, "$npx" pixels, "$n%" of the screen, or
+     * "auto", for which -1 is returned.
+     */
+    private static int parseImageDimension(String value, int cellPixels, int screenCells) {
+        if (value.equals("auto")) return -1;
+        final long pixels;
+        if (value.endsWith("px")) {
+            pixels = Long.parseLong(value.substring(0, value.length() - 2));
+        } else if (value.endsWith("%")) {
+            pixels = Long.parseLong(value.substring(0, value.length() - 1)) * screenCells * cellPixels / 100;
+        } else {
+            pixels = Long.parseLong(value) * cellPixels;
+        }
+        if (pixels <= 0 || pixels > Integer.MAX_VALUE) throw new IllegalArgumentException("Invalid image dimension '" + value + "'");
+        return (int) pixels;
+    }
+
     private void collectOSCArgs(int b) {
-        if (mOSCOrDeviceControlArgs.length() < MAX_OSC_STRING_LENGTH) {
+        if (mOscPayloadDecoder != null) {
+            mOscPayloadDecoder.decode(b);
+            continueSequence(mEscapeState);
+        } else if (mOSCOrDeviceControlArgs.length() < MAX_OSC_STRING_LENGTH) {
             mOSCOrDeviceControlArgs.appendCodePoint(b);
+            // After "52;$selection;" comes the selection data, and after "1337;File=$arguments:" an inline image, which
+            // may both be larger than MAX_OSC_STRING_LENGTH:
+            if (b == ';' && mOSCOrDeviceControlArgs.indexOf("52;") == 0 && mOSCOrDeviceControlArgs.indexOf(";", 3) == mOSCOrDeviceControlArgs.length() - 1)
+                mOscPayloadDecoder = new Base64Decoder(Math.min(mMaxOscPayloadBytes, mMaxClipboardBytes));
+            else if (b == ':' && mOSCOrDeviceControlArgs.indexOf("1337;File=") == 0)
+                mOscPayloadDecoder = new Base64Decoder(mMaxOscPayloadBytes);
             continueSequence(mEscapeState);
         } else {
             unknownSequence(b);
@@ -2488,6 +2957,7 @@ public final class TerminalEmulator {
         // TODO: Check if there are thread synchronization issues with mCursorCol and mCursorRow, possibly causing others bugs too.
         if (column < 0) column = 0;
         mScreen.setChar(column, mCursorRow, codePoint, getStyle());
+        if (mHyperlinkUri != null && displayWidth > 0) mScreen.setLinkId(column, mCursorRow, displayWidth, getHyperlinkTableId());
 
         if (autoWrap && displayWidth > 0)
             mAboutToAutoWrap = (mCursorCol == mRightMargin - displayWidth);
@@ -2551,6 +3021,10 @@ public final class TerminalEmulator {
 
         mUseLineDrawingG0 = mUseLineDrawingG1 = false;
         mUseLineDrawingUsesG0 = true;
+        mHyperlinkUri = mHyperlinkId = null;
+        mHyperlinkTableBuffer = null;
+        mMainBuffer.mHyperlinks.mSweepNeeded = mAltBuffer.mHyperlinks.mSweepNeeded = true;
+        mOscPayloadDecoder = null;
 
         mSavedStateMain.mSavedCursorRow = mSavedStateMain.mSavedCursorCol = mSavedStateMain.mSavedEffect = mSavedStateMain.mSavedDecFlags = 0;
         mSavedStateAlt.mSavedCursorRow = mSavedStateAlt.mSavedCursorCol = mSavedStateAlt.mSavedEffect = mSavedStateAlt.mSavedDecFlags = 0;
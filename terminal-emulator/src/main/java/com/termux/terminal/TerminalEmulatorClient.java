@@ -0,0 +1,28 @@
+package com.termux.terminal;
+
+/**
+ * The interface for communication between a {@link TerminalEmulator} and its client, which is the platform specific
+ * part the emulator needs besides its {@link TerminalOutput}. It does not depend on android, so that the emulator can
+ * also run on a plain JVM, like for benchmarks and replaying recorded output.
+ * <p>
+ * On android this is a {@link TerminalSessionClient}.
+ */
+public interface TerminalEmulatorClient {
+
+    void onTerminalCursorStateChange(boolean state);
+
+    Integer getTerminalCursorStyle();
+
+
+
+    void logError(String tag, String message);
+
+    void logWarn(String tag, String message);
+
+    void logInfo(String tag, String message);
+
+    void logDebug(String tag, String message);
+
+    void logVerbose(String tag, String message);
+
+}
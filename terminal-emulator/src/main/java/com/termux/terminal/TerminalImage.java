@@ -0,0 +1,126 @@
+package com.termux.terminal;
+
+/**
+ * An image shown inline in a terminal, like with the iTerm2 inline image protocol, see
+ * {@link TerminalEmulator#setMaxImageBytes(int)}.
+ * <p>
+ * The image is kept on the java heap in the encoded form it was received in, like PNG or JPEG, since decoding it
+ * requires platform libraries and is done when rendering, off the thread emulating. It covers a rectangle of {@link #mColumns} by
+ * {@link #mRows} cells, each of which refers to the image and its position in it, see {@link TerminalRow#getImageCell(int)}.
+ */
+public final class TerminalImage {
+
+    /** The max number of columns and rows covered by an image, so that a position in it fits in 16 bits. */
+    static final int MAX_CELLS = 0xFFFF;
+
+    private final byte[] mData;
+    /** The size of the encoded image. */
+    public final int mWidthPixels, mHeightPixels;
+    /** The size the image is shown with, in the pixels of the cells it was placed in. */
+    public final int mDisplayWidthPixels, mDisplayHeightPixels;
+    /** The size of a cell when the image was placed, in pixels. */
+    public final int mCellWidthPixels, mCellHeightPixels;
+    /** The number of cells the image covers, the last of which may only be partly covered. */
+    public final int mColumns, mRows;
+
+    /** Set once the image has been removed from the {@link ImageTable} of its session, see {@link #isReleased()}. */
+    private volatile boolean mReleased;
+
+    TerminalImage(byte[] data, int widthPixels, int heightPixels, int displayWidthPixels, int displayHeightPixels,
+                  int cellWidthPixels, int cellHeightPixels) {
+        if (displayWidthPixels <= 0 || displayHeightPixels <= 0 || cellWidthPixels <= 0 || cellHeightPixels <= 0)
+            throw new IllegalArgumentException("Invalid image size " + displayWidthPixels + "x" + displayHeightPixels
+                + " with cell size " + cellWidthPixels + "x" + cellHeightPixels);
+        mData = data;
+        mWidthPixels = widthPixels;
+        mHeightPixels = heightPixels;
+        mDisplayWidthPixels = displayWidthPixels;
+        mDisplayHeightPixels = displayHeightPixels;
+        mCellWidthPixels = cellWidthPixels;
+        mCellHeightPixels = cellHeightPixels;
+        mColumns = Math.min(MAX_CELLS, (displayWidthPixels + cellWidthPixels - 1) / cellWidthPixels);
+        mRows = Math.min(MAX_CELLS, (displayHeightPixels + cellHeightPixels - 1) / cellHeightPixels);
+    }
+
+    /** The encoded image, which must not be modified. */
+    public byte[] getData() {
+        return mData;
+    }
+
+    /**
+     * If the image is no longer shown in any row of its session and has been released, after which renderers should
+     * drop what they have decoded from it.
+     */
+    public boolean isReleased() {
+        return mReleased;
+    }
+
+    void release() {
+        mReleased = true;
+    }
+
+    /** Encode a cell showing the image with an {@link ImageTable} id, at a row and column of cells within the image. */
+    static long encodeCell(int imageId, int row, int column) {
+        return ((long) imageId << 32) | ((long) row << 16) | column;
+    }
+
+    /** The {@link ImageTable} id of the image in a cell, or 0 if the cell shows no image. */
+    public static int decodeCellImageId(long cell) {
+        return (int) (cell >>> 32);
+    }
+
+    /** The row within the image which a cell shows. */
+    public static int decodeCellRow(long cell) {
+        return (int) (cell >>> 16) & 0xFFFF;
+    }
+
+    /** The column within the image which a cell shows. */
+    public static int decodeCellColumn(long cell) {
+        return (int) cell & 0xFFFF;
+    }
+
+    /**
+     * Read the size of a PNG, GIF or JPEG image from its header.
+     *
+     * @return the width and height, or null if the format is not recognized or the header is invalid.
+     */
+    static int[] readPixelSize(byte[] data) {
+        if (data.length >= 24 && readInt(data, 0) == 0x89504E47 && readInt(data, 12) == 0x49484452) {
+            // PNG signature, followed by the IHDR chunk starting with the width and height:
+            return validSize(readInt(data, 16), readInt(data, 20));
+        } else if (data.length >= 10 && data[0] == 'G' && data[1] == 'I' && data[2] == 'F') {
+            // GIF header, followed by the little endian width and height of the logical screen:
+            return validSize((data[6] & 0xFF) | (data[7] & 0xFF) << 8, (data[8] & 0xFF) | (data[9] & 0xFF) << 8);
+        } else if (data.length >= 4 && (data[0] & 0xFF) == 0xFF && (data[1] & 0xFF) == 0xD8) {
+            // JPEG, where the size is in the first start of frame segment:
+            int index = 2;
+            while (index + 9 <= data.length) {
+                if ((data[index] & 0xFF) != 0xFF) return null;
+                final int marker = data[index + 1] & 0xFF;
+                if (marker == 0xFF) {
+                    // Fill byte.
+                    index++;
+                    continue;
+                }
+                // Start of frame markers, except for DHT, JPG and DAC which share their range:
+                if (marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC)
+                    return validSize(readShort(data, index + 7), readShort(data, index + 5));
+                index += 2 + readShort(data, index + 2);
+            }
+        }
+        return null;
+    }
+
+    private static int[] validSize(int width, int height) {
+        return (width > 0 && height > 0) ? new int[]{width, height} : null;
+    }
+
+    private static int readInt(byte[] data, int index) {
+        return (readShort(data, index) << 16) | readShort(data, index + 2);
+    }
+
+    private static int readShort(byte[] data, int index) {
+        return (data[index] & 0xFF) << 8 | (data[index + 1] & 0xFF);
+    }
+
+}
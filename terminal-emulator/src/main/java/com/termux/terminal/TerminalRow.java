@@ -1,11 +1,17 @@
 package com.termux.terminal;
 
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.Set;
 
 /**
  * A row in a terminal, composed of a fixed number of cells.
  * <p>
- * The text in the row is stored in a char[] array, {@link #mText}, for quick access during rendering.
+ * The text in the row is stored in a char[] array, {@link #mText}, for quick access during rendering. Since most rows
+ * only contain ASCII or Latin-1 text, a row starts out compact with a byte[] array, {@link #mLatin1Text}, holding one
+ * char per column, and is only inflated to use {@link #mText} when a character outside of Latin-1 or with a display
+ * width other than one is written to it.
  */
 public final class TerminalRow {
 
@@ -38,33 +44,106 @@ public final class TerminalRow {
     private static final int MAX_COMBINING_CHARACTERS_PER_COLUMN = 15;
 
     /** The number of columns in this terminal row. */
-    private final int mColumns;
-    /** The text filling this terminal row. */
-    public char[] mText;
-    /** The number of java chars used in {@link #mText}. */
+    final int mColumns;
+    /** The text filling this terminal row, or null if the row is compact and {@link #mLatin1Text} is used. */
+    private char[] mText;
+    /** The text of a compact row, one Latin-1 char per column, or null if {@link #mText} is used. */
+    private byte[] mLatin1Text;
+    /** The number of java chars used in {@link #mText}, or the number of columns for a compact row. */
     private short mSpaceUsed;
     /** If this row has been line wrapped due to text output at the end of line. */
     boolean mLineWrap;
-    /** The style bits of each cell in the row. See {@link TextStyle}. */
-    final long[] mStyle;
+    /** The table which style ids in this row refers to, shared by all rows in a {@link TerminalBuffer}. */
+    final StyleTable mStyleTable;
+    /** The style id of each cell, or null if all cells have the style {@link #mUniformStyleId} or {@link #mRawStyles} is used. */
+    private char[] mStyleIds;
+    /** The style id of all cells if {@link #mStyleIds} is null. */
+    private int mUniformStyleId;
+    /** The style bits of each cell, only used if the {@link #mStyleTable} was full. See {@link TextStyle}. */
+    private long[] mRawStyles;
     /** If this row might contain chars with width != 1, used for deactivating fast path */
     boolean mHasNonOneWidthOrSurrogateChars;
+    /** Incremented whenever the text or styles of this row change, see {@link #getVersion()}. */
+    private int mVersion;
+    /** The {@link HyperlinkTable} link id of each cell, or null if no cell in this row is part of a link. */
+    private char[] mLinkIds;
+    /** The image shown by each cell, see {@link TerminalImage#encodeCell(int, int, int)}, or null if no cell in this row shows an image. */
+    private long[] mImageCells;
 
     /** Construct a blank row (containing only whitespace, ' ') with a specified style. */
     public TerminalRow(int columns, long style) {
+        this(columns, style, new StyleTable());
+    }
+
+    /** Construct a blank row (containing only whitespace, ' ') with a specified style, interned in a style table. */
+    TerminalRow(int columns, long style, StyleTable styleTable) {
         mColumns = columns;
-        mText = new char[(int) (SPARE_CAPACITY_FACTOR * columns)];
-        mStyle = new long[columns];
+        mLatin1Text = new byte[columns];
+        mStyleTable = styleTable;
         clear(style);
     }
 
+    /**
+     * Construct a blank row using the style ids of a style table without interning any style into it, to be made a copy
+     * of another row with {@link #copyFrom(TerminalRow)}, as a table copied with {@link StyleTable#copyFrom(StyleTable)}
+     * must not be interned into.
+     */
+    TerminalRow(int columns, StyleTable styleTable) {
+        mColumns = columns;
+        mLatin1Text = new byte[columns];
+        Arrays.fill(mLatin1Text, (byte) ' ');
+        mSpaceUsed = (short) columns;
+        mStyleTable = styleTable;
+    }
+
     /** NOTE: The sourceX2 is exclusive. */
     public void copyInterval(TerminalRow line, int sourceX1, int sourceX2, int destinationX) {
-        mHasNonOneWidthOrSurrogateChars |= line.mHasNonOneWidthOrSurrogateChars;
+        mVersion++;
+        if (line.mLinkIds != null || mLinkIds != null || line.mImageCells != null || mImageCells != null) {
+            // Copied before the text, since setting chars below removes links and images, and this and line may be the same row:
+            final char[] linkIds = (line.mLinkIds == null) ? null : Arrays.copyOfRange(line.mLinkIds, sourceX1, sourceX2);
+            final long[] imageCells = (line.mImageCells == null) ? null : Arrays.copyOfRange(line.mImageCells, sourceX1, sourceX2);
+            copyTextAndStyles(line, sourceX1, sourceX2, destinationX);
+            if (linkIds == null) {
+                setLinkId(destinationX, destinationX + sourceX2 - sourceX1, 0);
+            } else {
+                if (mLinkIds == null) mLinkIds = new char[mColumns];
+                System.arraycopy(linkIds, 0, mLinkIds, destinationX, linkIds.length);
+            }
+            if (imageCells == null) {
+                if (mImageCells != null) Arrays.fill(mImageCells, destinationX, destinationX + sourceX2 - sourceX1, 0);
+            } else {
+                if (mImageCells == null) mImageCells = new long[mColumns];
+                System.arraycopy(imageCells, 0, mImageCells, destinationX, imageCells.length);
+            }
+            return;
+        }
+        copyTextAndStyles(line, sourceX1, sourceX2, destinationX);
+    }
+
+    private void copyTextAndStyles(TerminalRow line, int sourceX1, int sourceX2, int destinationX) {
+        if (!mHasNonOneWidthOrSurrogateChars && !line.mHasNonOneWidthOrSurrogateChars) {
+            // Fast path when both rows have one java char per column.
+            final int length = sourceX2 - sourceX1;
+            if (mText == null && line.mText != null) inflate();
+            if (mText == null) {
+                System.arraycopy(line.mLatin1Text, sourceX1, mLatin1Text, destinationX, length);
+            } else if (line.mText == null) {
+                for (int i = 0; i < length; i++)
+                    mText[destinationX + i] = (char) (line.mLatin1Text[sourceX1 + i] & 0xFF);
+            } else {
+                System.arraycopy(line.mText, sourceX1, mText, destinationX, length);
+            }
+            copyStyles(line, sourceX1, destinationX, length);
+            return;
+        }
+
+        mHasNonOneWidthOrSurrogateChars = true;
+        if (mText == null) inflate();
         final int x1 = line.findStartOfColumn(sourceX1);
         final int x2 = line.findStartOfColumn(sourceX2);
         boolean startingFromSecondHalfOfWideChar = (sourceX1 > 0 && line.wideDisplayCharacterStartingAt(sourceX1 - 1));
-        final char[] sourceChars = (this == line) ? Arrays.copyOf(line.mText, line.mText.length) : line.mText;
+        final char[] sourceChars = (this == line) ? Arrays.copyOf(line.mText, line.mText.length) : (line.mText != null ? line.mText : line.getText(new char[line.mColumns]));
         int latestNonCombiningWidth = 0;
         for (int i = x1; i < x2; i++) {
             char sourceChar = sourceChars[i];
@@ -88,9 +167,86 @@ public final class TerminalRow {
         return mSpaceUsed;
     }
 
+    /**
+     * A number which changes whenever the text or styles of this row change, so that things derived from them, such as
+     * the layout of the row when rendered, can be cached as long as the row and its version stay the same.
+     */
+    public int getVersion() {
+        return mVersion;
+    }
+
+    /** Get the java char at an index, which is less than {@link #getSpaceUsed()}. */
+    public char getChar(int index) {
+        return (mText == null) ? (char) (mLatin1Text[index] & 0xFF) : mText[index];
+    }
+
+    /**
+     * Get the text in this row, where the first {@link #getSpaceUsed()} java chars are used.
+     *
+     * @param buffer A buffer with room for at least one char per column, into which the text of a compact row is
+     *               inflated. Other rows return their own text array without using it.
+     */
+    public char[] getText(char[] buffer) {
+        if (mText != null) return mText;
+        for (int i = 0; i < mColumns; i++)
+            buffer[i] = (char) (mLatin1Text[i] & 0xFF);
+        return buffer;
+    }
+
+    /** If this row stores its text compactly, see {@link #mLatin1Text}. */
+    boolean isCompact() {
+        return mText == null;
+    }
+
+    /** Switch from compact storage to {@link #mText}, needed before writing a non-Latin-1 or not one width char. */
+    private void inflate() {
+        mText = new char[(int) (SPARE_CAPACITY_FACTOR * mColumns)];
+        for (int i = 0; i < mColumns; i++)
+            mText[i] = (char) (mLatin1Text[i] & 0xFF);
+        mLatin1Text = null;
+    }
+
+    /**
+     * Reduce the memory used by this row, called when it has scrolled into the transcript where it is not normally
+     * written to anymore. Rows with only Latin-1 text of width one are made compact, while others have their text
+     * array shrunk to the space actually used.
+     */
+    public void trim() {
+        if (mStyleIds != null) {
+            final char firstId = mStyleIds[0];
+            boolean uniform = true;
+            for (int i = 1; i < mColumns && uniform; i++)
+                uniform = mStyleIds[i] == firstId;
+            if (uniform) {
+                mUniformStyleId = firstId;
+                mStyleIds = null;
+            }
+        }
+
+        if (mText == null) return;
+        if (!mHasNonOneWidthOrSurrogateChars) {
+            byte[] latin1Text = new byte[mColumns];
+            for (int i = 0; i < mColumns; i++) {
+                char c = mText[i];
+                if (c > 0xFF) {
+                    latin1Text = null;
+                    break;
+                }
+                latin1Text[i] = (byte) c;
+            }
+            if (latin1Text != null) {
+                mLatin1Text = latin1Text;
+                mText = null;
+                return;
+            }
+        }
+        if (mText.length > mSpaceUsed) mText = Arrays.copyOf(mText, mSpaceUsed);
+    }
+
     /** Note that the column may end of second half of wide character. */
     public int findStartOfColumn(int column) {
         if (column == mColumns) return getSpaceUsed();
+        if (!mHasNonOneWidthOrSurrogateChars) return column;
 
         int currentColumn = 0;
         int currentCharIndex = 0;
@@ -128,6 +284,7 @@ public final class TerminalRow {
     }
 
     private boolean wideDisplayCharacterStartingAt(int column) {
+        if (!mHasNonOneWidthOrSurrogateChars) return false;
         for (int currentCharIndex = 0, currentColumn = 0; currentCharIndex < mSpaceUsed; ) {
             char c = mText[currentCharIndex++];
             int codePoint = Character.isHighSurrogate(c) ? Character.toCodePoint(c, mText[currentCharIndex++]) : c;
@@ -142,30 +299,75 @@ public final class TerminalRow {
     }
 
     public void clear(long style) {
-        Arrays.fill(mText, ' ');
-        Arrays.fill(mStyle, style);
+        mVersion++;
+        if (mText != null && mText.length >= mColumns) {
+            // Keep using the already allocated text array.
+            Arrays.fill(mText, ' ');
+        } else {
+            if (mLatin1Text == null) mLatin1Text = new byte[mColumns];
+            Arrays.fill(mLatin1Text, (byte) ' ');
+            mText = null;
+        }
+        clearStyles(style);
+        mLinkIds = null;
+        mImageCells = null;
         mSpaceUsed = (short) mColumns;
         mHasNonOneWidthOrSurrogateChars = false;
     }
 
+    /**
+     * Set a run of printable ASCII characters, which must all fit in the row starting at the specified column.
+     *
+     * @return false, without changing the row, if it might contain chars with width != 1, in which case
+     * {@link #setChar(int, int, long)} needs to be used for each character instead.
+     */
+    public boolean setAsciiRun(int columnToSet, byte[] text, int offset, int length, long style) {
+        if (mHasNonOneWidthOrSurrogateChars) return false;
+        if (columnToSet < 0 || columnToSet + length > mColumns)
+            throw new IllegalArgumentException("TerminalRow.setAsciiRun(): columnToSet=" + columnToSet + ", length=" + length);
+        mVersion++;
+
+        if (mText == null) {
+            System.arraycopy(text, offset, mLatin1Text, columnToSet, length);
+        } else {
+            for (int i = 0; i < length; i++)
+                mText[columnToSet + i] = (char) text[offset + i];
+        }
+        fillStyle(columnToSet, columnToSet + length, style);
+        if (mLinkIds != null) Arrays.fill(mLinkIds, columnToSet, columnToSet + length, (char) 0);
+        if (mImageCells != null) Arrays.fill(mImageCells, columnToSet, columnToSet + length, 0);
+        return true;
+    }
+
     // https://github.com/steven676/Android-Terminal-Emulator/commit/9a47042620bec87617f0b4f5d50568535668fe26
     public void setChar(int columnToSet, int codePoint, long style) {
-        if (columnToSet  < 0 || columnToSet >= mStyle.length)
+        if (columnToSet  < 0 || columnToSet >= mColumns)
             throw new IllegalArgumentException("TerminalRow.setChar(): columnToSet=" + columnToSet + ", codePoint=" + codePoint + ", style=" + style);
 
-        mStyle[columnToSet] = style;
+        setStyle(columnToSet, style);
 
         final int newCodePointDisplayWidth = WcWidth.width(codePoint);
+        if (mLinkIds != null && newCodePointDisplayWidth > 0) {
+            Arrays.fill(mLinkIds, columnToSet, Math.min(columnToSet + newCodePointDisplayWidth, mColumns), (char) 0);
+        }
+        if (mImageCells != null && newCodePointDisplayWidth > 0) {
+            Arrays.fill(mImageCells, columnToSet, Math.min(columnToSet + newCodePointDisplayWidth, mColumns), 0);
+        }
 
         // Fast path when we don't have any chars with width != 1
         if (!mHasNonOneWidthOrSurrogateChars) {
             if (codePoint >= Character.MIN_SUPPLEMENTARY_CODE_POINT || newCodePointDisplayWidth != 1) {
                 mHasNonOneWidthOrSurrogateChars = true;
+            } else if (mText == null && codePoint <= 0xFF) {
+                mLatin1Text[columnToSet] = (byte) codePoint;
+                return;
             } else {
+                if (mText == null) inflate();
                 mText[columnToSet] = (char) codePoint;
                 return;
             }
         }
+        if (mText == null) inflate();
 
         final boolean newIsCombining = newCodePointDisplayWidth <= 0;
 
@@ -272,12 +474,372 @@ public final class TerminalRow {
 
     boolean isBlank() {
         for (int charIndex = 0, charLen = getSpaceUsed(); charIndex < charLen; charIndex++)
-            if (mText[charIndex] != ' ') return false;
+            if (getChar(charIndex) != ' ') return false;
         return true;
     }
 
+    /** Get the {@link HyperlinkTable} link id of a cell, or 0 if the cell is not part of a link. */
+    public int getLinkId(int column) {
+        return (mLinkIds == null) ? 0 : mLinkIds[column];
+    }
+
+    /** If any cell in this row may be part of a link, which is false unless links have been written to it since last cleared. */
+    public boolean hasLinks() {
+        return mLinkIds != null;
+    }
+
+    /** Add the {@link HyperlinkTable} ids of the links in this row to a set. */
+    void addLinkIds(Set<Integer> linkIds) {
+        if (mLinkIds == null) return;
+        int lastId = 0;
+        for (char id : mLinkIds) {
+            if (id != 0 && id != lastId) linkIds.add((int) id);
+            lastId = id;
+        }
+    }
+
+    /** Set the link id of cells from the start to the end (exclusive) column, where 0 removes links. */
+    void setLinkId(int start, int end, int id) {
+        if (mLinkIds == null) {
+            if (id == 0) return;
+            mLinkIds = new char[mColumns];
+        }
+        mVersion++;
+        Arrays.fill(mLinkIds, start, end, (char) id);
+    }
+
+    /**
+     * Get the image shown by a cell, which {@link TerminalImage#decodeCellImageId(long)} and the other decode methods
+     * of {@link TerminalImage} read, or 0 if the cell shows no image.
+     */
+    public long getImageCell(int column) {
+        return (mImageCells == null) ? 0 : mImageCells[column];
+    }
+
+    /** If any cell in this row may show an image, which is false unless images have been placed in it since last cleared. */
+    public boolean hasImages() {
+        return mImageCells != null;
+    }
+
+    /**
+     * Make cells from the start to the end (exclusive) column show a row of an image, starting with a column within the
+     * image, where an {@link ImageTable} id of 0 removes images.
+     */
+    void setImageCells(int start, int end, int imageId, int imageRow, int imageColumn) {
+        if (mImageCells == null) {
+            if (imageId == 0) return;
+            mImageCells = new long[mColumns];
+        }
+        mVersion++;
+        for (int column = start; column < end; column++)
+            mImageCells[column] = (imageId == 0) ? 0 : TerminalImage.encodeCell(imageId, imageRow, imageColumn++);
+    }
+
+    /** Add the {@link ImageTable} ids of the images shown in this row to a set. */
+    void addImageIds(Set<Integer> imageIds) {
+        if (mImageCells == null) return;
+        int lastId = 0;
+        for (long cell : mImageCells) {
+            final int id = TerminalImage.decodeCellImageId(cell);
+            if (id != 0 && id != lastId) imageIds.add(id);
+            lastId = id;
+        }
+    }
+
     public final long getStyle(int column) {
-        return mStyle[column];
+        if (mRawStyles != null) return mRawStyles[column];
+        return mStyleTable.getStyle(mStyleIds == null ? mUniformStyleId : mStyleIds[column]);
+    }
+
+    /** If all cells in this row has the same style. */
+    public boolean hasUniformStyle() {
+        return mStyleIds == null && mRawStyles == null;
+    }
+
+    /** Set the style of a cell. */
+    void setStyle(int column, long style) {
+        mVersion++;
+        if (mRawStyles != null) {
+            mRawStyles[column] = style;
+            return;
+        }
+        final int id = mStyleTable.intern(style);
+        if (id == StyleTable.NO_ID) {
+            useRawStyles();
+            mRawStyles[column] = style;
+        } else if (mStyleIds != null) {
+            mStyleIds[column] = (char) id;
+        } else if (id != mUniformStyleId) {
+            allocateStyleIds();
+            mStyleIds[column] = (char) id;
+        }
+    }
+
+    /** Set the style of cells from the start to the end (exclusive) column. */
+    private void fillStyle(int start, int end, long style) {
+        if (start == 0 && end == mColumns) {
+            clearStyles(style);
+            return;
+        }
+        if (mRawStyles != null) {
+            Arrays.fill(mRawStyles, start, end, style);
+            return;
+        }
+        final int id = mStyleTable.intern(style);
+        if (id == StyleTable.NO_ID) {
+            useRawStyles();
+            Arrays.fill(mRawStyles, start, end, style);
+        } else {
+            fillStyleId(start, end, id);
+        }
+    }
+
+    private void fillStyleId(int start, int end, int id) {
+        if (mStyleIds == null) {
+            if (id == mUniformStyleId) return;
+            allocateStyleIds();
+        }
+        Arrays.fill(mStyleIds, start, end, (char) id);
+    }
+
+    /** Set the style of all cells, which makes the row use a single style id if possible. */
+    private void clearStyles(long style) {
+        final int id = mStyleTable.intern(style);
+        if (id == StyleTable.NO_ID) {
+            if (mRawStyles == null) useRawStyles();
+            Arrays.fill(mRawStyles, style);
+        } else {
+            mRawStyles = null;
+            // Keep using an already allocated array, since a row on screen will likely get different styles again.
+            if (mStyleIds != null) Arrays.fill(mStyleIds, (char) id);
+            mUniformStyleId = id;
+        }
+    }
+
+    private void copyStyles(TerminalRow line, int sourceX1, int destinationX, int length) {
+        if (line.mStyleTable == mStyleTable && line.mRawStyles == null && mRawStyles == null) {
+            if (line.mStyleIds == null) {
+                fillStyleId(destinationX, destinationX + length, line.mUniformStyleId);
+            } else {
+                if (mStyleIds == null) allocateStyleIds();
+                System.arraycopy(line.mStyleIds, sourceX1, mStyleIds, destinationX, length);
+            }
+        } else {
+            // Read all styles before writing, since this and line may be the same row.
+            final long[] styles = new long[length];
+            for (int i = 0; i < length; i++)
+                styles[i] = line.getStyle(sourceX1 + i);
+            for (int i = 0; i < length; i++)
+                setStyle(destinationX + i, styles[i]);
+        }
+    }
+
+    private void allocateStyleIds() {
+        mStyleIds = new char[mColumns];
+        Arrays.fill(mStyleIds, (char) mUniformStyleId);
+    }
+
+    /** Switch to storing the style of each cell in {@link #mRawStyles}, needed when the {@link #mStyleTable} is full. */
+    private void useRawStyles() {
+        final long[] rawStyles = new long[mColumns];
+        for (int i = 0; i < mColumns; i++)
+            rawStyles[i] = getStyle(i);
+        mRawStyles = rawStyles;
+        mStyleIds = null;
+    }
+
+    /**
+     * Copy this row to a new row with another number of columns, truncating it or padding it with spaces. Used to show
+     * rows which have not been reflowed to the current width.
+     */
+    TerminalRow copyWithColumns(int columns, StyleTable styleTable) {
+        final TerminalRow row = new TerminalRow(columns, 0, styleTable);
+        row.copyInterval(this, 0, Math.min(columns, mColumns), 0);
+        row.mLineWrap = mLineWrap && columns <= mColumns;
+        return row;
+    }
+
+    /**
+     * Make this row a copy of another row with the same number of columns, reusing the arrays of this row where possible.
+     * The style table of this row must have been made a copy of the one of the other row with
+     * {@link StyleTable#copyFrom(StyleTable)}, so that style ids can be copied as is.
+     */
+    void copyFrom(TerminalRow row) {
+        mVersion++;
+        if (row.mText == null) {
+            if (mLatin1Text == null) mLatin1Text = new byte[mColumns];
+            System.arraycopy(row.mLatin1Text, 0, mLatin1Text, 0, mColumns);
+            mText = null;
+        } else {
+            if (mText == null || mText.length < row.mSpaceUsed) mText = new char[row.mText.length];
+            System.arraycopy(row.mText, 0, mText, 0, row.mSpaceUsed);
+            mLatin1Text = null;
+        }
+        mSpaceUsed = row.mSpaceUsed;
+        mLineWrap = row.mLineWrap;
+        mHasNonOneWidthOrSurrogateChars = row.mHasNonOneWidthOrSurrogateChars;
+        if (row.mLinkIds == null) {
+            mLinkIds = null;
+        } else {
+            if (mLinkIds == null) mLinkIds = new char[mColumns];
+            System.arraycopy(row.mLinkIds, 0, mLinkIds, 0, mColumns);
+        }
+        if (row.mImageCells == null) {
+            mImageCells = null;
+        } else {
+            if (mImageCells == null) mImageCells = new long[mColumns];
+            System.arraycopy(row.mImageCells, 0, mImageCells, 0, mColumns);
+        }
+
+        mUniformStyleId = row.mUniformStyleId;
+        if (row.mRawStyles != null) {
+            if (mRawStyles == null) mRawStyles = new long[mColumns];
+            System.arraycopy(row.mRawStyles, 0, mRawStyles, 0, mColumns);
+            mStyleIds = null;
+        } else {
+            mRawStyles = null;
+            if (row.mStyleIds == null) {
+                mStyleIds = null;
+            } else {
+                if (mStyleIds == null) mStyleIds = new char[mColumns];
+                System.arraycopy(row.mStyleIds, 0, mStyleIds, 0, mColumns);
+            }
+        }
+    }
+
+    /**
+     * Append a packed encoding of this row to a stream, which {@link #unpack(ByteBuffer, int, StyleTable)} reads back.
+     * Styles are stored as runs of raw styles, so that the encoding does not depend on the style table. Link ids are
+     * stored as is, as rows are only unpacked by the buffer which packed them, and so are image ids.
+     */
+    void pack(ByteArrayOutputStream out) {
+        out.write((mLineWrap ? 1 : 0) | (mText == null ? 2 : 0) | (mHasNonOneWidthOrSurrogateChars ? 4 : 0) | (mLinkIds != null ? 8 : 0) | (mImageCells != null ? 16 : 0));
+        writeShort(out, mSpaceUsed);
+        if (mText == null) {
+            out.write(mLatin1Text, 0, mColumns);
+        } else {
+            for (int i = 0; i < mSpaceUsed; i++)
+                writeShort(out, mText[i]);
+        }
+
+        int runStart = 0;
+        for (int column = 1; column <= mColumns; column++) {
+            if (column == mColumns || getStyle(column) != getStyle(runStart)) {
+                writeShort(out, column - runStart);
+                final long style = getStyle(runStart);
+                for (int shift = 56; shift >= 0; shift -= 8)
+                    out.write((int) (style >>> shift));
+                runStart = column;
+            }
+        }
+
+        if (mLinkIds != null) {
+            runStart = 0;
+            for (int column = 1; column <= mColumns; column++) {
+                if (column == mColumns || mLinkIds[column] != mLinkIds[runStart]) {
+                    writeShort(out, column - runStart);
+                    writeShort(out, mLinkIds[runStart]);
+                    runStart = column;
+                }
+            }
+        }
+
+        if (mImageCells != null) {
+            // Runs of cells showing consecutive columns of the same image row, or no image:
+            runStart = 0;
+            for (int column = 1; column <= mColumns; column++) {
+                final long expected = (mImageCells[runStart] == 0) ? 0 : mImageCells[runStart] + (column - runStart);
+                if (column == mColumns || mImageCells[column] != expected) {
+                    writeShort(out, column - runStart);
+                    final long cell = mImageCells[runStart];
+                    for (int shift = 56; shift >= 0; shift -= 8)
+                        out.write((int) (cell >>> shift));
+                    runStart = column;
+                }
+            }
+        }
+    }
+
+    /** Read a row written by {@link #pack(ByteArrayOutputStream)}. */
+    static TerminalRow unpack(ByteBuffer in, int columns, StyleTable styleTable) {
+        final TerminalRow row = new TerminalRow(columns, 0, styleTable);
+        final int flags = in.get();
+        row.mLineWrap = (flags & 1) != 0;
+        row.mHasNonOneWidthOrSurrogateChars = (flags & 4) != 0;
+        row.mSpaceUsed = in.getShort();
+        if ((flags & 2) != 0) {
+            in.get(row.mLatin1Text, 0, columns);
+        } else {
+            row.mLatin1Text = null;
+            row.mText = new char[row.mSpaceUsed];
+            for (int i = 0; i < row.mSpaceUsed; i++)
+                row.mText[i] = in.getChar();
+        }
+
+        for (int column = 0; column < columns; ) {
+            final int runLength = in.getShort();
+            row.fillStyle(column, column + runLength, in.getLong());
+            column += runLength;
+        }
+
+        if ((flags & 8) != 0) {
+            for (int column = 0; column < columns; ) {
+                final int runLength = in.getShort();
+                row.setLinkId(column, column + runLength, in.getChar());
+                column += runLength;
+            }
+        }
+
+        if ((flags & 16) != 0) {
+            for (int column = 0; column < columns; ) {
+                final int runLength = in.getShort();
+                final long cell = in.getLong();
+                row.setImageCells(column, column + runLength, TerminalImage.decodeCellImageId(cell),
+                    TerminalImage.decodeCellRow(cell), TerminalImage.decodeCellColumn(cell));
+                column += runLength;
+            }
+        }
+        return row;
+    }
+
+    private static void writeShort(ByteArrayOutputStream out, int value) {
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    /** Mark the style ids used by this row, see {@link StyleTable#compact(boolean[])}. */
+    void markUsedStyleIds(boolean[] usedIds) {
+        if (mRawStyles != null) return;
+        if (mStyleIds == null) {
+            usedIds[mUniformStyleId] = true;
+        } else {
+            for (char id : mStyleIds)
+                usedIds[id] = true;
+        }
+    }
+
+    /** Renumber the style ids of this row after a {@link StyleTable#compact(boolean[])}. */
+    void remapStyleIds(int[] newIds) {
+        if (mRawStyles != null) return;
+        if (mStyleIds == null) {
+            mUniformStyleId = newIds[mUniformStyleId];
+        } else {
+            for (int i = 0; i < mColumns; i++)
+                mStyleIds[i] = (char) newIds[mStyleIds[i]];
+        }
+    }
+
+    /** Try to switch a row storing {@link #mRawStyles} back to using style ids, after ids have been freed up. */
+    void internRawStyles() {
+        if (mRawStyles == null) return;
+        final char[] styleIds = new char[mColumns];
+        for (int i = 0; i < mColumns; i++) {
+            final int id = mStyleTable.intern(mRawStyles[i]);
+            if (id == StyleTable.NO_ID) return;
+            styleIds[i] = (char) id;
+        }
+        mStyleIds = styleIds;
+        mRawStyles = null;
     }
 
 }
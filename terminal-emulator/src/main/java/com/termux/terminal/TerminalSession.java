@@ -2,6 +2,8 @@ package com.termux.terminal;
 
 import android.annotation.SuppressLint;
 import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
 import android.os.Message;
 import android.system.ErrnoException;
 import android.system.Os;
@@ -16,13 +18,18 @@ import java.io.InputStream;
 import java.lang.reflect.Field;
 import java.nio.charset.StandardCharsets;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A terminal session, consisting of a process coupled to a terminal interface.
  * <p>
  * The subprocess will be executed by the constructor, and when the size is made known by a call to
  * {@link #updateSize(int, int, int, int)} terminal emulation will begin and threads will be spawned to handle the subprocess I/O.
- * All terminal emulation and callback methods will be performed on the main thread.
+ * All terminal emulation and callback methods will be performed on the main thread, unless
+ * {@link #setEmulationThreadEnabled(boolean)} has been used to emulate on a separate thread. In that case the emulator
+ * is only modified while holding its monitor, so code on the main thread reading the screen (other than for rendering,
+ * which should use {@link #getScreenSnapshot()}) must synchronize on the emulator.
  * <p>
  * The child process may be exited forcefully by using the {@link #finishIfRunning()} method.
  * <p>
@@ -31,7 +38,19 @@ import java.util.UUID;
 public final class TerminalSession extends TerminalOutput {
 
     private static final int MSG_NEW_INPUT = 1;
+    private static final int MSG_REFLOW_TRANSCRIPT = 2;
     private static final int MSG_PROCESS_EXITED = 4;
+    /** Sent to the main thread when a new {@link TerminalSnapshot} has been published by the emulation thread. */
+    private static final int MSG_SCREEN_UPDATED = 8;
+    /** Sent to the emulation thread to publish a new {@link TerminalSnapshot} after the main thread changed the screen. */
+    private static final int MSG_TAKE_SNAPSHOT = 16;
+    /** Sent to the thread emulating to update the screen once a synchronized output update has timed out. */
+    private static final int MSG_SYNCHRONIZED_OUTPUT_TIMEOUT = 32;
+
+    /** The capacity of {@link #mProcessToTerminalIOQueue}, large enough to not stall the reader thread on output bursts. */
+    private static final int PROCESS_TO_TERMINAL_QUEUE_CAPACITY = 64 * 1024;
+    /** The capacity of {@link #mTerminalToProcessIOQueue}, which only receives user input. */
+    private static final int TERMINAL_TO_PROCESS_QUEUE_CAPACITY = 4096;
 
     public final String mHandle = UUID.randomUUID().toString();
 
@@ -41,18 +60,30 @@ public final class TerminalSession extends TerminalOutput {
      * A queue written to from a separate thread when the process outputs, and read by main thread to process by
      * terminal emulator.
      */
-    final ByteQueue mProcessToTerminalIOQueue = new ByteQueue(4096);
+    final ByteQueue mProcessToTerminalIOQueue = new ByteQueue(PROCESS_TO_TERMINAL_QUEUE_CAPACITY);
     /**
      * A queue written to from the main thread due to user interaction, and read by another thread which forwards by
-     * writing to the {@link #mTerminalFileDescriptor}.
+     * writing to the {@link #mTerminalFileDescriptor}. Only written to from the main thread, as the queue only
+     * supports a single writer.
      */
-    final ByteQueue mTerminalToProcessIOQueue = new ByteQueue(4096);
+    final ByteQueue mTerminalToProcessIOQueue = new ByteQueue(TERMINAL_TO_PROCESS_QUEUE_CAPACITY);
     /** Buffer to write translate code points into utf8 before writing to mTerminalToProcessIOQueue */
     private final byte[] mUtf8InputBuffer = new byte[5];
 
     /** Callback which gets notified when a session finishes or changes title. */
     TerminalSessionClient mClient;
 
+    /**
+     * The client of {@link #mEmulator}, which forwards to {@link #mClient}. The emulator calls it on the emulation thread
+     * if any, so the calls which touch the UI are posted to the main thread.
+     */
+    private final TerminalEmulatorClient mEmulatorClient = new EmulatorClient();
+    /**
+     * The {@link TerminalSessionClient#getTerminalCursorStyle()} of {@link #mClient}, read on the main thread so that
+     * {@link #mEmulatorClient} can return it on any thread.
+     */
+    private volatile Integer mTerminalCursorStyle;
+
     /** The pid of the shell process. 0 if not started and -1 if finished running. */
     int mShellPid;
 
@@ -70,12 +101,69 @@ public final class TerminalSession extends TerminalOutput {
 
     final Handler mMainThreadHandler = new MainThreadHandler();
 
+    /** The number of transcript rows to reflow at a time on the main thread after the number of columns changed. */
+    private static final int REFLOW_ROWS_PER_MESSAGE = 1000;
+
+    /**
+     * The max time in nanoseconds to spend emulating process output per {@link #MSG_NEW_INPUT} message before yielding
+     * to the main looper, so that input events and drawing stay responsive under heavy output.
+     */
+    private static final long INPUT_DRAIN_BUDGET_NANOS = 8 * 1000 * 1000;
+    /** The number of bytes of process output emulated between checks of {@link #INPUT_DRAIN_BUDGET_NANOS}. */
+    private static final int INPUT_DRAIN_CHUNK_SIZE = 4096;
+
+    /**
+     * Set when a {@link #MSG_NEW_INPUT} message has been posted and not yet handled, so that the reader thread posts a
+     * single message for any number of reads instead of one per read.
+     */
+    final AtomicBoolean mNewInputPending = new AtomicBoolean();
+    /** Buffer for reading from {@link #mProcessToTerminalIOQueue} on the thread emulating. */
+    private final byte[] mReceiveBuffer = new byte[INPUT_DRAIN_CHUNK_SIZE];
+
+    /** If process output should be emulated on {@link #mEmulationThread}, see {@link #setEmulationThreadEnabled(boolean)}. */
+    private boolean mEmulationThreadEnabled;
+    /** The thread emulating process output, or null if emulating on the main thread. */
+    private HandlerThread mEmulationThread;
+    /** The handler emulating process output, which is {@link #mMainThreadHandler} unless there is an emulation thread. */
+    private Handler mEmulationHandler;
+    /** Set when a {@link #MSG_SCREEN_UPDATED} message has been posted and not yet handled. */
+    private final AtomicBoolean mScreenUpdatePending = new AtomicBoolean();
+
+    /**
+     * Triple buffered snapshots of the screen: one written by the emulation thread, one published and one read by the
+     * main thread, so that neither side waits for the other. See {@link #mSnapshotIndices}.
+     */
+    private final TerminalSnapshot[] mSnapshots = {new TerminalSnapshot(), new TerminalSnapshot(), new TerminalSnapshot()};
+    /**
+     * The index into {@link #mSnapshots} of the snapshot written by the emulation thread (bits 0-1), the published one
+     * (bits 2-3) and the one read by the main thread (bits 4-5), with {@link #SNAPSHOT_PUBLISHED_BIT} set if the
+     * published one has not been read yet.
+     */
+    private final AtomicInteger mSnapshotIndices = new AtomicInteger(0 | (1 << 2) | (2 << 4));
+    private static final int SNAPSHOT_PUBLISHED_BIT = 1 << 6;
+    /** The number of snapshots published, see {@link TerminalSnapshot#getNumber()}. Only used by the emulation thread. */
+    private long mSnapshotCount;
+    /**
+     * The number of times the main thread has changed the screen while there is an emulation thread, so that
+     * snapshots taken before are not used. Only changed on the main thread with the emulator locked.
+     */
+    private int mMainThreadScreenChanges;
+
     private final String mShellPath;
     private final String mCwd;
     private final String[] mArgs;
     private final String[] mEnv;
     private final Integer mTranscriptRows;
 
+    /** The file to store rows scrolled out of the transcript in, or null to discard them. */
+    private File mTranscriptSpillFilePath;
+    private TranscriptSpillFile mTranscriptSpillFile;
+    /** The max size of OSC 52 copies to the clipboard, see {@link #setMaxClipboardBytes(int)}. */
+    private int mMaxClipboardBytes = TerminalEmulator.DEFAULT_MAX_OSC_PAYLOAD_BYTES;
+
+    /** Records process output while set, see {@link #startRecording(File)}. Read by the input reader thread. */
+    private volatile PtyRecorder mRecorder;
+
 
     private static final String LOG_TAG = "TerminalSession";
 
@@ -94,9 +182,142 @@ public final class TerminalSession extends TerminalOutput {
      */
     public void updateTerminalSessionClient(TerminalSessionClient client) {
         mClient = client;
+        mTerminalCursorStyle = client.getTerminalCursorStyle();
+
+        if (mEmulator != null) {
+            synchronized (mEmulator) {
+                mEmulator.updateTerminalSessionClient(mEmulatorClient);
+            }
+        }
+    }
+
+    /**
+     * Make the transcript unlimited by storing rows scrolled out of it in a file, which is deleted by
+     * {@link #closeTranscriptSpillFile()}. Must be called before the emulator is initialized.
+     */
+    public void setTranscriptSpillFile(File file) {
+        mTranscriptSpillFilePath = file;
+    }
 
-        if (mEmulator != null)
-            mEmulator.updateTerminalSessionClient(client);
+    /** Set the max size of OSC 52 copies to the clipboard, see {@link TerminalEmulator#setMaxClipboardBytes(int)}. */
+    public void setMaxClipboardBytes(int maxClipboardBytes) {
+        mMaxClipboardBytes = maxClipboardBytes;
+        if (mEmulator != null) {
+            synchronized (mEmulator) {
+                mEmulator.setMaxClipboardBytes(maxClipboardBytes);
+            }
+        }
+    }
+
+    /** Close and delete the file set with {@link #setTranscriptSpillFile(File)}, dropping the rows stored in it. */
+    public void closeTranscriptSpillFile() {
+        if (mTranscriptSpillFile == null) return;
+        if (mEmulator != null) {
+            synchronized (mEmulator) {
+                mEmulator.setTranscriptSpillFile(null);
+            }
+        }
+        mTranscriptSpillFile.close();
+        mTranscriptSpillFile = null;
+    }
+
+    /**
+     * Start recording process output and size changes to a file, which {@link PtyReplay} can replay, replacing any
+     * recording in progress. The replay starts from an empty screen, so recording should be started before the
+     * output of interest. Must be called after the emulator is initialized.
+     */
+    public void startRecording(File file) throws IOException {
+        stopRecording();
+        synchronized (mEmulator) {
+            mRecorder = new PtyRecorder(file, mEmulator.mColumns, mEmulator.mRows, mEmulator.mCellWidthPixels,
+                mEmulator.mCellHeightPixels, PtyRecorder.DEFAULT_QUEUE_SIZE);
+        }
+    }
+
+    /**
+     * Stop the recording started with {@link #startRecording(File)}. The queued output is written to the file on a
+     * separate thread, so this does not wait for it, which may take a while on a slow disk.
+     */
+    public void stopRecording() {
+        final PtyRecorder recorder = mRecorder;
+        if (recorder == null) return;
+        mRecorder = null;
+        new Thread("TermSessionRecorderCloser[pid=" + mShellPid + "]") {
+            @Override
+            public void run() {
+                try {
+                    recorder.close();
+                    if (recorder.getDroppedBytes() > 0)
+                        Logger.logWarn(mClient, LOG_TAG, "Dropped " + recorder.getDroppedBytes() + " bytes of output while recording");
+                } catch (IOException e) {
+                    Logger.logStackTraceWithMessage(mClient, LOG_TAG, "Failed to write recording", e);
+                }
+            }
+        }.start();
+    }
+
+    /** If output is being recorded, see {@link #startRecording(File)}. */
+    public boolean isRecording() {
+        return mRecorder != null;
+    }
+
+    /**
+     * Emulate process output on a separate thread instead of the main thread, which then only has to draw the
+     * {@link #getScreenSnapshot()} published by that thread. Must be called before the emulator is initialized.
+     */
+    public void setEmulationThreadEnabled(boolean enabled) {
+        mEmulationThreadEnabled = enabled;
+    }
+
+    /** If process output is emulated on a separate thread, see {@link #setEmulationThreadEnabled(boolean)}. */
+    public boolean hasEmulationThread() {
+        return mEmulationThread != null;
+    }
+
+    /**
+     * Get the latest snapshot of the screen published by the emulation thread, which is not modified until the next
+     * call. Returns null if there is no emulation thread, or if the main thread has changed the screen since, in
+     * which case the emulator should be rendered directly while synchronizing on it.
+     */
+    public TerminalSnapshot getScreenSnapshot() {
+        if (mEmulationThread == null) return null;
+        int indices;
+        while (((indices = mSnapshotIndices.get()) & SNAPSHOT_PUBLISHED_BIT) != 0) {
+            // Swap the read and the published snapshots:
+            final int published = (indices >> 2) & 3, read = (indices >> 4) & 3;
+            if (mSnapshotIndices.compareAndSet(indices, (indices & 3) | (read << 2) | (published << 4))) break;
+        }
+        final TerminalSnapshot snapshot = mSnapshots[(mSnapshotIndices.get() >> 4) & 3];
+        return (snapshot.mMainThreadScreenChanges == mMainThreadScreenChanges) ? snapshot : null;
+    }
+
+    /** Copy the screen into the written snapshot and publish it. Called on the emulation thread. */
+    private void publishScreenSnapshot() {
+        final TerminalSnapshot snapshot = mSnapshots[mSnapshotIndices.get() & 3];
+        synchronized (mEmulator) {
+            snapshot.copyFrom(mEmulator);
+            snapshot.mMainThreadScreenChanges = mMainThreadScreenChanges;
+        }
+        snapshot.mNumber = ++mSnapshotCount;
+        snapshot.mPreviousNumber = snapshot.mNumber - 1;
+        int indices = mSnapshotIndices.get();
+        // Replacing a published snapshot which the main thread has not read, so it must also redraw the rows changed in
+        // that one. Neither side modifies the published snapshot, so it is safe to read even if the main thread has just
+        // started reading it, in which case it sees from TerminalSnapshot.getPreviousNumber() that it has to redraw all:
+        if ((indices & SNAPSHOT_PUBLISHED_BIT) != 0) snapshot.addDamage(mSnapshots[(indices >> 2) & 3]);
+        do {
+            // Swap the written and the published snapshots:
+            indices = mSnapshotIndices.get();
+        } while (!mSnapshotIndices.compareAndSet(indices, ((indices >> 2) & 3) | ((indices & 3) << 2) | (indices & (3 << 4)) | SNAPSHOT_PUBLISHED_BIT));
+        if (mScreenUpdatePending.compareAndSet(false, true)) mMainThreadHandler.sendEmptyMessage(MSG_SCREEN_UPDATED);
+    }
+
+    /** Called with the emulator locked after the main thread changed the screen, see {@link #mMainThreadScreenChanges}. */
+    private void onScreenChangedOnMainThread() {
+        if (mEmulationThread == null) return;
+        mMainThreadScreenChanges++;
+        // The emulation thread has quit once the process has exited:
+        if (isRunning()) mEmulationHandler.sendEmptyMessage(MSG_TAKE_SNAPSHOT);
     }
 
     /** Inform the attached pty of the new size and reflow or initialize the emulator. */
@@ -105,7 +326,15 @@ public final class TerminalSession extends TerminalOutput {
             initializeEmulator(columns, rows, cellWidthPixels, cellHeightPixels);
         } else {
             JNI.setPtyWindowSize(mTerminalFileDescriptor, rows, columns, cellWidthPixels, cellHeightPixels);
-            mEmulator.resize(columns, rows, cellWidthPixels, cellHeightPixels);
+            final PtyRecorder recorder = mRecorder;
+            if (recorder != null) recorder.recordResize(columns, rows, cellWidthPixels, cellHeightPixels);
+            synchronized (mEmulator) {
+                mEmulator.resize(columns, rows, cellWidthPixels, cellHeightPixels);
+                onScreenChangedOnMainThread();
+            }
+            // Older transcript rows are reflowed a part at a time to not block the main thread:
+            mMainThreadHandler.removeMessages(MSG_REFLOW_TRANSCRIPT);
+            mMainThreadHandler.sendEmptyMessage(MSG_REFLOW_TRANSCRIPT);
         }
     }
 
@@ -121,7 +350,17 @@ public final class TerminalSession extends TerminalOutput {
      * @param rows    The number of rows in the terminal window.
      */
     public void initializeEmulator(int columns, int rows, int cellWidthPixels, int cellHeightPixels) {
-        mEmulator = new TerminalEmulator(this, columns, rows, cellWidthPixels, cellHeightPixels, mTranscriptRows, mClient);
+        mTerminalCursorStyle = mClient.getTerminalCursorStyle();
+        mEmulator = new TerminalEmulator(this, columns, rows, cellWidthPixels, cellHeightPixels, mTranscriptRows, mEmulatorClient);
+        mEmulator.setMaxClipboardBytes(mMaxClipboardBytes);
+        if (mTranscriptSpillFilePath != null) {
+            try {
+                mTranscriptSpillFile = new TranscriptSpillFile(mTranscriptSpillFilePath);
+                mEmulator.setTranscriptSpillFile(mTranscriptSpillFile);
+            } catch (IOException e) {
+                Logger.logStackTraceWithMessage(mClient, LOG_TAG, "Failed to create transcript spill file", e);
+            }
+        }
 
         int[] processId = new int[1];
         mTerminalFileDescriptor = JNI.createSubprocess(mShellPath, mCwd, mArgs, mEnv, processId, rows, columns, cellWidthPixels, cellHeightPixels);
@@ -130,6 +369,14 @@ public final class TerminalSession extends TerminalOutput {
 
         final FileDescriptor terminalFileDescriptorWrapped = wrapFileDescriptor(mTerminalFileDescriptor, mClient);
 
+        if (mEmulationThreadEnabled) {
+            mEmulationThread = new HandlerThread("TermSessionEmulator[pid=" + mShellPid + "]");
+            mEmulationThread.start();
+            mEmulationHandler = new EmulationThreadHandler(mEmulationThread.getLooper());
+        } else {
+            mEmulationHandler = mMainThreadHandler;
+        }
+
         new Thread("TermSessionInputReader[pid=" + mShellPid + "]") {
             @Override
             public void run() {
@@ -138,8 +385,10 @@ public final class TerminalSession extends TerminalOutput {
                     while (true) {
                         int read = termIn.read(buffer);
                         if (read == -1) return;
+                        final PtyRecorder recorder = mRecorder;
+                        if (recorder != null) recorder.record(buffer, 0, read);
                         if (!mProcessToTerminalIOQueue.write(buffer, 0, read)) return;
-                        mMainThreadHandler.sendEmptyMessage(MSG_NEW_INPUT);
+                        if (mNewInputPending.compareAndSet(false, true)) mEmulationHandler.sendEmptyMessage(MSG_NEW_INPUT);
                     }
                 } catch (Exception e) {
                     // Ignore, just shutting down.
@@ -167,7 +416,7 @@ public final class TerminalSession extends TerminalOutput {
             @Override
             public void run() {
                 int processExitCode = JNI.waitFor(mShellPid);
-                mMainThreadHandler.sendMessage(mMainThreadHandler.obtainMessage(MSG_PROCESS_EXITED, processExitCode));
+                mEmulationHandler.sendMessage(mEmulationHandler.obtainMessage(MSG_PROCESS_EXITED, processExitCode));
             }
         }.start();
 
@@ -176,7 +425,11 @@ public final class TerminalSession extends TerminalOutput {
     /** Write data to the shell process. */
     @Override
     public void write(byte[] data, int offset, int count) {
-        if (mShellPid > 0) mTerminalToProcessIOQueue.write(data, offset, count);
+        if (mShellPid <= 0) return;
+        // The queue only supports a single writer, while an emulation thread writes responses to escape sequences:
+        synchronized (mTerminalToProcessIOQueue) {
+            mTerminalToProcessIOQueue.write(data, offset, count);
+        }
     }
 
     /** Write the Unicode code point to the terminal encoded in UTF-8. */
@@ -225,9 +478,22 @@ public final class TerminalSession extends TerminalOutput {
         mClient.onTextChanged(this);
     }
 
+    /** Run a client callback on the main thread, since emulator callbacks are made on the emulation thread if any. */
+    private void runOnMainThread(Runnable runnable) {
+        if (Looper.myLooper() == mMainThreadHandler.getLooper()) {
+            runnable.run();
+        } else {
+            mMainThreadHandler.post(runnable);
+        }
+    }
+
     /** Reset state for terminal emulator state. */
     public void reset() {
-        mEmulator.reset();
+        mTerminalCursorStyle = mClient.getTerminalCursorStyle();
+        synchronized (mEmulator) {
+            mEmulator.reset();
+            onScreenChangedOnMainThread();
+        }
         notifyScreenUpdate();
     }
 
@@ -253,11 +519,12 @@ public final class TerminalSession extends TerminalOutput {
         mTerminalToProcessIOQueue.close();
         mProcessToTerminalIOQueue.close();
         JNI.close(mTerminalFileDescriptor);
+        if (mEmulationThread != null) mEmulationThread.quitSafely();
     }
 
     @Override
     public void titleChanged(String oldTitle, String newTitle) {
-        mClient.onTitleChanged(this);
+        runOnMainThread(() -> mClient.onTitleChanged(this));
     }
 
     public synchronized boolean isRunning() {
@@ -271,22 +538,22 @@ public final class TerminalSession extends TerminalOutput {
 
     @Override
     public void onCopyTextToClipboard(String text) {
-        mClient.onCopyTextToClipboard(this, text);
+        runOnMainThread(() -> mClient.onCopyTextToClipboard(this, text));
     }
 
     @Override
     public void onPasteTextFromClipboard() {
-        mClient.onPasteTextFromClipboard(this);
+        runOnMainThread(() -> mClient.onPasteTextFromClipboard(this));
     }
 
     @Override
     public void onBell() {
-        mClient.onBell(this);
+        runOnMainThread(() -> mClient.onBell(this));
     }
 
     @Override
     public void onColorsChanged() {
-        mClient.onColorsChanged(this);
+        runOnMainThread(() -> mClient.onColorsChanged(this));
     }
 
     public int getPid() {
@@ -333,22 +600,142 @@ public final class TerminalSession extends TerminalOutput {
         return result;
     }
 
+    /**
+     * Emulate the available process output on the thread of a handler, followed by a single screen update. Unless
+     * draining everything, stop after {@link #INPUT_DRAIN_BUDGET_NANOS} and post a new message for the rest, letting
+     * the looper handle other messages, such as input events and drawing on the main thread, in between.
+     */
+    private void drainInput(Handler handler, boolean drainAll) {
+        // Clear before reading, so that output written from now on posts a new message:
+        mNewInputPending.set(false);
+
+        final long deadline = System.nanoTime() + INPUT_DRAIN_BUDGET_NANOS;
+        boolean emulated = false;
+        int bytesRead;
+        while ((bytesRead = mProcessToTerminalIOQueue.read(mReceiveBuffer, false)) > 0) {
+            // Only locked for a chunk at a time, so that the main thread never waits long for the emulator:
+            synchronized (mEmulator) {
+                mEmulator.append(mReceiveBuffer, bytesRead);
+            }
+            emulated = true;
+            if (!drainAll && System.nanoTime() - deadline >= 0) {
+                if (mProcessToTerminalIOQueue.available() > 0 && mNewInputPending.compareAndSet(false, true))
+                    handler.sendEmptyMessage(MSG_NEW_INPUT);
+                break;
+            }
+        }
+        if (!emulated) return;
+        final long synchronizedOutputRemainingMillis = getSynchronizedOutputRemainingMillis();
+        if (synchronizedOutputRemainingMillis > 0) {
+            // The process is in the middle of redrawing the screen, so the update is held back until it ends the
+            // synchronized output update, to not show a partly drawn frame, or until the update times out:
+            if (!handler.hasMessages(MSG_SYNCHRONIZED_OUTPUT_TIMEOUT))
+                handler.sendEmptyMessageDelayed(MSG_SYNCHRONIZED_OUTPUT_TIMEOUT, synchronizedOutputRemainingMillis);
+            return;
+        }
+        updateScreen(handler);
+    }
+
+    /** Handle {@link #MSG_SYNCHRONIZED_OUTPUT_TIMEOUT}, unless a later synchronized output update is still going on. */
+    private void onSynchronizedOutputTimeout(Handler handler) {
+        final long synchronizedOutputRemainingMillis = getSynchronizedOutputRemainingMillis();
+        if (synchronizedOutputRemainingMillis > 0) {
+            handler.sendEmptyMessageDelayed(MSG_SYNCHRONIZED_OUTPUT_TIMEOUT, synchronizedOutputRemainingMillis);
+        } else {
+            updateScreen(handler);
+        }
+    }
+
+    /** The time left of the synchronized output update the emulator is in, or 0 if none, see {@link TerminalEmulator#isSynchronizedOutputActive()}. */
+    private long getSynchronizedOutputRemainingMillis() {
+        synchronized (mEmulator) {
+            // Only called on the thread emulating, which may end the update:
+            mEmulator.endTimedOutSynchronizedOutput();
+            return mEmulator.getSynchronizedOutputRemainingMillis();
+        }
+    }
+
+    /** Update the screen after emulating output on the thread of a handler. */
+    private void updateScreen(Handler handler) {
+        handler.removeMessages(MSG_SYNCHRONIZED_OUTPUT_TIMEOUT);
+        if (handler == mMainThreadHandler) {
+            notifyScreenUpdate();
+        } else {
+            publishScreenSnapshot();
+        }
+    }
+
+    /** The {@link #mEmulatorClient}. */
+    private final class EmulatorClient implements TerminalEmulatorClient {
+
+        @Override
+        public void onTerminalCursorStateChange(boolean state) {
+            runOnMainThread(() -> mClient.onTerminalCursorStateChange(state));
+        }
+
+        @Override
+        public Integer getTerminalCursorStyle() {
+            return mTerminalCursorStyle;
+        }
+
+        @Override
+        public void logError(String tag, String message) {
+            mClient.logError(tag, message);
+        }
+
+        @Override
+        public void logWarn(String tag, String message) {
+            mClient.logWarn(tag, message);
+        }
+
+        @Override
+        public void logInfo(String tag, String message) {
+            mClient.logInfo(tag, message);
+        }
+
+        @Override
+        public void logDebug(String tag, String message) {
+            mClient.logDebug(tag, message);
+        }
+
+        @Override
+        public void logVerbose(String tag, String message) {
+            mClient.logVerbose(tag, message);
+        }
+
+    }
+
     @SuppressLint("HandlerLeak")
     class MainThreadHandler extends Handler {
 
-        final byte[] mReceiveBuffer = new byte[4 * 1024];
-
         @Override
         public void handleMessage(Message msg) {
-            int bytesRead = mProcessToTerminalIOQueue.read(mReceiveBuffer, false);
-            if (bytesRead > 0) {
-                mEmulator.append(mReceiveBuffer, bytesRead);
+            if (msg.what == MSG_REFLOW_TRANSCRIPT) {
+                boolean more;
+                synchronized (mEmulator) {
+                    more = mEmulator.reflowPendingRows(REFLOW_ROWS_PER_MESSAGE);
+                    onScreenChangedOnMainThread();
+                }
+                // The reflowed rows may be shown if scrolled back into the transcript:
+                notifyScreenUpdate();
+                if (more) sendEmptyMessage(MSG_REFLOW_TRANSCRIPT);
+                return;
+            } else if (msg.what == MSG_SCREEN_UPDATED) {
+                mScreenUpdatePending.set(false);
                 notifyScreenUpdate();
+                return;
+            } else if (msg.what == MSG_SYNCHRONIZED_OUTPUT_TIMEOUT) {
+                onSynchronizedOutputTimeout(this);
+                return;
             }
 
+            // Emulate all remaining output before the exit message, which the emulation thread if any has done:
+            if (mEmulationHandler == this) drainInput(this, msg.what == MSG_PROCESS_EXITED);
+
             if (msg.what == MSG_PROCESS_EXITED) {
                 int exitCode = (Integer) msg.obj;
                 cleanupResources(exitCode);
+                stopRecording();
 
                 String exitDescription = "\r\n[Process completed";
                 if (exitCode > 0) {
@@ -361,7 +748,10 @@ public final class TerminalSession extends TerminalOutput {
                 exitDescription += " - press Enter]";
 
                 byte[] bytesToWrite = exitDescription.getBytes(StandardCharsets.UTF_8);
-                mEmulator.append(bytesToWrite, bytesToWrite.length);
+                synchronized (mEmulator) {
+                    mEmulator.append(bytesToWrite, bytesToWrite.length);
+                    onScreenChangedOnMainThread();
+                }
                 notifyScreenUpdate();
 
                 mClient.onSessionFinished(TerminalSession.this);
@@ -370,4 +760,27 @@ public final class TerminalSession extends TerminalOutput {
 
     }
 
+    /** Emulates process output on {@link #mEmulationThread}, see {@link #setEmulationThreadEnabled(boolean)}. */
+    class EmulationThreadHandler extends Handler {
+
+        EmulationThreadHandler(Looper looper) {
+            super(looper);
+        }
+
+        @Override
+        public void handleMessage(Message msg) {
+            if (msg.what == MSG_TAKE_SNAPSHOT) {
+                publishScreenSnapshot();
+            } else if (msg.what == MSG_NEW_INPUT) {
+                drainInput(this, false);
+            } else if (msg.what == MSG_SYNCHRONIZED_OUTPUT_TIMEOUT) {
+                onSynchronizedOutputTimeout(this);
+            } else if (msg.what == MSG_PROCESS_EXITED) {
+                drainInput(this, true);
+                mMainThreadHandler.sendMessage(mMainThreadHandler.obtainMessage(MSG_PROCESS_EXITED, msg.obj));
+            }
+        }
+
+    }
+
 }
@@ -0,0 +1,182 @@
+package com.termux.terminal;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * A copy of the visible screen of a {@link TerminalEmulator}, taken on the thread emulating a {@link TerminalSession}
+ * so that it can be rendered on the main thread without locking the emulator.
+ * <p>
+ * A snapshot is reused for later copies, which only reallocate rows if the screen size changed and otherwise copy into
+ * the arrays of the existing rows.
+ */
+public final class TerminalSnapshot {
+
+    /** The size of the copied screen. */
+    public int mRows, mColumns;
+
+    /** The copied rows, which use {@link #mStyleTable}. */
+    private TerminalRow[] mLines = new TerminalRow[0];
+    /**
+     * The screen row each row was last copied from and its {@link TerminalRow#getVersion()} then, so that rows which
+     * have not changed are not copied again and keep their version, which renderers use to cache layouts of rows.
+     */
+    private TerminalRow[] mSourceLines = new TerminalRow[0];
+    private int[] mSourceVersions = new int[0];
+    /** A copy of the style table of the copied screen, see {@link StyleTable#copyFrom(StyleTable)}. */
+    private final StyleTable mStyleTable = new StyleTable();
+    /** The images shown by the copied rows, which is the table of the emulator and not a copy, see {@link #getImage(int)}. */
+    private ImageTable mImages;
+
+    private int mCursorRow, mCursorCol, mCursorStyle;
+    private boolean mCursorEnabled, mReverseVideo;
+    private final int[] mColors = new int[TextStyle.NUM_INDEXED_COLORS];
+
+    /** The rows changed since the previous snapshot, see {@link #getDamagedRows()}. */
+    private final BitSet mDamagedRows = new BitSet();
+    /** The number of rows scrolled since the previous snapshot, see {@link #getScrolledRows()}. */
+    private int mScrolledRows;
+
+    /** See {@link #getNumber()} and {@link #getPreviousNumber()}. */
+    long mNumber, mPreviousNumber;
+
+    /** The value of {@link TerminalSession#mMainThreadScreenChanges} when this snapshot was taken. */
+    int mMainThreadScreenChanges;
+
+    /** Copy the visible screen of an emulator. Must be called on the thread emulating, or with the emulator locked. */
+    void copyFrom(TerminalEmulator emulator) {
+        mDamagedRows.clear();
+        mScrolledRows = emulator.takeDamage(mDamagedRows);
+
+        final TerminalBuffer screen = emulator.getScreen();
+        if (mRows != emulator.mRows || mColumns != emulator.mColumns) {
+            mRows = emulator.mRows;
+            mColumns = emulator.mColumns;
+            mLines = new TerminalRow[mRows];
+            for (int row = 0; row < mRows; row++)
+                mLines[row] = new TerminalRow(mColumns, mStyleTable);
+            mSourceLines = new TerminalRow[mRows];
+            mSourceVersions = new int[mRows];
+        } else if (mScrolledRows > 0 && mScrolledRows < mRows) {
+            // Move the rows up along with the screen, so that they are likely copied from the same screen rows again:
+            rotateUp(mLines, mScrolledRows);
+            rotateUp(mSourceLines, mScrolledRows);
+            final int[] versions = Arrays.copyOf(mSourceVersions, mScrolledRows);
+            System.arraycopy(mSourceVersions, mScrolledRows, mSourceVersions, 0, mRows - mScrolledRows);
+            System.arraycopy(versions, 0, mSourceVersions, mRows - mScrolledRows, mScrolledRows);
+        }
+
+        final boolean styleIdsKept = mStyleTable.copyFrom(screen.mStyleTable);
+        mImages = screen.mImages;
+        for (int row = 0; row < mRows; row++) {
+            final TerminalRow line = screen.getLine(row);
+            if (line.mColumns == mColumns && line.mStyleTable == screen.mStyleTable) {
+                if (mLines[row].mStyleTable != mStyleTable) {
+                    mLines[row] = new TerminalRow(mColumns, mStyleTable);
+                } else if (styleIdsKept && mSourceLines[row] == line && mSourceVersions[row] == line.getVersion()) {
+                    mLines[row].mLineWrap = line.mLineWrap;
+                    continue;
+                }
+                mLines[row].copyFrom(line);
+                mSourceLines[row] = line;
+                mSourceVersions[row] = line.getVersion();
+            } else {
+                // Not expected for rows on screen, but copy cell by cell into a row with a table of its own if so.
+                final TerminalRow copy = new TerminalRow(mColumns, 0);
+                copy.copyInterval(line, 0, Math.min(mColumns, line.mColumns), 0);
+                mLines[row] = copy;
+                mSourceLines[row] = null;
+            }
+        }
+
+        mCursorRow = emulator.getCursorRow();
+        mCursorCol = emulator.getCursorCol();
+        mCursorStyle = emulator.getCursorStyle();
+        mCursorEnabled = emulator.isCursorEnabled();
+        mReverseVideo = emulator.isReverseVideo();
+        System.arraycopy(emulator.mColors.mCurrentColors, 0, mColors, 0, mColors.length);
+    }
+
+    /**
+     * Also include the changes of a previous snapshot of the same emulator which was not rendered, as if no snapshot had
+     * been taken in between.
+     */
+    void addDamage(TerminalSnapshot previous) {
+        // The rows changed in the previous snapshot have since moved up by the rows scrolled in this one:
+        final BitSet previousRows = previous.mDamagedRows;
+        for (int row = previousRows.nextSetBit(mScrolledRows); row >= 0 && row < mRows; row = previousRows.nextSetBit(row + 1))
+            mDamagedRows.set(row - mScrolledRows);
+        mScrolledRows = Math.min(mRows, mScrolledRows + previous.mScrolledRows);
+        mPreviousNumber = previous.mPreviousNumber;
+    }
+
+    /** The number of this snapshot, counting from 1 for the first one published by the session. */
+    public long getNumber() {
+        return mNumber;
+    }
+
+    /**
+     * The number of the snapshot which {@link #getDamagedRows()} and {@link #getScrolledRows()} are relative to, usually
+     * the previous one. If the snapshot rendered last had another number, all rows have to be rendered.
+     */
+    public long getPreviousNumber() {
+        return mPreviousNumber;
+    }
+
+    /**
+     * The rows which have changed since the previous snapshot taken of the emulator, compared to the previous screen
+     * shifted up by {@link #getScrolledRows()}, see {@link TerminalEmulator#takeDamage(BitSet)}. Must not be modified.
+     */
+    public BitSet getDamagedRows() {
+        return mDamagedRows;
+    }
+
+    /** The number of rows the screen has scrolled since the previous snapshot, see {@link #getDamagedRows()}. */
+    public int getScrolledRows() {
+        return mScrolledRows;
+    }
+
+    private static void rotateUp(TerminalRow[] rows, int distance) {
+        final TerminalRow[] top = Arrays.copyOf(rows, distance);
+        System.arraycopy(rows, distance, rows, 0, rows.length - distance);
+        System.arraycopy(top, 0, rows, rows.length - distance, distance);
+    }
+
+    /** Get a row, where 0 is the top row of the screen. */
+    public TerminalRow getLine(int row) {
+        return mLines[row];
+    }
+
+    /** Get an image shown by a copied row, see {@link TerminalBuffer#getImage(int)}, or null if it has since been released. */
+    public TerminalImage getImage(int imageId) {
+        return (mImages == null) ? null : mImages.get(imageId);
+    }
+
+    public int getCursorRow() {
+        return mCursorRow;
+    }
+
+    public int getCursorCol() {
+        return mCursorCol;
+    }
+
+    /** The cursor style, see {@link TerminalEmulator#getCursorStyle()}. */
+    public int getCursorStyle() {
+        return mCursorStyle;
+    }
+
+    /** If the cursor was enabled, which does not take blinking into account, see {@link TerminalEmulator#shouldCursorBeVisible()}. */
+    public boolean isCursorEnabled() {
+        return mCursorEnabled;
+    }
+
+    public boolean isReverseVideo() {
+        return mReverseVideo;
+    }
+
+    /** The current colors, see {@link TerminalColors#mCurrentColors}. */
+    public int[] getColors() {
+        return mColors;
+    }
+
+}
@@ -0,0 +1,225 @@
+package com.termux.terminal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An index of the lines in the transcript of a {@link TerminalBuffer} for {@link TerminalBuffer#find(String, boolean, int)},
+ * so that searching a large transcript does not require reading all of it for every search.
+ * <p>
+ * Logical lines, that is rows joined by line wrapping, are indexed by the trigrams of their text folded to lower case,
+ * each of which maps to the ascending ids of the lines containing it. A search for text of at least three chars then
+ * only has to read the lines containing all of its trigrams, while shorter text is searched for in all lines.
+ * <p>
+ * Rows are identified by their absolute row number, see {@link TerminalBuffer#mTranscriptRowsAdded}, which does not
+ * change as the screen scrolls. The index is updated before each search to include lines which have scrolled entirely
+ * into the transcript since, so that the cost of indexing is only paid when searching, and rows on the screen, which
+ * may still change, are always read. Lines evicted from the transcript are skipped, and the index is rebuilt when
+ * most lines have been evicted or when the rows of the transcript have been changed by a resize or reflow.
+ */
+final class TranscriptSearchIndex {
+
+    /** The {@link TerminalBuffer#mTranscriptGeneration} indexed, with -1 meaning nothing indexed. */
+    private int mGeneration = -1;
+
+    /** The absolute row each line starts at, where a line ends where the next one starts or at {@link #mIndexedEnd}. */
+    private long[] mLineStarts = new long[256];
+    private int mLineCount;
+    /** The first line which has not been evicted from the transcript. */
+    private int mFirstLiveLine;
+    /** The absolute row after the last indexed line. */
+    private long mIndexedEnd;
+
+    /** An open addressing hash table from trigrams, see {@link #trigram(char, char, char)}, with 0 for empty slots. */
+    private long[] mTrigrams = new long[1024];
+    /** The ascending ids of the lines containing the trigram in the same slot, and the number of ids used. */
+    private int[][] mTrigramLines = new int[1024][];
+    private int[] mTrigramLineCounts = new int[1024];
+    private int mTrigramCount;
+
+    /** Reused for the text of lines. */
+    private final LogicalLine mLineText = new LogicalLine();
+
+    /**
+     * Find occurrences of text in the transcript and on the screen of a buffer, top to bottom.
+     *
+     * @param text       the text to find, which must not be empty.
+     * @param ignoreCase if upper and lower case chars should be considered equal.
+     * @param maxMatches the maximum number of matches to return.
+     */
+    List<SearchMatch> find(TerminalBuffer buffer, String text, boolean ignoreCase, int maxMatches) {
+        if (text.isEmpty()) throw new IllegalArgumentException("Empty text to find");
+        update(buffer);
+
+        final char[] pattern = text.toCharArray();
+        if (ignoreCase)
+            for (int i = 0; i < pattern.length; i++) pattern[i] = Character.toLowerCase(pattern[i]);
+
+        final List<SearchMatch> matches = new ArrayList<>();
+        final long screenStart = buffer.mTranscriptRowsAdded;
+        if (pattern.length >= 3) {
+            final int[] candidates = findLinesWithTrigrams(pattern);
+            for (int i = 0; i < candidates.length && matches.size() < maxMatches; i++)
+                findInLine(buffer, candidates[i], screenStart, pattern, ignoreCase, maxMatches, matches);
+        } else {
+            for (int line = mFirstLiveLine; line < mLineCount && matches.size() < maxMatches; line++)
+                findInLine(buffer, line, screenStart, pattern, ignoreCase, maxMatches, matches);
+        }
+
+        // Rows not indexed, which are the ones on the screen and the rows of the line continuing onto the screen:
+        final LogicalLine lineText = mLineText;
+        lineText.clear((int) (mIndexedEnd - screenStart));
+        for (int row = (int) (mIndexedEnd - screenStart); row < buffer.mScreenRows && matches.size() < maxMatches; row++) {
+            final TerminalRow line = buffer.getLine(row);
+            lineText.appendRow(line);
+            if (!line.mLineWrap || row == buffer.mScreenRows - 1) {
+                lineText.findAll(pattern, ignoreCase, maxMatches, matches);
+                lineText.clear(row + 1);
+            }
+        }
+        return matches;
+    }
+
+    /** Index the lines which have scrolled into the transcript since the last update. */
+    private void update(TerminalBuffer buffer) {
+        final long oldestRow = buffer.mTranscriptRowsAdded - buffer.getActiveTranscriptRows();
+        while (mFirstLiveLine < mLineCount && mLineStarts[mFirstLiveLine] < oldestRow) mFirstLiveLine++;
+        if (mGeneration != buffer.mTranscriptGeneration || mFirstLiveLine > mLineCount - mFirstLiveLine) {
+            clear();
+            mGeneration = buffer.mTranscriptGeneration;
+        }
+        if (mIndexedEnd < oldestRow) mIndexedEnd = oldestRow;
+
+        final LogicalLine lineText = mLineText;
+        lineText.clear(0);
+        final long transcriptEnd = buffer.mTranscriptRowsAdded;
+        long lineStart = mIndexedEnd;
+        for (long row = lineStart; row < transcriptEnd; row++) {
+            final TerminalRow line = buffer.getLine((int) (row - transcriptEnd));
+            lineText.appendRow(line);
+            if (!line.mLineWrap) {
+                addLine(lineStart, lineText);
+                lineText.clear(0);
+                lineStart = row + 1;
+            }
+        }
+        // A line continuing onto the screen is left for later:
+        mIndexedEnd = lineStart;
+    }
+
+    private void clear() {
+        mLineCount = 0;
+        mFirstLiveLine = 0;
+        mIndexedEnd = 0;
+        Arrays.fill(mTrigrams, 0);
+        Arrays.fill(mTrigramLines, null);
+        Arrays.fill(mTrigramLineCounts, 0);
+        mTrigramCount = 0;
+    }
+
+    private void addLine(long startRow, LogicalLine lineText) {
+        if (mLineCount == mLineStarts.length) mLineStarts = Arrays.copyOf(mLineStarts, mLineCount * 2);
+        final int lineId = mLineCount++;
+        mLineStarts[lineId] = startRow;
+
+        final char[] text = lineText.mText;
+        for (int i = 0; i + 2 < lineText.mLength; i++) {
+            final long trigram = trigram(Character.toLowerCase(text[i]), Character.toLowerCase(text[i + 1]), Character.toLowerCase(text[i + 2]));
+            int slot = findSlot(trigram);
+            if (mTrigrams[slot] == 0) {
+                if ((mTrigramCount + 1) * 2 > mTrigrams.length) {
+                    growTrigrams();
+                    slot = findSlot(trigram);
+                }
+                mTrigrams[slot] = trigram;
+                mTrigramLines[slot] = new int[4];
+                mTrigramCount++;
+            }
+            int[] lines = mTrigramLines[slot];
+            final int count = mTrigramLineCounts[slot];
+            if (count > 0 && lines[count - 1] == lineId) continue;
+            if (count == lines.length) mTrigramLines[slot] = lines = Arrays.copyOf(lines, count * 2);
+            lines[count] = lineId;
+            mTrigramLineCounts[slot] = count + 1;
+        }
+    }
+
+    /** Get the ids of the live lines containing all trigrams of a pattern, ignoring case. */
+    private int[] findLinesWithTrigrams(char[] pattern) {
+        int[] result = null;
+        int resultCount = 0;
+        for (int i = 0; i + 2 < pattern.length; i++) {
+            final int slot = findSlot(trigram(Character.toLowerCase(pattern[i]), Character.toLowerCase(pattern[i + 1]), Character.toLowerCase(pattern[i + 2])));
+            if (mTrigrams[slot] == 0) return new int[0];
+            final int[] lines = mTrigramLines[slot];
+            final int count = mTrigramLineCounts[slot];
+            if (result == null) {
+                result = Arrays.copyOf(lines, count);
+                resultCount = count;
+            } else {
+                // Intersect the ascending ids:
+                int kept = 0;
+                for (int r = 0, l = 0; r < resultCount && l < count; ) {
+                    if (result[r] < lines[l]) {
+                        r++;
+                    } else if (result[r] > lines[l]) {
+                        l++;
+                    } else {
+                        result[kept++] = result[r];
+                        r++;
+                        l++;
+                    }
+                }
+                resultCount = kept;
+            }
+            if (resultCount == 0) break;
+        }
+
+        int firstLive = 0;
+        while (firstLive < resultCount && result[firstLive] < mFirstLiveLine) firstLive++;
+        return Arrays.copyOfRange(result, firstLive, resultCount);
+    }
+
+    private void findInLine(TerminalBuffer buffer, int lineId, long screenStart, char[] pattern, boolean ignoreCase,
+                            int maxMatches, List<SearchMatch> matches) {
+        final long start = mLineStarts[lineId];
+        final long end = (lineId + 1 < mLineCount) ? mLineStarts[lineId + 1] : mIndexedEnd;
+        final int startRow = (int) (start - screenStart);
+        final LogicalLine lineText = mLineText;
+        lineText.clear(startRow);
+        for (int row = startRow; row < (int) (end - screenStart); row++)
+            lineText.appendRow(buffer.getLine(row));
+        lineText.findAll(pattern, ignoreCase, maxMatches, matches);
+    }
+
+    private static long trigram(char first, char second, char third) {
+        return ((long) first << 32) | ((long) second << 16) | third;
+    }
+
+    private int findSlot(long trigram) {
+        final int mask = mTrigrams.length - 1;
+        int slot = (int) ((trigram * 0x9E3779B97F4A7C15L) >>> 40) & mask;
+        while (mTrigrams[slot] != 0 && mTrigrams[slot] != trigram)
+            slot = (slot + 1) & mask;
+        return slot;
+    }
+
+    private void growTrigrams() {
+        final long[] oldTrigrams = mTrigrams;
+        final int[][] oldLines = mTrigramLines;
+        final int[] oldCounts = mTrigramLineCounts;
+        final int capacity = oldTrigrams.length * 2;
+        mTrigrams = new long[capacity];
+        mTrigramLines = new int[capacity][];
+        mTrigramLineCounts = new int[capacity];
+        for (int i = 0; i < oldTrigrams.length; i++) {
+            if (oldTrigrams[i] == 0) continue;
+            final int slot = findSlot(oldTrigrams[i]);
+            mTrigrams[slot] = oldTrigrams[i];
+            mTrigramLines[slot] = oldLines[i];
+            mTrigramLineCounts[slot] = oldCounts[i];
+        }
+    }
+
+}
@@ -0,0 +1,264 @@
+package com.termux.terminal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Storage for transcript rows evicted from the ring buffer of a {@link TerminalBuffer}, allowing an unlimited history
+ * while only using a constant amount of heap.
+ * <p>
+ * Rows are appended in their packed form (see {@link TerminalRow#pack(ByteArrayOutputStream)}) to a data file, and the
+ * end offset of each row is stored as a long in an index file next to it, so that any row can be read back by its index.
+ * Appended rows are collected in buffers of {@link #WRITE_BUFFER_SIZE} bytes which are written with positional channel
+ * writes, instead of through a memory mapped file, so that failing to write is reported as an {@link IOException}
+ * rather than as an asynchronous error when the mapped memory is touched.
+ * <p>
+ * If writing fails, for example due to the disk being full, further rows are discarded as if there was no spill file.
+ */
+public final class TranscriptSpillFile implements Closeable {
+
+    /** The size of the buffers collecting appended rows and their index entries before writing them to the files. */
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    private final File mDataFile;
+    private final File mIndexFile;
+    private final RandomAccessFile mData;
+    private final RandomAccessFile mIndex;
+    private final FileChannel mDataChannel;
+    private final FileChannel mIndexChannel;
+
+    /** Appended data and index bytes not yet written to the files. */
+    private final ByteBuffer mDataWriteBuffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+    private final ByteBuffer mIndexWriteBuffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+
+    /** The number of rows stored. */
+    private int mRowCount;
+    /** The number of rows whose data and index entry have been written to the files. */
+    private int mWrittenRowCount;
+    /** The number of bytes used in the data file, including bytes in {@link #mDataWriteBuffer}. */
+    private long mDataLength;
+    /** The number of bytes written to the data file. */
+    private long mWrittenDataLength;
+    private boolean mFailed;
+    private boolean mClosed;
+
+    /** The {@link HyperlinkTable} ids of the links in the stored rows, which must not be freed while the rows are kept. */
+    private final HashSet<Integer> mLinkIds = new HashSet<>();
+
+    /** Reused buffers for packing and unpacking rows. */
+    private final ByteArrayOutputStream mPackBuffer = new ByteArrayOutputStream(1024);
+    private byte[] mReadBuffer = new byte[1024];
+    private final ByteBuffer mIndexReadBuffer = ByteBuffer.allocate(16);
+
+    /**
+     * The last row returned by {@link #read(int, int, StyleTable)} and what it was read with, since the same row is
+     * often read several times in a row, such as when rendering and then selecting text.
+     */
+    private TerminalRow mCachedRow;
+    private int mCachedRowIndex = -1;
+    private int mCachedRowColumns;
+    private StyleTable mCachedRowStyleTable;
+
+    /**
+     * Create a spill file, replacing any existing file. The index is stored in a file with the same path suffixed
+     * with ".index".
+     */
+    public TranscriptSpillFile(File file) throws IOException {
+        mDataFile = file;
+        mIndexFile = new File(file.getPath() + ".index");
+        File parent = file.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs())
+            throw new IOException("Failed to create directory: " + parent);
+
+        mData = new RandomAccessFile(mDataFile, "rw");
+        try {
+            mIndex = new RandomAccessFile(mIndexFile, "rw");
+        } catch (IOException e) {
+            mData.close();
+            throw e;
+        }
+        mData.setLength(0);
+        mIndex.setLength(0);
+        mDataChannel = mData.getChannel();
+        mIndexChannel = mIndex.getChannel();
+    }
+
+    /** The number of rows which can be read with {@link #read(int, int, StyleTable)}. */
+    public int getRowCount() {
+        return mRowCount;
+    }
+
+    /** Append a row, returning false if it could not be written. */
+    boolean append(TerminalRow row) {
+        if (mFailed || mClosed || mRowCount == Integer.MAX_VALUE) return false;
+        try {
+            mPackBuffer.reset();
+            mPackBuffer.write(row.mColumns >>> 8);
+            mPackBuffer.write(row.mColumns);
+            row.pack(mPackBuffer);
+
+            final byte[] packed = mPackBuffer.toByteArray();
+            if (mDataWriteBuffer.remaining() < packed.length || mIndexWriteBuffer.remaining() < 8) flush();
+            if (packed.length > mDataWriteBuffer.capacity()) {
+                // Too large to buffer, so written right away:
+                writeFully(mDataChannel, ByteBuffer.wrap(packed), mDataLength);
+                mWrittenDataLength += packed.length;
+            } else {
+                mDataWriteBuffer.put(packed);
+            }
+            mDataLength += packed.length;
+            mIndexWriteBuffer.putLong(mDataLength);
+            mRowCount++;
+            row.addLinkIds(mLinkIds);
+            return true;
+        } catch (IOException e) {
+            fail();
+            return false;
+        }
+    }
+
+    /** Write the buffered rows to the files. */
+    private void flush() throws IOException {
+        if (mDataWriteBuffer.position() > 0) {
+            mDataWriteBuffer.flip();
+            writeFully(mDataChannel, mDataWriteBuffer, mWrittenDataLength);
+            mDataWriteBuffer.clear();
+            mWrittenDataLength = mDataLength;
+        }
+        if (mIndexWriteBuffer.position() > 0) {
+            mIndexWriteBuffer.flip();
+            writeFully(mIndexChannel, mIndexWriteBuffer, (long) mWrittenRowCount * 8);
+            mIndexWriteBuffer.clear();
+            mWrittenRowCount = mRowCount;
+        }
+    }
+
+    /** Stop appending after failing to write, dropping the rows which were not written. */
+    private void fail() {
+        mFailed = true;
+        mRowCount = mWrittenRowCount;
+        mDataLength = mWrittenDataLength;
+        mDataWriteBuffer.clear();
+        mIndexWriteBuffer.clear();
+    }
+
+    /**
+     * Read back a row appended with {@link #append(TerminalRow)}. The returned row may be returned again by a later
+     * call, so it should not be modified.
+     *
+     * @param index     the index of the row, with 0 being the oldest one.
+     * @param columns   the number of columns of the returned row, in which the stored row is truncated or padded with
+     *                  spaces if it was stored with a different width.
+     * @return the row, or a blank one if it could not be read.
+     */
+    TerminalRow read(int index, int columns, StyleTable styleTable) {
+        if (index < 0 || index >= mRowCount)
+            throw new IllegalArgumentException("index=" + index + ", mRowCount=" + mRowCount);
+        if (index == mCachedRowIndex && columns == mCachedRowColumns && styleTable == mCachedRowStyleTable) return mCachedRow;
+
+        if (index >= mWrittenRowCount) {
+            try {
+                flush();
+            } catch (IOException e) {
+                fail();
+                return new TerminalRow(columns, 0, styleTable);
+            }
+        }
+
+        TerminalRow row;
+        try {
+            mIndexReadBuffer.clear();
+            if (index == 0) {
+                mIndexReadBuffer.putLong(0);
+                readFully(mIndexChannel, mIndexReadBuffer, 0);
+            } else {
+                readFully(mIndexChannel, mIndexReadBuffer, (long) (index - 1) * 8);
+            }
+            final long start = mIndexReadBuffer.getLong(0);
+            final int length = (int) (mIndexReadBuffer.getLong(8) - start);
+            if (mReadBuffer.length < length) mReadBuffer = new byte[Math.max(length, mReadBuffer.length * 2)];
+            readFully(mDataChannel, ByteBuffer.wrap(mReadBuffer, 0, length), start);
+
+            final ByteBuffer in = ByteBuffer.wrap(mReadBuffer, 0, length);
+            final int storedColumns = in.getShort();
+            row = TerminalRow.unpack(in, storedColumns, styleTable);
+            if (storedColumns != columns) row = row.copyWithColumns(columns, styleTable);
+        } catch (IOException e) {
+            return new TerminalRow(columns, 0, styleTable);
+        }
+
+        mCachedRow = row;
+        mCachedRowIndex = index;
+        mCachedRowColumns = columns;
+        mCachedRowStyleTable = styleTable;
+        return row;
+    }
+
+    /** Add the {@link HyperlinkTable} ids of the links in the stored rows to a set. */
+    void addLinkIds(Set<Integer> linkIds) {
+        linkIds.addAll(mLinkIds);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining())
+            position += channel.write(buffer, position);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            final int count = channel.read(buffer, position);
+            if (count < 0) throw new EOFException();
+            position += count;
+        }
+    }
+
+    /** Discard all rows. */
+    void clear() {
+        mRowCount = 0;
+        mWrittenRowCount = 0;
+        mDataLength = 0;
+        mWrittenDataLength = 0;
+        mDataWriteBuffer.clear();
+        mIndexWriteBuffer.clear();
+        mLinkIds.clear();
+        clearCachedRow();
+    }
+
+    private void clearCachedRow() {
+        mCachedRow = null;
+        mCachedRowIndex = -1;
+        mCachedRowStyleTable = null;
+    }
+
+    /** Close and delete the files. Rows can no longer be appended or read afterwards. */
+    @Override
+    public void close() {
+        if (mClosed) return;
+        mClosed = true;
+        mRowCount = 0;
+        clearCachedRow();
+        try {
+            mData.close();
+        } catch (IOException e) {
+            // Ignore.
+        }
+        try {
+            mIndex.close();
+        } catch (IOException e) {
+            // Ignore.
+        }
+        //noinspection ResultOfMethodCallIgnored
+        mDataFile.delete();
+        //noinspection ResultOfMethodCallIgnored
+        mIndexFile.delete();
+    }
+
+}
@@ -0,0 +1,296 @@
+package com.termux.terminal;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes the transcript and screen of a {@link TerminalEmulator} to a {@link Writer} row by row, as plain text, as text
+ * with ANSI escape sequences for the styles of cells, or as an HTML document, without building the whole text in memory
+ * as {@link TerminalBuffer#getTranscriptText()} does.
+ * <p>
+ * The emulator is only locked while reading a batch of {@link #ROWS_PER_LOCK} rows, so that writing to a slow stream
+ * does not block the emulation thread of the session. The rows written are the ones of the transcript and screen at
+ * the time {@link #write(Writer)} is called. Rows are tracked by their absolute row (see
+ * {@link TerminalBuffer#mTranscriptRowsAdded}) so that output scrolling them meanwhile does not matter, while rows which
+ * have been evicted from the transcript before being read are skipped. A resize during writing reflows the transcript,
+ * after which a few rows may be repeated or skipped.
+ * <p>
+ * Like {@link TerminalBuffer#getTranscriptText()}, trailing spaces of lines as well as leading and trailing blank lines
+ * are left out, but leading spaces of the first line are kept.
+ */
+public final class TranscriptWriter {
+
+    /** Write plain text. */
+    public static final int FORMAT_TEXT = 0;
+    /** Write text with SGR escape sequences for the colors and effects of cells. */
+    public static final int FORMAT_ANSI = 1;
+    /** Write an HTML document with a pre element, with spans for the colors and effects of cells. */
+    public static final int FORMAT_HTML = 2;
+
+    /** The maximum number of rows read while holding the lock of the emulator. */
+    static final int ROWS_PER_LOCK = 256;
+
+    private final TerminalEmulator mEmulator;
+    private final int mFormat;
+    private final boolean mJoinLines;
+
+    /** The palette of the emulator when starting to write, to resolve colors for {@link #FORMAT_HTML}. */
+    private final int[] mPalette = new int[TextStyle.NUM_INDEXED_COLORS];
+    private boolean mReverseVideo;
+
+    /** The text of the batch of rows read under lock, written after releasing it. */
+    private final StringBuilder mOutput = new StringBuilder();
+    /** Blank rows and line breaks, written only if followed by a non-blank row. */
+    private final StringBuilder mPendingWhitespace = new StringBuilder();
+    /** If a non-blank row has been written. */
+    private boolean mStarted;
+    /** The style of the text last written, which is {@link TextStyle#NORMAL} outside of rows. */
+    private long mCurrentStyle;
+
+    /**
+     * @param format    one of {@link #FORMAT_TEXT}, {@link #FORMAT_ANSI} and {@link #FORMAT_HTML}.
+     * @param joinLines if rows which were wrapped should be joined into one line.
+     */
+    public TranscriptWriter(TerminalEmulator emulator, int format, boolean joinLines) {
+        if (format != FORMAT_TEXT && format != FORMAT_ANSI && format != FORMAT_HTML)
+            throw new IllegalArgumentException("Invalid format: " + format);
+        mEmulator = emulator;
+        mFormat = format;
+        mJoinLines = joinLines;
+    }
+
+    /** Write the transcript and screen, which may only be done once. The writer is flushed but not closed. */
+    public void write(Writer out) throws IOException {
+        final TerminalBuffer buffer;
+        long nextRow;
+        final long endRow;
+        synchronized (mEmulator) {
+            buffer = mEmulator.getScreen();
+            buffer.reflowPendingRows(Integer.MAX_VALUE);
+            nextRow = buffer.mTranscriptRowsAdded - buffer.getActiveTranscriptRows();
+            endRow = buffer.mTranscriptRowsAdded + buffer.mScreenRows;
+            System.arraycopy(mEmulator.mColors.mCurrentColors, 0, mPalette, 0, mPalette.length);
+            mReverseVideo = mEmulator.isReverseVideo();
+        }
+
+        mCurrentStyle = TextStyle.NORMAL;
+        if (mFormat == FORMAT_HTML) writeHtmlStart();
+        char[] textBuffer = null;
+        while (nextRow < endRow) {
+            synchronized (mEmulator) {
+                final long rowsAdded = buffer.mTranscriptRowsAdded;
+                if (buffer.mColumns > (textBuffer == null ? 0 : textBuffer.length)) textBuffer = new char[buffer.mColumns];
+                nextRow = Math.max(nextRow, rowsAdded - buffer.getActiveTranscriptRows());
+                final long lastRow = Math.min(Math.min(endRow, rowsAdded + buffer.mScreenRows), nextRow + ROWS_PER_LOCK);
+                for (; nextRow < lastRow; nextRow++) {
+                    final int row = (int) (nextRow - rowsAdded);
+                    appendRow(buffer.getLine(row), textBuffer, buffer.getLineWrap(row));
+                }
+                // The screen may have shrunk below the rows to write:
+                if (lastRow == rowsAdded + buffer.mScreenRows) nextRow = endRow;
+            }
+            out.write(mOutput.toString());
+            mOutput.setLength(0);
+        }
+        if (mFormat == FORMAT_HTML) writeHtmlEnd();
+        out.write(mOutput.toString());
+        mOutput.setLength(0);
+        out.flush();
+    }
+
+    private void appendRow(TerminalRow line, char[] textBuffer, boolean lineWrap) {
+        final char[] text = line.getText(textBuffer);
+        final int spaceUsed = line.getSpaceUsed();
+        int lastPrintingCharIndex = -1;
+        for (int i = spaceUsed - 1; i >= 0; i--) {
+            if (text[i] != ' ') {
+                lastPrintingCharIndex = i;
+                break;
+            }
+        }
+        // Line breaks are pending whitespace, so there is none after the last row:
+        final boolean lineBreak = !mJoinLines || !lineWrap;
+
+        if (lastPrintingCharIndex == -1) {
+            if (mStarted) {
+                // If the line was wrapped, we shouldn't lose trailing space:
+                if (lineWrap) mPendingWhitespace.append(text, 0, spaceUsed);
+                if (lineBreak) mPendingWhitespace.append('\n');
+            }
+            return;
+        }
+        if (mStarted) appendText(mPendingWhitespace, 0, mPendingWhitespace.length());
+        mPendingWhitespace.setLength(0);
+        mStarted = true;
+
+        final int endIndex = lineWrap ? spaceUsed : lastPrintingCharIndex + 1;
+        if (mFormat == FORMAT_TEXT) {
+            mOutput.append(text, 0, endIndex);
+        } else {
+            int column = 0;
+            int runStart = 0;
+            for (int i = 0; i < endIndex; ) {
+                final char c = text[i];
+                final int charCount = Character.isHighSurrogate(c) ? 2 : 1;
+                final int codePoint = (charCount == 2) ? Character.toCodePoint(c, text[i + 1]) : c;
+                final int width = WcWidth.width(codePoint);
+                if (width > 0) {
+                    // Combining chars have the style of the char they follow:
+                    final long style = line.getStyle(column);
+                    if (style != mCurrentStyle) {
+                        appendText(text, runStart, i);
+                        runStart = i;
+                        setStyle(style);
+                    }
+                    column += width;
+                }
+                i += charCount;
+            }
+            appendText(text, runStart, endIndex);
+            setStyle(TextStyle.NORMAL);
+        }
+        if (lineBreak) mPendingWhitespace.append('\n');
+    }
+
+    /** Append text, escaped if needed. */
+    private void appendText(CharSequence text, int start, int end) {
+        if (mFormat != FORMAT_HTML) {
+            mOutput.append(text, start, end);
+            return;
+        }
+        for (int i = start; i < end; i++)
+            appendHtmlChar(text.charAt(i));
+    }
+
+    private void appendText(char[] text, int start, int end) {
+        if (mFormat != FORMAT_HTML) {
+            mOutput.append(text, start, end - start);
+            return;
+        }
+        for (int i = start; i < end; i++)
+            appendHtmlChar(text[i]);
+    }
+
+    private void appendHtmlChar(char c) {
+        switch (c) {
+            case '&':
+                mOutput.append("&amp;");
+                break;
+            case '<':
+                mOutput.append("&lt;");
+                break;
+            case '>':
+                mOutput.append("&gt;");
+                break;
+            default:
+                mOutput.append(c);
+        }
+    }
+
+    private void setStyle(long style) {
+        if (style == mCurrentStyle) return;
+        if (mFormat == FORMAT_ANSI) {
+            appendSgr(style);
+        } else {
+            if (mCurrentStyle != TextStyle.NORMAL) mOutput.append("</span>");
+            if (style != TextStyle.NORMAL) appendSpanStart(style);
+        }
+        mCurrentStyle = style;
+    }
+
+    private void appendSgr(long style) {
+        final int effect = TextStyle.decodeEffect(style);
+        mOutput.append("\033[0");
+        if ((effect & TextStyle.CHARACTER_ATTRIBUTE_BOLD) != 0) mOutput.append(";1");
+        if ((effect & TextStyle.CHARACTER_ATTRIBUTE_DIM) != 0) mOutput.append(";2");
+        if ((effect & TextStyle.CHARACTER_ATTRIBUTE_ITALIC) != 0) mOutput.append(";3");
+        if ((effect & TextStyle.CHARACTER_ATTRIBUTE_UNDERLINE) != 0) mOutput.append(";4");
+        if ((effect & TextStyle.CHARACTER_ATTRIBUTE_BLINK) != 0) mOutput.append(";5");
+        if ((effect & TextStyle.CHARACTER_ATTRIBUTE_INVERSE) != 0) mOutput.append(";7");
+        if ((effect & TextStyle.CHARACTER_ATTRIBUTE_INVISIBLE) != 0) mOutput.append(";8");
+        if ((effect & TextStyle.CHARACTER_ATTRIBUTE_STRIKETHROUGH) != 0) mOutput.append(";9");
+        appendSgrColor(TextStyle.decodeForeColor(style), 30, 90, 38);
+        appendSgrColor(TextStyle.decodeBackColor(style), 40, 100, 48);
+        mOutput.append('m');
+    }
+
+    private void appendSgrColor(int color, int normalBase, int brightBase, int extended) {
+        mOutput.append(';');
+        if ((color & 0xff000000) == 0xff000000) {
+            mOutput.append(extended).append(";2;").append((color >> 16) & 0xff).append(';')
+                .append((color >> 8) & 0xff).append(';').append(color & 0xff);
+        } else if (color < 8) {
+            mOutput.append(normalBase + color);
+        } else if (color < 16) {
+            mOutput.append(brightBase + color - 8);
+        } else if (color < 256) {
+            mOutput.append(extended).append(";5;").append(color);
+        } else {
+            // The default color:
+            mOutput.append(normalBase + 9);
+        }
+    }
+
+    /** Append a span with the colors and effects of a style resolved the way TerminalRenderer does. */
+    private void appendSpanStart(long style) {
+        final int effect = TextStyle.decodeEffect(style);
+        int foreColor = TextStyle.decodeForeColor(style);
+        int backColor = TextStyle.decodeBackColor(style);
+        if ((foreColor & 0xff000000) != 0xff000000) {
+            // Let bold have bright colors if applicable (one of the first 8):
+            if ((effect & (TextStyle.CHARACTER_ATTRIBUTE_BOLD | TextStyle.CHARACTER_ATTRIBUTE_BLINK)) != 0 && foreColor < 8)
+                foreColor += 8;
+            foreColor = mPalette[foreColor];
+        }
+        if ((backColor & 0xff000000) != 0xff000000) backColor = mPalette[backColor];
+        if (mReverseVideo ^ (effect & TextStyle.CHARACTER_ATTRIBUTE_INVERSE) != 0) {
+            int tmp = foreColor;
+            foreColor = backColor;
+            backColor = tmp;
+        }
+        if ((effect & TextStyle.CHARACTER_ATTRIBUTE_DIM) != 0) {
+            foreColor = 0xff000000 | ((((foreColor >> 16) & 0xff) * 2 / 3) << 16)
+                | ((((foreColor >> 8) & 0xff) * 2 / 3) << 8) | ((foreColor & 0xff) * 2 / 3);
+        }
+        if ((effect & TextStyle.CHARACTER_ATTRIBUTE_INVISIBLE) != 0) foreColor = backColor;
+
+        mOutput.append("<span style=\"color:");
+        appendHtmlColor(foreColor);
+        mOutput.append(";background-color:");
+        appendHtmlColor(backColor);
+        if ((effect & TextStyle.CHARACTER_ATTRIBUTE_BOLD) != 0) mOutput.append(";font-weight:bold");
+        if ((effect & TextStyle.CHARACTER_ATTRIBUTE_ITALIC) != 0) mOutput.append(";font-style:italic");
+        final boolean underline = (effect & TextStyle.CHARACTER_ATTRIBUTE_UNDERLINE) != 0;
+        final boolean strikeThrough = (effect & TextStyle.CHARACTER_ATTRIBUTE_STRIKETHROUGH) != 0;
+        if (underline || strikeThrough) {
+            mOutput.append(";text-decoration:");
+            if (underline) mOutput.append("underline");
+            if (underline && strikeThrough) mOutput.append(' ');
+            if (strikeThrough) mOutput.append("line-through");
+        }
+        mOutput.append("\">");
+    }
+
+    private void appendHtmlColor(int color) {
+        final String hex = Integer.toHexString(color & 0xffffff);
+        mOutput.append('#');
+        for (int i = hex.length(); i < 6; i++) mOutput.append('0');
+        mOutput.append(hex);
+    }
+
+    private void writeHtmlStart() {
+        final int foreColor = mPalette[mReverseVideo ? TextStyle.COLOR_INDEX_BACKGROUND : TextStyle.COLOR_INDEX_FOREGROUND];
+        final int backColor = mPalette[mReverseVideo ? TextStyle.COLOR_INDEX_FOREGROUND : TextStyle.COLOR_INDEX_BACKGROUND];
+        mOutput.append("<!DOCTYPE html>\n<html>\n<head>\n<meta charset=\"utf-8\">\n<title>Terminal transcript</title>\n</head>\n");
+        mOutput.append("<body style=\"color:");
+        appendHtmlColor(foreColor);
+        mOutput.append(";background-color:");
+        appendHtmlColor(backColor);
+        mOutput.append("\">\n<pre>");
+    }
+
+    private void writeHtmlEnd() {
+        mOutput.append("</pre>\n</body>\n</html>\n");
+    }
+
+}
@@ -1,5 +1,11 @@
 package com.termux.terminal;
 
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
 /**
  * Implementation of wcwidth(3) for Unicode 15.
  *
@@ -512,6 +518,14 @@ public final class WcWidth {
 
     /** Return the terminal display width of a code point: 0, 1 || 2. */
     public static int width(int ucs) {
+        // Block 0 (ASCII and Latin-1) is always first in the block table.
+        if (ucs < BLOCK_SIZE) return ucs < 0 ? 0 : WIDTH_BLOCKS[ucs];
+        if (ucs > Character.MAX_CODE_POINT) return 1;
+        return WIDTH_BLOCKS[(BLOCK_INDICES[ucs >> BLOCK_SHIFT] << BLOCK_SHIFT) | (ucs & BLOCK_MASK)];
+    }
+
+    /** Compute the display width of a code point from the interval tables, used to build the lookup table. */
+    static int widthFromTables(int ucs) {
         if (ucs == 0 ||
             ucs == 0x034F ||
             (0x200B <= ucs && ucs <= 0x200F) ||
@@ -532,6 +546,54 @@ public final class WcWidth {
         return intable(WIDE_EASTASIAN, ucs) ? 2 : 1;
     }
 
+    /*
+     * Two-stage lookup table replacing the binary searches in the interval tables, since width() is called for every
+     * code point when both parsing and rendering. The code points are split into blocks of 256, where BLOCK_INDICES
+     * maps a block number to the offset (in blocks) of its widths in WIDTH_BLOCKS. Identical blocks are only stored
+     * once, so the many blocks where every code point has width 1 share the same entry.
+     */
+    private static final int BLOCK_SHIFT = 8;
+    private static final int BLOCK_SIZE = 1 << BLOCK_SHIFT;
+    private static final int BLOCK_MASK = BLOCK_SIZE - 1;
+    private static final char[] BLOCK_INDICES = new char[(Character.MAX_CODE_POINT + 1) >> BLOCK_SHIFT];
+    private static final byte[] WIDTH_BLOCKS;
+
+    static {
+        // Only blocks overlapping a range in the tables or special cases above can have widths other than 1.
+        boolean[] needsComputing = new boolean[BLOCK_INDICES.length];
+        needsComputing[0] = needsComputing[0x034F >> BLOCK_SHIFT] = needsComputing[0x2000 >> BLOCK_SHIFT] = true;
+        for (int[][] table : new int[][][]{ZERO_WIDTH, WIDE_EASTASIAN}) {
+            for (int[] range : table) {
+                for (int block = range[0] >> BLOCK_SHIFT; block <= range[1] >> BLOCK_SHIFT; block++)
+                    needsComputing[block] = true;
+            }
+        }
+
+        Map<ByteBuffer, Integer> uniqueBlocks = new HashMap<>();
+        ByteArrayOutputStream widthBlocks = new ByteArrayOutputStream();
+        byte[] allWidthOne = new byte[BLOCK_SIZE];
+        Arrays.fill(allWidthOne, (byte) 1);
+
+        for (int block = 0; block < BLOCK_INDICES.length; block++) {
+            byte[] widths = allWidthOne;
+            if (needsComputing[block]) {
+                widths = new byte[BLOCK_SIZE];
+                for (int i = 0; i < BLOCK_SIZE; i++)
+                    widths[i] = (byte) widthFromTables((block << BLOCK_SHIFT) | i);
+            }
+
+            ByteBuffer key = ByteBuffer.wrap(widths);
+            Integer index = uniqueBlocks.get(key);
+            if (index == null) {
+                index = uniqueBlocks.size();
+                uniqueBlocks.put(key, index);
+                widthBlocks.write(widths, 0, BLOCK_SIZE);
+            }
+            BLOCK_INDICES[block] = (char) index.intValue();
+        }
+        WIDTH_BLOCKS = widthBlocks.toByteArray();
+    }
+
     /** The width at an index position in a java char array. */
     public static int width(char[] chars, int index) {
         char c = chars[index];
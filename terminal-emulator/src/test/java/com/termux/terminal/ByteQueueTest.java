@@ -51,4 +51,104 @@ public class ByteQueueTest extends TestCase {
 		assertEquals(0, q.read(new byte[128], false));
 	}
 
+	public void testCapacityIsRoundedUpToPowerOfTwo() {
+		assertEquals(16, new ByteQueue(10).getCapacity());
+		assertEquals(4096, new ByteQueue(4096).getCapacity());
+		try {
+			new ByteQueue(0);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// Expected.
+		}
+	}
+
+	public void testReadDrainsEverythingAvailable() {
+		ByteQueue q = new ByteQueue(16);
+		for (int i = 0; i < 3; i++) {
+			assertTrue(q.write(new byte[]{1, 2, 3, 4, 5}, 0, 5));
+		}
+		assertEquals(15, q.available());
+		byte[] arr = new byte[20];
+		assertEquals(15, q.read(arr, 2, 18, false));
+		assertEquals(0, q.available());
+		assertEquals(0, arr[1]);
+		assertEquals(1, arr[2]);
+		assertEquals(5, arr[16]);
+	}
+
+	public void testCloseWakesBlockedReader() throws Exception {
+		final ByteQueue q = new ByteQueue(16);
+		final int[] result = new int[1];
+		Thread reader = new Thread() {
+			@Override
+			public void run() {
+				result[0] = q.read(new byte[16], true);
+			}
+		};
+		reader.start();
+		Thread.sleep(50);
+		q.close();
+		reader.join(5000);
+		assertFalse(reader.isAlive());
+		assertEquals(-1, result[0]);
+	}
+
+	/** Pass a byte sequence through a small queue with differently sized reads and writes, checking that nothing is lost. */
+	public void testConcurrentStress() throws Exception {
+		final ByteQueue q = new ByteQueue(64);
+		final int totalBytes = 4 * 1024 * 1024;
+		Thread writer = new Thread() {
+			@Override
+			public void run() {
+				byte[] chunk = new byte[97];
+				int written = 0;
+				while (written < totalBytes) {
+					int length = Math.min(1 + written % chunk.length, totalBytes - written);
+					for (int i = 0; i < length; i++) chunk[i] = (byte) (written + i);
+					if (!q.write(chunk, 0, length)) return;
+					written += length;
+				}
+			}
+		};
+		writer.start();
+
+		byte[] arr = new byte[41];
+		int read = 0;
+		while (read < totalBytes) {
+			int bytesRead = q.read(arr, 0, 1 + read % arr.length, true);
+			assertTrue(bytesRead > 0);
+			for (int i = 0; i < bytesRead; i++) {
+				if (arr[i] != (byte) (read + i)) fail("Unexpected byte at offset " + (read + i));
+			}
+			read += bytesRead;
+		}
+		writer.join(5000);
+		assertFalse(writer.isAlive());
+		assertEquals(0, q.available());
+	}
+
+	/** Pass a larger amount of data in terminal sized chunks, mostly as a sanity check that blocking does not stall. */
+	public void testThroughput() throws Exception {
+		final ByteQueue q = new ByteQueue(64 * 1024);
+		final long totalBytes = 256L * 1024 * 1024;
+		Thread writer = new Thread() {
+			@Override
+			public void run() {
+				byte[] chunk = new byte[4096];
+				for (long written = 0; written < totalBytes; written += chunk.length) {
+					if (!q.write(chunk, 0, chunk.length)) return;
+				}
+			}
+		};
+		long start = System.nanoTime();
+		writer.start();
+		byte[] arr = new byte[q.getCapacity()];
+		long read = 0;
+		while (read < totalBytes) read += q.read(arr, true);
+		long elapsedMillis = (System.nanoTime() - start) / 1000000;
+		writer.join(5000);
+		assertEquals(totalBytes, read);
+		assertTrue("Too slow: " + elapsedMillis + " ms", elapsedMillis < 20000);
+	}
+
 }
@@ -0,0 +1,84 @@
+package com.termux.terminal;
+
+import java.util.BitSet;
+
+public class DamageTest extends TerminalTestCase {
+
+	private void assertDamagedRows(int... rows) {
+		assertScrolledAndDamagedRows(0, rows);
+	}
+
+	private void assertScrolledAndDamagedRows(int scrolledRows, int... rows) {
+		BitSet expected = new BitSet();
+		for (int row : rows) expected.set(row);
+		BitSet damagedRows = new BitSet();
+		assertEquals(scrolledRows, mTerminal.takeDamage(damagedRows));
+		assertEquals(expected, damagedRows);
+	}
+
+	public void testWritingAndCursorMovement() {
+		withTerminalSized(5, 4);
+		assertDamagedRows(0, 1, 2, 3);
+		assertDamagedRows();
+
+		enterString("\033[2;1Hab");
+		assertDamagedRows(0, 1);
+		enterString("c");
+		assertDamagedRows(1);
+		enterString("\033[4;2H");
+		assertDamagedRows(1, 3);
+		enterString("\033[?25l");
+		assertDamagedRows(3);
+		assertDamagedRows();
+
+		// Erasing part of the screen:
+		enterString("\033[2J");
+		assertDamagedRows(0, 1, 2, 3);
+		enterString("\033[1;1H\033[K");
+		assertDamagedRows(0, 3);
+	}
+
+	public void testScrolling() {
+		withTerminalSized(3, 4).enterString("\033[4;1H");
+		assertDamagedRows(0, 1, 2, 3);
+		// Only the new bottom row and the row the cursor was drawn on after scrolling:
+		enterString("\n");
+		assertScrolledAndDamagedRows(1, 2, 3);
+		enterString("ab\r\n\n");
+		assertScrolledAndDamagedRows(2, 1, 2, 3);
+		// Rows written before scrolling move up:
+		enterString("\033[1;1Hx\033[4;1Hy\n");
+		assertScrolledAndDamagedRows(1, 2, 3);
+
+		// Scrolling more than the screen:
+		enterString("\n\n\n\n\n");
+		assertScrolledAndDamagedRows(4, 0, 1, 2, 3);
+		assertDamagedRows();
+
+		// The rows outside of the scroll region stay in place, so change compared to the scrolled screen:
+		enterString("\033[2;3r\033[3;1H");
+		assertDamagedRows(2, 3);
+		enterString("\n");
+		assertScrolledAndDamagedRows(1, 0, 1, 2, 3);
+		enterString("\033[1;4r\033[3;1H");
+		assertDamagedRows();
+		enterString("\033[S");
+		assertScrolledAndDamagedRows(1, 1, 2, 3);
+	}
+
+	public void testFullRedraws() {
+		withTerminalSized(3, 3);
+		assertDamagedRows(0, 1, 2);
+
+		enterString("\033[?5h");
+		assertDamagedRows(0, 1, 2);
+		enterString("\033]4;1;#ff0000\007");
+		assertDamagedRows(0, 1, 2);
+		enterString("\033[?1049h");
+		assertDamagedRows(0, 1, 2);
+		resize(4, 3);
+		assertDamagedRows(0, 1, 2);
+		assertDamagedRows();
+	}
+
+}
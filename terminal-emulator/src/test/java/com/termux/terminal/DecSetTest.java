@@ -75,4 +75,32 @@ public class DecSetTest extends TerminalTestCase {
 		enterString("\033[?7hhij").assertLinesAre("abh", "ij ", "   ");
 	}
 
+	/** DECSET 2026, synchronized output. */
+	public void testSynchronizedOutput() {
+		withTerminalSized(3, 3);
+		assertFalse(mTerminal.isSynchronizedOutputActive());
+		assertEnteringStringGivesResponse("\033[?2026$p", "\033[?2026;2$y");
+
+		enterString("\033[?2026h");
+		assertTrue(mTerminal.isSynchronizedOutputActive());
+		assertEnteringStringGivesResponse("\033[?2026$p", "\033[?2026;1$y");
+		long remainingMillis = mTerminal.getSynchronizedOutputRemainingMillis();
+		assertTrue(remainingMillis > 0 && remainingMillis <= TerminalEmulator.SYNCHRONIZED_OUTPUT_TIMEOUT_MILLIS);
+
+		enterString("\033[?2026l");
+		assertFalse(mTerminal.isSynchronizedOutputActive());
+		assertEquals(0, mTerminal.getSynchronizedOutputRemainingMillis());
+
+		// Beginning again while active does not extend the timeout, after which the update is ended:
+		enterString("\033[?2026h");
+		mTerminal.mSynchronizedOutputStartNanos -= TerminalEmulator.SYNCHRONIZED_OUTPUT_TIMEOUT_MILLIS * 1000000L;
+		enterString("\033[?2026h");
+		assertFalse(mTerminal.isSynchronizedOutputActive());
+		assertEnteringStringGivesResponse("\033[?2026$p", "\033[?2026;2$y");
+
+		enterString("\033[?2026h");
+		mTerminal.reset();
+		assertFalse(mTerminal.isSynchronizedOutputActive());
+	}
+
 }
@@ -0,0 +1,170 @@
+package com.termux.terminal;
+
+import junit.framework.TestCase;
+
+import java.nio.charset.StandardCharsets;
+
+public class EscapeSequenceParserTest extends TestCase {
+
+	private final EscapeSequenceParser mParser = new EscapeSequenceParser();
+
+	/** Advance the parser by the bytes of a string, asserting the action of each byte. */
+	private void assertActions(String input, int... expectedActions) {
+		byte[] bytes = input.getBytes(StandardCharsets.UTF_8);
+		assertEquals(expectedActions.length, bytes.length);
+		for (int i = 0; i < bytes.length; i++)
+			assertEquals("Action of byte " + i + " in \"" + input + "\"", expectedActions[i], mParser.advance(bytes[i]));
+	}
+
+	private int parse(String input) {
+		byte[] bytes = input.getBytes(StandardCharsets.UTF_8);
+		return mParser.parse(bytes, 0, bytes.length);
+	}
+
+	public void testCsi() {
+		assertEquals(EscapeSequenceParser.STATE_GROUND, mParser.getState());
+		assertEquals(EscapeSequenceParser.ACTION_PRINT, mParser.advance('a'));
+		assertEquals(EscapeSequenceParser.ACTION_NONE, mParser.advance(27));
+		assertEquals(EscapeSequenceParser.STATE_ESCAPE, mParser.getState());
+		assertEquals(EscapeSequenceParser.ACTION_NONE, mParser.advance('['));
+		assertEquals(EscapeSequenceParser.STATE_CSI_ENTRY, mParser.getState());
+		assertEquals(EscapeSequenceParser.ACTION_COLLECT, mParser.advance('?'));
+		assertEquals(EscapeSequenceParser.STATE_CSI_PARAM, mParser.getState());
+		assertActions("12;3", EscapeSequenceParser.ACTION_PARAM, EscapeSequenceParser.ACTION_PARAM, EscapeSequenceParser.ACTION_PARAM,
+			EscapeSequenceParser.ACTION_PARAM);
+		assertEquals(EscapeSequenceParser.ACTION_COLLECT, mParser.advance('$'));
+		assertEquals(EscapeSequenceParser.STATE_CSI_INTERMEDIATE, mParser.getState());
+		assertEquals(EscapeSequenceParser.ACTION_CSI_DISPATCH, mParser.advance('p'));
+		assertEquals(EscapeSequenceParser.STATE_GROUND, mParser.getState());
+
+		assertEquals('p', mParser.getFinalByte());
+		assertEquals('?', mParser.getPrivateMarker());
+		assertEquals(1, mParser.getIntermediateCount());
+		assertEquals('$', mParser.getIntermediate(0));
+		assertEquals(1, mParser.getParamIndex());
+		assertEquals(12, mParser.getParam(0));
+		assertEquals(3, mParser.getParam(1));
+		assertEquals(-1, mParser.getParam(2));
+		assertEquals(4, mParser.getParamByteCount());
+
+		// The next sequence starts out cleared:
+		assertActions("\033[m", EscapeSequenceParser.ACTION_NONE, EscapeSequenceParser.ACTION_NONE, EscapeSequenceParser.ACTION_CSI_DISPATCH);
+		assertEquals(0, mParser.getPrivateMarker());
+		assertEquals(0, mParser.getIntermediateCount());
+		assertEquals(0, mParser.getParamIndex());
+		assertEquals(-1, mParser.getParam(0));
+		assertEquals(-1, mParser.getParam(1));
+	}
+
+	public void testParameters() {
+		assertEquals(22, parse("\033[38:2::10:20;;123456m"));
+		assertEquals(6, mParser.getParamIndex());
+		int[] expected = {38, 2, -1, 10, 20, -1, 9999, -1};
+		for (int i = 0; i < expected.length; i++)
+			assertEquals("Parameter " + i, expected[i], mParser.getParam(i));
+		// Sub parameters following a colon:
+		assertEquals(0b11110, mParser.getSubParamBits());
+		assertFalse(mParser.hasTooManyParams());
+
+		StringBuilder tooMany = new StringBuilder("\033[");
+		for (int i = 0; i < EscapeSequenceParser.MAX_PARAMETERS + 1; i++) tooMany.append(i).append(';');
+		parse(tooMany.append('m').toString());
+		assertTrue(mParser.hasTooManyParams());
+		assertEquals(EscapeSequenceParser.MAX_PARAMETERS - 1, mParser.getParamIndex());
+
+		int[] copy = new int[EscapeSequenceParser.MAX_PARAMETERS];
+		parse("\033[5;7H");
+		mParser.copyParams(copy);
+		assertEquals(5, copy[0]);
+		assertEquals(7, copy[1]);
+		for (int i = 2; i < copy.length; i++) assertEquals(-1, copy[i]);
+	}
+
+	public void testEscape() {
+		assertActions("\0337", EscapeSequenceParser.ACTION_NONE, EscapeSequenceParser.ACTION_ESC_DISPATCH);
+		assertEquals('7', mParser.getFinalByte());
+		assertActions("\033(B", EscapeSequenceParser.ACTION_NONE, EscapeSequenceParser.ACTION_COLLECT, EscapeSequenceParser.ACTION_ESC_DISPATCH);
+		assertEquals('(', mParser.getIntermediate(0));
+		assertEquals('B', mParser.getFinalByte());
+		// Introducers are finals after an intermediate:
+		assertActions("\033 [", EscapeSequenceParser.ACTION_NONE, EscapeSequenceParser.ACTION_COLLECT, EscapeSequenceParser.ACTION_ESC_DISPATCH);
+	}
+
+	public void testControlsWithinSequences() {
+		// C0 controls are executed without ending the sequence:
+		assertActions("\033[1\n2H", EscapeSequenceParser.ACTION_NONE, EscapeSequenceParser.ACTION_NONE, EscapeSequenceParser.ACTION_PARAM,
+			EscapeSequenceParser.ACTION_EXECUTE, EscapeSequenceParser.ACTION_PARAM, EscapeSequenceParser.ACTION_CSI_DISPATCH);
+		assertEquals(12, mParser.getParam(0));
+
+		// While CAN cancels it, and ESC starts a new one:
+		assertActions("\033[1\030m", EscapeSequenceParser.ACTION_NONE, EscapeSequenceParser.ACTION_NONE, EscapeSequenceParser.ACTION_PARAM,
+			EscapeSequenceParser.ACTION_EXECUTE, EscapeSequenceParser.ACTION_PRINT);
+		assertActions("\033[1\033[m", EscapeSequenceParser.ACTION_NONE, EscapeSequenceParser.ACTION_NONE, EscapeSequenceParser.ACTION_PARAM,
+			EscapeSequenceParser.ACTION_NONE, EscapeSequenceParser.ACTION_NONE, EscapeSequenceParser.ACTION_CSI_DISPATCH);
+		assertEquals(-1, mParser.getParam(0));
+
+		// A private marker after the parameters makes the sequence ignored:
+		assertActions("\033[1<mx", EscapeSequenceParser.ACTION_NONE, EscapeSequenceParser.ACTION_NONE, EscapeSequenceParser.ACTION_PARAM,
+			EscapeSequenceParser.ACTION_NONE, EscapeSequenceParser.ACTION_NONE, EscapeSequenceParser.ACTION_PRINT);
+		assertEquals(EscapeSequenceParser.STATE_GROUND, mParser.getState());
+	}
+
+	public void testStrings() {
+		assertActions("\033]0;t\007", EscapeSequenceParser.ACTION_NONE, EscapeSequenceParser.ACTION_OSC_START, EscapeSequenceParser.ACTION_OSC_PUT,
+			EscapeSequenceParser.ACTION_OSC_PUT, EscapeSequenceParser.ACTION_OSC_PUT, EscapeSequenceParser.ACTION_OSC_END);
+		assertEquals(EscapeSequenceParser.STATE_GROUND, mParser.getState());
+		// Ended by ST, the ESC of which ends the string:
+		assertActions("\033]2;\033\\", EscapeSequenceParser.ACTION_NONE, EscapeSequenceParser.ACTION_OSC_START, EscapeSequenceParser.ACTION_OSC_PUT,
+			EscapeSequenceParser.ACTION_OSC_PUT, EscapeSequenceParser.ACTION_OSC_END, EscapeSequenceParser.ACTION_ESC_DISPATCH);
+
+		assertActions("\033P1$qm\033\\", EscapeSequenceParser.ACTION_NONE, EscapeSequenceParser.ACTION_NONE, EscapeSequenceParser.ACTION_PARAM,
+			EscapeSequenceParser.ACTION_COLLECT, EscapeSequenceParser.ACTION_HOOK, EscapeSequenceParser.ACTION_PUT, EscapeSequenceParser.ACTION_UNHOOK,
+			EscapeSequenceParser.ACTION_ESC_DISPATCH);
+
+		// SOS, PM and APC strings are ignored:
+		assertActions("\033_x\033\\", EscapeSequenceParser.ACTION_NONE, EscapeSequenceParser.ACTION_NONE, EscapeSequenceParser.ACTION_NONE,
+			EscapeSequenceParser.ACTION_NONE, EscapeSequenceParser.ACTION_ESC_DISPATCH);
+		assertEquals(EscapeSequenceParser.STATE_GROUND, mParser.getState());
+	}
+
+	public void testParse() {
+		assertEquals(4, parse("\033[2Jab"));
+		assertEquals(2, parse("\033Mab"));
+		assertEquals(3, parse("\033#8"));
+		// Incomplete, interrupted, ignored or not an ESC or CSI sequence:
+		assertEquals(-1, parse("\033[12"));
+		assertEquals(-1, parse("\033[1\r2H"));
+		assertEquals(-1, parse("\033[1\033[2H"));
+		assertEquals(-1, parse("\033[1<m"));
+		assertEquals(-1, parse("\033]0;title\007"));
+		assertEquals(-1, parse("\033Pq\033\\"));
+		assertEquals(-1, parse("a\033[m"));
+		assertEquals(-1, parse(""));
+	}
+
+	/** The emulator takes a fast path through complete sequences, which must work as when receiving a byte at a time. */
+	public void testEmulatorSameAsByteAtATime() throws Exception {
+		String[] inputs = {"\033[31;1mred\033[m", "\033[38:2::10:20:30mx\033[4:3my\033[0:7mz", "\033[?25l\033[?1049h\033[2;5Hx\033[?1049l",
+			"\033[>c\033[c\033[6n", "\033[1\r2Hx", "\033[1<mx\033[=1cy", "\033[?1$p\033[1;1;2;2$zx", "\033[2 q\033[!p", "\033(0qqq\033(B",
+			"\033#8", "ab\033[3Dc\033[5b", "\033[1;2;3;4;5;6;7;8;9;10;11;12;13;14;15;16;17;18;19;20;21;22;23;24;25;26;27;28;29;30;31;32;33m",
+			"\033[?;1\033[Hx", "\033[12"};
+		for (String input : inputs) {
+			byte[] bytes = input.getBytes(StandardCharsets.UTF_8);
+			TerminalTestCase.MockTerminalOutput wholeOutput = new TerminalTestCase.MockTerminalOutput();
+			TerminalEmulator whole = new TerminalEmulator(wholeOutput, 10, 4, 10, 20, 10, null);
+			whole.append(bytes, bytes.length);
+			TerminalTestCase.MockTerminalOutput byteOutput = new TerminalTestCase.MockTerminalOutput();
+			TerminalEmulator byteAtATime = new TerminalEmulator(byteOutput, 10, 4, 10, 20, 10, null);
+			for (byte b : bytes) byteAtATime.append(new byte[]{b}, 1);
+
+			assertEquals(input, byteAtATime.getScreen().getTranscriptText(), whole.getScreen().getTranscriptText());
+			assertEquals(input, byteAtATime.getCursorRow(), whole.getCursorRow());
+			assertEquals(input, byteAtATime.getCursorCol(), whole.getCursorCol());
+			assertEquals(input, byteOutput.getOutputAndClear(), wholeOutput.getOutputAndClear());
+			for (int row = 0; row < 4; row++)
+				for (int column = 0; column < 10; column++)
+					assertEquals(input, byteAtATime.getScreen().getStyleAt(row, column), whole.getScreen().getStyleAt(row, column));
+		}
+	}
+
+}
@@ -1,5 +1,6 @@
 package com.termux.terminal;
 
+import java.nio.charset.StandardCharsets;
 
 public class HistoryTest extends TerminalTestCase {
 
@@ -30,4 +31,146 @@ public class HistoryTest extends TerminalTestCase {
 		enterString("LMN").assertLinesAre("111", "IJK", "LMN", "444").assertHistoryStartsWith("FGH", "CDE");
 	}
 
+	public void testHistoryRowsAreTrimmed() {
+		withTerminalSized(4, 2).enterString("abcd\r\n漢字\r\n─\r\n");
+		assertLinesAre("─   ", "    ");
+		assertHistoryStartsWith("漢字", "abcd");
+		TerminalBuffer screen = mTerminal.getScreen();
+		assertTrue(screen.allocateFullLineIfNecessary(screen.externalToInternalRow(-2)).isCompact());
+		TerminalRow wideRow = screen.allocateFullLineIfNecessary(screen.externalToInternalRow(-1));
+		assertFalse(wideRow.isCompact());
+		assertEquals(2, wideRow.getText(null).length);
+	}
+
+	public void testColdRowsAreCompressed() {
+		TerminalEmulator plain = newTerminalWithHistory(-1);
+		mTerminal = newTerminalWithHistory(10);
+		byte[] bytes = coldRowsInput();
+		plain.append(bytes, bytes.length);
+		mTerminal.append(bytes, bytes.length);
+
+		assertTrue(countColdRows() > 0);
+		assertSameContent(plain, mTerminal);
+
+		// Compressed blocks should be reused when the transcript wraps around:
+		plain.append(bytes, bytes.length);
+		mTerminal.append(bytes, bytes.length);
+		assertSameContent(plain, mTerminal);
+
+		// Resizing brings all rows back:
+		plain.resize(13, 7, INITIAL_CELL_WIDTH_PIXELS, INITIAL_CELL_HEIGHT_PIXELS);
+		mTerminal.resize(13, 7, INITIAL_CELL_WIDTH_PIXELS, INITIAL_CELL_HEIGHT_PIXELS);
+		assertSameContent(plain, mTerminal);
+	}
+
+	public void testColdRowsKeptOnVerticalResize() {
+		TerminalEmulator plain = newTerminalWithHistory(-1);
+		mTerminal = newTerminalWithHistory(10);
+		byte[] bytes = coldRowsInput();
+		plain.append(bytes, bytes.length);
+		mTerminal.append(bytes, bytes.length);
+		int coldRows = countColdRows();
+
+		plain.resize(20, 3, INITIAL_CELL_WIDTH_PIXELS, INITIAL_CELL_HEIGHT_PIXELS);
+		mTerminal.resize(20, 3, INITIAL_CELL_WIDTH_PIXELS, INITIAL_CELL_HEIGHT_PIXELS);
+		assertEquals(coldRows, countColdRows());
+		assertSameContent(plain, mTerminal);
+
+		plain.resize(20, 5, INITIAL_CELL_WIDTH_PIXELS, INITIAL_CELL_HEIGHT_PIXELS);
+		mTerminal.resize(20, 5, INITIAL_CELL_WIDTH_PIXELS, INITIAL_CELL_HEIGHT_PIXELS);
+		assertEquals(coldRows, countColdRows());
+		assertSameContent(plain, mTerminal);
+	}
+
+	public void testScreenGrowingIntoColdRows() {
+		TerminalEmulator plain = newTerminalWithHistory(-1, 1000);
+		mTerminal = newTerminalWithHistory(0, 1000);
+		byte[] bytes = coldRowsInput();
+		for (int i = 0; i < 2; i++) {
+			plain.append(bytes, bytes.length);
+			mTerminal.append(bytes, bytes.length);
+		}
+
+		// The rows moved to the screen are written to afterwards:
+		plain.resize(20, 100, INITIAL_CELL_WIDTH_PIXELS, INITIAL_CELL_HEIGHT_PIXELS);
+		mTerminal.resize(20, 100, INITIAL_CELL_WIDTH_PIXELS, INITIAL_CELL_HEIGHT_PIXELS);
+		assertSameContent(plain, mTerminal);
+		byte[] clear = "\033[2J\033[Hcleared".getBytes(StandardCharsets.UTF_8);
+		plain.append(clear, clear.length);
+		mTerminal.append(clear, clear.length);
+		assertSameContent(plain, mTerminal);
+
+		// Rows moved back to the transcript are compressed again:
+		plain.resize(20, 5, INITIAL_CELL_WIDTH_PIXELS, INITIAL_CELL_HEIGHT_PIXELS);
+		mTerminal.resize(20, 5, INITIAL_CELL_WIDTH_PIXELS, INITIAL_CELL_HEIGHT_PIXELS);
+		assertTrue(countColdRows() >= mTerminal.getScreen().getActiveTranscriptRows() - CompressedRowBlock.ROWS);
+		assertSameContent(plain, mTerminal);
+	}
+
+	public void testLazyReflowOfColdRows() {
+		TerminalEmulator plain = newTerminalWithHistory(-1, 1000);
+		mTerminal = newTerminalWithHistory(10, 1000);
+		byte[] bytes = coldRowsInput();
+		for (int i = 0; i < 2; i++) {
+			plain.append(bytes, bytes.length);
+			mTerminal.append(bytes, bytes.length);
+		}
+
+		// Compressed rows not reflowed by the first resize are kept by the second one:
+		plain.resize(13, 5, INITIAL_CELL_WIDTH_PIXELS, INITIAL_CELL_HEIGHT_PIXELS);
+		mTerminal.resize(13, 5, INITIAL_CELL_WIDTH_PIXELS, INITIAL_CELL_HEIGHT_PIXELS);
+		plain.resize(17, 5, INITIAL_CELL_WIDTH_PIXELS, INITIAL_CELL_HEIGHT_PIXELS);
+		mTerminal.resize(17, 5, INITIAL_CELL_WIDTH_PIXELS, INITIAL_CELL_HEIGHT_PIXELS);
+		assertTrue(mTerminal.getScreen().reflowPendingRows(100));
+		plain.getScreen().reflowPendingRows(100);
+		assertSameContent(plain, mTerminal);
+
+		// Compressed rows not reflowed are evicted first when the transcript gets full:
+		plain.resize(20, 5, INITIAL_CELL_WIDTH_PIXELS, INITIAL_CELL_HEIGHT_PIXELS);
+		mTerminal.resize(20, 5, INITIAL_CELL_WIDTH_PIXELS, INITIAL_CELL_HEIGHT_PIXELS);
+		plain.append(bytes, bytes.length);
+		mTerminal.append(bytes, bytes.length);
+		assertSameContent(plain, mTerminal);
+	}
+
+	private static byte[] coldRowsInput() {
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < 500; i++) {
+			builder.append("\033[").append(31 + i % 7).append('m').append(i);
+			if (i % 3 == 0) builder.append("漢字");
+			if (i % 5 == 0) builder.append("abcdefghijklmnopqrstuvwxyz");
+			builder.append("\r\n");
+		}
+		return builder.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	private int countColdRows() {
+		int coldRows = 0;
+		for (TerminalRow row : mTerminal.getScreen().mLines)
+			if (row == null) coldRows++;
+		return coldRows;
+	}
+
+	private TerminalEmulator newTerminalWithHistory(int coldRowThreshold) {
+		return newTerminalWithHistory(coldRowThreshold, 200);
+	}
+
+	private TerminalEmulator newTerminalWithHistory(int coldRowThreshold, int transcriptRows) {
+		TerminalEmulator terminal = new TerminalEmulator(mOutput, 20, 5, INITIAL_CELL_WIDTH_PIXELS, INITIAL_CELL_HEIGHT_PIXELS, transcriptRows, null);
+		terminal.getScreen().setColdRowThreshold(coldRowThreshold);
+		return terminal;
+	}
+
+	private static void assertSameContent(TerminalEmulator expected, TerminalEmulator actual) {
+		TerminalBuffer expectedScreen = expected.getScreen();
+		TerminalBuffer actualScreen = actual.getScreen();
+		assertEquals(expectedScreen.getActiveTranscriptRows(), actualScreen.getActiveTranscriptRows());
+		assertEquals(expectedScreen.getTranscriptText(), actualScreen.getTranscriptText());
+		for (int row = -expectedScreen.getActiveTranscriptRows(); row < expected.mRows; row++) {
+			assertEquals(expectedScreen.getLineWrap(row), actualScreen.getLineWrap(row));
+			for (int column = 0; column < expected.mColumns; column++)
+				assertEquals(expectedScreen.getStyleAt(row, column), actualScreen.getStyleAt(row, column));
+		}
+	}
+
 }
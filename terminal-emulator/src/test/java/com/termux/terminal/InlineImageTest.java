@@ -0,0 +1,231 @@
+package com.termux.terminal;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Base64;
+
+/** "OSC 1337 ; File=$arguments : $base64 ST" is the iTerm2 inline image protocol. */
+public class InlineImageTest extends TerminalTestCase {
+
+	/** A PNG header of an image with a size, which is all that is read before rendering. */
+	private static byte[] png(int width, int height) {
+		return ByteBuffer.allocate(33).putLong(0x89504E470D0A1A0AL).putInt(13).putInt(0x49484452).putInt(width).putInt(height).array();
+	}
+
+	private static String inlineImage(String arguments, byte[] data) {
+		return "\033]1337;File=" + arguments + ":" + Base64.getEncoder().encodeToString(data) + "\007";
+	}
+
+	/** Assert that a cell shows a position in an image, returning the id of the image. */
+	private int assertImageCell(int row, int column, int imageRow, int imageColumn) {
+		long cell = mTerminal.getScreen().getLine(row).getImageCell(column);
+		assertTrue("No image at row " + row + ", column " + column, TerminalImage.decodeCellImageId(cell) != 0);
+		assertEquals(imageRow, TerminalImage.decodeCellRow(cell));
+		assertEquals(imageColumn, TerminalImage.decodeCellColumn(cell));
+		return TerminalImage.decodeCellImageId(cell);
+	}
+
+	private void assertNoImageCell(int row, int column) {
+		assertEquals(0, mTerminal.getScreen().getLine(row).getImageCell(column));
+	}
+
+	private TerminalImage getImageAt(int row, int column) {
+		return mTerminal.getScreen().getImage(TerminalImage.decodeCellImageId(mTerminal.getScreen().getLine(row).getImageCell(column)));
+	}
+
+	public void testInlineImage() {
+		// Two by two cells with the cell size of 13x15 pixels:
+		byte[] data = png(26, 30);
+		withTerminalSized(6, 4).enterString("ab" + inlineImage("name=aW1hZ2U=;inline=1", data) + "c");
+		assertLinesAre("ab    ", "    c ", "      ", "      ");
+		assertCursorAt(1, 5);
+		int id = assertImageCell(0, 2, 0, 0);
+		assertEquals(id, assertImageCell(0, 3, 0, 1));
+		assertEquals(id, assertImageCell(1, 2, 1, 0));
+		assertEquals(id, assertImageCell(1, 3, 1, 1));
+		assertNoImageCell(0, 1);
+		assertNoImageCell(0, 4);
+		assertNoImageCell(1, 4);
+
+		TerminalImage image = mTerminal.getScreen().getImage(id);
+		assertTrue(Arrays.equals(data, image.getData()));
+		assertEquals(26, image.mWidthPixels);
+		assertEquals(30, image.mHeightPixels);
+		assertEquals(2, image.mColumns);
+		assertEquals(2, image.mRows);
+		assertFalse(image.isReleased());
+
+		// Text and erasing replaces the image in the cells written to:
+		enterString("\033[1;3HX\033[2;4H\033[K");
+		assertNoImageCell(0, 2);
+		assertImageCell(0, 3, 0, 1);
+		assertImageCell(1, 2, 1, 0);
+		assertNoImageCell(1, 3);
+
+		// Without room below the image the screen scrolls:
+		withTerminalSized(6, 4).enterString("\033[4;1H" + inlineImage("inline=1", data));
+		assertCursorAt(3, 2);
+		assertImageCell(2, 0, 0, 0);
+		assertImageCell(3, 1, 1, 1);
+
+		// At the right edge the image is cut off and the next char wraps:
+		withTerminalSized(6, 4).enterString("abcde" + inlineImage("inline=1", data) + "f");
+		assertImageCell(0, 5, 0, 0);
+		assertImageCell(1, 5, 1, 0);
+		assertLinesAre("abcde ", "      ", "f     ", "      ");
+	}
+
+	public void testInlineImageSize() {
+		withTerminalSized(10, 10).enterString(inlineImage("inline=1;width=3", png(26, 30)));
+		TerminalImage image = getImageAt(0, 0);
+		assertEquals(39, image.mDisplayWidthPixels);
+		assertEquals(45, image.mDisplayHeightPixels);
+		assertEquals(3, image.mColumns);
+		assertEquals(3, image.mRows);
+
+		withTerminalSized(10, 10).enterString(inlineImage("inline=1;height=20px", png(26, 30)));
+		image = getImageAt(0, 0);
+		assertEquals(17, image.mDisplayWidthPixels);
+		assertEquals(20, image.mDisplayHeightPixels);
+		assertEquals(2, image.mColumns);
+		assertEquals(2, image.mRows);
+
+		// Fit within both, unless the aspect ratio should not be preserved:
+		withTerminalSized(10, 10).enterString(inlineImage("inline=1;width=50%;height=1", png(26, 30)));
+		image = getImageAt(0, 0);
+		assertEquals(13, image.mDisplayWidthPixels);
+		assertEquals(15, image.mDisplayHeightPixels);
+		withTerminalSized(10, 10).enterString(inlineImage("inline=1;width=50%;height=1;preserveAspectRatio=0", png(26, 30)));
+		image = getImageAt(0, 0);
+		assertEquals(65, image.mDisplayWidthPixels);
+		assertEquals(15, image.mDisplayHeightPixels);
+
+		// Scaled down to the width of the screen:
+		withTerminalSized(10, 10).enterString(inlineImage("inline=1", png(260, 60)));
+		image = getImageAt(0, 0);
+		assertEquals(130, image.mDisplayWidthPixels);
+		assertEquals(30, image.mDisplayHeightPixels);
+		assertEquals(10, image.mColumns);
+		assertEquals(2, image.mRows);
+		assertCursorAt(1, 9);
+
+		// And to its height, so that a tall image does not scroll the whole transcript away:
+		withTerminalSized(10, 10).enterString("x\r\n" + inlineImage("inline=1;height=100000;preserveAspectRatio=0", png(26, 30)));
+		image = getImageAt(0, 0);
+		assertEquals(26, image.mDisplayWidthPixels);
+		assertEquals(150, image.mDisplayHeightPixels);
+		assertEquals(10, image.mRows);
+		assertEquals(1, mTerminal.getScreen().getActiveTranscriptRows());
+		assertEquals("x", mTerminal.getScreen().getSelectedText(0, -1, 9, -1).trim());
+		withTerminalSized(10, 10).enterString(inlineImage("inline=1", png(20, 600)));
+		image = getImageAt(0, 0);
+		assertEquals(5, image.mDisplayWidthPixels);
+		assertEquals(150, image.mDisplayHeightPixels);
+		assertEquals(1, image.mColumns);
+		assertEquals(10, image.mRows);
+	}
+
+	public void testInvalidInlineImages() {
+		withTerminalSized(6, 4).enterString(inlineImage("name=ZmlsZQ==", png(26, 30))); // Not inline.
+		enterString(inlineImage("inline=1", new byte[100])); // Unknown format.
+		enterString(inlineImage("inline=1;width=wide", png(26, 30)));
+		enterString("\033]1337;File=inline=1:!!!!\007");
+		assertLinesAre("      ", "      ", "      ", "      ");
+		assertCursorAt(0, 0);
+		for (int row = 0; row < 4; row++)
+			assertFalse(mTerminal.getScreen().getLine(row).hasImages());
+
+		// Larger than the OSC payload limit:
+		mTerminal.setMaxOscPayloadBytes(32);
+		enterString(inlineImage("inline=1", png(26, 30)));
+		assertFalse(mTerminal.getScreen().getLine(0).hasImages());
+		mTerminal.setMaxOscPayloadBytes(33);
+		enterString(inlineImage("inline=1", png(26, 30)));
+		assertImageCell(0, 0, 0, 0);
+	}
+
+	public void testImagesReleasedWhenNoLongerShown() {
+		mTerminal = new TerminalEmulator(mOutput, 4, 3, INITIAL_CELL_WIDTH_PIXELS, INITIAL_CELL_HEIGHT_PIXELS, 100, null);
+		enterString(inlineImage("inline=1", png(26, 30)) + "\r\n");
+		TerminalImage image = getImageAt(0, 0);
+		// Kept while in the transcript:
+		for (int i = 0; i < 96; i++) enterString("\r\n");
+		assertEquals(image, getImageAt(-96, 0));
+		enterString("\r\n\r\n");
+		assertFalse(image.isReleased());
+		// Released when all of its rows have scrolled out of it:
+		enterString("\r\n");
+		assertTrue(image.isReleased());
+
+		// Or when overwritten, once another image is placed:
+		enterString("\033[H" + inlineImage("inline=1", png(26, 30)));
+		image = getImageAt(0, 0);
+		enterString("\033[2J\033[H" + inlineImage("inline=1", png(13, 15)));
+		assertTrue(image.isReleased());
+		assertFalse(getImageAt(0, 0).isReleased());
+
+		// Or when the transcript is cleared:
+		enterString("\r\n\r\n\r\n");
+		image = getImageAt(-1, 0);
+		enterString("\033[3J");
+		assertTrue(image.isReleased());
+	}
+
+	public void testImagesInCompressedRows() {
+		mTerminal = new TerminalEmulator(mOutput, 4, 3, INITIAL_CELL_WIDTH_PIXELS, INITIAL_CELL_HEIGHT_PIXELS, 500, null);
+		mTerminal.getScreen().setColdRowThreshold(0);
+		enterString(inlineImage("inline=1", png(26, 30)) + "\r\n");
+		TerminalImage image = getImageAt(0, 0);
+		for (int i = 0; i < 200; i++) enterString("\r\n");
+		// Another image releases images no longer shown, which does not include the ones in compressed rows:
+		enterString(inlineImage("inline=1", png(13, 15)));
+		assertFalse(image.isReleased());
+		assertEquals(image, getImageAt(-200, 0));
+		assertImageCell(-199, 1, 1, 1);
+	}
+
+	public void testImageBudget() {
+		withTerminalSized(6, 4).enterString(inlineImage("inline=1", png(13, 15)));
+		TerminalImage first = getImageAt(0, 0);
+		enterString(inlineImage("inline=1", png(13, 15)));
+		TerminalImage second = getImageAt(0, 1);
+		// The least recently used image is evicted to make room:
+		mTerminal.getScreen().getImage(TerminalImage.decodeCellImageId(mTerminal.getScreen().getLine(0).getImageCell(0)));
+		mTerminal.setMaxImageBytes(70);
+		enterString(inlineImage("inline=1", Arrays.copyOf(png(13, 15), 37)));
+		assertFalse(first.isReleased());
+		assertTrue(second.isReleased());
+		assertNull(getImageAt(0, 1));
+		assertNotNull(getImageAt(0, 2));
+		// An image larger than the budget is not placed:
+		enterString(inlineImage("inline=1", Arrays.copyOf(png(13, 15), 71)));
+		assertNoImageCell(0, 3);
+		assertCursorAt(0, 3);
+	}
+
+	public void testReadPixelSize() {
+		assertTrue(Arrays.equals(new int[]{26, 30}, TerminalImage.readPixelSize(png(26, 30))));
+		assertNull(TerminalImage.readPixelSize(png(0, 30)));
+		byte[] gif = {'G', 'I', 'F', '8', '9', 'a', 0x2C, 0x01, 0x10, 0x00};
+		assertTrue(Arrays.equals(new int[]{300, 16}, TerminalImage.readPixelSize(gif)));
+		// Start of image, an APP0 segment, and a start of frame segment with the height before the width:
+		byte[] jpeg = {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xE0, 0, 4, 0, 0, (byte) 0xFF, (byte) 0xC0, 0, 11, 8, 0x01, 0x00, 0x02, 0x00, 3};
+		assertTrue(Arrays.equals(new int[]{512, 256}, TerminalImage.readPixelSize(jpeg)));
+		assertNull(TerminalImage.readPixelSize(Arrays.copyOf(jpeg, 12)));
+		assertNull(TerminalImage.readPixelSize(new byte[0]));
+	}
+
+	public void testPackedRowKeepsImageCells() {
+		TerminalRow row = new TerminalRow(6, TextStyle.NORMAL);
+		row.setImageCells(1, 4, 7, 2, 3);
+		row.setImageCells(4, 6, 8, 0, 0);
+		java.io.ByteArrayOutputStream packed = new java.io.ByteArrayOutputStream();
+		row.pack(packed);
+		TerminalRow unpacked = TerminalRow.unpack(ByteBuffer.wrap(packed.toByteArray()), 6, new StyleTable());
+		for (int column = 0; column < 6; column++)
+			assertEquals("column " + column, row.getImageCell(column), unpacked.getImageCell(column));
+		assertEquals(TerminalImage.encodeCell(7, 2, 5), unpacked.getImageCell(3));
+		assertEquals(TerminalImage.encodeCell(8, 0, 1), unpacked.getImageCell(5));
+	}
+
+}
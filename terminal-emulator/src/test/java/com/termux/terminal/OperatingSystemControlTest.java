@@ -1,8 +1,9 @@
 package com.termux.terminal;
 
-import android.util.Base64;
-
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
 import java.util.List;
 import java.util.Random;
 
@@ -137,9 +138,39 @@ public class OperatingSystemControlTest extends TerminalTestCase {
 		assertIndexColorsMatch(TerminalColors.COLOR_SCHEME.mDefaultColors);
 	}
 
-	public void disabledTestSetClipboard() {
-		// Cannot run this as a unit test since Base64 is a android.util class.
-		enterString("\033]52;c;" + Base64.encodeToString("Hello, world".getBytes(), 0) + "\007");
+	public void testSetClipboard() {
+		withTerminalSized(3, 3).enterString("\033]52;c;" + Base64.getEncoder().encodeToString("Hello, wörld".getBytes(StandardCharsets.UTF_8)) + "\007");
+		enterString("\033]52;c;SGk\007"); // Without padding.
+		enterString("\033]52;c;SG\nk=\007");
+		enterString("\033]52;c;S!k=\007"); // Invalid, so ignored.
+		assertEquals(Arrays.asList("Hello, wörld", "Hi", "Hi"), mOutput.clipboardPuts);
+	}
+
+	public void testSetClipboardLargerThanOscString() {
+		StringBuilder text = new StringBuilder();
+		Random random = new Random(0);
+		while (text.length() < 100000) text.append((char) ('a' + random.nextInt(26))).append("ö");
+		String base64 = Base64.getMimeEncoder().encodeToString(text.toString().getBytes(StandardCharsets.UTF_8));
+		withTerminalSized(3, 3).enterString("\033]52;c;" + base64 + "\033\\");
+		enterString("\033]52;;" + base64 + "\007"); // Without selection parameter.
+		assertEquals(Arrays.asList(text.toString(), text.toString()), mOutput.clipboardPuts);
+
+		// Larger than the limit, so ignored:
+		mOutput.clipboardPuts.clear();
+		mTerminal.setMaxOscPayloadBytes(100);
+		enterString("\033]52;c;" + Base64.getEncoder().encodeToString(new byte[101]) + "\007");
+		enterString("\033]52;c;" + Base64.getEncoder().encodeToString("Hi".getBytes(StandardCharsets.UTF_8)) + "\007");
+		assertEquals(Arrays.asList("Hi"), mOutput.clipboardPuts);
+		assertLinesAre("   ", "   ", "   ");
+
+		// Also when larger than the clipboard limit:
+		mOutput.clipboardPuts.clear();
+		mTerminal.setMaxOscPayloadBytes(TerminalEmulator.DEFAULT_MAX_OSC_PAYLOAD_BYTES);
+		mTerminal.setMaxClipboardBytes(2);
+		enterString("\033]52;c;" + Base64.getEncoder().encodeToString("Hey".getBytes(StandardCharsets.UTF_8)) + "\007");
+		enterString("\033]52;;" + Base64.getEncoder().encodeToString("Hey".getBytes(StandardCharsets.UTF_8)) + "\007");
+		enterString("\033]52;c;" + Base64.getEncoder().encodeToString("Hi".getBytes(StandardCharsets.UTF_8)) + "\007");
+		assertEquals(Arrays.asList("Hi"), mOutput.clipboardPuts);
 	}
 
 	public void testResettingTerminalResetsColor() throws Exception {
@@ -193,4 +224,100 @@ public class OperatingSystemControlTest extends TerminalTestCase {
 		assertEnteringStringGivesResponse("\033]10;?\033\\", "\033]10;rgb:abab/cdcd/0000\033\\");
 	}
 
+	private void assertHyperlinks(int row, String... expectedPerColumn) {
+		for (int column = 0; column < expectedPerColumn.length; column++)
+			assertEquals("column " + column, expectedPerColumn[column], mTerminal.getScreen().getHyperlinkAt(row, column));
+	}
+
+	public void testHyperlinks() {
+		String a = "https://a.example/", b = "https://b.example/";
+		withTerminalSized(8, 3).enterString("x\033]8;;" + a + "\007ab\033]8;;\007y\033]8;id=1;" + b + "\033\\漢\033]8;;\033\\z");
+		assertLinesAre("xaby漢z ", "        ", "        ");
+		assertHyperlinks(0, null, a, a, null, b, b, null, null);
+		assertFalse(mTerminal.getScreen().getLine(1).hasLinks());
+
+		// Overwriting or erasing cells removes their links:
+		enterString("\033[1;3HX\033[1;6H\033[K");
+		assertLinesAre("xaXy    ", "        ", "        ");
+		assertHyperlinks(0, null, a, null, null, null, null, null, null);
+		enterString("\033[2J");
+		assertHyperlinks(0, null, null, null, null, null, null, null, null);
+
+		// The same uri with and without an id are separate links, while the same uri and id are the same link:
+		enterString("\033[H\033]8;;" + a + "\007a\033]8;id=x;" + a + "\007b\033]8;;\007\033]8;id=x;" + a + "\007c\033]8;;\007");
+		assertEquals(3, mTerminal.getScreen().mHyperlinks.size());
+		assertHyperlinks(0, a, a, a, null);
+		TerminalRow row = mTerminal.getScreen().getLine(0);
+		assertTrue(row.getLinkId(0) != row.getLinkId(1));
+		assertEquals(row.getLinkId(1), row.getLinkId(2));
+
+		// Invalid and too long sequences do not start a link:
+		enterString("\r\n\033]8\007d\033]8;;" + new String(new char[10000]).replace('\0', 'x') + "\007e");
+		assertHyperlinks(1, null, null);
+	}
+
+	public void testUnusedHyperlinksFreed() {
+		String a = "https://a.example/", b = "https://b.example/", c = "https://c.example/";
+		withTerminalSized(4, 2).enterString("\033]8;;" + b + "\007b\033]8;;\007\r\n\r\n\033]8;;" + a + "\007a\033]8;;\007");
+		assertEquals(2, mTerminal.getScreen().mHyperlinks.size());
+		assertHyperlinks(-1, b, null);
+		final int bId = mTerminal.getScreen().getLine(-1).getLinkId(0);
+
+		// Links only in the transcript are freed when it is cleared:
+		enterString("\033[3J");
+		assertEquals(1, mTerminal.getScreen().mHyperlinks.size());
+		assertHyperlinks(1, a, null);
+
+		// And the freed ids are reused:
+		enterString("\033[H\033]8;;" + c + "\007c\033]8;;\007");
+		assertEquals(2, mTerminal.getScreen().mHyperlinks.size());
+		assertHyperlinks(0, c, null);
+		assertEquals(bId, mTerminal.getScreen().getLine(0).getLinkId(0));
+	}
+
+	public void testHyperlinksAfterTableFull() {
+		// The initial reset has links swept at the end of the first output, so that is not the output filling the table:
+		withTerminalSized(4, 2).enterString("\033[H");
+		StringBuilder links = new StringBuilder();
+		for (int i = 0; i < HyperlinkTable.MAX_LINKS; i++)
+			links.append("\033]8;;https://example/").append(i).append("\007\033[Hx");
+		enterString(links.append("\033]8;;\007").toString());
+		assertEquals(HyperlinkTable.MAX_LINKS, mTerminal.getScreen().mHyperlinks.size());
+
+		// The links overwritten in place are freed when the table is full, so that new ones work:
+		enterString("\033[H\033]8;;https://example/new\007y\033]8;;\007");
+		assertHyperlinks(0, "https://example/new", null);
+		assertEquals(1, mTerminal.getScreen().mHyperlinks.size());
+
+		// Also when resetting the terminal:
+		enterString("\033c\033]8;;https://example/reset\007y\033]8;;\007");
+		assertHyperlinks(0, "https://example/reset", null);
+		assertEquals(1, mTerminal.getScreen().mHyperlinks.size());
+	}
+
+	public void testHyperlinksKeptInTranscriptAndResize() {
+		String a = "https://a.example/";
+		withTerminalSized(4, 2).enterString("\033]8;;" + a + "\007abcdef\033]8;;\007\r\n\r\n\r\n");
+		assertHyperlinks(-3, a, a, a, a);
+		assertHyperlinks(-2, a, a, null, null);
+
+		// Reflowed rows keep their links:
+		mTerminal.resize(3, 2, INITIAL_CELL_WIDTH_PIXELS, INITIAL_CELL_HEIGHT_PIXELS);
+		assertEquals("abcdef", mTerminal.getScreen().getTranscriptText());
+		assertHyperlinks(-3, a, a, a);
+		assertHyperlinks(-2, a, a, a);
+		assertHyperlinks(-1, null, null, null);
+	}
+
+	public void testHyperlinksInCompressedRows() {
+		String a = "https://a.example/";
+		mTerminal = new TerminalEmulator(mOutput, 5, 2, INITIAL_CELL_WIDTH_PIXELS, INITIAL_CELL_HEIGHT_PIXELS, 100, null);
+		mTerminal.getScreen().setColdRowThreshold(0);
+		enterString("x\033]8;;" + a + "\007ab\033]8;;\007");
+		for (int i = 0; i < 90; i++) enterString("\r\nrow");
+		int row = -mTerminal.getScreen().getActiveTranscriptRows();
+		assertEquals("xab  ", new String(mTerminal.getScreen().getLine(row).getText(new char[5]), 0, 5));
+		assertHyperlinks(row, null, a, a, null, null);
+	}
+
 }
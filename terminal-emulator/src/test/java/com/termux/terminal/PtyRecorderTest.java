@@ -0,0 +1,139 @@
+package com.termux.terminal;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+public class PtyRecorderTest extends TerminalTestCase {
+
+	private File mFile;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mFile = File.createTempFile("pty", ".rec");
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		mFile.delete();
+		super.tearDown();
+	}
+
+	private static void record(PtyRecorder recorder, String output) {
+		byte[] bytes = output.getBytes(StandardCharsets.UTF_8);
+		recorder.record(bytes, 0, bytes.length);
+	}
+
+	private PtyReplay replay(boolean originalSpeed) throws IOException, InterruptedException {
+		mTerminal = new TerminalEmulator(mOutput, 3, 3, INITIAL_CELL_WIDTH_PIXELS, INITIAL_CELL_HEIGHT_PIXELS, 100, null);
+		try (InputStream in = new FileInputStream(mFile)) {
+			PtyReplay replay = new PtyReplay(in);
+			replay.replay(mTerminal, originalSpeed);
+			return replay;
+		}
+	}
+
+	public void testRecordAndReplay() throws Exception {
+		PtyRecorder recorder = new PtyRecorder(mFile, 5, 2, INITIAL_CELL_WIDTH_PIXELS, INITIAL_CELL_HEIGHT_PIXELS, 1024);
+		record(recorder, "hello\r\n\033[1;31m漢");
+		recorder.recordResize(8, 3, INITIAL_CELL_WIDTH_PIXELS, INITIAL_CELL_HEIGHT_PIXELS);
+		Thread.sleep(20);
+		record(recorder, "字\033[mworld");
+		recorder.close();
+		assertEquals(0, recorder.getDroppedBytes());
+
+		withTerminalSized(5, 2).enterString("hello\r\n\033[1;31m漢");
+		mTerminal.resize(8, 3, INITIAL_CELL_WIDTH_PIXELS, INITIAL_CELL_HEIGHT_PIXELS);
+		enterString("字\033[mworld");
+		String expected = mTerminal.getScreen().getTranscriptText();
+
+		PtyReplay replay = replay(false);
+		assertEquals(expected, mTerminal.getScreen().getTranscriptText());
+		assertEquals(8, mTerminal.mColumns);
+		assertEquals(3, mTerminal.mRows);
+		assertEquals(TextStyle.CHARACTER_ATTRIBUTE_BOLD, TextStyle.decodeEffect(mTerminal.getScreen().getStyleAt(1, 0)));
+		assertEquals(28, replay.getOutputBytes());
+		assertEquals(0, replay.getDroppedBytes());
+		assertTrue(replay.isComplete());
+
+		// With the original timing the replay takes at least the pause between the records:
+		long startNanos = System.nanoTime();
+		replay(true);
+		assertEquals(expected, mTerminal.getScreen().getTranscriptText());
+		assertTrue(System.nanoTime() - startNanos >= 20 * 1000 * 1000);
+	}
+
+	public void testOutputDroppedWhenQueueFull() throws Exception {
+		PtyRecorder recorder = new PtyRecorder(mFile, 5, 2, INITIAL_CELL_WIDTH_PIXELS, INITIAL_CELL_HEIGHT_PIXELS, 64);
+		record(recorder, "a");
+		// Never fits in the queue, so is dropped without blocking:
+		recorder.record(new byte[100], 0, 100);
+		record(recorder, "b");
+		recorder.close();
+		assertEquals(100, recorder.getDroppedBytes());
+
+		PtyReplay replay = replay(false);
+		assertEquals(2, replay.getOutputBytes());
+		assertEquals(100, replay.getDroppedBytes());
+		assertEquals("ab", mTerminal.getScreen().getTranscriptText());
+
+		// Recording after closing does nothing:
+		record(recorder, "c");
+		recorder.close();
+	}
+
+	public void testCutShortRecording() throws Exception {
+		PtyRecorder recorder = new PtyRecorder(mFile, 5, 2, INITIAL_CELL_WIDTH_PIXELS, INITIAL_CELL_HEIGHT_PIXELS, 1024);
+		record(recorder, "abc");
+		recorder.close();
+		byte[] bytes = Files.readAllBytes(mFile.toPath());
+
+		// Ending within a record, like when the app was killed while recording:
+		PtyReplay replay = new PtyReplay(new ByteArrayInputStream(bytes, 0, bytes.length - 1));
+		replay.replay(new TerminalEmulator(mOutput, 3, 3, INITIAL_CELL_WIDTH_PIXELS, INITIAL_CELL_HEIGHT_PIXELS, 100, null), false);
+		assertEquals(3, replay.getOutputBytes());
+		assertFalse(replay.isComplete());
+
+		try {
+			new PtyReplay(new ByteArrayInputStream("not a recording".getBytes(StandardCharsets.UTF_8)));
+			fail();
+		} catch (IOException e) {
+			// Expected.
+		}
+	}
+
+	/** Replay a recording of the header followed by records of bytes, which must be rejected as invalid. */
+	private void assertInvalidRecording(int... records) throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(PtyRecorder.MAGIC);
+		out.writeByte(PtyRecorder.VERSION);
+		for (int b : records) out.writeByte(b);
+		PtyReplay replay = new PtyReplay(new ByteArrayInputStream(bytes.toByteArray()));
+		try {
+			replay.replay(new TerminalEmulator(mOutput, 3, 3, INITIAL_CELL_WIDTH_PIXELS, INITIAL_CELL_HEIGHT_PIXELS, 100, null), false);
+			fail();
+		} catch (IOException e) {
+			// Expected.
+		}
+	}
+
+	public void testInvalidRecording() throws Exception {
+		// Output longer than the max, which would otherwise be allocated before finding the recording cut short:
+		assertInvalidRecording(PtyRecorder.RECORD_OUTPUT, 0, 0xFF, 0xFF, 0xFF, 0xFF, 0x0F);
+		assertInvalidRecording(PtyRecorder.RECORD_OUTPUT, 0, 0);
+		// Sizes which are zero, too large or do not fit in an int:
+		assertInvalidRecording(PtyRecorder.RECORD_RESIZE, 0, 0, 1, 10, 10);
+		assertInvalidRecording(PtyRecorder.RECORD_RESIZE, 0, 1, 0xFF, 0xFF, 0x03, 10, 10);
+		assertInvalidRecording(PtyRecorder.RECORD_RESIZE, 0, 1, 1, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0x01, 10);
+		assertInvalidRecording(0x7F, 0);
+	}
+
+}
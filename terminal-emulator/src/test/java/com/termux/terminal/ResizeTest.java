@@ -1,5 +1,7 @@
 package com.termux.terminal;
 
+import java.nio.charset.StandardCharsets;
+
 public class ResizeTest extends TerminalTestCase {
 
 	public void testResizeWhenHasHistory() {
@@ -209,4 +211,85 @@ public class ResizeTest extends TerminalTestCase {
 		resize(5, rows).assertLinesAre("ＱＲ ", "     ", "     ", "     ");
 	}
 
+	public void testLazyReflowOfLongHistory() {
+		// Only use characters of width two, so that reflowing gives the same result as writing with the new width.
+		String input = longHistoryInput();
+		mTerminal = new TerminalEmulator(mOutput, 30, 10, INITIAL_CELL_WIDTH_PIXELS, INITIAL_CELL_HEIGHT_PIXELS, 5000, null);
+		enterString(input);
+		TerminalEmulator expected = new TerminalEmulator(mOutput, 46, 10, INITIAL_CELL_WIDTH_PIXELS, INITIAL_CELL_HEIGHT_PIXELS, 5000, null);
+		byte[] bytes = input.getBytes(StandardCharsets.UTF_8);
+		expected.append(bytes, bytes.length);
+
+		resize(46, 10);
+		TerminalBuffer screen = mTerminal.getScreen();
+		assertEquals(expected.getCursorRow(), mTerminal.getCursorRow());
+		assertEquals(expected.getCursorCol(), mTerminal.getCursorCol());
+		for (int row = -100; row < 10; row++)
+			assertEquals(expected.getScreen().getSelectedText(0, row, 45, row), screen.getSelectedText(0, row, 45, row));
+		// Older rows are not reflowed yet:
+		assertTrue(expected.getScreen().getActiveTranscriptRows() != screen.getActiveTranscriptRows());
+		assertEquals(46, screen.getLine(-screen.getActiveTranscriptRows()).mColumns);
+
+		int reflowCalls = 0;
+		while (screen.reflowPendingRows(100)) reflowCalls++;
+		assertTrue(reflowCalls > 1);
+		assertEquals(expected.getScreen().getActiveTranscriptRows(), screen.getActiveTranscriptRows());
+		assertEquals(expected.getScreen().getTranscriptText(), screen.getTranscriptText());
+		for (int row = -screen.getActiveTranscriptRows(); row < 10; row++) {
+			assertEquals(expected.getScreen().getLineWrap(row), screen.getLineWrap(row));
+			// Blank rows get the current style when reflowing, so only compare the styles of text:
+			if (screen.getLine(row).getChar(0) != ' ')
+				assertEquals(expected.getScreen().getStyleAt(row, 0), screen.getStyleAt(row, 0));
+		}
+	}
+
+	public void testLazyReflowWhenTranscriptGetsFull() {
+		String input = longHistoryInput();
+		mTerminal = new TerminalEmulator(mOutput, 30, 10, INITIAL_CELL_WIDTH_PIXELS, INITIAL_CELL_HEIGHT_PIXELS, 1000, null);
+		enterString(input);
+		resize(46, 10);
+		TerminalBuffer screen = mTerminal.getScreen();
+		// Reading the whole transcript reflows all rows:
+		TerminalEmulator expected = new TerminalEmulator(mOutput, 46, 10, INITIAL_CELL_WIDTH_PIXELS, INITIAL_CELL_HEIGHT_PIXELS, 1000, null);
+		byte[] bytes = input.getBytes(StandardCharsets.UTF_8);
+		expected.append(bytes, bytes.length);
+		String transcript = screen.getTranscriptText();
+		assertTrue(expected.getScreen().getTranscriptText().endsWith(transcript));
+		assertFalse(screen.reflowPendingRows(100));
+
+		// Rows not yet reflowed are dropped before the ones in the transcript:
+		resize(30, 10);
+		enterString(input);
+		expected.resize(30, 10, INITIAL_CELL_WIDTH_PIXELS, INITIAL_CELL_HEIGHT_PIXELS);
+		expected.append(bytes, bytes.length);
+		assertEquals(expected.getScreen().getTranscriptText(), screen.getTranscriptText());
+	}
+
+	public void testStylesCompactedAfterReflow() {
+		mTerminal = new TerminalEmulator(mOutput, 10, 5, INITIAL_CELL_WIDTH_PIXELS, INITIAL_CELL_HEIGHT_PIXELS, 100, null);
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < 500; i++)
+			builder.append("\033[38;2;0;").append(i >> 8).append(';').append(i & 0xff).append("mX\r\n");
+		enterString(builder.toString());
+		TerminalBuffer screen = mTerminal.getScreen();
+		assertTrue(screen.mStyleTable.size() > 500);
+
+		// Only the styles of the rows left in the transcript and on screen are kept:
+		resize(12, 5);
+		assertTrue(screen.mStyleTable.size() <= 101);
+		assertEquals(TextStyle.encode(0xff000000 | 499, TextStyle.COLOR_INDEX_BACKGROUND, 0), screen.getStyleAt(mTerminal.getCursorRow() - 1, 0));
+	}
+
+	private static String longHistoryInput() {
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < 2000; i++) {
+			builder.append("\033[").append(31 + i % 7).append('m');
+			for (int j = 0; j < i % 37; j++)
+				builder.append(j % 5 == 0 ? "漢" : "ab");
+			builder.append("\r\n");
+			if (i % 11 == 0) builder.append("\r\n");
+		}
+		return builder.toString();
+	}
+
 }
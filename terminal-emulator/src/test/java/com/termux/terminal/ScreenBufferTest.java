@@ -62,4 +62,49 @@ public class ScreenBufferTest extends TerminalTestCase {
 		assertEquals("", mTerminal.getScreen().getWordAtLocation(1, 2));
 		assertEquals("", mTerminal.getScreen().getWordAtLocation(2, 2));
 	}
+
+	public void testGetWordAtLocationInTranscript() {
+		withTerminalSized(4, 2).enterString("ab 漢字cd\r\nx\r\ny");
+		// The wide char does not fit on the first row, so the line is wrapped over the rows "ab ", "漢字" and "cd":
+		assertEquals("ab", mTerminal.getScreen().getWordAtLocation(0, -3));
+		assertEquals("", mTerminal.getScreen().getWordAtLocation(3, -3));
+		assertEquals("漢字cd", mTerminal.getScreen().getWordAtLocation(1, -2));
+		assertEquals("漢字cd", mTerminal.getScreen().getWordAtLocation(1, -1));
+		assertEquals("", mTerminal.getScreen().getWordAtLocation(2, -1));
+	}
+
+	public void testGetLogicalLine() {
+		withTerminalSized(3, 4).enterString("abcdefg\r\nhij\r\nk");
+		TerminalBuffer screen = mTerminal.getScreen();
+		LogicalLine line = screen.getLogicalLine(0, false, null);
+		assertEquals("abcdefg", line.getText());
+		assertEquals(-1, line.getFirstRow());
+		assertEquals(1, line.getLastRow());
+		assertEquals(4, line.indexOfCell(0, 1));
+		assertEquals(0, line.getRow(4));
+		assertEquals(1, line.getStartColumn(4));
+		assertEquals(-1, line.indexOfCell(1, 1));
+		assertEquals(-1, line.indexOfCell(2, 0));
+
+		// The full row "hij" was not wrapped, but is joined with the next one when joining full lines:
+		assertEquals("hij", screen.getLogicalLine(2, false, line).getText());
+		assertEquals("k", screen.getLogicalLine(3, false, line).getText());
+		assertEquals("hijk", screen.getLogicalLine(3, true, line).getText());
+		assertEquals(2, screen.getLogicalLineStart(3, true));
+		assertEquals("abcdefg", screen.getLogicalLine(-1, true, line).getText());
+	}
+
+	public void testLongWrappedLine() {
+		final int rows = 20000;
+		mTerminal = new TerminalEmulator(mOutput, 10, 5, INITIAL_CELL_WIDTH_PIXELS, INITIAL_CELL_HEIGHT_PIXELS, rows * 2, null);
+		StringBuilder output = new StringBuilder();
+		for (int i = 0; i < rows; i++) output.append("word ").append(i % 10).append("xyzw");
+		enterString(output.toString());
+		// Each row is "word Nxyzw", so that words continue on the next row:
+		String word = mTerminal.getScreen().getWordAtLocation(2, -5000);
+		assertEquals(9, word.length());
+		assertTrue(word, word.endsWith("xyzwword"));
+		assertEquals(-mTerminal.getScreen().getActiveTranscriptRows(), mTerminal.getScreen().getLogicalLineStart(4, false));
+	}
+
 }
@@ -0,0 +1,78 @@
+package com.termux.terminal;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+public class SearchTest extends TerminalTestCase {
+
+	private List<SearchMatch> find(String text, boolean ignoreCase) {
+		return mTerminal.getScreen().find(text, ignoreCase, Integer.MAX_VALUE);
+	}
+
+	private static SearchMatch match(int startRow, int startColumn, int endRow, int endColumn) {
+		return new SearchMatch(startRow, startColumn, endRow, endColumn);
+	}
+
+	public void testFindInTranscriptAndScreen() {
+		withTerminalSized(6, 3).enterString("foo\r\nbar\r\nFoobar\r\nbaz\r\nfoo");
+		assertLinesAre("Foobar", "baz   ", "foo   ");
+		assertEquals(Arrays.asList(match(-2, 0, -2, 3), match(2, 0, 2, 3)), find("foo", false));
+		assertEquals(Arrays.asList(match(-2, 0, -2, 3), match(0, 0, 0, 3), match(2, 0, 2, 3)), find("foo", true));
+		assertEquals(Arrays.asList(match(-1, 0, -1, 2), match(0, 3, 0, 5), match(1, 0, 1, 2)), find("ba", false));
+		assertEquals(Arrays.asList(match(0, 2, 0, 4)), find("ob", true));
+		assertTrue(find("foox", true).isEmpty());
+		assertEquals(1, mTerminal.getScreen().find("foo", true, 1).size());
+
+		// Rows scrolled into the transcript since the last search are found at their new location:
+		enterString("\r\nqux\r\n\r\n");
+		assertEquals(Arrays.asList(match(-5, 0, -5, 3), match(-3, 0, -3, 3), match(-1, 0, -1, 3)), find("foo", true));
+		assertEquals(Arrays.asList(match(0, 0, 0, 3)), find("qux", false));
+	}
+
+	public void testFindInWrappedLines() {
+		withTerminalSized(4, 3).enterString("abcdefgh\r\n漢x\r\n\r\n");
+		assertEquals(Arrays.asList(match(-2, 2, -1, 2)), find("cdef", false));
+		assertEquals(Arrays.asList(match(-2, 0, -1, 4)), find("abcdefgh", false));
+		assertEquals(Arrays.asList(match(0, 0, 0, 3)), find("漢x", false));
+		assertEquals(Arrays.asList(match(0, 2, 0, 3)), find("x", false));
+		// Only within lines:
+		assertTrue(find("hx", false).isEmpty());
+	}
+
+	public void testIndexInvalidatedByResizeAndClear() {
+		withTerminalSized(6, 2).enterString("needle\r\nx\r\ny\r\n");
+		assertEquals(Arrays.asList(match(-2, 0, -2, 6)), find("needle", false));
+		resize(3, 2);
+		assertHistoryStartsWith("x  ", "dle", "nee");
+		assertEquals(Arrays.asList(match(-3, 0, -2, 3)), find("needle", false));
+		enterString("\033[3J");
+		assertTrue(find("needle", false).isEmpty());
+	}
+
+	public void testEvictedRowsAreNotFound() {
+		mTerminal = new TerminalEmulator(mOutput, 5, 2, INITIAL_CELL_WIDTH_PIXELS, INITIAL_CELL_HEIGHT_PIXELS, TerminalEmulator.TERMINAL_TRANSCRIPT_ROWS_MIN, null);
+		enterString("one\r\n");
+		assertEquals(1, find("one", false).size());
+		for (int i = 0; i < 200; i++) enterString("row\r\n");
+		assertTrue(find("one", false).isEmpty());
+		// All rows in the transcript and the first one on screen:
+		assertEquals(mTerminal.getScreen().getActiveTranscriptRows() + 1, find("row", false).size());
+	}
+
+	public void testLargeTranscript() {
+		final int rows = 50000;
+		mTerminal = new TerminalEmulator(mOutput, 80, 24, INITIAL_CELL_WIDTH_PIXELS, INITIAL_CELL_HEIGHT_PIXELS, rows, null);
+		StringBuilder output = new StringBuilder();
+		for (int i = 0; i < rows; i++) output.append("line ").append(i).append(" of the log with some text\r\n");
+		byte[] bytes = output.toString().getBytes(StandardCharsets.UTF_8);
+		mTerminal.append(bytes, bytes.length);
+
+		List<SearchMatch> matches = find("line 4242 ", false);
+		assertEquals(1, matches.size());
+		TerminalRow row = mTerminal.getScreen().getLine(matches.get(0).mStartRow);
+		assertTrue(new String(row.getText(new char[80]), 0, row.getSpaceUsed()).startsWith("line 4242 of"));
+		assertEquals(mTerminal.getScreen().getActiveTranscriptRows() + 23, find("LOG WITH", true).size());
+	}
+
+}
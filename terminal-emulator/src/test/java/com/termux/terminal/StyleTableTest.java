@@ -0,0 +1,46 @@
+package com.termux.terminal;
+
+import junit.framework.TestCase;
+
+public class StyleTableTest extends TestCase {
+
+	public void testIntern() {
+		StyleTable table = new StyleTable();
+		int normal = table.intern(TextStyle.NORMAL);
+		long red = TextStyle.encode(1, TextStyle.COLOR_INDEX_BACKGROUND, TextStyle.CHARACTER_ATTRIBUTE_BOLD);
+		int redId = table.intern(red);
+		assertTrue(normal != redId);
+		assertEquals(normal, table.intern(TextStyle.NORMAL));
+		assertEquals(redId, table.intern(red));
+		assertEquals(TextStyle.NORMAL, table.getStyle(normal));
+		assertEquals(red, table.getStyle(redId));
+		assertEquals(2, table.size());
+	}
+
+	public void testFullAndCompact() {
+		StyleTable table = new StyleTable();
+		for (int i = 0; i < StyleTable.MAX_STYLES; i++) {
+			assertEquals(i, table.intern(trueColorStyle(i)));
+		}
+		assertTrue(table.isFull());
+		assertEquals(StyleTable.NO_ID, table.intern(trueColorStyle(StyleTable.MAX_STYLES)));
+		assertEquals(100, table.intern(trueColorStyle(100)));
+
+		boolean[] usedIds = new boolean[table.size()];
+		usedIds[100] = usedIds[2000] = true;
+		int[] newIds = table.compact(usedIds);
+		assertEquals(2, table.size());
+		assertEquals(StyleTable.NO_ID, newIds[0]);
+		assertEquals(0, newIds[100]);
+		assertEquals(1, newIds[2000]);
+		assertEquals(trueColorStyle(100), table.getStyle(0));
+		assertEquals(trueColorStyle(2000), table.getStyle(1));
+		assertEquals(1, table.intern(trueColorStyle(2000)));
+		assertEquals(2, table.intern(trueColorStyle(StyleTable.MAX_STYLES)));
+	}
+
+	private static long trueColorStyle(int i) {
+		return TextStyle.encode(0xff000000 | i, TextStyle.COLOR_INDEX_BACKGROUND, 0);
+	}
+
+}
@@ -32,7 +32,7 @@ public class TerminalRowTest extends TestCase {
 	}
 
 	private void assertLineStartsWith(int... codePoints) {
-		char[] chars = row.mText;
+		char[] chars = row.getText(new char[COLUMNS]);
 		int charIndex = 0;
 		for (int i = 0; i < codePoints.length; i++) {
 			int lineCodePoint = chars[charIndex++];
@@ -108,7 +108,7 @@ public class TerminalRowTest extends TestCase {
 			rawLine[lineIndex] = someChars[charIndex];
 			row.setChar(lineIndex, someChars[charIndex], 0);
 		}
-		char[] lineChars = row.mText;
+		char[] lineChars = row.getText(new char[COLUMNS]);
 		for (int i = 0; i < rawLine.length; i++) {
 			assertEquals(rawLine[i], lineChars[i]);
 		}
@@ -199,21 +199,21 @@ public class TerminalRowTest extends TestCase {
 		assertEquals(2, Character.toChars(second).length);
 
 		row.setChar(0, second, 0);
-		assertEquals(second, Character.toCodePoint(row.mText[0], row.mText[1]));
-		assertEquals(' ', row.mText[2]);
+		assertEquals(second, Character.toCodePoint(row.getChar(0), row.getChar(1)));
+		assertEquals(' ', row.getChar(2));
 		assertEquals(2, row.findStartOfColumn(1));
 
 		row.setChar(0, first, 0);
-		assertEquals(first, Character.toCodePoint(row.mText[0], row.mText[1]));
-		assertEquals(' ', row.mText[2]);
+		assertEquals(first, Character.toCodePoint(row.getChar(0), row.getChar(1)));
+		assertEquals(' ', row.getChar(2));
 		assertEquals(2, row.findStartOfColumn(1));
 
 		row.setChar(1, second, 0);
 		row.setChar(2, 'a', 0);
-		assertEquals(first, Character.toCodePoint(row.mText[0], row.mText[1]));
-		assertEquals(second, Character.toCodePoint(row.mText[2], row.mText[3]));
-		assertEquals('a', row.mText[4]);
-		assertEquals(' ', row.mText[5]);
+		assertEquals(first, Character.toCodePoint(row.getChar(0), row.getChar(1)));
+		assertEquals(second, Character.toCodePoint(row.getChar(2), row.getChar(3)));
+		assertEquals('a', row.getChar(4));
+		assertEquals(' ', row.getChar(5));
 		assertEquals(0, row.findStartOfColumn(0));
 		assertEquals(2, row.findStartOfColumn(1));
 		assertEquals(4, row.findStartOfColumn(2));
@@ -221,10 +221,10 @@ public class TerminalRowTest extends TestCase {
 		assertEquals(6, row.findStartOfColumn(4));
 
 		row.setChar(0, ' ', 0);
-		assertEquals(' ', row.mText[0]);
-		assertEquals(second, Character.toCodePoint(row.mText[1], row.mText[2]));
-		assertEquals('a', row.mText[3]);
-		assertEquals(' ', row.mText[4]);
+		assertEquals(' ', row.getChar(0));
+		assertEquals(second, Character.toCodePoint(row.getChar(1), row.getChar(2)));
+		assertEquals('a', row.getChar(3));
+		assertEquals(' ', row.getChar(4));
 		assertEquals(0, row.findStartOfColumn(0));
 		assertEquals(1, row.findStartOfColumn(1));
 		assertEquals(3, row.findStartOfColumn(2));
@@ -236,7 +236,7 @@ public class TerminalRowTest extends TestCase {
 		}
 		for (int i = 0; i < 80; i++) {
 			int idx = row.findStartOfColumn(i);
-			assertEquals(i % 2 == 0 ? first : second, Character.toCodePoint(row.mText[idx], row.mText[idx + 1]));
+			assertEquals(i % 2 == 0 ? first : second, Character.toCodePoint(row.getChar(idx), row.getChar(idx + 1)));
 		}
 		for (int i = 0; i < 80; i++) {
 			row.setChar(i, i % 2 == 0 ? 'a' : 'b', 0);
@@ -244,40 +244,40 @@ public class TerminalRowTest extends TestCase {
 		for (int i = 0; i < 80; i++) {
 			int idx = row.findStartOfColumn(i);
 			assertEquals(i, idx);
-			assertEquals(i % 2 == 0 ? 'a' : 'b', row.mText[i]);
+			assertEquals(i % 2 == 0 ? 'a' : 'b', row.getChar(i));
 		}
 	}
 
 	public void testOverwritingDoubleDisplayWidthWithNormalDisplayWidth() {
 		// Initial "OO "
 		row.setChar(0, ONE_JAVA_CHAR_DISPLAY_WIDTH_TWO_1, 0);
-		assertEquals(ONE_JAVA_CHAR_DISPLAY_WIDTH_TWO_1, row.mText[0]);
-		assertEquals(' ', row.mText[1]);
+		assertEquals(ONE_JAVA_CHAR_DISPLAY_WIDTH_TWO_1, row.getChar(0));
+		assertEquals(' ', row.getChar(1));
 		assertEquals(0, row.findStartOfColumn(0));
 		assertEquals(0, row.findStartOfColumn(1));
 		assertEquals(1, row.findStartOfColumn(2));
 
 		// Setting first column to a clears second: "a  "
 		row.setChar(0, 'a', 0);
-		assertEquals('a', row.mText[0]);
-		assertEquals(' ', row.mText[1]);
+		assertEquals('a', row.getChar(0));
+		assertEquals(' ', row.getChar(1));
 		assertEquals(0, row.findStartOfColumn(0));
 		assertEquals(1, row.findStartOfColumn(1));
 		assertEquals(2, row.findStartOfColumn(2));
 
 		// Back to initial "OO "
 		row.setChar(0, ONE_JAVA_CHAR_DISPLAY_WIDTH_TWO_1, 0);
-		assertEquals(ONE_JAVA_CHAR_DISPLAY_WIDTH_TWO_1, row.mText[0]);
-		assertEquals(' ', row.mText[1]);
+		assertEquals(ONE_JAVA_CHAR_DISPLAY_WIDTH_TWO_1, row.getChar(0));
+		assertEquals(' ', row.getChar(1));
 		assertEquals(0, row.findStartOfColumn(0));
 		assertEquals(0, row.findStartOfColumn(1));
 		assertEquals(1, row.findStartOfColumn(2));
 
 		// Setting first column to a clears first: " a "
 		row.setChar(1, 'a', 0);
-		assertEquals(' ', row.mText[0]);
-		assertEquals('a', row.mText[1]);
-		assertEquals(' ', row.mText[2]);
+		assertEquals(' ', row.getChar(0));
+		assertEquals('a', row.getChar(1));
+		assertEquals(' ', row.getChar(2));
 		assertEquals(0, row.findStartOfColumn(0));
 		assertEquals(1, row.findStartOfColumn(1));
 		assertEquals(2, row.findStartOfColumn(2));
@@ -286,8 +286,8 @@ public class TerminalRowTest extends TestCase {
 	public void testOverwritingDoubleDisplayWidthWithSelf() {
 		row.setChar(0, ONE_JAVA_CHAR_DISPLAY_WIDTH_TWO_1, 0);
 		row.setChar(0, ONE_JAVA_CHAR_DISPLAY_WIDTH_TWO_1, 0);
-		assertEquals(ONE_JAVA_CHAR_DISPLAY_WIDTH_TWO_1, row.mText[0]);
-		assertEquals(' ', row.mText[1]);
+		assertEquals(ONE_JAVA_CHAR_DISPLAY_WIDTH_TWO_1, row.getChar(0));
+		assertEquals(' ', row.getChar(1));
 		assertEquals(0, row.findStartOfColumn(0));
 		assertEquals(0, row.findStartOfColumn(1));
 		assertEquals(1, row.findStartOfColumn(2));
@@ -302,29 +302,29 @@ public class TerminalRowTest extends TestCase {
 		assertEquals(2, WcWidth.width(ONE_JAVA_CHAR_DISPLAY_WIDTH_TWO_2));
 
 		row.setChar(0, ONE_JAVA_CHAR_DISPLAY_WIDTH_TWO_1, 0);
-		assertEquals(ONE_JAVA_CHAR_DISPLAY_WIDTH_TWO_1, row.mText[0]);
+		assertEquals(ONE_JAVA_CHAR_DISPLAY_WIDTH_TWO_1, row.getChar(0));
 		assertEquals(0, row.findStartOfColumn(1));
-		assertEquals(' ', row.mText[1]);
+		assertEquals(' ', row.getChar(1));
 
 		row.setChar(0, 'a', 0);
-		assertEquals('a', row.mText[0]);
-		assertEquals(' ', row.mText[1]);
+		assertEquals('a', row.getChar(0));
+		assertEquals(' ', row.getChar(1));
 		assertEquals(1, row.findStartOfColumn(1));
 
 		row.setChar(0, ONE_JAVA_CHAR_DISPLAY_WIDTH_TWO_1, 0);
-		assertEquals(ONE_JAVA_CHAR_DISPLAY_WIDTH_TWO_1, row.mText[0]);
+		assertEquals(ONE_JAVA_CHAR_DISPLAY_WIDTH_TWO_1, row.getChar(0));
 		// The first character fills both first columns.
 		assertEquals(0, row.findStartOfColumn(1));
 		row.setChar(2, 'a', 0);
-		assertEquals(ONE_JAVA_CHAR_DISPLAY_WIDTH_TWO_1, row.mText[0]);
-		assertEquals('a', row.mText[1]);
+		assertEquals(ONE_JAVA_CHAR_DISPLAY_WIDTH_TWO_1, row.getChar(0));
+		assertEquals('a', row.getChar(1));
 		assertEquals(1, row.findStartOfColumn(2));
 
 		row.setChar(0, 'c', 0);
-		assertEquals('c', row.mText[0]);
-		assertEquals(' ', row.mText[1]);
-		assertEquals('a', row.mText[2]);
-		assertEquals(' ', row.mText[3]);
+		assertEquals('c', row.getChar(0));
+		assertEquals(' ', row.getChar(1));
+		assertEquals('a', row.getChar(2));
+		assertEquals(' ', row.getChar(3));
 		assertEquals(0, row.findStartOfColumn(0));
 		assertEquals(1, row.findStartOfColumn(1));
 		assertEquals(2, row.findStartOfColumn(2));
@@ -343,18 +343,18 @@ public class TerminalRowTest extends TestCase {
 		assertEquals(1, row.findStartOfColumn(2));
 		assertEquals(1, row.findStartOfColumn(3));
 		assertEquals(2, row.findStartOfColumn(4));
-		assertEquals(ONE_JAVA_CHAR_DISPLAY_WIDTH_TWO_1, row.mText[0]);
-		assertEquals(ONE_JAVA_CHAR_DISPLAY_WIDTH_TWO_2, row.mText[1]);
-		assertEquals('a', row.mText[2]);
-		assertEquals(' ', row.mText[3]);
+		assertEquals(ONE_JAVA_CHAR_DISPLAY_WIDTH_TWO_1, row.getChar(0));
+		assertEquals(ONE_JAVA_CHAR_DISPLAY_WIDTH_TWO_2, row.getChar(1));
+		assertEquals('a', row.getChar(2));
+		assertEquals(' ', row.getChar(3));
 
 		row.setChar(1, ONE_JAVA_CHAR_DISPLAY_WIDTH_TWO_2, 0);
 		// " AA a    "
-		assertEquals(' ', row.mText[0]);
-		assertEquals(ONE_JAVA_CHAR_DISPLAY_WIDTH_TWO_2, row.mText[1]);
-		assertEquals(' ', row.mText[2]);
-		assertEquals('a', row.mText[3]);
-		assertEquals(' ', row.mText[4]);
+		assertEquals(' ', row.getChar(0));
+		assertEquals(ONE_JAVA_CHAR_DISPLAY_WIDTH_TWO_2, row.getChar(1));
+		assertEquals(' ', row.getChar(2));
+		assertEquals('a', row.getChar(3));
+		assertEquals(' ', row.getChar(4));
 		assertEquals(0, row.findStartOfColumn(0));
 		assertEquals(1, row.findStartOfColumn(1));
 		assertEquals(1, row.findStartOfColumn(2));
@@ -419,14 +419,87 @@ public class TerminalRowTest extends TestCase {
 	public void testInsertWideAtLastColumn() {
 		row.setChar(COLUMNS - 2, 'Z', 0);
 		row.setChar(COLUMNS - 1, 'a', 0);
-		assertEquals('Z', row.mText[row.findStartOfColumn(COLUMNS - 2)]);
-		assertEquals('a', row.mText[row.findStartOfColumn(COLUMNS - 1)]);
+		assertEquals('Z', row.getChar(row.findStartOfColumn(COLUMNS - 2)));
+		assertEquals('a', row.getChar(row.findStartOfColumn(COLUMNS - 1)));
 		row.setChar(COLUMNS - 1, 'ö', 0);
-		assertEquals('Z', row.mText[row.findStartOfColumn(COLUMNS - 2)]);
-		assertEquals('ö', row.mText[row.findStartOfColumn(COLUMNS - 1)]);
+		assertEquals('Z', row.getChar(row.findStartOfColumn(COLUMNS - 2)));
+		assertEquals('ö', row.getChar(row.findStartOfColumn(COLUMNS - 1)));
 		// line.setChar(COLUMNS - 1, ONE_JAVA_CHAR_DISPLAY_WIDTH_TWO_1);
 		// assertEquals('Z', line.mText[line.findStartOfColumn(COLUMNS - 2)]);
 		// assertEquals(' ', line.mText[line.findStartOfColumn(COLUMNS - 1)]);
 	}
 
+	public void testCompactStorage() {
+		assertTrue(row.isCompact());
+		row.setChar(0, 'a', 0);
+		row.setChar(1, 'ö', 0);
+		assertTrue(row.isCompact());
+		assertLineStartsWith('a', 'ö', ' ');
+		row.setChar(2, '─', 0);
+		assertFalse(row.isCompact());
+		assertLineStartsWith('a', 'ö', '─', ' ');
+		assertEquals(COLUMNS, row.getSpaceUsed());
+
+		row.setChar(2, 'x', 0);
+		row.trim();
+		assertTrue(row.isCompact());
+		assertLineStartsWith('a', 'ö', 'x', ' ');
+	}
+
+	public void testTrimWide() {
+		row.setChar(0, ONE_JAVA_CHAR_DISPLAY_WIDTH_TWO_1, 0);
+		row.setChar(2, TWO_JAVA_CHARS_DISPLAY_WIDTH_TWO_1, 0);
+		row.trim();
+		assertFalse(row.isCompact());
+		assertEquals(COLUMNS - 1, row.getText(null).length);
+		assertLineStartsWith(ONE_JAVA_CHAR_DISPLAY_WIDTH_TWO_1, TWO_JAVA_CHARS_DISPLAY_WIDTH_TWO_1, ' ');
+
+		// A trimmed row should still be writable.
+		row.setChar(4, TWO_JAVA_CHARS_DISPLAY_WIDTH_TWO_2, 0);
+		assertLineStartsWith(ONE_JAVA_CHAR_DISPLAY_WIDTH_TWO_1, TWO_JAVA_CHARS_DISPLAY_WIDTH_TWO_1, TWO_JAVA_CHARS_DISPLAY_WIDTH_TWO_2, ' ');
+		row.clear(0);
+		assertLineStartsWith(' ', ' ');
+		assertEquals(COLUMNS, row.getSpaceUsed());
+	}
+
+	public void testCopyFromWiderCompactRow() {
+		TerminalRow wider = new TerminalRow(COLUMNS * 2, TextStyle.NORMAL);
+		wider.setChar(COLUMNS + 5, 'x', 0);
+		assertTrue(wider.isCompact());
+		row.setChar(0, ONE_JAVA_CHAR_DISPLAY_WIDTH_TWO_1, 0);
+		row.copyInterval(wider, COLUMNS + 4, COLUMNS + 6, 2);
+		assertLineStartsWith(ONE_JAVA_CHAR_DISPLAY_WIDTH_TWO_1, ' ', 'x', ' ');
+	}
+
+	public void testStyleIds() {
+		long bold = TextStyle.encode(TextStyle.COLOR_INDEX_FOREGROUND, TextStyle.COLOR_INDEX_BACKGROUND, TextStyle.CHARACTER_ATTRIBUTE_BOLD);
+		assertTrue(row.hasUniformStyle());
+		row.setChar(1, 'a', TextStyle.NORMAL);
+		assertTrue(row.hasUniformStyle());
+		row.setChar(2, 'b', bold);
+		assertFalse(row.hasUniformStyle());
+		assertEquals(TextStyle.NORMAL, row.getStyle(1));
+		assertEquals(bold, row.getStyle(2));
+		assertEquals(TextStyle.NORMAL, row.getStyle(3));
+
+		row.setChar(2, 'b', TextStyle.NORMAL);
+		row.trim();
+		assertTrue(row.hasUniformStyle());
+		row.clear(bold);
+		assertTrue(row.hasUniformStyle());
+		assertEquals(bold, row.getStyle(COLUMNS - 1));
+	}
+
+	public void testStylesWhenStyleTableIsFull() {
+		StyleTable table = new StyleTable();
+		for (int i = 0; i < StyleTable.MAX_STYLES; i++)
+			table.intern(TextStyle.encode(0xff000000 | i, TextStyle.COLOR_INDEX_BACKGROUND, 0));
+		row = new TerminalRow(COLUMNS, TextStyle.NORMAL, table);
+		assertFalse(row.hasUniformStyle());
+		long style = TextStyle.encode(0xff123456, TextStyle.COLOR_INDEX_BACKGROUND, 0);
+		row.setChar(1, 'a', style);
+		assertEquals(TextStyle.NORMAL, row.getStyle(0));
+		assertEquals(style, row.getStyle(1));
+	}
+
 }
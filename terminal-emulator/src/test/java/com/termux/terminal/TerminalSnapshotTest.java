@@ -0,0 +1,126 @@
+package com.termux.terminal;
+
+public class TerminalSnapshotTest extends TerminalTestCase {
+
+	private static String getText(TerminalSnapshot snapshot, int row) {
+		TerminalRow line = snapshot.getLine(row);
+		return new String(line.getText(new char[snapshot.mColumns]), 0, line.getSpaceUsed());
+	}
+
+	private void assertSnapshotMatchesScreen(TerminalSnapshot snapshot) {
+		assertEquals(mTerminal.mRows, snapshot.mRows);
+		assertEquals(mTerminal.mColumns, snapshot.mColumns);
+		for (int row = 0; row < snapshot.mRows; row++) {
+			TerminalRow line = mTerminal.getScreen().getLine(row);
+			assertEquals(new String(line.getText(new char[mTerminal.mColumns]), 0, line.getSpaceUsed()), getText(snapshot, row));
+			for (int column = 0; column < snapshot.mColumns; column++)
+				assertEquals(line.getStyle(column), snapshot.getLine(row).getStyle(column));
+		}
+		assertEquals(mTerminal.getCursorRow(), snapshot.getCursorRow());
+		assertEquals(mTerminal.getCursorCol(), snapshot.getCursorCol());
+	}
+
+	public void testCopyScreen() {
+		withTerminalSized(5, 3).enterString("ab\033[31mc\r\n\033[44m漢字\033[0m\r\nxyz");
+		TerminalSnapshot snapshot = new TerminalSnapshot();
+		snapshot.copyFrom(mTerminal);
+		assertSnapshotMatchesScreen(snapshot);
+		assertEquals("abc  ", getText(snapshot, 0));
+		assertEquals(1, TextStyle.decodeForeColor(snapshot.getLine(0).getStyle(2)));
+		assertTrue(snapshot.isCursorEnabled());
+
+		// Rows are reused, and later changes to the screen do not affect the snapshot until copied again:
+		TerminalRow firstRow = snapshot.getLine(0);
+		enterString("\033[H\033[32mAB\033[?25l");
+		assertEquals("abc  ", getText(snapshot, 0));
+		snapshot.copyFrom(mTerminal);
+		assertSame(firstRow, snapshot.getLine(0));
+		assertSnapshotMatchesScreen(snapshot);
+		assertEquals("ABc  ", getText(snapshot, 0));
+		assertFalse(snapshot.isCursorEnabled());
+
+		resize(4, 2);
+		snapshot.copyFrom(mTerminal);
+		assertSnapshotMatchesScreen(snapshot);
+	}
+
+	public void testUnchangedRowsKeepTheirVersion() {
+		withTerminalSized(3, 3).enterString("a\r\nb\r\nc");
+		TerminalSnapshot snapshot = new TerminalSnapshot();
+		snapshot.copyFrom(mTerminal);
+		TerminalRow firstRow = snapshot.getLine(0), secondRow = snapshot.getLine(1), thirdRow = snapshot.getLine(2);
+		int firstVersion = firstRow.getVersion(), secondVersion = secondRow.getVersion(), thirdVersion = thirdRow.getVersion();
+
+		enterString("\033[2;2HX");
+		snapshot.copyFrom(mTerminal);
+		assertEquals(firstVersion, firstRow.getVersion());
+		assertFalse(secondVersion == secondRow.getVersion());
+		assertEquals(thirdVersion, thirdRow.getVersion());
+		assertSnapshotMatchesScreen(snapshot);
+
+		// Rows move up along with the screen when scrolling:
+		secondVersion = secondRow.getVersion();
+		enterString("\033[3;1H\n");
+		snapshot.copyFrom(mTerminal);
+		assertSame(secondRow, snapshot.getLine(0));
+		assertEquals(secondVersion, secondRow.getVersion());
+		assertSame(thirdRow, snapshot.getLine(1));
+		assertEquals(thirdVersion, thirdRow.getVersion());
+		assertSame(firstRow, snapshot.getLine(2));
+		assertSnapshotMatchesScreen(snapshot);
+	}
+
+	public void testAddDamageOfSkippedSnapshot() {
+		withTerminalSized(3, 4);
+		TerminalSnapshot first = new TerminalSnapshot(), skipped = new TerminalSnapshot(), last = new TerminalSnapshot();
+		first.copyFrom(mTerminal);
+		enterString("\033[2;1Hab\033[4;1H");
+		skipped.copyFrom(mTerminal);
+		skipped.mNumber = 2;
+		skipped.mPreviousNumber = 1;
+		assertEquals(0, skipped.getScrolledRows());
+		enterString("\n\n");
+		last.copyFrom(mTerminal);
+		last.mNumber = 3;
+		last.mPreviousNumber = 2;
+		assertEquals(2, last.getScrolledRows());
+
+		// The changes of the skipped snapshot move up along with the rows scrolled since:
+		last.addDamage(skipped);
+		assertEquals(2, last.getScrolledRows());
+		assertEquals(1, last.getPreviousNumber());
+		assertEquals("{1, 2, 3}", last.getDamagedRows().toString());
+	}
+
+	public void testStylesAfterResizeOfSnapshot() {
+		withTerminalSized(10, 3).enterString("\033[41m\033[2J");
+		// Compact the styles so that the default style is no longer in the table:
+		mTerminal.getScreen().compactStyles();
+		TerminalSnapshot snapshot = new TerminalSnapshot();
+		snapshot.copyFrom(mTerminal);
+		assertSnapshotMatchesScreen(snapshot);
+
+		resize(10, 2).enterString("\033[42mX");
+		snapshot.copyFrom(mTerminal);
+		assertSnapshotMatchesScreen(snapshot);
+	}
+
+	public void testStylesAfterStyleTableCompaction() {
+		withTerminalSized(10, 3);
+		TerminalSnapshot snapshot = new TerminalSnapshot();
+		// Use more styles than fit in the style table, so that it gets compacted while the snapshot is copied now and then:
+		for (int i = 0; i < StyleTable.MAX_STYLES * 2; ) {
+			StringBuilder line = new StringBuilder();
+			for (int column = 0; column < 10; column++, i++)
+				line.append("\033[48;2;").append(i >> 16).append(';').append((i >> 8) & 0xff).append(';').append(i & 0xff).append("mx");
+			enterString(line.append("\r\n").toString());
+			if (i % 7000 == 0) {
+				snapshot.copyFrom(mTerminal);
+				assertSnapshotMatchesScreen(snapshot);
+			}
+		}
+		snapshot.copyFrom(mTerminal);
+		assertSnapshotMatchesScreen(snapshot);
+	}
+
+}
@@ -1,6 +1,7 @@
 package com.termux.terminal;
 
 import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
 
 public class TerminalTest extends TerminalTestCase {
 
@@ -347,4 +348,58 @@ public class TerminalTest extends TerminalTestCase {
 		withTerminalSized(11, 2).enterString("01234567890\033[44m\r\tXX").assertLinesAre("01234567XX0", "           ");
 	}
 
+	public void testAsciiRuns() {
+		// Runs of printable ASCII are written a row at a time, check wrapping and interaction with other output.
+		withTerminalSized(3, 3).enterString("abcdefgh").assertLinesAre("abc", "def", "gh ").assertCursorAt(2, 2);
+		enterString("ijklm").assertLinesAre("ghi", "jkl", "m  ").assertCursorAt(2, 1);
+		assertHistoryStartsWith("def", "abc");
+		withTerminalSized(3, 3).enterString("\033[?7labcdef").assertLinesAre("abf", "   ", "   ").assertCursorAt(0, 2);
+		withTerminalSized(4, 2).enterString("a漢bcde").assertLinesAre("a漢b", "cde ");
+		enterString("\033[Hx\033[Hyz").assertLinesAre("yz b", "cde ");
+		withTerminalSized(5, 2).enterString("abc\033[1G\033[4hxy").assertLinesAre("xyabc", "     ");
+		withTerminalSized(5, 2).enterString("\033[31mab\033[32mcd");
+		assertEquals(1, TextStyle.decodeForeColor(mTerminal.getScreen().getStyleAt(0, 1)));
+		assertEquals(2, TextStyle.decodeForeColor(mTerminal.getScreen().getStyleAt(0, 2)));
+	}
+
+	public void testAsciiRunsSameAsSingleBytes() {
+		String input = "Hello world, this is a line longer than the terminal\r\n\033[32mgreen\033[0m plain "
+			+ "\u00e5\u6f22x\u0301yz\033[5;10Habc\033[?7ldefghijklmnopqrstuvwxyz\033[?7h0123456789012345678901234"
+			+ "\033[2;5r\033[5Hscroll\nregion\nlines\n\033[r\033)0\016lqqk\017 done\033[3;3H\033[4hins\033[4l";
+		byte[] bytes = input.getBytes(StandardCharsets.UTF_8);
+
+		withTerminalSized(20, 6);
+		TerminalEmulator byteByByte = new TerminalEmulator(mOutput, 20, 6, INITIAL_CELL_WIDTH_PIXELS, INITIAL_CELL_HEIGHT_PIXELS, 12, null);
+		for (byte b : bytes) byteByByte.append(new byte[]{b}, 1);
+		mTerminal.append(bytes, bytes.length);
+		assertInvariants();
+
+		assertEquals(byteByByte.getScreen().getTranscriptText(), mTerminal.getScreen().getTranscriptText());
+		assertEquals(byteByByte.getCursorRow(), mTerminal.getCursorRow());
+		assertEquals(byteByByte.getCursorCol(), mTerminal.getCursorCol());
+		for (int row = -mTerminal.getScreen().getActiveTranscriptRows(); row < 6; row++) {
+			for (int col = 0; col < 20; col++) {
+				assertEquals("row=" + row + ", col=" + col, byteByByte.getScreen().getStyleAt(row, col), mTerminal.getScreen().getStyleAt(row, col));
+			}
+		}
+	}
+
+	public void testManyTrueColorStyles() {
+		// More distinct styles than fits in a style table, so that it needs to be compacted while scrolling.
+		final int styleCount = 95550;
+		mTerminal = new TerminalEmulator(mOutput, 100, 5, INITIAL_CELL_WIDTH_PIXELS, INITIAL_CELL_HEIGHT_PIXELS, 100, null);
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < styleCount; i++)
+			builder.append("\033[38;2;").append(i >> 16).append(';').append((i >> 8) & 0xff).append(';').append(i & 0xff).append("mX");
+		enterString(builder.toString());
+		assertTrue(mTerminal.getScreen().mStyleTable.size() < StyleTable.MAX_STYLES);
+
+		assertCursorAt(4, 50);
+		for (int i = 0; i < 150; i++) {
+			int col = (styleCount - 150 + i) % 100;
+			int row = i < 100 ? 3 : 4;
+			assertEquals(0xff000000 | (styleCount - 150 + i), TextStyle.decodeForeColor(getStyleAt(row, col)));
+		}
+	}
+
 }
@@ -0,0 +1,101 @@
+package com.termux.terminal;
+
+import java.io.File;
+
+public class TranscriptSpillFileTest extends TerminalTestCase {
+
+	private File mFile;
+	private TranscriptSpillFile mSpillFile;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mFile = File.createTempFile("transcript", ".spill");
+		mSpillFile = new TranscriptSpillFile(mFile);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		mSpillFile.close();
+		super.tearDown();
+	}
+
+	public void testUnlimitedTranscript() {
+		mTerminal = new TerminalEmulator(mOutput, 10, 3, INITIAL_CELL_WIDTH_PIXELS, INITIAL_CELL_HEIGHT_PIXELS, 100, null);
+		mTerminal.setTranscriptSpillFile(mSpillFile);
+		StringBuilder expected = new StringBuilder();
+		for (int i = 0; i < 1000; i++) {
+			enterString("\033[" + (31 + i % 7) + "m" + i + (i % 3 == 0 ? "漢字" : "") + "\r\n");
+			expected.append(i).append(i % 3 == 0 ? "漢字" : "").append('\n');
+		}
+		TerminalBuffer screen = mTerminal.getScreen();
+		assertEquals(1000, screen.getActiveTranscriptRows() + mTerminal.getCursorRow());
+		assertTrue(mSpillFile.getRowCount() > 0);
+		assertEquals(expected.toString().trim(), screen.getTranscriptText());
+		for (int i = 0; i < 1000; i++) {
+			long style = screen.getStyleAt(i - screen.getActiveTranscriptRows(), 0);
+			assertEquals(1 + i % 7, TextStyle.decodeForeColor(style));
+		}
+
+		// Rows in the file keep their width, but are read back with the current one:
+		resize(4, 3);
+		assertEquals("1", screen.getSelectedText(0, -screen.getActiveTranscriptRows() + 1, 3, -screen.getActiveTranscriptRows() + 1));
+		assertEquals("3漢", screen.getSelectedText(0, -screen.getActiveTranscriptRows() + 3, 3, -screen.getActiveTranscriptRows() + 3));
+
+		mTerminal.getScreen().clearTranscript();
+		assertEquals(0, mSpillFile.getRowCount());
+		assertEquals(0, screen.getActiveTranscriptRows());
+	}
+
+	public void testRowsSpanningWriteBuffers() {
+		// Rows with non-Latin-1 text and a style per column take 12 bytes per column, so these fill several write buffers.
+		final int columns = 1000;
+		StyleTable styleTable = new StyleTable();
+		for (int i = 0; i < 1000; i++) {
+			TerminalRow row = new TerminalRow(columns, 0, styleTable);
+			for (int column = 0; column < columns; column++)
+				row.setChar(column, 'ā' + (i + column) % 100, column);
+			assertTrue(mSpillFile.append(row));
+		}
+		assertEquals(1000, mSpillFile.getRowCount());
+		assertTrue(mFile.length() > (1 << 20) * 2);
+
+		for (int i : new int[]{0, 261, 262, 999}) {
+			TerminalRow row = mSpillFile.read(i, columns, styleTable);
+			for (int column = 0; column < columns; column++) {
+				assertEquals('ā' + (i + column) % 100, row.getChar(column));
+				assertEquals(column, row.getStyle(column));
+			}
+		}
+	}
+
+	public void testReadWhileAppending() {
+		StyleTable styleTable = new StyleTable();
+		for (int i = 0; i < 10000; i++) {
+			TerminalRow row = new TerminalRow(10, 0, styleTable);
+			row.setChar(0, 'a' + i % 26, 0);
+			assertTrue(mSpillFile.append(row));
+			// Both buffered and written rows are readable:
+			assertEquals('a' + i % 26, mSpillFile.read(i, 10, styleTable).getChar(0));
+			assertEquals('a' + i / 2 % 26, mSpillFile.read(i / 2, 10, styleTable).getChar(0));
+		}
+		TerminalRow row = mSpillFile.read(1234, 10, styleTable);
+		assertSame(row, mSpillFile.read(1234, 10, styleTable));
+		assertEquals(5, mSpillFile.read(1234, 5, styleTable).mColumns);
+
+		mSpillFile.clear();
+		assertEquals(0, mSpillFile.getRowCount());
+		TerminalRow blank = new TerminalRow(10, 0, styleTable);
+		blank.setChar(0, 'x', 0);
+		assertTrue(mSpillFile.append(blank));
+		assertEquals('x', mSpillFile.read(0, 10, styleTable).getChar(0));
+	}
+
+	public void testCloseDeletesFiles() {
+		assertTrue(mFile.exists());
+		mSpillFile.close();
+		assertFalse(mFile.exists());
+		assertFalse(new File(mFile.getPath() + ".index").exists());
+	}
+
+}
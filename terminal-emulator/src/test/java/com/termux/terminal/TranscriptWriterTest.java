@@ -0,0 +1,63 @@
+package com.termux.terminal;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+
+public class TranscriptWriterTest extends TerminalTestCase {
+
+	private String write(int format, boolean joinLines) throws IOException {
+		StringWriter writer = new StringWriter();
+		new TranscriptWriter(mTerminal, format, joinLines).write(writer);
+		return writer.toString();
+	}
+
+	public void testText() throws IOException {
+		withTerminalSized(5, 4).enterString("\r\n  abcdefg\r\n\r\nx  \r\nlast");
+		assertEquals("  abc\ndefg\n\nx\nlast", write(TranscriptWriter.FORMAT_TEXT, false));
+		assertEquals("  abcdefg\n\nx\nlast", write(TranscriptWriter.FORMAT_TEXT, true));
+
+		// Wrapped blank rows keep their spaces, while trailing blank lines are left out:
+		withTerminalSized(3, 5).enterString("a\r\n      b\r\n\r\n");
+		assertEquals("a\n   \n   \nb", write(TranscriptWriter.FORMAT_TEXT, false));
+		assertEquals("a\n      b", write(TranscriptWriter.FORMAT_TEXT, true));
+	}
+
+	public void testManyRows() throws IOException {
+		final int rows = TranscriptWriter.ROWS_PER_LOCK * 3 + 7;
+		mTerminal = new TerminalEmulator(mOutput, 20, 10, INITIAL_CELL_WIDTH_PIXELS, INITIAL_CELL_HEIGHT_PIXELS, rows * 2, null);
+		StringBuilder output = new StringBuilder();
+		for (int i = 0; i < rows; i++) output.append("row ").append(i).append("\r\n");
+		byte[] bytes = output.toString().getBytes(StandardCharsets.UTF_8);
+		mTerminal.append(bytes, bytes.length);
+		assertEquals(mTerminal.getScreen().getTranscriptTextWithoutJoinedLines(), write(TranscriptWriter.FORMAT_TEXT, false));
+	}
+
+	public void testAnsi() throws IOException {
+		withTerminalSized(10, 2).enterString("a\033[1;31mb\033[0;4;38;2;1;2;3;48;5;100mc\033[m d\r\n\033[7m漢\033[m");
+		assertEquals("a\033[0;1;31;49mb\033[0;4;38;2;1;2;3;48;5;100mc\033[0;39;49m d\n\033[0;7;39;49m漢\033[0;39;49m",
+			write(TranscriptWriter.FORMAT_ANSI, false));
+	}
+
+	public void testHtml() throws IOException {
+		withTerminalSized(10, 2).enterString("<a&b>\033[1;32mok\033[m");
+		mTerminal.mColors.mCurrentColors[TextStyle.COLOR_INDEX_FOREGROUND] = 0xffffffff;
+		mTerminal.mColors.mCurrentColors[TextStyle.COLOR_INDEX_BACKGROUND] = 0xff000000;
+		mTerminal.mColors.mCurrentColors[10] = 0xff00ff00;
+		String html = write(TranscriptWriter.FORMAT_HTML, false);
+		assertTrue(html, html.startsWith("<!DOCTYPE html>"));
+		assertTrue(html, html.contains("<body style=\"color:#ffffff;background-color:#000000\">"));
+		assertTrue(html, html.contains("<pre>&lt;a&amp;b&gt;<span style=\"color:#00ff00;background-color:#000000;font-weight:bold\">ok</span></pre>"));
+	}
+
+	public void testInvalidFormat() {
+		withTerminalSized(3, 3);
+		try {
+			new TranscriptWriter(mTerminal, 3, false);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// Expected.
+		}
+	}
+
+}
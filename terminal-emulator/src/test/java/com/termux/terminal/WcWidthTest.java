@@ -78,4 +78,17 @@ public class WcWidthTest extends TestCase {
 		assertWidthIs(2, 0x1F643); // UPSIDE-DOWN FACE (Unicode 8).
 	}
 
+	public void testLookupTableMatchesIntervalTables() {
+		for (int codePoint = 0; codePoint <= Character.MAX_CODE_POINT; codePoint++) {
+			assertEquals("codePoint=" + Integer.toHexString(codePoint), WcWidth.widthFromTables(codePoint), WcWidth.width(codePoint));
+		}
+	}
+
+	public void testOutOfRange() {
+		assertWidthIs(0, -1);
+		assertWidthIs(0, Integer.MIN_VALUE);
+		assertWidthIs(1, Character.MAX_CODE_POINT + 1);
+		assertWidthIs(1, Integer.MAX_VALUE);
+	}
+
 }
@@ -0,0 +1,66 @@
+package com.termux.view;
+
+import java.util.Arrays;
+
+/**
+ * A bounded cache of the widths measured for code points with the paint of a {@link TerminalRenderer}, along with whether
+ * each width differs from the one expected by wcwidth(), so that code points outside of ASCII such as box drawing and
+ * wide characters do not have to be measured for every cell on every frame.
+ * <p>
+ * Entries are stored in parallel arrays using open addressing with linear probing, so lookups neither allocate nor box.
+ * The cache is cleared when half full, which only happens for screens with an unusual variety of characters. As a
+ * renderer is created for each typeface and text size, the cache is only valid for a single renderer.
+ */
+final class GlyphWidthCache {
+
+    /** The number of slots, which must be a power of two. */
+    private static final int CAPACITY = 4096;
+    private static final int MAX_SIZE = CAPACITY / 2;
+
+    /** The code point of each slot, 0 for an empty slot as code points below 127 are not cached. */
+    private final int[] mCodePoints = new int[CAPACITY];
+    private final float[] mWidths = new float[CAPACITY];
+    private final boolean[] mWidthMismatches = new boolean[CAPACITY];
+    private int mSize;
+
+    /** Get the slot of a code point, or -1 if not cached. */
+    int indexOf(int codePoint) {
+        for (int slot = hash(codePoint); ; slot = (slot + 1) & (CAPACITY - 1)) {
+            final int slotCodePoint = mCodePoints[slot];
+            if (slotCodePoint == codePoint) return slot;
+            if (slotCodePoint == 0) return -1;
+        }
+    }
+
+    /** Cache the measurements of a code point which is not cached, returning its slot. */
+    int put(int codePoint, float width, boolean widthMismatch) {
+        if (codePoint <= 0) throw new IllegalArgumentException("Invalid code point: " + codePoint);
+        if (mSize == MAX_SIZE) {
+            Arrays.fill(mCodePoints, 0);
+            mSize = 0;
+        }
+        int slot = hash(codePoint);
+        while (mCodePoints[slot] != 0)
+            slot = (slot + 1) & (CAPACITY - 1);
+        mCodePoints[slot] = codePoint;
+        mWidths[slot] = width;
+        mWidthMismatches[slot] = widthMismatch;
+        mSize++;
+        return slot;
+    }
+
+    float getWidth(int slot) {
+        return mWidths[slot];
+    }
+
+    boolean isWidthMismatch(int slot) {
+        return mWidthMismatches[slot];
+    }
+
+    private static int hash(int codePoint) {
+        // Spread out code points of the same block, which are mostly used together:
+        final int h = codePoint * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & (CAPACITY - 1);
+    }
+
+}
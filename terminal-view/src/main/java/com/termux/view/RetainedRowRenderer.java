@@ -0,0 +1,115 @@
+package com.termux.view;
+
+import android.graphics.Canvas;
+import android.graphics.RecordingCanvas;
+import android.graphics.RenderNode;
+import android.os.Build;
+
+import androidx.annotation.RequiresApi;
+
+import com.termux.terminal.TerminalEmulator;
+import com.termux.terminal.TerminalSnapshot;
+
+import java.util.BitSet;
+
+/**
+ * Renders the screen of a terminal into one {@link RenderNode} per row, which are kept between frames so that only rows
+ * which have changed need to be rendered again. When the screen scrolls the nodes are moved up along with it, so that
+ * only the newly revealed rows are rendered, see {@link TerminalEmulator#takeDamage(BitSet)}.
+ * <p>
+ * Requires a hardware accelerated canvas.
+ */
+@RequiresApi(api = Build.VERSION_CODES.Q)
+final class RetainedRowRenderer {
+
+    /** The node of each row, from the top of the screen. */
+    private RenderNode[] mRowNodes = new RenderNode[0];
+    /** Used while moving {@link #mRowNodes} up. */
+    private RenderNode[] mScrolledOutNodes = new RenderNode[0];
+    /** The rows whose nodes need to be recorded again before being drawn. */
+    private final BitSet mInvalidRows = new BitSet();
+
+    /** What the nodes have been recorded with, a change of which requires recording all of them again. */
+    private TerminalRenderer mRenderer;
+    private int mWidth;
+
+    /** Require all rows to be recorded again. */
+    void invalidateAll() {
+        mInvalidRows.set(0, mRowNodes.length);
+    }
+
+    /** Require the rows from the first to the last (exclusive) one to be recorded again. */
+    void invalidateRows(int firstRow, int lastRow) {
+        if (firstRow < 0) firstRow = 0;
+        if (lastRow > mRowNodes.length) lastRow = mRowNodes.length;
+        if (firstRow < lastRow) mInvalidRows.set(firstRow, lastRow);
+    }
+
+    /** Move the rows up after the screen has scrolled, with the newly revealed rows at the bottom needing to be recorded. */
+    void scroll(int scrolledRows) {
+        final int rows = mRowNodes.length;
+        if (scrolledRows <= 0) return;
+        if (scrolledRows >= rows) {
+            invalidateAll();
+            return;
+        }
+
+        // Reuse the nodes scrolled out at the top for the new rows at the bottom:
+        System.arraycopy(mRowNodes, 0, mScrolledOutNodes, 0, scrolledRows);
+        System.arraycopy(mRowNodes, scrolledRows, mRowNodes, 0, rows - scrolledRows);
+        System.arraycopy(mScrolledOutNodes, 0, mRowNodes, rows - scrolledRows, scrolledRows);
+        for (int row = 0; row < rows; row++) {
+            final boolean invalid = row + scrolledRows >= rows || mInvalidRows.get(row + scrolledRows);
+            mInvalidRows.set(row, invalid);
+        }
+    }
+
+    /**
+     * Draw the rows of a snapshot if not null, else of the emulator, which then has to be locked, recording the rows
+     * which have changed since the last call.
+     */
+    void draw(Canvas canvas, TerminalRenderer renderer, TerminalEmulator emulator, TerminalSnapshot snapshot,
+              boolean cursorBlinkVisible, int width) {
+        final int rows = (snapshot != null) ? snapshot.mRows : emulator.mRows;
+        if (rows != mRowNodes.length) {
+            mRowNodes = new RenderNode[rows];
+            mScrolledOutNodes = new RenderNode[rows];
+            for (int row = 0; row < rows; row++)
+                mRowNodes[row] = new RenderNode("TerminalRow");
+            mInvalidRows.clear();
+            invalidateAll();
+        }
+        if (renderer != mRenderer || width != mWidth) {
+            mRenderer = renderer;
+            mWidth = width;
+            invalidateAll();
+        }
+
+        final boolean reverseVideo = (snapshot != null) ? snapshot.isReverseVideo() : emulator.isReverseVideo();
+        if (reverseVideo)
+            TerminalRenderer.drawReverseVideoBackground(canvas, (snapshot != null) ? snapshot.getColors() : emulator.mColors.mCurrentColors);
+
+        // A row is rendered at the top of its node, which is tall enough for glyphs extending into the next row:
+        final int nodeHeight = renderer.mFontLineSpacingAndAscent + 2 * renderer.mFontLineSpacing;
+        for (int row = 0; row < rows; row++) {
+            final RenderNode node = mRowNodes[row];
+            final int top = row * renderer.mFontLineSpacing;
+            node.setPosition(0, top, width, top + nodeHeight);
+            if (mInvalidRows.get(row)) {
+                final RecordingCanvas rowCanvas = node.beginRecording(width, nodeHeight);
+                try {
+                    if (snapshot != null) {
+                        renderer.renderRow(snapshot, cursorBlinkVisible, rowCanvas, row);
+                    } else {
+                        renderer.renderRow(emulator, rowCanvas, row);
+                    }
+                } finally {
+                    node.endRecording();
+                }
+            }
+            canvas.drawRenderNode(node);
+        }
+        mInvalidRows.clear();
+    }
+
+}
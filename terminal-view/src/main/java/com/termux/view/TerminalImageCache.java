@@ -0,0 +1,109 @@
+package com.termux.view;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.termux.terminal.TerminalImage;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The decoded bitmaps of the {@link TerminalImage}s rendered, which are kept within a byte budget by evicting the least
+ * recently rendered ones. Bitmaps keep their pixels outside of the java heap from Android 8 on.
+ * <p>
+ * Images are decoded on a background thread, so an image is not drawn until a later frame, when the listener passed
+ * to the constructor has been notified. Bitmaps of images released by their session are dropped, see
+ * {@link TerminalImage#isReleased()}. Must only be used on the main thread.
+ */
+final class TerminalImageCache {
+
+    /** The default byte budget of the decoded bitmaps. */
+    static final int DEFAULT_MAX_BYTES = 64 * 1024 * 1024;
+
+    private final int mMaxBytes;
+    /** Notified on the main thread when an image has been decoded, so that the rows showing it can be drawn again. */
+    private final Runnable mListener;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    /** A single thread decoding images, which stops when idle. */
+    private final ThreadPoolExecutor mDecoder = new ThreadPoolExecutor(0, 1, 5, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+
+    /** The decoded bitmaps, in least recently used order. */
+    private final LinkedHashMap<TerminalImage, Bitmap> mBitmaps = new LinkedHashMap<>(16, 0.75f, true);
+    private long mBytes;
+    /** The images being decoded, or which failed to decode, which are not decoded again. */
+    private final HashSet<TerminalImage> mPending = new HashSet<>();
+
+    TerminalImageCache(int maxBytes, Runnable listener) {
+        mMaxBytes = maxBytes;
+        mListener = listener;
+    }
+
+    /**
+     * Get the bitmap of an image, or null if it is not decoded yet, in which case it is decoded in the background.
+     *
+     * @param maxWidth  the width the image is drawn with, in pixels, which the image is decoded at least as large as.
+     * @param maxHeight the height the image is drawn with, in pixels.
+     */
+    Bitmap get(final TerminalImage image, int maxWidth, int maxHeight) {
+        final Bitmap bitmap = mBitmaps.get(image);
+        if (bitmap != null || image.isReleased() || !mPending.add(image)) return bitmap;
+
+        // Decode large images subsampled by a power of two which keeps them at least as large as drawn:
+        int sampleSize = 1;
+        while (image.mWidthPixels / (sampleSize * 2) >= maxWidth && image.mHeightPixels / (sampleSize * 2) >= maxHeight)
+            sampleSize *= 2;
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize;
+        mDecoder.execute(new Runnable() {
+            @Override
+            public void run() {
+                final byte[] data = image.getData();
+                Bitmap decoded;
+                try {
+                    decoded = image.isReleased() ? null : BitmapFactory.decodeByteArray(data, 0, data.length, options);
+                } catch (OutOfMemoryError e) {
+                    decoded = null;
+                }
+                final Bitmap result = decoded;
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onDecoded(image, result);
+                    }
+                });
+            }
+        });
+        return null;
+    }
+
+    private void onDecoded(TerminalImage image, Bitmap bitmap) {
+        // Failed images are kept pending so that they are not decoded again:
+        if (bitmap == null) return;
+        mPending.remove(image);
+        if (image.isReleased()) return;
+        mBitmaps.put(image, bitmap);
+        mBytes += bitmap.getAllocationByteCount();
+
+        for (Iterator<Map.Entry<TerminalImage, Bitmap>> it = mBitmaps.entrySet().iterator(); it.hasNext(); ) {
+            final Map.Entry<TerminalImage, Bitmap> entry = it.next();
+            // Keep the new bitmap even if over the budget, since it is about to be drawn:
+            if (entry.getKey().isReleased() || (mBytes > mMaxBytes && entry.getKey() != image)) {
+                mBytes -= entry.getValue().getAllocationByteCount();
+                it.remove();
+            }
+        }
+        // Released images which failed to decode are not looked up again:
+        for (Iterator<TerminalImage> it = mPending.iterator(); it.hasNext(); )
+            if (it.next().isReleased()) it.remove();
+        mListener.run();
+    }
+
+}
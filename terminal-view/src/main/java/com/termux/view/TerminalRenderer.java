@@ -1,16 +1,24 @@
 package com.termux.view;
 
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Paint;
 import android.graphics.PorterDuff;
+import android.graphics.Rect;
+import android.graphics.RectF;
 import android.graphics.Typeface;
 
 import com.termux.terminal.TerminalBuffer;
 import com.termux.terminal.TerminalEmulator;
+import com.termux.terminal.TerminalImage;
 import com.termux.terminal.TerminalRow;
+import com.termux.terminal.TerminalSnapshot;
 import com.termux.terminal.TextStyle;
 import com.termux.terminal.WcWidth;
 
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+
 /**
  * Renderer of a {@link TerminalEmulator} into a {@link Canvas}.
  * <p/>
@@ -32,6 +40,33 @@ public final class TerminalRenderer {
     final int mFontLineSpacingAndAscent;
 
     private final float[] asciiMeasures = new float[127];
+    /** The measured widths of code points not in {@link #asciiMeasures}. */
+    private final GlyphWidthCache mGlyphWidths = new GlyphWidthCache();
+
+    /** Buffer into which the text of compact rows is inflated, see {@link TerminalRow#getText(char[])}. */
+    private char[] mLineBuffer = new char[0];
+    /** The clip bounds of the canvas being rendered to. */
+    private final Rect mClipBounds = new Rect();
+
+    /** The maximum number of rows in {@link #mRowLayouts}, which holds a few screens of rows. */
+    private static final int MAX_CACHED_ROW_LAYOUTS = 512;
+    /** The layouts of recently rendered rows without cursor or selection. */
+    private final IdentityHashMap<TerminalRow, TextRunLayout> mRowLayouts = new IdentityHashMap<>();
+    /** The layout of a row with cursor or selection, which is not cached. */
+    private final TextRunLayout mUncachedLayout = new TextRunLayout();
+    /**
+     * The palette and reverse video mode of the last render, a change of which increments {@link #mPaletteGeneration}
+     * so that cached layouts, which contain resolved colors, are no longer used.
+     */
+    private final int[] mLayoutPalette = new int[TextStyle.NUM_INDEXED_COLORS];
+    private boolean mLayoutReverseVideo;
+    private int mPaletteGeneration = 1;
+
+    /** The bitmaps of inline images to draw, or null to not draw images. */
+    TerminalImageCache mImageCache;
+    private final Paint mImagePaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Rect mImageSource = new Rect();
+    private final RectF mImageDestination = new RectF();
 
     public TerminalRenderer(int textSize, Typeface typeface) {
         mTextSize = textSize;
@@ -56,116 +91,242 @@ public final class TerminalRenderer {
     /** Render the terminal to a canvas with at a specified row scroll, and an optional rectangular selection. */
     public final void render(TerminalEmulator mEmulator, Canvas canvas, int topRow,
                              int selectionY1, int selectionY2, int selectionX1, int selectionX2) {
-        final boolean reverseVideo = mEmulator.isReverseVideo();
-        final int endRow = topRow + mEmulator.mRows;
-        final int columns = mEmulator.mColumns;
-        final int cursorCol = mEmulator.getCursorCol();
-        final int cursorRow = mEmulator.getCursorRow();
-        final boolean cursorVisible = mEmulator.shouldCursorBeVisible();
-        final TerminalBuffer screen = mEmulator.getScreen();
-        final int[] palette = mEmulator.mColors.mCurrentColors;
-        final int cursorShape = mEmulator.getCursorStyle();
-
-        if (reverseVideo)
-            canvas.drawColor(palette[TextStyle.COLOR_INDEX_FOREGROUND], PorterDuff.Mode.SRC);
+        if (mEmulator.isReverseVideo()) drawReverseVideoBackground(canvas, mEmulator.mColors.mCurrentColors);
+        render(canvas, mEmulator.getScreen(), null, topRow, mEmulator.mRows, mEmulator.mColumns, mEmulator.isReverseVideo(),
+            mEmulator.getCursorRow(), mEmulator.getCursorCol(), mEmulator.shouldCursorBeVisible(), mEmulator.mColors.mCurrentColors,
+            mEmulator.getCursorStyle(), selectionY1, selectionY2, selectionX1, selectionX2);
+    }
+
+    /**
+     * Render a snapshot of the screen taken by the emulation thread of a session, with an optional rectangular selection.
+     *
+     * @param cursorBlinkVisible If the cursor is in the visible part of its blink cycle, see
+     *                           {@link TerminalEmulator#shouldCursorBeVisible()}.
+     */
+    public final void render(TerminalSnapshot snapshot, boolean cursorBlinkVisible, Canvas canvas,
+                             int selectionY1, int selectionY2, int selectionX1, int selectionX2) {
+        if (snapshot.isReverseVideo()) drawReverseVideoBackground(canvas, snapshot.getColors());
+        render(canvas, null, snapshot, 0, snapshot.mRows, snapshot.mColumns, snapshot.isReverseVideo(),
+            snapshot.getCursorRow(), snapshot.getCursorCol(), snapshot.isCursorEnabled() && cursorBlinkVisible, snapshot.getColors(),
+            snapshot.getCursorStyle(), selectionY1, selectionY2, selectionX1, selectionX2);
+    }
+
+    /**
+     * Render a single row of the screen without a selection, as the top row of the canvas, and without the background
+     * of the reverse video mode, see {@link #drawReverseVideoBackground(Canvas, int[])}. Used to render the rows
+     * separately, see {@link RetainedRowRenderer}.
+     */
+    final void renderRow(TerminalEmulator emulator, Canvas canvas, int row) {
+        render(canvas, emulator.getScreen(), null, row, 1, emulator.mColumns, emulator.isReverseVideo(),
+            emulator.getCursorRow(), emulator.getCursorCol(), emulator.shouldCursorBeVisible(), emulator.mColors.mCurrentColors,
+            emulator.getCursorStyle(), -1, -1, -1, -1);
+    }
+
+    /** Like {@link #renderRow(TerminalEmulator, Canvas, int)} for a snapshot, see {@link #render(TerminalSnapshot, boolean, Canvas, int, int, int, int)}. */
+    final void renderRow(TerminalSnapshot snapshot, boolean cursorBlinkVisible, Canvas canvas, int row) {
+        render(canvas, null, snapshot, row, 1, snapshot.mColumns, snapshot.isReverseVideo(),
+            snapshot.getCursorRow(), snapshot.getCursorCol(), snapshot.isCursorEnabled() && cursorBlinkVisible, snapshot.getColors(),
+            snapshot.getCursorStyle(), -1, -1, -1, -1);
+    }
+
+    /** Fill the canvas with the foreground color, which is the background in reverse video mode. */
+    static void drawReverseVideoBackground(Canvas canvas, int[] palette) {
+        canvas.drawColor(palette[TextStyle.COLOR_INDEX_FOREGROUND], PorterDuff.Mode.SRC);
+    }
+
+    /** Render rows from either a screen or a snapshot of it. */
+    private void render(Canvas canvas, TerminalBuffer screen, TerminalSnapshot snapshot, int topRow, int rows, int columns,
+                        boolean reverseVideo, int cursorRow, int cursorCol, boolean cursorVisible, int[] palette, int cursorShape,
+                        int selectionY1, int selectionY2, int selectionX1, int selectionX2) {
+        final int endRow = topRow + rows;
+
+        if (mLineBuffer.length < columns) mLineBuffer = new char[columns];
+        // Only part of the view is redrawn if only some rows have been invalidated, in which case other rows are skipped:
+        if (!canvas.getClipBounds(mClipBounds)) return;
+
+        if (reverseVideo != mLayoutReverseVideo || !Arrays.equals(palette, mLayoutPalette)) {
+            System.arraycopy(palette, 0, mLayoutPalette, 0, mLayoutPalette.length);
+            mLayoutReverseVideo = reverseVideo;
+            mPaletteGeneration++;
+        }
 
         float heightOffset = mFontLineSpacingAndAscent;
         for (int row = topRow; row < endRow; row++) {
             heightOffset += mFontLineSpacing;
+            // A row may draw glyphs extending below it into the next row:
+            if (heightOffset - mFontLineSpacing >= mClipBounds.bottom || heightOffset + mFontLineSpacing <= mClipBounds.top) continue;
 
             final int cursorX = (row == cursorRow && cursorVisible) ? cursorCol : -1;
             int selx1 = -1, selx2 = -1;
             if (row >= selectionY1 && row <= selectionY2) {
                 if (row == selectionY1) selx1 = selectionX1;
-                selx2 = (row == selectionY2) ? selectionX2 : mEmulator.mColumns;
+                selx2 = (row == selectionY2) ? selectionX2 : columns;
             }
 
-            TerminalRow lineObject = screen.allocateFullLineIfNecessary(screen.externalToInternalRow(row));
-            final char[] line = lineObject.mText;
-            final int charsUsedInLine = lineObject.getSpaceUsed();
-
-            long lastRunStyle = 0;
-            boolean lastRunInsideCursor = false;
-            boolean lastRunInsideSelection = false;
-            int lastRunStartColumn = -1;
-            int lastRunStartIndex = 0;
-            boolean lastRunFontWidthMismatch = false;
-            int currentCharIndex = 0;
-            float measuredWidthForRun = 0.f;
-
-            for (int column = 0; column < columns; ) {
-                final char charAtIndex = line[currentCharIndex];
-                final boolean charIsHighsurrogate = Character.isHighSurrogate(charAtIndex);
-                final int charsForCodePoint = charIsHighsurrogate ? 2 : 1;
-                final int codePoint = charIsHighsurrogate ? Character.toCodePoint(charAtIndex, line[currentCharIndex + 1]) : charAtIndex;
-                final int codePointWcWidth = WcWidth.width(codePoint);
-                final boolean insideCursor = (cursorX == column || (codePointWcWidth == 2 && cursorX == column + 1));
-                final boolean insideSelection = column >= selx1 && column <= selx2;
-                final long style = lineObject.getStyle(column);
-
-                // Check if the measured text width for this code point is not the same as that expected by wcwidth().
-                // This could happen for some fonts which are not truly monospace, or for more exotic characters such as
-                // smileys which android font renders as wide.
-                // If this is detected, we draw this code point scaled to match what wcwidth() expects.
-                final float measuredCodePointWidth = (codePoint < asciiMeasures.length) ? asciiMeasures[codePoint] : mTextPaint.measureText(line,
-                    currentCharIndex, charsForCodePoint);
-                final boolean fontWidthMismatch = Math.abs(measuredCodePointWidth / mFontWidth - codePointWcWidth) > 0.01;
-
-                if (style != lastRunStyle || insideCursor != lastRunInsideCursor || insideSelection != lastRunInsideSelection || fontWidthMismatch || lastRunFontWidthMismatch) {
-                    if (column == 0) {
-                        // Skip first column as there is nothing to draw, just record the current style.
-                    } else {
-                        final int columnWidthSinceLastRun = column - lastRunStartColumn;
-                        final int charsSinceLastRun = currentCharIndex - lastRunStartIndex;
-                        int cursorColor = lastRunInsideCursor ? mEmulator.mColors.mCurrentColors[TextStyle.COLOR_INDEX_CURSOR] : 0;
-                        boolean invertCursorTextColor = false;
-                        if (lastRunInsideCursor && cursorShape == TerminalEmulator.TERMINAL_CURSOR_STYLE_BLOCK) {
-                            invertCursorTextColor = true;
-                        }
-                        drawTextRun(canvas, line, palette, heightOffset, lastRunStartColumn, columnWidthSinceLastRun,
-                            lastRunStartIndex, charsSinceLastRun, measuredWidthForRun,
-                            cursorColor, cursorShape, lastRunStyle, reverseVideo || invertCursorTextColor || lastRunInsideSelection);
-                    }
-                    measuredWidthForRun = 0.f;
-                    lastRunStyle = style;
-                    lastRunInsideCursor = insideCursor;
-                    lastRunInsideSelection = insideSelection;
-                    lastRunStartColumn = column;
-                    lastRunStartIndex = currentCharIndex;
-                    lastRunFontWidthMismatch = fontWidthMismatch;
+            final TerminalRow lineObject = (snapshot != null) ? snapshot.getLine(row) : screen.getLine(row);
+            final char[] line = lineObject.getText(mLineBuffer);
+
+            // Rows without cursor or selection are laid out as before if they have not changed since:
+            final TextRunLayout layout;
+            if (cursorX == -1 && selx2 == -1) {
+                layout = getCachedLayout(lineObject);
+                if (layout.mRowVersion != lineObject.getVersion() || layout.mPaletteGeneration != mPaletteGeneration) {
+                    layoutRow(layout, lineObject, line, columns, reverseVideo, -1, -1, -1, palette, cursorShape);
+                    layout.mRowVersion = lineObject.getVersion();
+                    layout.mPaletteGeneration = mPaletteGeneration;
                 }
-                measuredWidthForRun += measuredCodePointWidth;
-                column += codePointWcWidth;
-                currentCharIndex += charsForCodePoint;
-                while (currentCharIndex < charsUsedInLine && WcWidth.width(line, currentCharIndex) <= 0) {
-                    // Eat combining chars so that they are treated as part of the last non-combining code point,
-                    // instead of e.g. being considered inside the cursor in the next run.
-                    currentCharIndex += Character.isHighSurrogate(line[currentCharIndex]) ? 2 : 1;
+            } else {
+                layout = mUncachedLayout;
+                layoutRow(layout, lineObject, line, columns, reverseVideo, cursorX, selx1, selx2, palette, cursorShape);
+            }
+
+            for (int run = 0; run < layout.mRunCount; run++)
+                drawTextRun(canvas, line, palette, heightOffset, layout, run, cursorShape);
+            if (lineObject.hasImages() && mImageCache != null)
+                drawImages(canvas, screen, snapshot, lineObject, columns, heightOffset);
+        }
+    }
+
+    /** Draw the images shown in a row on top of its text, in runs of cells showing consecutive columns of an image row. */
+    private void drawImages(Canvas canvas, TerminalBuffer screen, TerminalSnapshot snapshot, TerminalRow lineObject, int columns, float y) {
+        for (int column = 0; column < columns; ) {
+            final long cell = lineObject.getImageCell(column);
+            final int imageId = TerminalImage.decodeCellImageId(cell);
+            int endColumn = column + 1;
+            if (imageId != 0) {
+                while (endColumn < columns && lineObject.getImageCell(endColumn) == cell + (endColumn - column)) endColumn++;
+                final TerminalImage image = (snapshot != null) ? snapshot.getImage(imageId) : screen.getImage(imageId);
+                if (image != null)
+                    drawImageRun(canvas, image, TerminalImage.decodeCellRow(cell), TerminalImage.decodeCellColumn(cell), column, endColumn - column, y);
+            }
+            column = endColumn;
+        }
+    }
+
+    /** Draw the part of an image shown by a run of cells in a row, which the image is scaled to the cells of this renderer for. */
+    private void drawImageRun(Canvas canvas, TerminalImage image, int imageRow, int imageColumn, int column, int runColumns, float y) {
+        // The size of the image in cells, of which the last column and row may only be partly covered:
+        final float imageColumns = image.mDisplayWidthPixels / (float) image.mCellWidthPixels;
+        final float imageRows = image.mDisplayHeightPixels / (float) image.mCellHeightPixels;
+        final Bitmap bitmap = mImageCache.get(image, (int) Math.ceil(imageColumns * mFontWidth), (int) Math.ceil(imageRows * mFontLineSpacing));
+        if (bitmap == null) return;
+
+        final float drawnColumns = Math.min(runColumns, imageColumns - imageColumn);
+        final float drawnRows = Math.min(1, imageRows - imageRow);
+        if (drawnColumns <= 0 || drawnRows <= 0) return;
+        final float top = y - mFontLineSpacing;
+        mImageDestination.set(column * mFontWidth, top, (column + drawnColumns) * mFontWidth, top + drawnRows * mFontLineSpacing);
+        mImageSource.set(Math.round(imageColumn / imageColumns * bitmap.getWidth()), Math.round(imageRow / imageRows * bitmap.getHeight()),
+            Math.round((imageColumn + drawnColumns) / imageColumns * bitmap.getWidth()), Math.round((imageRow + drawnRows) / imageRows * bitmap.getHeight()));
+        canvas.drawBitmap(bitmap, mImageSource, mImageDestination, mImagePaint);
+    }
+
+    /** Get the cached layout of a row, which is new and so not valid if the row has not been laid out recently. */
+    private TextRunLayout getCachedLayout(TerminalRow row) {
+        TextRunLayout layout = mRowLayouts.get(row);
+        if (layout == null) {
+            // Drop the layouts of rows which are no longer rendered, such as ones scrolled far into the transcript:
+            if (mRowLayouts.size() >= MAX_CACHED_ROW_LAYOUTS) mRowLayouts.clear();
+            layout = new TextRunLayout();
+            mRowLayouts.put(row, layout);
+        }
+        return layout;
+    }
+
+    /** Split a row into runs of columns which can be drawn with a single call, with the cursor and selection if any. */
+    private void layoutRow(TextRunLayout layout, TerminalRow lineObject, char[] line, int columns, boolean reverseVideo,
+                           int cursorX, int selx1, int selx2, int[] palette, int cursorShape) {
+        layout.clear();
+        final int charsUsedInLine = lineObject.getSpaceUsed();
+        final boolean uniformStyle = lineObject.hasUniformStyle();
+        final long lineStyle = uniformStyle ? lineObject.getStyle(0) : 0;
+
+        long lastRunStyle = 0;
+        boolean lastRunInsideCursor = false;
+        boolean lastRunInsideSelection = false;
+        int lastRunStartColumn = -1;
+        int lastRunStartIndex = 0;
+        boolean lastRunFontWidthMismatch = false;
+        int currentCharIndex = 0;
+        float measuredWidthForRun = 0.f;
+
+        for (int column = 0; column < columns; ) {
+            final char charAtIndex = line[currentCharIndex];
+            final boolean charIsHighsurrogate = Character.isHighSurrogate(charAtIndex);
+            final int charsForCodePoint = charIsHighsurrogate ? 2 : 1;
+            final int codePoint = charIsHighsurrogate ? Character.toCodePoint(charAtIndex, line[currentCharIndex + 1]) : charAtIndex;
+            final int codePointWcWidth = WcWidth.width(codePoint);
+            final boolean insideCursor = (cursorX == column || (codePointWcWidth == 2 && cursorX == column + 1));
+            final boolean insideSelection = column >= selx1 && column <= selx2;
+            final long style = uniformStyle ? lineStyle : lineObject.getStyle(column);
+
+            // Check if the measured text width for this code point is not the same as that expected by wcwidth().
+            // This could happen for some fonts which are not truly monospace, or for more exotic characters such as
+            // smileys which android font renders as wide.
+            // If this is detected, we draw this code point scaled to match what wcwidth() expects.
+            final float measuredCodePointWidth;
+            final boolean fontWidthMismatch;
+            if (codePoint < asciiMeasures.length) {
+                measuredCodePointWidth = asciiMeasures[codePoint];
+                fontWidthMismatch = isFontWidthMismatch(measuredCodePointWidth, codePointWcWidth);
+            } else {
+                int slot = mGlyphWidths.indexOf(codePoint);
+                if (slot < 0) {
+                    final float width = mTextPaint.measureText(line, currentCharIndex, charsForCodePoint);
+                    slot = mGlyphWidths.put(codePoint, width, isFontWidthMismatch(width, codePointWcWidth));
                 }
+                measuredCodePointWidth = mGlyphWidths.getWidth(slot);
+                fontWidthMismatch = mGlyphWidths.isWidthMismatch(slot);
             }
 
-            final int columnWidthSinceLastRun = columns - lastRunStartColumn;
-            final int charsSinceLastRun = currentCharIndex - lastRunStartIndex;
-            int cursorColor = lastRunInsideCursor ? mEmulator.mColors.mCurrentColors[TextStyle.COLOR_INDEX_CURSOR] : 0;
-            boolean invertCursorTextColor = false;
-            if (lastRunInsideCursor && cursorShape == TerminalEmulator.TERMINAL_CURSOR_STYLE_BLOCK) {
-                invertCursorTextColor = true;
+            if (style != lastRunStyle || insideCursor != lastRunInsideCursor || insideSelection != lastRunInsideSelection || fontWidthMismatch || lastRunFontWidthMismatch) {
+                if (column == 0) {
+                    // Skip first column as there is nothing to draw, just record the current style.
+                } else {
+                    addRun(layout, palette, lastRunStartColumn, column - lastRunStartColumn, lastRunStartIndex,
+                        currentCharIndex - lastRunStartIndex, measuredWidthForRun, lastRunStyle, lastRunInsideCursor,
+                        cursorShape, reverseVideo || lastRunInsideSelection);
+                }
+                measuredWidthForRun = 0.f;
+                lastRunStyle = style;
+                lastRunInsideCursor = insideCursor;
+                lastRunInsideSelection = insideSelection;
+                lastRunStartColumn = column;
+                lastRunStartIndex = currentCharIndex;
+                lastRunFontWidthMismatch = fontWidthMismatch;
+            }
+            measuredWidthForRun += measuredCodePointWidth;
+            column += codePointWcWidth;
+            currentCharIndex += charsForCodePoint;
+            while (currentCharIndex < charsUsedInLine && WcWidth.width(line, currentCharIndex) <= 0) {
+                // Eat combining chars so that they are treated as part of the last non-combining code point,
+                // instead of e.g. being considered inside the cursor in the next run.
+                currentCharIndex += Character.isHighSurrogate(line[currentCharIndex]) ? 2 : 1;
             }
-            drawTextRun(canvas, line, palette, heightOffset, lastRunStartColumn, columnWidthSinceLastRun, lastRunStartIndex, charsSinceLastRun,
-                measuredWidthForRun, cursorColor, cursorShape, lastRunStyle, reverseVideo || invertCursorTextColor || lastRunInsideSelection);
         }
+
+        addRun(layout, palette, lastRunStartColumn, columns - lastRunStartColumn, lastRunStartIndex,
+            currentCharIndex - lastRunStartIndex, measuredWidthForRun, lastRunStyle, lastRunInsideCursor, cursorShape,
+            reverseVideo || lastRunInsideSelection);
     }
 
-    private void drawTextRun(Canvas canvas, char[] text, int[] palette, float y, int startColumn, int runWidthColumns,
-                             int startCharIndex, int runWidthChars, float mes, int cursor, int cursorStyle,
-                             long textStyle, boolean reverseVideo) {
+    private boolean isFontWidthMismatch(float measuredWidth, int wcWidth) {
+        return Math.abs(measuredWidth / mFontWidth - wcWidth) > 0.01;
+    }
+
+    /** Resolve the colors of a run and add it to a layout. */
+    private void addRun(TextRunLayout layout, int[] palette, int startColumn, int runWidthColumns, int startCharIndex,
+                        int runWidthChars, float mes, long textStyle, boolean insideCursor, int cursorStyle, boolean reverseVideo) {
+        final int cursor = insideCursor ? palette[TextStyle.COLOR_INDEX_CURSOR] : 0;
+        if (insideCursor && cursorStyle == TerminalEmulator.TERMINAL_CURSOR_STYLE_BLOCK) {
+            // Invert the text color inside a block cursor:
+            reverseVideo = true;
+        }
+
         int foreColor = TextStyle.decodeForeColor(textStyle);
         final int effect = TextStyle.decodeEffect(textStyle);
         int backColor = TextStyle.decodeBackColor(textStyle);
         final boolean bold = (effect & (TextStyle.CHARACTER_ATTRIBUTE_BOLD | TextStyle.CHARACTER_ATTRIBUTE_BLINK)) != 0;
-        final boolean underline = (effect & TextStyle.CHARACTER_ATTRIBUTE_UNDERLINE) != 0;
-        final boolean italic = (effect & TextStyle.CHARACTER_ATTRIBUTE_ITALIC) != 0;
-        final boolean strikeThrough = (effect & TextStyle.CHARACTER_ATTRIBUTE_STRIKETHROUGH) != 0;
         final boolean dim = (effect & TextStyle.CHARACTER_ATTRIBUTE_DIM) != 0;
 
         if ((foreColor & 0xff000000) != 0xff000000) {
@@ -186,10 +347,33 @@ public final class TerminalRenderer {
             backColor = tmp;
         }
 
-        float left = startColumn * mFontWidth;
+        if (dim) {
+            int red = (0xFF & (foreColor >> 16));
+            int green = (0xFF & (foreColor >> 8));
+            int blue = (0xFF & foreColor);
+            // Dim color handling used by libvte which in turn took it from xterm
+            // (https://bug735245.bugzilla-attachments.gnome.org/attachment.cgi?id=284267):
+            red = red * 2 / 3;
+            green = green * 2 / 3;
+            blue = blue * 2 / 3;
+            foreColor = 0xFF000000 + (red << 16) + (green << 8) + blue;
+        }
+
+        layout.addRun(startColumn, runWidthColumns, startCharIndex, runWidthChars, mes, effect, foreColor, backColor, cursor);
+    }
+
+    private void drawTextRun(Canvas canvas, char[] text, int[] palette, float y, TextRunLayout layout, int run, int cursorStyle) {
+        final int runWidthColumns = layout.mColumnWidths[run];
+        final int startCharIndex = layout.mStartCharIndices[run];
+        final int runWidthChars = layout.mCharCounts[run];
+        final int effect = layout.mEffects[run];
+        final int backColor = layout.mBackColors[run];
+        final int cursor = layout.mCursorColors[run];
+
+        float left = layout.mStartColumns[run] * mFontWidth;
         float right = left + runWidthColumns * mFontWidth;
 
-        mes = mes / mFontWidth;
+        final float mes = layout.mMeasuredWidths[run] / mFontWidth;
         boolean savedMatrix = false;
         if (Math.abs(mes - runWidthColumns) > 0.01) {
             canvas.save();
@@ -214,23 +398,11 @@ public final class TerminalRenderer {
         }
 
         if ((effect & TextStyle.CHARACTER_ATTRIBUTE_INVISIBLE) == 0) {
-            if (dim) {
-                int red = (0xFF & (foreColor >> 16));
-                int green = (0xFF & (foreColor >> 8));
-                int blue = (0xFF & foreColor);
-                // Dim color handling used by libvte which in turn took it from xterm
-                // (https://bug735245.bugzilla-attachments.gnome.org/attachment.cgi?id=284267):
-                red = red * 2 / 3;
-                green = green * 2 / 3;
-                blue = blue * 2 / 3;
-                foreColor = 0xFF000000 + (red << 16) + (green << 8) + blue;
-            }
-
-            mTextPaint.setFakeBoldText(bold);
-            mTextPaint.setUnderlineText(underline);
-            mTextPaint.setTextSkewX(italic ? -0.35f : 0.f);
-            mTextPaint.setStrikeThruText(strikeThrough);
-            mTextPaint.setColor(foreColor);
+            mTextPaint.setFakeBoldText((effect & (TextStyle.CHARACTER_ATTRIBUTE_BOLD | TextStyle.CHARACTER_ATTRIBUTE_BLINK)) != 0);
+            mTextPaint.setUnderlineText((effect & TextStyle.CHARACTER_ATTRIBUTE_UNDERLINE) != 0);
+            mTextPaint.setTextSkewX((effect & TextStyle.CHARACTER_ATTRIBUTE_ITALIC) != 0 ? -0.35f : 0.f);
+            mTextPaint.setStrikeThruText((effect & TextStyle.CHARACTER_ATTRIBUTE_STRIKETHROUGH) != 0);
+            mTextPaint.setColor(layout.mForeColors[run]);
 
             // The text alignment is the default Paint.Align.LEFT.
             canvas.drawTextRun(text, startCharIndex, runWidthChars, startCharIndex, runWidthChars, left, y - mFontLineSpacingAndAscent, false, mTextPaint);
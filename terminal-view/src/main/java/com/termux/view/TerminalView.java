@@ -7,6 +7,7 @@ import android.content.ClipData;
 import android.content.ClipboardManager;
 import android.content.Context;
 import android.graphics.Canvas;
+import android.graphics.Paint;
 import android.graphics.Typeface;
 import android.os.Build;
 import android.os.Handler;
@@ -38,10 +39,16 @@ import androidx.annotation.Nullable;
 import androidx.annotation.RequiresApi;
 
 import com.termux.terminal.KeyHandler;
+import com.termux.terminal.SearchMatch;
+import com.termux.terminal.TerminalBuffer;
 import com.termux.terminal.TerminalEmulator;
 import com.termux.terminal.TerminalSession;
+import com.termux.terminal.TerminalSnapshot;
 import com.termux.view.textselection.TextSelectionCursorController;
 
+import java.util.BitSet;
+import java.util.List;
+
 /** View displaying and interacting with a {@link TerminalSession}. */
 public final class TerminalView extends View {
 
@@ -52,9 +59,37 @@ public final class TerminalView extends View {
     public TerminalSession mTermSession;
     /** Our terminal emulator whose session is {@link #mTermSession}. */
     public TerminalEmulator mEmulator;
+    /**
+     * The snapshot of the screen taken by the emulation thread of {@link #mTermSession} as of the last screen update,
+     * or null if the session has no emulation thread or the snapshot cannot be used, see
+     * {@link TerminalSession#getScreenSnapshot()}.
+     */
+    private TerminalSnapshot mScreenSnapshot;
+    /**
+     * The {@link TerminalSnapshot#getNumber()} of the snapshot whose changes have been taken by the last screen update,
+     * or -1 if the screen has been updated from the emulator since.
+     */
+    private long mScreenSnapshotNumber = -1;
+    /** The rows changed by the last screen update, see {@link TerminalEmulator#takeDamage(BitSet)}. */
+    private final BitSet mDamagedRows = new BitSet();
+
+    /** If rows should be rendered with {@link #mRetainedRowRenderer} when possible. */
+    private boolean mRetainedRenderingEnabled = true;
+    /** Created when first used, which is only on hardware accelerated canvases from Android 10 on. */
+    private RetainedRowRenderer mRetainedRowRenderer;
 
     public TerminalRenderer mRenderer;
 
+    /** The decoded inline images, kept across renderers since images are scaled to the font size when drawn. */
+    private final TerminalImageCache mImageCache = new TerminalImageCache(TerminalImageCache.DEFAULT_MAX_BYTES, new Runnable() {
+        @Override
+        public void run() {
+            // The rows showing the decoded image were drawn without it:
+            if (mRetainedRowRenderer != null) mRetainedRowRenderer.invalidateAll();
+            invalidate();
+        }
+    });
+
     public TerminalViewClient mClient;
 
     private TextSelectionCursorController mTextSelectionCursorController;
@@ -68,6 +103,18 @@ public final class TerminalView extends View {
 
     /** The top row of text to display. Ranges from -activeTranscriptRows to 0. */
     int mTopRow;
+
+    /** The maximum number of matches found by {@link #search(String, boolean)}. */
+    public static final int MAX_SEARCH_MATCHES = 1000;
+    private static final int SEARCH_MATCH_COLOR = 0x60FFFF00;
+    private static final int CURRENT_SEARCH_MATCH_COLOR = 0xA0FF9900;
+    /** The highlighted matches of the last search, or null if none, see {@link #search(String, boolean)}. */
+    private List<SearchMatch> mSearchMatches;
+    /** The index of the match scrolled to with {@link #scrollToSearchMatch(int)}, or -1 if none. */
+    private int mCurrentSearchMatch = -1;
+    /** The number of rows the screen has scrolled since the search, which the rows of matches have moved up by. */
+    private int mSearchMatchesRowShift;
+    private final Paint mSearchMatchPaint = new Paint();
     int[] mDefaultSelectors = new int[]{-1,-1,-1,-1};
 
     float mScaleFactor = 1.f;
@@ -162,6 +209,8 @@ public final class TerminalView extends View {
                     return true;
                 }
                 requestFocus();
+                String hyperlink = getHyperlinkAt(event);
+                if (hyperlink != null && mClient.onHyperlinkClicked(hyperlink)) return true;
                 mClient.onSingleTapUp(event);
                 return true;
             }
@@ -293,6 +342,9 @@ public final class TerminalView extends View {
 
         mTermSession = session;
         mEmulator = null;
+        mScreenSnapshot = null;
+        mScreenSnapshotNumber = -1;
+        mSearchMatches = null;
         mCombiningAccent = 0;
 
         updateSize();
@@ -457,6 +509,60 @@ public final class TerminalView extends View {
     public void onScreenUpdated(boolean skipScrolling) {
         if (mEmulator == null) return;
 
+        final int oldTopRow = mTopRow;
+        int scrolledRows = 0;
+        mScreenSnapshot = mTermSession.getScreenSnapshot();
+        synchronized (mEmulator) {
+            skipScrolling = updateTopRow(skipScrolling);
+            if (mScreenSnapshot != null) {
+                // The emulation thread has taken the changed rows when taking the snapshot, which are relative to the
+                // snapshot before it if that is the one whose changes were taken last:
+                if (mScreenSnapshot.getNumber() != mScreenSnapshotNumber) {
+                    if (mScreenSnapshot.getPreviousNumber() == mScreenSnapshotNumber) {
+                        mDamagedRows.or(mScreenSnapshot.getDamagedRows());
+                        scrolledRows = mScreenSnapshot.getScrolledRows();
+                    } else {
+                        mDamagedRows.set(0, mEmulator.mRows);
+                    }
+                    mScreenSnapshotNumber = mScreenSnapshot.getNumber();
+                }
+            } else if (mTermSession.hasEmulationThread()) {
+                mDamagedRows.set(0, mEmulator.mRows);
+                mScreenSnapshotNumber = -1;
+            } else {
+                scrolledRows = mEmulator.takeDamage(mDamagedRows);
+            }
+        }
+
+        if (mRetainedRowRenderer != null) mRetainedRowRenderer.scroll(scrolledRows);
+        if (oldTopRow == 0 && mTopRow == 0 && !isSelectingText()) {
+            // Only redraw the changed rows, which matters for software rendering where the renderer skips the others:
+            for (int row = mDamagedRows.nextSetBit(0); row >= 0; ) {
+                final int endRow = mDamagedRows.nextClearBit(row);
+                invalidateRows(row, endRow);
+                row = mDamagedRows.nextSetBit(endRow);
+            }
+            // The other rows have moved if the screen has scrolled:
+            if (scrolledRows > 0) invalidate();
+        } else {
+            invalidate();
+        }
+        mDamagedRows.clear();
+        if (mAccessibilityEnabled) setContentDescription(getText());
+    }
+
+    /** Invalidate the area drawn by rows from the first to the last (exclusive) one, counted from the top of the view. */
+    private void invalidateRows(int firstRow, int lastRow) {
+        if (mRetainedRowRenderer != null) mRetainedRowRenderer.invalidateRows(firstRow, lastRow);
+        final int top = mRenderer.mFontLineSpacingAndAscent + firstRow * mRenderer.mFontLineSpacing;
+        // Include the next row, into which glyphs such as those with descenders may extend:
+        final int bottom = mRenderer.mFontLineSpacingAndAscent + (lastRow + 1) * mRenderer.mFontLineSpacing;
+        invalidate(0, top, getWidth(), bottom);
+    }
+
+    /** Keep or reset the scroll position after the screen has been updated, called with the emulator locked. */
+    private boolean updateTopRow(boolean skipScrolling) {
+
         int rowsInHistory = mEmulator.getScreen().getActiveTranscriptRows();
         if (mTopRow < -rowsInHistory) mTopRow = -rowsInHistory;
 
@@ -492,10 +598,9 @@ public final class TerminalView extends View {
             mTopRow = 0;
         }
 
+        mSearchMatchesRowShift += mEmulator.getScrollCounter();
         mEmulator.clearScrollCounter();
-
-        invalidate();
-        if (mAccessibilityEnabled) setContentDescription(getText());
+        return skipScrolling;
     }
 
     /** This must be called by the hosting activity in {@link Activity#onContextMenuClosed(Menu)}
@@ -513,11 +618,13 @@ public final class TerminalView extends View {
      */
     public void setTextSize(int textSize) {
         mRenderer = new TerminalRenderer(textSize, mRenderer == null ? Typeface.MONOSPACE : mRenderer.mTypeface);
+        mRenderer.mImageCache = mImageCache;
         updateSize();
     }
 
     public void setTypeface(Typeface newTypeface) {
         mRenderer = new TerminalRenderer(mRenderer.mTextSize, newTypeface);
+        mRenderer.mImageCache = mImageCache;
         updateSize();
         invalidate();
     }
@@ -552,6 +659,17 @@ public final class TerminalView extends View {
         return new int[] { column, row };
     }
 
+    /** Get the target of the OSC 8 hyperlink at the cell of a touch event, or null if none. */
+    public String getHyperlinkAt(MotionEvent event) {
+        if (mEmulator == null) return null;
+        int[] columnAndRow = getColumnAndRow(event, true);
+        synchronized (mEmulator) {
+            TerminalBuffer screen = mEmulator.getScreen();
+            if (columnAndRow[1] < -screen.getActiveTranscriptRows() || columnAndRow[1] >= mEmulator.mRows) return null;
+            return screen.getHyperlinkAt(columnAndRow[1], columnAndRow[0]);
+        }
+    }
+
     /** Send a single mouse event code to the terminal. */
     void sendMouseEventCode(MotionEvent e, int button, boolean pressed) {
         int[] columnAndRow = getColumnAndRow(e, false);
@@ -991,6 +1109,10 @@ public final class TerminalView extends View {
         if (mEmulator == null || (newColumns != mEmulator.mColumns || newRows != mEmulator.mRows)) {
             mTermSession.updateSize(newColumns, newRows, (int) mRenderer.getFontWidth(), mRenderer.getFontLineSpacing());
             mEmulator = mTermSession.getEmulator();
+            mScreenSnapshot = null;
+            mScreenSnapshotNumber = -1;
+            // The rows of the transcript may have been reflowed:
+            mSearchMatches = null;
             mClient.onEmulatorSet();
 
             // Update mTerminalCursorBlinkerRunnable inner class mEmulator on session change
@@ -1014,19 +1136,130 @@ public final class TerminalView extends View {
                 mTextSelectionCursorController.getSelectors(sel);
             }
 
-            mRenderer.render(mEmulator, canvas, mTopRow, sel[0], sel[1], sel[2], sel[3]);
+            // Draw the snapshot published by the emulation thread of the session if any, which needs no locking:
+            TerminalSnapshot snapshot = (mTopRow == 0) ? mScreenSnapshot : null;
+            if (snapshot != null && (snapshot.mRows != mEmulator.mRows || snapshot.mColumns != mEmulator.mColumns)) snapshot = null;
+
+            if (canUseRetainedRendering(canvas) && (snapshot != null || !mTermSession.hasEmulationThread())) {
+                if (mRetainedRowRenderer == null) mRetainedRowRenderer = new RetainedRowRenderer();
+                if (snapshot != null) {
+                    mRetainedRowRenderer.draw(canvas, mRenderer, mEmulator, snapshot, mEmulator.shouldCursorBeVisible(), getWidth());
+                } else {
+                    synchronized (mEmulator) {
+                        mRetainedRowRenderer.draw(canvas, mRenderer, mEmulator, null, false, getWidth());
+                    }
+                }
+            } else if (snapshot != null) {
+                if (mRetainedRowRenderer != null) mRetainedRowRenderer.invalidateAll();
+                mRenderer.render(snapshot, mEmulator.shouldCursorBeVisible(), canvas, sel[0], sel[1], sel[2], sel[3]);
+            } else {
+                // Rows drawn from a snapshot later cannot be drawn retained from this:
+                if (mRetainedRowRenderer != null) mRetainedRowRenderer.invalidateAll();
+                mScreenSnapshotNumber = -1;
+                synchronized (mEmulator) {
+                    // The transcript may have shrunk by being reflowed since the last update:
+                    int rowsInHistory = mEmulator.getScreen().getActiveTranscriptRows();
+                    if (mTopRow < -rowsInHistory) mTopRow = -rowsInHistory;
+
+                    mRenderer.render(mEmulator, canvas, mTopRow, sel[0], sel[1], sel[2], sel[3]);
+                }
+            }
+
+            drawSearchMatches(canvas);
 
             // render the text selection handles
             renderTextSelection();
         }
     }
 
+    /**
+     * Set if the rows of the screen should be kept rendered between frames when possible, so that only changed rows
+     * and rows revealed by scrolling need to be rendered again. This requires hardware acceleration and Android 10, and
+     * is only done while not scrolled back or selecting text. Enabled by default.
+     */
+    public void setRetainedRenderingEnabled(boolean enabled) {
+        mRetainedRenderingEnabled = enabled;
+        if (!enabled) mRetainedRowRenderer = null;
+        invalidate();
+    }
+
+    private boolean canUseRetainedRendering(Canvas canvas) {
+        return mRetainedRenderingEnabled && Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q && canvas.isHardwareAccelerated()
+            && mTopRow == 0 && !isSelectingText();
+    }
+
+    /**
+     * Find text in the transcript and on the screen and highlight the matches, of which at most
+     * {@link #MAX_SEARCH_MATCHES} are found, see {@link com.termux.terminal.TerminalBuffer#find(String, boolean, int)}.
+     * The matches can be scrolled to with {@link #scrollToSearchMatch(int)}.
+     *
+     * @return the matches, top to bottom, with rows as of the search.
+     */
+    public List<SearchMatch> search(String text, boolean ignoreCase) {
+        if (mEmulator == null || text.isEmpty()) {
+            clearSearch();
+            return null;
+        }
+        synchronized (mEmulator) {
+            // Take the rows scrolled since the last update, so that the matches only move with later scrolling:
+            updateTopRow(true);
+            mSearchMatches = mEmulator.getScreen().find(text, ignoreCase, MAX_SEARCH_MATCHES);
+        }
+        mSearchMatchesRowShift = 0;
+        mCurrentSearchMatch = -1;
+        invalidate();
+        return mSearchMatches;
+    }
+
+    /** Remove the highlighted matches of the last {@link #search(String, boolean)}. */
+    public void clearSearch() {
+        mSearchMatches = null;
+        mCurrentSearchMatch = -1;
+        invalidate();
+    }
+
+    /** Scroll to show a match found by the last {@link #search(String, boolean)}, which is then highlighted as current. */
+    public void scrollToSearchMatch(int index) {
+        if (mSearchMatches == null || index < 0 || index >= mSearchMatches.size()) return;
+        mCurrentSearchMatch = index;
+        final int row = mSearchMatches.get(index).mStartRow - mSearchMatchesRowShift;
+        synchronized (mEmulator) {
+            final int rowsInHistory = mEmulator.getScreen().getActiveTranscriptRows();
+            // Place the match in the middle of the view if possible:
+            mTopRow = Math.min(0, Math.max(-rowsInHistory, row - mEmulator.mRows / 2));
+        }
+        awakenScrollBars();
+        invalidate();
+    }
+
+    private void drawSearchMatches(Canvas canvas) {
+        if (mSearchMatches == null) return;
+        final int columns = mEmulator.mColumns;
+        final int endRow = mTopRow + mEmulator.mRows;
+        for (int i = 0; i < mSearchMatches.size(); i++) {
+            final SearchMatch match = mSearchMatches.get(i);
+            final int startRow = match.mStartRow - mSearchMatchesRowShift;
+            final int lastRow = match.mEndRow - mSearchMatchesRowShift;
+            if (lastRow < mTopRow || startRow >= endRow) continue;
+            mSearchMatchPaint.setColor(i == mCurrentSearchMatch ? CURRENT_SEARCH_MATCH_COLOR : SEARCH_MATCH_COLOR);
+            for (int row = Math.max(startRow, mTopRow); row <= lastRow && row < endRow; row++) {
+                final int startColumn = (row == startRow) ? match.mStartColumn : 0;
+                final int endColumn = (row == lastRow) ? match.mEndColumn : columns;
+                final float top = mRenderer.mFontLineSpacingAndAscent + (row - mTopRow) * mRenderer.mFontLineSpacing;
+                canvas.drawRect(startColumn * mRenderer.mFontWidth, top, endColumn * mRenderer.mFontWidth,
+                    top + mRenderer.mFontLineSpacing, mSearchMatchPaint);
+            }
+        }
+    }
+
     public TerminalSession getCurrentSession() {
         return mTermSession;
     }
 
     private CharSequence getText() {
-        return mEmulator.getScreen().getSelectedText(0, mTopRow, mEmulator.mColumns, mTopRow + mEmulator.mRows);
+        synchronized (mEmulator) {
+            return mEmulator.getScreen().getSelectedText(0, mTopRow, mEmulator.mColumns, mTopRow + mEmulator.mRows);
+        }
     }
 
     public int getCursorX(float x) {
@@ -1329,7 +1562,8 @@ public final class TerminalView extends View {
                     mCursorVisible = !mCursorVisible;
                     //mClient.logVerbose(LOG_TAG, "Toggling cursor blink state to " + mCursorVisible);
                     mEmulator.setCursorBlinkState(mCursorVisible);
-                    invalidate();
+                    final int cursorRow = (mScreenSnapshot != null ? mScreenSnapshot.getCursorRow() : mEmulator.getCursorRow()) - mTopRow;
+                    invalidateRows(cursorRow, cursorRow + 1);
                 }
             } finally {
                 // Recall the Runnable after mBlinkRate milliseconds to toggle the blink state
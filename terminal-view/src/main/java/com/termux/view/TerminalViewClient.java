@@ -28,6 +28,13 @@ public interface TerminalViewClient {
      */
     void onSingleTapUp(MotionEvent e);
 
+    /**
+     * On a single tap on text which is part of an OSC 8 hyperlink.
+     *
+     * @return true if handled, or false to handle the tap with {@link #onSingleTapUp(MotionEvent)}.
+     */
+    boolean onHyperlinkClicked(String uri);
+
     boolean shouldBackButtonBeMappedToEscape();
 
     boolean shouldEnforceCharBasedInput();
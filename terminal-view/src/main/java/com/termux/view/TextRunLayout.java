@@ -0,0 +1,65 @@
+package com.termux.view;
+
+import com.termux.terminal.TerminalRow;
+
+import java.util.Arrays;
+
+/**
+ * The text runs of a row laid out by a {@link TerminalRenderer}, each of which is a range of columns drawn with a
+ * single call, along with their resolved colors.
+ * <p>
+ * Layouts of rows without the cursor or a selection are cached by the renderer and reused for as long as neither the
+ * row, see {@link TerminalRow#getVersion()}, nor the palette has changed.
+ */
+final class TextRunLayout {
+
+    /** The {@link TerminalRow#getVersion()} of the row laid out. */
+    int mRowVersion;
+    /** The palette generation of the renderer when laid out, which starts at 1 so that a new layout is never valid. */
+    int mPaletteGeneration;
+
+    int mRunCount;
+    int[] mStartColumns = new int[8];
+    int[] mColumnWidths = new int[8];
+    int[] mStartCharIndices = new int[8];
+    int[] mCharCounts = new int[8];
+    /** The measured width of the text of each run, which is scaled to the run width if it differs. */
+    float[] mMeasuredWidths = new float[8];
+    /** The {@link com.termux.terminal.TextStyle} effect bits of each run. */
+    int[] mEffects = new int[8];
+    int[] mForeColors = new int[8];
+    int[] mBackColors = new int[8];
+    /** The color of the cursor drawn in each run, or 0 if the run is not inside the cursor. */
+    int[] mCursorColors = new int[8];
+
+    void clear() {
+        mRunCount = 0;
+    }
+
+    void addRun(int startColumn, int columnWidth, int startCharIndex, int charCount, float measuredWidth, int effect,
+                int foreColor, int backColor, int cursorColor) {
+        if (mRunCount == mStartColumns.length) {
+            final int capacity = mRunCount * 2;
+            mStartColumns = Arrays.copyOf(mStartColumns, capacity);
+            mColumnWidths = Arrays.copyOf(mColumnWidths, capacity);
+            mStartCharIndices = Arrays.copyOf(mStartCharIndices, capacity);
+            mCharCounts = Arrays.copyOf(mCharCounts, capacity);
+            mMeasuredWidths = Arrays.copyOf(mMeasuredWidths, capacity);
+            mEffects = Arrays.copyOf(mEffects, capacity);
+            mForeColors = Arrays.copyOf(mForeColors, capacity);
+            mBackColors = Arrays.copyOf(mBackColors, capacity);
+            mCursorColors = Arrays.copyOf(mCursorColors, capacity);
+        }
+        final int run = mRunCount++;
+        mStartColumns[run] = startColumn;
+        mColumnWidths[run] = columnWidth;
+        mStartCharIndices[run] = startCharIndex;
+        mCharCounts[run] = charCount;
+        mMeasuredWidths[run] = measuredWidth;
+        mEffects[run] = effect;
+        mForeColors[run] = foreColor;
+        mBackColors[run] = backColor;
+        mCursorColors[run] = cursorColor;
+    }
+
+}
@@ -167,6 +167,8 @@ public class ExecutionCommand {
 
     /** The terminal transcript rows for the {@link ExecutionCommand}. */
     public Integer terminalTranscriptRows;
+    /** The file to store rows scrolled out of the terminal transcript in for the {@link ExecutionCommand}, if the transcript is unlimited. */
+    public String terminalTranscriptSpillFilePath;
 
 
     /** The {@link Runner} for the {@link ExecutionCommand}. */
@@ -18,7 +18,7 @@ import java.util.List;
 import java.util.Set;
 
 /*
- * Version: v0.18.0
+ * Version: v0.20.0
  * SPDX-License-Identifier: MIT
  *
  * Changelog
@@ -80,6 +80,12 @@ import java.util.Set;
  *
  * - 0.18.0 (2022-06-13)
  *      - Add `KEY_DISABLE_FILE_SHARE_RECEIVER` and `KEY_DISABLE_FILE_VIEW_RECEIVER`.
+ *
+ * - 0.19.0 (2026-10-17)
+ *      - Add `KEY_TERMINAL_TRANSCRIPT_UNLIMITED`.
+ *
+ * - 0.20.0 (2026-10-17)
+ *      - Add `KEY_TERMINAL_EMULATION_THREAD`.
  */
 
 /**
@@ -142,6 +148,16 @@ public final class TermuxPropertyConstants {
 
 
 
+    /** Defines the key for whether rows scrolled out of the terminal transcript are kept in a file in the cache directory */
+    public static final String KEY_TERMINAL_TRANSCRIPT_UNLIMITED =  "terminal-transcript-unlimited"; // Default: "terminal-transcript-unlimited"
+
+
+
+    /** Defines the key for whether terminal output is emulated on a separate thread per session instead of the main thread */
+    public static final String KEY_TERMINAL_EMULATION_THREAD =  "terminal-emulation-thread"; // Default: "terminal-emulation-thread"
+
+
+
     /** Defines the key for whether to use black UI */
     @Deprecated
     public static final String KEY_USE_BLACK_UI =  "use-black-ui"; // Default: "use-black-ui"
@@ -399,7 +415,9 @@ public final class TermuxPropertyConstants {
         KEY_EXTRA_KEYS_TEXT_ALL_CAPS,
         KEY_HIDE_SOFT_KEYBOARD_ON_STARTUP,
         KEY_RUN_TERMUX_AM_SOCKET_SERVER,
+        KEY_TERMINAL_EMULATION_THREAD,
         KEY_TERMINAL_ONCLICK_URL_OPEN,
+        KEY_TERMINAL_TRANSCRIPT_UNLIMITED,
         KEY_USE_CTRL_SPACE_WORKAROUND,
         KEY_USE_FULLSCREEN,
         KEY_USE_FULLSCREEN_WORKAROUND,
@@ -445,7 +463,9 @@ public final class TermuxPropertyConstants {
         KEY_DISABLE_TERMINAL_SESSION_CHANGE_TOAST,
         KEY_ENFORCE_CHAR_BASED_INPUT,
         KEY_HIDE_SOFT_KEYBOARD_ON_STARTUP,
+        KEY_TERMINAL_EMULATION_THREAD,
         KEY_TERMINAL_ONCLICK_URL_OPEN,
+        KEY_TERMINAL_TRANSCRIPT_UNLIMITED,
         KEY_USE_CTRL_SPACE_WORKAROUND,
         KEY_USE_FULLSCREEN,
         KEY_USE_FULLSCREEN_WORKAROUND,
@@ -8,6 +8,7 @@ import androidx.annotation.Nullable;
 
 import com.google.common.base.Joiner;
 import com.termux.shared.R;
+import com.termux.shared.data.DataUtils;
 import com.termux.shared.shell.command.ExecutionCommand;
 import com.termux.shared.shell.command.environment.ShellEnvironmentUtils;
 import com.termux.shared.shell.command.environment.UnixShellEnvironment;
@@ -161,6 +162,13 @@ public class TermuxSession {
             terminalSession.mSessionName = executionCommand.shellName;
         }
 
+        // Copies larger than what ShareUtils.copyTextToClipboard() puts in the clipboard are ignored instead of truncated:
+        terminalSession.setMaxClipboardBytes(DataUtils.TRANSACTION_SIZE_LIMIT_IN_BYTES);
+
+        if (executionCommand.terminalTranscriptSpillFilePath != null) {
+            terminalSession.setTranscriptSpillFile(new File(executionCommand.terminalTranscriptSpillFilePath));
+        }
+
         return new TermuxSession(terminalSession, executionCommand, termuxSessionClient, setStdoutOnExit);
     }
 
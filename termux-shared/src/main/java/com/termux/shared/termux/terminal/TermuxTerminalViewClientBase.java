@@ -21,6 +21,11 @@ public class TermuxTerminalViewClientBase implements TerminalViewClient {
     public void onSingleTapUp(MotionEvent e) {
     }
 
+    @Override
+    public boolean onHyperlinkClicked(String uri) {
+        return false;
+    }
+
     public boolean shouldBackButtonBeMappedToEscape() {
         return false;
     }